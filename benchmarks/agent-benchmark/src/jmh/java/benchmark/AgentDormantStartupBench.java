@@ -0,0 +1,78 @@
+package benchmark;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time it takes to start a JVM with the BTrace agent waiting for the client
+ * connections, with and without the dormant mode. A dormant agent defers initializing the runtime
+ * and registering the class transformer until the first client connects.
+ *
+ * <p>The agent jar is taken from the {@code btrace.agent.jar} system property.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+public class AgentDormantStartupBench {
+  @Param({"false", "true"})
+  public boolean dormant;
+
+  private List<String> command;
+
+  @Setup
+  public void setup() {
+    String agentJar = System.getProperty("btrace.agent.jar");
+    if (agentJar == null) {
+      throw new IllegalStateException("btrace.agent.jar must be set");
+    }
+    command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-javaagent:" + agentJar + "=stdout=false,debug=false,dormant=" + dormant);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(AgentStartupBench.Target.class.getName());
+  }
+
+  @Warmup(iterations = 2)
+  @Measurement(iterations = 10)
+  @Benchmark
+  public int testAgentStartup() throws Exception {
+    Process p =
+        new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "btrace-dormant.log"))
+            .start();
+    int exitCode = p.waitFor();
+    if (exitCode != 0) {
+      throw new IllegalStateException("The traced application failed: " + exitCode);
+    }
+    return exitCode;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + AgentDormantStartupBench.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,97 @@
+package benchmark;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time it takes to start a JVM with the BTrace agent running a number of startup
+ * scripts. The loaded classes are retransformed in one pass for all the scripts, so the time
+ * should grow only slightly with the number of the scripts.
+ *
+ * <p>The agent jar and the compiled script are taken from the {@code btrace.agent.jar} and {@code
+ * btrace.script} system properties.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+public class AgentStartupBench {
+  @Param({"1", "5", "10"})
+  public int scripts;
+
+  private List<String> command;
+
+  /** The traced application; loads a few hundred JDK classes and exits */
+  public static final class Target {
+    public static void main(String[] args) throws Exception {
+      Class.forName("java.util.concurrent.ConcurrentSkipListMap");
+      Class.forName("java.util.logging.Logger");
+      Class.forName("javax.management.MBeanServer");
+    }
+  }
+
+  @Setup
+  public void setup() {
+    String agentJar = System.getProperty("btrace.agent.jar");
+    String script = System.getProperty("btrace.script");
+    if (agentJar == null || script == null) {
+      throw new IllegalStateException("btrace.agent.jar and btrace.script must be set");
+    }
+    StringBuilder scriptList = new StringBuilder(script);
+    for (int i = 1; i < scripts; i++) {
+      scriptList.append(':').append(script);
+    }
+    command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add(
+        "-javaagent:"
+            + agentJar
+            + "=stdout=false,noServer=true,debug=false,script="
+            + scriptList);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Target.class.getName());
+  }
+
+  @Warmup(iterations = 2)
+  @Measurement(iterations = 10)
+  @Benchmark
+  public int testAgentStartup() throws Exception {
+    Process p =
+        new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(System.getProperty("java.io.tmpdir"), "btrace-startup.log"))
+            .start();
+    int exitCode = p.waitFor();
+    if (exitCode != 0) {
+      throw new IllegalStateException("The traced application failed: " + exitCode);
+    }
+    return exitCode;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + AgentStartupBench.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,22 @@
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Counter-style handlers which can be inlined into the instrumented method */
+@BTrace
+public class InlineScript {
+  public static long hits;
+  private static final AtomicLong calls = Atomic.newAtomicLong(0);
+
+  @OnMethod(
+      clazz = "org.openjdk.btrace.bench.HandlerInliningBenchmark$Target",
+      method = "applyAsInt")
+  public static void onApply(int value) {
+    hits++;
+    if (value > 0) {
+      Atomic.incrementAndGet(calls);
+    }
+  }
+}
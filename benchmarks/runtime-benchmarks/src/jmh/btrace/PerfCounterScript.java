@@ -0,0 +1,32 @@
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+import java.util.Map;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Samples a set of jvmstat counters on each call of the instrumented method */
+@BTrace
+public class PerfCounterScript {
+  private static final Map<String, Long> counters = newHashMap();
+
+  static {
+    put(counters, "sun.rt.safepoints", 0L);
+    put(counters, "sun.rt.safepointTime", 0L);
+    put(counters, "sun.gc.collector.0.invocations", 0L);
+    put(counters, "java.cls.loadedClasses", 0L);
+  }
+
+  @OnMethod(
+      clazz = "org.openjdk.btrace.bench.PerfCounterBenchmark$Target",
+      method = "applyAsInt")
+  public static void onApply() {
+    Counters.perfLongs(counters);
+  }
+
+  @OnMethod(
+      clazz = "org.openjdk.btrace.bench.PerfCounterBenchmark$SingleTarget",
+      method = "applyAsInt")
+  public static void onApplySingle() {
+    Counters.perfLong("sun.rt.safepoints");
+  }
+}
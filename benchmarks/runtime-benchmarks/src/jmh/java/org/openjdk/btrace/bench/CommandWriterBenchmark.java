@@ -0,0 +1,91 @@
+package org.openjdk.btrace.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.client.CommandWriter;
+import org.openjdk.btrace.client.OutputFormat;
+import org.openjdk.btrace.core.comm.MessageCommand;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the rate at which the client can write the probe messages in each of the output formats.
+ * The messages are the same as emitted by the {@code OutputThroughputTest} integration test script
+ * and the output goes to a channel discarding the data.
+ *
+ * <p>The score is the number of messages written per second; the {@code bytes} counter shows the
+ * amount of the output produced per second.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class CommandWriterBenchmark {
+  @Param({"TEXT", "JSONL", "BINARY"})
+  public OutputFormat format;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Traffic {
+    public long bytes;
+  }
+
+  private static final class DiscardingChannel implements WritableByteChannel {
+    long count;
+
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      src.position(src.limit());
+      count += length;
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private DiscardingChannel channel;
+  private CommandWriter writer;
+  private int sent;
+
+  @Setup
+  public void setup() throws IOException {
+    channel = new DiscardingChannel();
+    writer = CommandWriter.create(format, channel);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    writer.close();
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testMessage(Traffic traffic) throws IOException {
+    long start = channel.count;
+    writer.write(
+        "1234",
+        new MessageCommand(System.currentTimeMillis(), "message #" + sent++ + " \"quoted\"\n"));
+    traffic.bytes += channel.count - start;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + CommandWriterBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
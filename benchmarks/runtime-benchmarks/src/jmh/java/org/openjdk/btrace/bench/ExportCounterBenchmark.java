@@ -0,0 +1,157 @@
+package org.openjdk.btrace.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of updating {@linkplain org.openjdk.btrace.core.annotations.Export} perf
+ * counters via the resolved counter slot (as emitted for the preprocessed BTrace classes), via the
+ * counter name and via the original name lookup + synchronized {@linkplain ByteBuffer} access.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"--add-exports=java.base/jdk.internal.perf=ALL-UNNAMED"})
+@BenchmarkMode(Mode.Throughput)
+public class ExportCounterBenchmark {
+  private static final String LONG_COUNTER = "btrace.bench.ExportCounterBenchmark.hits";
+  private static final String STRING_COUNTER = "btrace.bench.ExportCounterBenchmark.name";
+
+  private BTraceRuntimeImplBase rt;
+  private int longSlot;
+  private int stringSlot;
+
+  // replicates the counter access before the counters were assigned slots
+  private final Map<String, ByteBuffer> legacyCounters = new HashMap<>();
+
+  private long value;
+
+  @Setup
+  public void setup() {
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(
+                ExportCounterBenchmark.class.getName(), new ArgsMap(), cmd -> {}, null);
+    rt.newPerfCounter(0L, LONG_COUNTER, "J");
+    rt.newPerfCounter("initial", STRING_COUNTER, "Ljava/lang/String;");
+    longSlot = rt.perfCounterSlot(LONG_COUNTER);
+    stringSlot = rt.perfCounterSlot(STRING_COUNTER);
+
+    legacyCounters.put(LONG_COUNTER, ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder()));
+    ByteBuffer sb = ByteBuffer.allocateDirect(256);
+    sb.put("initial".getBytes(StandardCharsets.UTF_8)).put((byte) 0).rewind();
+    legacyCounters.put(STRING_COUNTER, sb);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public void testSlotPutLong() {
+    rt.putPerfLong(value++, longSlot);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public void testNamedPutLong() {
+    rt.putPerfLong(value++, LONG_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public void testLegacyPutLong() {
+    legacyPutLong(value++, LONG_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public void testSlotPutLongContended() {
+    rt.putPerfLong(rt.getPerfLong(longSlot) + 1, longSlot);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public void testLegacyPutLongContended() {
+    legacyPutLong(legacyGetLong(LONG_COUNTER) + 1, LONG_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public String testSlotGetString() {
+    return rt.getPerfString(stringSlot);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public String testLegacyGetString() {
+    return legacyGetString(STRING_COUNTER);
+  }
+
+  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  private long legacyGetLong(String name) {
+    ByteBuffer b = legacyCounters.get(name);
+    synchronized (b) {
+      long l = b.getLong();
+      b.rewind();
+      return l;
+    }
+  }
+
+  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  private void legacyPutLong(long value, String name) {
+    ByteBuffer b = legacyCounters.get(name);
+    synchronized (b) {
+      b.putLong(value);
+      b.rewind();
+    }
+  }
+
+  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  private String legacyGetString(String name) {
+    ByteBuffer b = legacyCounters.get(name);
+    byte[] buf = new byte[b.limit()];
+    byte t;
+    int i = 0;
+    synchronized (b) {
+      while ((t = b.get()) != '\0') {
+        buf[i++] = t;
+      }
+      b.rewind();
+    }
+    return new String(buf, 0, i, StandardCharsets.UTF_8);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + ExportCounterBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
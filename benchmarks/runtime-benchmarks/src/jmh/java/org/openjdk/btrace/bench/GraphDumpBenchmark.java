@@ -0,0 +1,88 @@
+package org.openjdk.btrace.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+import org.openjdk.btrace.runtime.DOTWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures dumping a deep object graph - a linked list of 100k nodes - by {@code writeXML} and by
+ * {@linkplain DOTWriter} with no object limit. The output is streamed to a file while the graph is
+ * traversed; run with the {@code gc} profiler to see the memory allocated per dump.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+public class GraphDumpBenchmark {
+  @Param({"100000"})
+  public int nodes;
+
+  public static final class Node {
+    int value;
+    Node next;
+
+    Node(int value) {
+      this.value = value;
+    }
+  }
+
+  private BTraceRuntimeImplBase rt;
+  private Node head;
+  private Path dotFile;
+
+  @Setup
+  public void setup() throws IOException {
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(
+                GraphDumpBenchmark.class.getName(), new ArgsMap(), cmd -> {}, null);
+    head = new Node(0);
+    Node current = head;
+    for (int i = 1; i < nodes; i++) {
+      current.next = new Node(i);
+      current = current.next;
+    }
+    dotFile = Files.createTempFile("btrace-graph", ".dot");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(dotFile);
+  }
+
+  @Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+  @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+  @Benchmark
+  public void testWriteXML() {
+    rt.writeXML(head, "graph.xml");
+  }
+
+  @Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+  @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+  @Benchmark
+  public void testWriteDOT() {
+    DOTWriter writer = new DOTWriter(dotFile.toString());
+    writer.objectLimit(Integer.MAX_VALUE);
+    writer.addNode(null, head);
+    writer.close();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + GraphDumpBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
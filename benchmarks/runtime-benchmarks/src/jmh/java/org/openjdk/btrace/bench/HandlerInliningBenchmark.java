@@ -0,0 +1,64 @@
+package org.openjdk.btrace.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import org.openjdk.btrace.core.SharedSettings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a method instrumented by the counter-style handlers of {@code InlineScript} when the
+ * handlers are invoked and when they are {@linkplain SharedSettings#isInlineHandlers() inlined}.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+public class HandlerInliningBenchmark {
+  @Param({"false", "true"})
+  public boolean inline;
+
+  private ScriptHarness harness;
+  private IntUnaryOperator target;
+  private int value;
+
+  /** The instrumented class */
+  public static final class Target implements IntUnaryOperator {
+    @Override
+    public int applyAsInt(int operand) {
+      return operand + 1;
+    }
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    SharedSettings settings = new SharedSettings();
+    settings.setInlineHandlers(inline);
+    harness = new ScriptHarness("/InlineScript.btclass", settings);
+    target = harness.newInstance(Target.class);
+  }
+
+  @TearDown
+  public void tearDown() {
+    harness.close();
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public int testCounterHandler() {
+    value = target.applyAsInt(value);
+    return value;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + HandlerInliningBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
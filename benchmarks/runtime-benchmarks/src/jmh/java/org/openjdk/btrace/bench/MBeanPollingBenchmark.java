@@ -0,0 +1,95 @@
+package org.openjdk.btrace.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.Property;
+import org.openjdk.btrace.runtime.BTraceMBean;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the latency of {@code getAttributes} on a registered BTrace MBean polled by several
+ * concurrent clients while the probe keeps updating the exported values.
+ *
+ * <p>The {@code Uncached} variant disables the snapshots of the composite values by setting {@code
+ * btrace.mbean.snapshotPeriod} to 0, so each poll converts the exported map again.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(8)
+@BenchmarkMode(Mode.AverageTime)
+public class MBeanPollingBenchmark {
+  private static final String[] ATTRIBUTES = {"counter", "hits", "histogram"};
+
+  @BTrace(name = "MBeanPollingBenchmark")
+  public static final class Probe {
+    @Property public static volatile int counter;
+
+    @Property public static AtomicLong hits = new AtomicLong();
+
+    @Property public static Map<String, Integer> histogram = new ConcurrentHashMap<>();
+  }
+
+  @Param({"1000"})
+  public int entries;
+
+  private MBeanServer server;
+  private ObjectName name;
+
+  @Setup
+  public void setup() throws Exception {
+    for (int i = 0; i < entries; i++) {
+      Probe.histogram.put("key" + i, i);
+    }
+    BTraceMBean.registerMBean(Probe.class);
+    server = ManagementFactory.getPlatformMBeanServer();
+    name = new ObjectName("btrace:name=MBeanPollingBenchmark");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    server.unregisterMBean(name);
+  }
+
+  private AttributeList poll() throws Exception {
+    // the probe updates the values in between the polls
+    Probe.counter++;
+    Probe.hits.incrementAndGet();
+    Probe.histogram.put("key" + (Probe.counter % entries), Probe.counter);
+    return server.getAttributes(name, ATTRIBUTES);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public AttributeList testGetAttributes() throws Exception {
+    return poll();
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Fork(value = 1, jvmArgsAppend = "-Dbtrace.mbean.snapshotPeriod=0")
+  @Benchmark
+  public AttributeList testGetAttributesUncached() throws Exception {
+    return poll();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + MBeanPollingBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,75 @@
+package org.openjdk.btrace.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.btrace.core.MethodID;
+import org.openjdk.btrace.instr.MethodTracker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures resolving the method ids and registering the sampling counters the way the
+ * instrumentation does for each transformed method, with several threads transforming classes in
+ * parallel - e.g. parallel capable class loaders.
+ *
+ * <p>Each invocation processes one class of {@code methods} methods. Every thread works through
+ * its own set of classes; once a thread wraps around its set the ids are only looked up, as when
+ * the classes are retransformed.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(4)
+@BenchmarkMode(Mode.AverageTime)
+public class MethodIdBenchmark {
+  private static final AtomicInteger threadIds = new AtomicInteger();
+
+  @Param("4096")
+  private int classes;
+
+  @Param("16")
+  private int methods;
+
+  private String[] classNames;
+  private String[] methodNames;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    int threadId = threadIds.getAndIncrement();
+    classNames = new String[classes];
+    for (int i = 0; i < classes; i++) {
+      classNames[i] = "bench/t" + threadId + "/Class" + i;
+    }
+    methodNames = new String[methods];
+    for (int i = 0; i < methods; i++) {
+      methodNames[i] = "method" + i;
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public int testTransformClass() {
+    String className = classNames[next];
+    next = (next + 1) % classNames.length;
+    int ids = 0;
+    for (String methodName : methodNames) {
+      int mid = MethodID.getMethodId(className, methodName, "()V");
+      MethodTracker.registerCounter(mid, 10);
+      ids += mid;
+    }
+    return ids;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .include(".*" + MethodIdBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
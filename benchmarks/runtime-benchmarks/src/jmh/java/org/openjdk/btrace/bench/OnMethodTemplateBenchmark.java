@@ -23,6 +23,9 @@ package org.openjdk.btrace.bench;
 
 import java.util.concurrent.TimeUnit;
 import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.runtime.BTraceRuntimeAccess;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.Runner;
@@ -36,9 +39,46 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 public class OnMethodTemplateBenchmark {
   private ArgsMap argsMap;
 
+  // the handler entry/exit sequence woven into the probe handlers, without and with statistics
+  private BTraceRuntimeImplBase rt;
+  private BTraceRuntimeImplBase statsRt;
+  private int slot;
+  private int statsSlot;
+
+  // the arguments of a traced 6-argument method
+  private int intArg = 42;
+  private long longArg = 1234567L;
+  private double doubleArg = 3.14;
+  private boolean booleanArg = true;
+  private String stringArg = "arg";
+  private Object objectArg = new Object();
+
   @Setup
   public void setup() {
     argsMap = new ArgsMap(new String[] {"arg1=val1"});
+
+    rt = runtime("plain");
+    slot = rt.handlerSlot("handler");
+    rt.start();
+    statsRt = runtime("stats");
+    statsSlot = statsRt.handlerSlot("handler");
+    statsRt.setHandlerStatsEnabled(true);
+    statsRt.start();
+  }
+
+  @TearDown
+  public void tearDown() {
+    rt.exit(0);
+    statsRt.exit(0);
+  }
+
+  private static BTraceRuntimeImplBase runtime(String name) {
+    return (BTraceRuntimeImplBase)
+        BTraceRuntimes.getRuntime(
+            OnMethodTemplateBenchmark.class.getName() + "$" + name,
+            new ArgsMap(),
+            cmd -> {},
+            null);
   }
 
   @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
@@ -62,6 +102,53 @@ public class OnMethodTemplateBenchmark {
     bh.consume(argsMap.template("this-is-${arg2}"));
   }
 
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testHandlerEntry(Blackhole bh) {
+    if (BTraceRuntimeAccess.enter(rt, slot)) {
+      bh.consume(slot);
+      rt.leave();
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testHandlerEntryWithStats(Blackhole bh) {
+    if (BTraceRuntimeAccess.enter(statsRt, statsSlot)) {
+      bh.consume(statsSlot);
+      statsRt.leave();
+    }
+  }
+
+  // the AnyType[] arguments of a traced 6-argument method, as passed by the instrumentation
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testAnyTypeArgs(Blackhole bh) {
+    anyTypeHandler(
+        bh, new Object[] {intArg, longArg, doubleArg, booleanArg, stringArg, objectArg});
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testAnyTypeArgsReadOnly(Blackhole bh) {
+    // only the element the handler reads is boxed and stored
+    anyTypeHandler(bh, new Object[] {null, longArg, null, null, null, null});
+  }
+
+  // a handler reading its arguments; kept out of line so the argument array is not optimized away
+  @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+  private void anyTypeHandler(Blackhole bh, Object[] args) {
+    if (BTraceRuntimeAccess.enter(rt, slot)) {
+      bh.consume(args[1]);
+      bh.consume(args.length);
+      rt.leave();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     Options opt =
         new OptionsBuilder()
@@ -0,0 +1,156 @@
+package org.openjdk.btrace.bench;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import org.openjdk.btrace.core.SharedSettings;
+import org.openjdk.btrace.runtime.PerfReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of reading jvmstat (perf) counters the way the BTrace runtime does - both
+ * through the reader directly and from the handlers of {@code PerfCounterScript} instrumented into
+ * a method, where the shared sample map of the script is updated by all the calling threads.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      "--add-exports=jdk.internal.jvmstat/sun.jvmstat.monitor=ALL-UNNAMED",
+      "--add-exports=jdk.internal.jvmstat/sun.jvmstat.perfdata.monitor=ALL-UNNAMED"
+    })
+@BenchmarkMode(Mode.Throughput)
+public class PerfCounterBenchmark {
+  private static final String LONG_COUNTER = "sun.rt.safepoints";
+  private static final String STRING_COUNTER = "java.property.java.vm.name";
+  private static final String[] COUNTERS = {
+    "sun.rt.safepoints",
+    "sun.rt.safepointTime",
+    "sun.rt.safepointSyncTime",
+    "sun.gc.collector.0.invocations",
+    "sun.gc.collector.0.time",
+    "sun.cls.loadedBytes",
+    "java.cls.loadedClasses",
+    "java.threads.live"
+  };
+
+  private PerfReader reader;
+  private long[] values;
+
+  @Setup
+  public void setup() throws Exception {
+    Constructor<?> c =
+        Class.forName("org.openjdk.btrace.agent.PerfReaderImpl").getDeclaredConstructor();
+    c.setAccessible(true);
+    reader = (PerfReader) c.newInstance();
+    values = new long[COUNTERS.length];
+    // resolve the counters before measuring
+    reader.perfLongs(COUNTERS, values);
+  }
+
+  /** The class instrumented with the bulk sampling handler */
+  public static final class Target implements IntUnaryOperator {
+    @Override
+    public int applyAsInt(int operand) {
+      return operand + 1;
+    }
+  }
+
+  /** The class instrumented with the single counter handler */
+  public static final class SingleTarget implements IntUnaryOperator {
+    @Override
+    public int applyAsInt(int operand) {
+      return operand + 1;
+    }
+  }
+
+  /** The instrumented classes, shared by all the benchmark threads */
+  @State(Scope.Benchmark)
+  public static class Handlers {
+    private ScriptHarness harness;
+    private IntUnaryOperator bulk;
+    private IntUnaryOperator single;
+
+    @Setup
+    public void setup() throws Exception {
+      harness = new ScriptHarness("/PerfCounterScript.btclass", new SharedSettings());
+      bulk = harness.newInstance(Target.class);
+      single = harness.newInstance(SingleTarget.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+      harness.close();
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public long testPerfLong() {
+    return reader.perfLong(LONG_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public long testPerfLongContended() {
+    return reader.perfLong(LONG_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public String testPerfString() {
+    return reader.perfString(STRING_COUNTER);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testPerfLongsBulk(Blackhole bh) {
+    reader.perfLongs(COUNTERS, values);
+    bh.consume(values);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public int testHandlerPerfLong(Handlers handlers) {
+    return handlers.single.applyAsInt(1);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public int testHandlerPerfLongs(Handlers handlers) {
+    return handlers.bulk.applyAsInt(1);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public int testHandlerPerfLongsContended(Handlers handlers) {
+    return handlers.bulk.applyAsInt(1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + PerfCounterBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
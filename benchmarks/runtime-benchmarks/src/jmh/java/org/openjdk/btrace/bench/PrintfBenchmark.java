@@ -0,0 +1,107 @@
+package org.openjdk.btrace.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.core.BTraceUtils;
+import org.openjdk.btrace.core.comm.MessageCommand;
+import org.openjdk.btrace.runtime.BTraceRuntimeAccess;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost a probe handler pays for printing a message built by string concatenation with
+ * the deferred formatting of {@linkplain BTraceUtils#printf(String, Object, Object, Object)} - both
+ * as called directly, boxing the arguments, and as the call site rewritten by the preprocessor
+ * capturing them into the message. The messages are rendered by the command thread in all cases,
+ * as when sending them to a client.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+public class PrintfBenchmark {
+  private BTraceRuntimeImplBase rt;
+  // written by the command thread only
+  private volatile long rendered;
+
+  private final String method = "org.example.Service.handleRequest";
+  private long duration = 123456;
+  private int status = 200;
+
+  @Setup
+  public void setup() {
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(
+                PrintfBenchmark.class.getName(),
+                new ArgsMap(),
+                cmd -> {
+                  if (cmd instanceof MessageCommand) {
+                    rendered += ((MessageCommand) cmd).getMessage().length();
+                  }
+                },
+                null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    rt.exit(0);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(2)
+  @Benchmark
+  public void testStrcatPrintln() {
+    if (BTraceRuntimeAccess.enter(rt)) {
+      BTraceUtils.println(
+          BTraceUtils.strcat(
+              BTraceUtils.strcat(method, " took "),
+              BTraceUtils.strcat(
+                  BTraceUtils.str(duration),
+                  BTraceUtils.strcat(" ns, status ", BTraceUtils.str(status)))));
+      rt.leave();
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(2)
+  @Benchmark
+  public void testPrintf() {
+    if (BTraceRuntimeAccess.enter(rt)) {
+      BTraceUtils.printf("%s took %d ns, status %d%n", method, duration, status);
+      rt.leave();
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(2)
+  @Benchmark
+  public void testPrintfCaptured() {
+    if (BTraceRuntimeAccess.enter(rt)) {
+      // the code the preprocessor generates for the printf call in testPrintf
+      rt.send(
+          rt.newFormattedMessage("%s took %d ns, status %d%n", "LJI")
+              .arg(method)
+              .arg(duration)
+              .arg((long) status));
+      rt.leave();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + PrintfBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,101 @@
+package org.openjdk.btrace.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.core.DebugSupport;
+import org.openjdk.btrace.core.SharedSettings;
+import org.openjdk.btrace.instr.BTraceProbe;
+import org.openjdk.btrace.instr.BTraceProbeFactory;
+import org.openjdk.btrace.instr.BTraceProbePersisted;
+import org.openjdk.btrace.instr.BTraceTransformer;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+
+/**
+ * Runs a compiled BTrace script against benchmark classes instrumented by it, so a benchmark
+ * measures the probe handlers the way they run in a traced application.
+ */
+final class ScriptHarness {
+  private final BTraceRuntimeImplBase rt;
+  private final Set<String> targets = ConcurrentHashMap.newKeySet();
+  private final ClassLoader loader;
+
+  /**
+   * @param script the compiled script resource, e.g. {@code /TraceScript.btclass}
+   * @param settings the settings to create the probe with
+   */
+  ScriptHarness(String script, SharedSettings settings) throws Exception {
+    BTraceProbeFactory bpf = new BTraceProbeFactory(settings);
+    BTraceProbe bp =
+        BTraceProbePersisted.from(
+            bpf.createProbe(ScriptHarness.class.getResourceAsStream(script)));
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(bp.getClassName(), new ArgsMap(), cmd -> {}, null);
+
+    BTraceTransformer transformer = new BTraceTransformer(new DebugSupport(settings));
+    transformer.register(bp);
+    byte[] probeCode = bp.getFullBytecode();
+    loader =
+        new ClassLoader(ScriptHarness.class.getClassLoader()) {
+          @Override
+          protected Class<?> loadClass(String name, boolean resolve)
+              throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+              Class<?> c = findLoadedClass(name);
+              if (c != null) {
+                return c;
+              }
+              if (targets.contains(name)) {
+                byte[] code = instrument(transformer, this, name);
+                return defineClass(name, code, 0, code.length);
+              }
+              if (name.equals(bp.getClassName())) {
+                return defineClass(name, probeCode, 0, probeCode.length);
+              }
+              return super.loadClass(name, resolve);
+            }
+          }
+        };
+    Class.forName(bp.getClassName(), true, loader);
+    rt.start();
+  }
+
+  /**
+   * @param targetClass the class to load instrumented; it must have a public no-arg constructor
+   * @return a new instance of the instrumented class
+   */
+  <T> T newInstance(Class<T> targetClass) throws Exception {
+    targets.add(targetClass.getName());
+    @SuppressWarnings("unchecked")
+    T instance = (T) Class.forName(targetClass.getName(), true, loader).newInstance();
+    return instance;
+  }
+
+  void close() {
+    rt.exit(0);
+  }
+
+  private static byte[] instrument(
+      BTraceTransformer transformer, ClassLoader loader, String className)
+      throws ClassNotFoundException {
+    String internalName = className.replace('.', '/');
+    try (InputStream is =
+        ScriptHarness.class.getResourceAsStream("/" + internalName + ".class")) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = is.read(buffer)) > 0) {
+        bos.write(buffer, 0, read);
+      }
+      byte[] code = bos.toByteArray();
+      byte[] transformed = transformer.transform(loader, internalName, null, null, code);
+      return transformed != null ? transformed : code;
+    } catch (Exception e) {
+      throw new ClassNotFoundException(className, e);
+    }
+  }
+}
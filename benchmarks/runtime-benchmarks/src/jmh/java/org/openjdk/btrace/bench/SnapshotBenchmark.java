@@ -0,0 +1,120 @@
+package org.openjdk.btrace.bench;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AggregationKey;
+import org.openjdk.btrace.core.comm.GridDataCommand;
+import org.openjdk.btrace.core.comm.SnapshotEncoder;
+import org.openjdk.btrace.core.comm.WireIO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Simulates one tick of a script periodically printing a wide aggregation - the aggregation has
+ * 100k keys and 1% of them change between two ticks.
+ *
+ * <p>Each operation renders the aggregation into a command and serializes it to the wire; the
+ * {@code bytes} counter shows the amount of data sent per second - dividing it by the score gives
+ * the amount of data sent per tick.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class SnapshotBenchmark {
+  @Param({"100000"})
+  public int keys;
+
+  @Param({"0.01"})
+  public double changed;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Traffic {
+    public long bytes;
+  }
+
+  private static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  private Aggregation aggregation;
+  private AggregationKey[] aggregationKeys;
+  private SnapshotEncoder encoder;
+  private CountingStream sink;
+  private ObjectOutputStream out;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    aggregation = new Aggregation(AggregationFunction.SUM);
+    aggregationKeys = new AggregationKey[keys];
+    for (int i = 0; i < keys; i++) {
+      aggregationKeys[i] =
+          new AggregationKey(new Object[] {"com.example.service.Handler" + (i % 100), "m" + i});
+      aggregation.add(aggregationKeys[i], i);
+    }
+    encoder = new SnapshotEncoder("requests");
+    sink = new CountingStream();
+    out = new ObjectOutputStream(sink);
+    // the initial full snapshot
+    WireIO.write(out, encoder.encode(aggregation, Arrays::toString));
+  }
+
+  private void update() {
+    int count = (int) (keys * changed);
+    for (int i = 0; i < count; i++) {
+      next = (next + 7919) % keys;
+      aggregation.add(aggregationKeys[next], 1);
+    }
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testGridData(Traffic traffic) throws IOException {
+    update();
+    long start = sink.count;
+    WireIO.write(out, new GridDataCommand("requests", aggregation.getData()));
+    out.reset();
+    traffic.bytes += sink.count - start;
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testSnapshot(Traffic traffic) throws IOException {
+    update();
+    long start = sink.count;
+    WireIO.write(out, encoder.encode(aggregation, Arrays::toString));
+    out.reset();
+    traffic.bytes += sink.count - start;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + SnapshotBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
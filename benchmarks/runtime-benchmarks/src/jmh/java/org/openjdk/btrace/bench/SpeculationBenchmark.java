@@ -0,0 +1,180 @@
+package org.openjdk.btrace.bench;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.jctools.queues.MpmcArrayQueue;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.MessageCommand;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Simulates a script using {@linkplain org.openjdk.btrace.core.BTraceUtils.Speculation} to emit
+ * traces only for the slow requests - each request starts a speculation, records a few messages
+ * and 1% of the requests get committed, the rest is discarded.
+ *
+ * <p>A rate of 50k requests per second leaves a budget of 20us per request; the benchmark shows
+ * how much of it is taken by the speculation bookkeeping, with the pooled speculative buffers and
+ * with the original per-speculation queue allocation.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      "--add-exports=java.base/jdk.internal.reflect=ALL-UNNAMED",
+      "--add-exports=java.base/jdk.internal.perf=ALL-UNNAMED",
+      "--add-opens=java.base/java.lang=ALL-UNNAMED"
+    })
+@BenchmarkMode(Mode.Throughput)
+public class SpeculationBenchmark {
+  private static final int COMMIT_EVERY = 100;
+
+  @State(Scope.Thread)
+  public static class Request {
+    int counter;
+
+    boolean slow() {
+      return ++counter % COMMIT_EVERY == 0;
+    }
+  }
+
+  private BTraceRuntimeImplBase rt;
+  private final LegacySpeculation legacy = new LegacySpeculation();
+
+  @Setup
+  public void setup() {
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(
+                SpeculationBenchmark.class.getName(), new ArgsMap(), cmd -> {}, null);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public void testPooled(Request req) {
+    pooled(req);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public void testPooledContended(Request req) {
+    pooled(req);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(1)
+  @Benchmark
+  public void testLegacy(Request req) {
+    legacy(req);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Threads(4)
+  @Benchmark
+  public void testLegacyContended(Request req) {
+    legacy(req);
+  }
+
+  private void pooled(Request req) {
+    int id = rt.speculation();
+    rt.speculate(id);
+    rt.send("request started");
+    rt.send("request finished");
+    if (req.slow()) {
+      rt.commit(id);
+    } else {
+      rt.discard(id);
+    }
+  }
+
+  private void legacy(Request req) {
+    int id = legacy.speculation();
+    legacy.speculate(id);
+    legacy.send(new MessageCommand("request started"));
+    legacy.send(new MessageCommand("request finished"));
+    if (req.slow()) {
+      legacy.commit(id);
+    } else {
+      legacy.discard(id);
+    }
+  }
+
+  /**
+   * Replicates the speculative buffer management before the buffers were pooled. Unlike the
+   * original it drops the buffers on commit/discard - the original never released a buffer and ran
+   * out of the speculation ids after {@code Short.MAX_VALUE} speculations.
+   */
+  private static final class LegacySpeculation {
+    private int nextSpeculationId;
+    private final Map<Integer, MpmcArrayQueue<Command>> speculativeQueues =
+        new ConcurrentHashMap<>();
+    private final ThreadLocal<Integer> currentSpeculationId = new ThreadLocal<>();
+
+    int speculation() {
+      int nextId = getNextSpeculationId();
+      speculativeQueues.put(nextId, new MpmcArrayQueue<>(Short.MAX_VALUE));
+      return nextId;
+    }
+
+    void send(Command cmd) {
+      Integer curId = currentSpeculationId.get();
+      if (curId != null) {
+        MpmcArrayQueue<Command> sb = speculativeQueues.get(curId);
+        if (sb != null) {
+          sb.offer(cmd);
+        }
+      }
+    }
+
+    void speculate(int id) {
+      validateId(id);
+      currentSpeculationId.set(id);
+    }
+
+    void commit(int id) {
+      validateId(id);
+      currentSpeculationId.set(null);
+      MpmcArrayQueue<Command> sb = speculativeQueues.remove(id);
+      sb.clear();
+    }
+
+    void discard(int id) {
+      validateId(id);
+      currentSpeculationId.set(null);
+      speculativeQueues.remove(id).clear();
+    }
+
+    private synchronized int getNextSpeculationId() {
+      return nextSpeculationId++;
+    }
+
+    private void validateId(int id) {
+      if (!speculativeQueues.containsKey(id)) {
+        throw new RuntimeException("invalid speculative buffer id: " + id);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + SpeculationBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
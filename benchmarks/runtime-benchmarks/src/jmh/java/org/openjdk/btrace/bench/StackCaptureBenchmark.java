@@ -0,0 +1,134 @@
+package org.openjdk.btrace.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.btrace.core.ArgsMap;
+import org.openjdk.btrace.core.BTraceUtils;
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.BTraceRuntimes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares capturing the top frames of the current thread stack via the frame-limited capture API
+ * with taking the full stack trace, as {@code jstack(n)} used to do, at several stack depths. Also
+ * measures {@code jstack(n)} itself, which should not depend on the stack depth either, and adding a
+ * value to an aggregation keyed by the captured stack.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      "--add-exports=java.base/jdk.internal.reflect=ALL-UNNAMED",
+      "--add-exports=java.base/jdk.internal.perf=ALL-UNNAMED",
+      "--add-opens=java.base/java.lang=ALL-UNNAMED"
+    })
+@BenchmarkMode(Mode.AverageTime)
+public class StackCaptureBenchmark {
+  private static final int FRAMES = 10;
+
+  @Param({"10", "100", "300"})
+  public int depth;
+
+  private BTraceRuntimeImplBase rt;
+  private final int[] frames = new int[FRAMES];
+  private final Aggregation aggregation = new Aggregation(AggregationFunction.COUNT);
+
+  @Setup
+  public void setup() {
+    rt =
+        (BTraceRuntimeImplBase)
+            BTraceRuntimes.getRuntime(
+                StackCaptureBenchmark.class.getName(), new ArgsMap(), cmd -> {}, null);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testCaptureLimited(Blackhole bh) {
+    bh.consume(recurse(depth, true));
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testCaptureLimitedRendered(Blackhole bh) {
+    int[] captured = (int[]) recurse(depth, true);
+    bh.consume(rt.stackTraceStr(null, captured, FRAMES));
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testJstack() {
+    jstack(depth);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testAddStackToAggregation() {
+    aggregate(depth);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testFullStackTrace(Blackhole bh) {
+    bh.consume(recurse(depth, false));
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testFullStackTraceRendered(Blackhole bh) {
+    StackTraceElement[] st = (StackTraceElement[]) recurse(depth, false);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < Math.min(FRAMES, st.length); i++) {
+      sb.append(st[i]).append(System.lineSeparator());
+    }
+    bh.consume(sb.toString());
+  }
+
+  private Object recurse(int d, boolean limited) {
+    if (d > 0) {
+      return recurse(d - 1, limited);
+    }
+    if (limited) {
+      rt.captureStack(0, frames, FRAMES);
+      return frames;
+    }
+    return Thread.currentThread().getStackTrace();
+  }
+
+  private void jstack(int d) {
+    if (d > 0) {
+      jstack(d - 1);
+      return;
+    }
+    rt.stackTrace(0, FRAMES);
+  }
+
+  private void aggregate(int d) {
+    if (d > 0) {
+      aggregate(d - 1);
+      return;
+    }
+    BTraceUtils.Aggregations.addStackToAggregation(aggregation, FRAMES, 1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + StackCaptureBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -25,6 +25,8 @@
 package org.openjdk.btrace.bench;
 
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.btrace.core.BTraceUtils;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -46,10 +48,15 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 @BenchmarkMode(Mode.AverageTime)
 public class StringOpBenchmark {
   private static final String STRING_PART = "h";
+  private static final String REGEX = "java\\.lang\\..*Exception";
+  // the pattern the preprocessor hoists a literal regular expression into
+  private static final Pattern PATTERN = Pattern.compile(REGEX);
 
   StringBuilder sb;
   String st;
   String res;
+  String className = "java.lang.IllegalStateException";
+  boolean matched;
 
   @Setup
   public void setup() {
@@ -82,6 +89,20 @@ public class StringOpBenchmark {
     res = st.concat(STRING_PART).concat(STRING_PART);
   }
 
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testMatchesLiteral() {
+    matched = BTraceUtils.matches(REGEX, className);
+  }
+
+  @Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+  @Measurement(iterations = 5, time = 1200, timeUnit = TimeUnit.MILLISECONDS)
+  @Benchmark
+  public void testMatchesHoisted() {
+    matched = BTraceUtils.matches(PATTERN, className);
+  }
+
   public static void main(String[] args) throws Exception {
     Options opt =
         new OptionsBuilder()
@@ -0,0 +1,103 @@
+package org.openjdk.btrace.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.btrace.instr.ClassFilter;
+import org.openjdk.btrace.instr.SubtypePrefilter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of deciding whether a class is a subtype of a {@code +Type} probe target for a
+ * corpus of JDK classes (read from the {@code jrt:/} file system), once with the raw class file
+ * pre-filter and once with the full {@linkplain ClassFilter#isSubTypeOf(String, ClassLoader,
+ * String...)} resolution used when the pre-filter is not available.
+ *
+ * <p>Each invocation processes the whole corpus - the same way the transformer sees each class only
+ * once during class loading.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+public class SubtypePrefilterBenchmark {
+  private static final String TARGET = "java.util.Collection";
+
+  @Param("20000")
+  private int corpusSize;
+
+  private String[] classNames;
+  private byte[][] classBytes;
+  private SubtypePrefilter prefilter;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    List<String> names = new ArrayList<>(corpusSize);
+    List<byte[]> bytes = new ArrayList<>(corpusSize);
+    FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+    try (Stream<Path> paths = Files.walk(jrt.getPath("/modules"))) {
+      Iterator<Path> iter = paths.iterator();
+      while (iter.hasNext() && names.size() < corpusSize) {
+        Path p = iter.next();
+        String fileName = p.getFileName() != null ? p.getFileName().toString() : "";
+        if (!fileName.endsWith(".class")
+            || fileName.equals("module-info.class")
+            || fileName.equals("package-info.class")) {
+          continue;
+        }
+        // /modules/<module>/<internal class name>.class
+        String path = p.subpath(2, p.getNameCount()).toString();
+        names.add(path.substring(0, path.length() - ".class".length()));
+        bytes.add(Files.readAllBytes(p));
+      }
+    }
+    classNames = names.toArray(new String[0]);
+    classBytes = bytes.toArray(new byte[0][]);
+  }
+
+  @Setup(Level.Invocation)
+  public void setupRun() {
+    prefilter = new SubtypePrefilter(Collections.singleton(TARGET));
+  }
+
+  @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+  @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+  @Benchmark
+  public void testPrefilter(Blackhole bh) {
+    for (int i = 0; i < classNames.length; i++) {
+      bh.consume(prefilter.matches(classNames[i], null, classBytes[i]));
+    }
+  }
+
+  @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+  @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+  @Benchmark
+  public void testFullResolution(Blackhole bh) {
+    for (int i = 0; i < classNames.length; i++) {
+      bh.consume(ClassFilter.isSubTypeOf(classNames[i], null, TARGET));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opt =
+        new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + SubtypePrefilterBenchmark.class.getSimpleName() + ".*test.*")
+            .build();
+
+    new Runner(opt).run();
+  }
+}
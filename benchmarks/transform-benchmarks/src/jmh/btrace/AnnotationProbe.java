@@ -0,0 +1,13 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches the classes carrying an annotation */
+@BTrace
+public class AnnotationProbe {
+  public static long hits;
+
+  @OnMethod(clazz = "@java.lang.FunctionalInterface", method = "/.*/")
+  public static void onFunctional() {
+    hits++;
+  }
+}
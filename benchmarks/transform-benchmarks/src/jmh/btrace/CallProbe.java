@@ -0,0 +1,18 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.Kind;
+import org.openjdk.btrace.core.annotations.Location;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches the call sites of a method in all methods of a package */
+@BTrace
+public class CallProbe {
+  public static long hits;
+
+  @OnMethod(
+      clazz = "/java\\.util\\..*/",
+      method = "/.*/",
+      location = @Location(value = Kind.CALL, clazz = "java.lang.Object", method = "hashCode"))
+  public static void onHashCode() {
+    hits++;
+  }
+}
@@ -0,0 +1,13 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches a single class by its name */
+@BTrace
+public class ExactProbe {
+  public static long hits;
+
+  @OnMethod(clazz = "java.util.ArrayList", method = "add")
+  public static void onAdd() {
+    hits++;
+  }
+}
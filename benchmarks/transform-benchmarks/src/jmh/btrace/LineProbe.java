@@ -0,0 +1,18 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.Kind;
+import org.openjdk.btrace.core.annotations.Location;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches all the lines of all methods of a package */
+@BTrace
+public class LineProbe {
+  public static long hits;
+
+  @OnMethod(
+      clazz = "/java\\.util\\.concurrent\\..*/",
+      method = "/.*/",
+      location = @Location(value = Kind.LINE, line = -1))
+  public static void onLine() {
+    hits++;
+  }
+}
@@ -0,0 +1,13 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches the classes of a package by a regular expression */
+@BTrace
+public class RegexProbe {
+  public static long hits;
+
+  @OnMethod(clazz = "/java\\.util\\.[^.]+/", method = "/(get|put|add).*/")
+  public static void onAccess() {
+    hits++;
+  }
+}
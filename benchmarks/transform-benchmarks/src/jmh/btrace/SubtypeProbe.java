@@ -0,0 +1,13 @@
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** Matches all the implementations of an interface */
+@BTrace
+public class SubtypeProbe {
+  public static long hits;
+
+  @OnMethod(clazz = "+java.util.Collection", method = "size")
+  public static void onSize() {
+    hits++;
+  }
+}
@@ -0,0 +1,135 @@
+package org.openjdk.btrace.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.openjdk.btrace.core.DebugSupport;
+import org.openjdk.btrace.core.SharedSettings;
+import org.openjdk.btrace.instr.BTraceProbe;
+import org.openjdk.btrace.instr.BTraceProbeFactory;
+import org.openjdk.btrace.instr.BTraceProbePersisted;
+import org.openjdk.btrace.instr.BTraceTransformer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Replays a corpus of JDK classes (read from the {@code jrt:/} file system) through {@linkplain
+ * BTraceTransformer#transform(ClassLoader, String, Class, java.security.ProtectionDomain, byte[])}
+ * from several threads at once, the way parallel capable class loaders hit the transformer during
+ * application startup.
+ *
+ * <p>Each operation transforms one class so the throughput is reported in classes per second and
+ * the {@code gc} profiler reports the allocation per class ({@code gc.alloc.rate.norm}). The probe
+ * parameter selects one of the scripts in {@code src/jmh/btrace}, each exercising a different
+ * kind of class and method matching. The {@linkplain #main(String[]) main method} runs the matrix
+ * for 1 to 32 threads; from the command line use the JMH {@code -t} option.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class ParallelTransformBenchmark {
+  private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+  @Param({"exact", "regex", "subtype", "annotation", "call", "line"})
+  private String probe;
+
+  @Param("10000")
+  private int corpusSize;
+
+  private String[] classNames;
+  private byte[][] classBytes;
+  private BTraceTransformer transformer;
+
+  /** The position of a thread in the corpus */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup(ParallelTransformBenchmark bench) {
+      // the threads start at different classes so they do not transform the same class in step
+      next = (threads.getAndIncrement() * 7919) % bench.classNames.length;
+    }
+
+    int next(int corpusSize) {
+      int current = next;
+      next = (next + 1) % corpusSize;
+      return current;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    loadCorpus();
+
+    SharedSettings settings = new SharedSettings();
+    BTraceProbeFactory bpf = new BTraceProbeFactory(settings);
+    String script = Character.toUpperCase(probe.charAt(0)) + probe.substring(1) + "Probe";
+    BTraceProbe bp =
+        BTraceProbePersisted.from(
+            bpf.createProbe(
+                ParallelTransformBenchmark.class.getResourceAsStream("/" + script + ".btclass")));
+    transformer = new BTraceTransformer(new DebugSupport(settings));
+    transformer.register(bp);
+  }
+
+  private void loadCorpus() throws IOException {
+    List<String> names = new ArrayList<>(corpusSize);
+    List<byte[]> bytes = new ArrayList<>(corpusSize);
+    FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+    try (Stream<Path> paths = Files.walk(jrt.getPath("/modules"))) {
+      Iterator<Path> iter = paths.iterator();
+      while (iter.hasNext() && names.size() < corpusSize) {
+        Path p = iter.next();
+        String fileName = p.getFileName() != null ? p.getFileName().toString() : "";
+        if (!fileName.endsWith(".class")
+            || fileName.equals("module-info.class")
+            || fileName.equals("package-info.class")) {
+          continue;
+        }
+        // /modules/<module>/<internal class name>.class
+        String path = p.subpath(2, p.getNameCount()).toString();
+        names.add(path.substring(0, path.length() - ".class".length()));
+        bytes.add(Files.readAllBytes(p));
+      }
+    }
+    classNames = names.toArray(new String[0]);
+    classBytes = bytes.toArray(new byte[0][]);
+  }
+
+  @Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+  @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+  @Benchmark
+  public byte[] testTransform(Cursor cursor) throws Exception {
+    int idx = cursor.next(classNames.length);
+    // the JDK classes are resolved by the bootstrap class loader
+    return transformer.transform(null, classNames[idx], null, null, classBytes[idx]);
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (int threads : THREADS) {
+      Options opt =
+          new OptionsBuilder()
+              .addProfiler("gc")
+              .threads(threads)
+              .include(".*" + ParallelTransformBenchmark.class.getSimpleName() + ".*test.*")
+              .build();
+
+      new Runner(opt).run();
+    }
+  }
+}
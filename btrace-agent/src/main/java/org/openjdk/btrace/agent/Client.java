@@ -36,6 +36,7 @@ import java.lang.management.ManagementFactory;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -55,6 +56,7 @@ import org.openjdk.btrace.core.comm.Command;
 import org.openjdk.btrace.core.comm.CommandListener;
 import org.openjdk.btrace.core.comm.ErrorCommand;
 import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.HandlerStatsCommand;
 import org.openjdk.btrace.core.comm.InstrumentCommand;
 import org.openjdk.btrace.core.comm.MessageCommand;
 import org.openjdk.btrace.core.comm.RenameCommand;
@@ -275,13 +277,28 @@ abstract class Client implements CommandListener {
     for (Client client : CLIENTS.values()) {
       if (client instanceof RemoteClient) {
         if (((RemoteClient) client).isDisconnected()) {
-          probes.add(client.id + " [" + client.getClassName() + "]");
+          String probe = client.id + " [" + client.getClassName() + "]";
+          long hits = client.getHandlerHits();
+          probes.add(hits >= 0 ? probe + " " + hits + " hits" : probe);
         }
       }
     }
     return probes;
   }
 
+  /** @return the total number of the probe handler invocations; {@code -1} if not collected */
+  private long getHandlerHits() {
+    BTraceRuntime.Impl rt = runtime;
+    if (rt == null || !settings.isHandlerStats()) {
+      return -1;
+    }
+    long hits = 0;
+    for (HandlerStatsCommand.Entry entry : rt.getHandlerStats().getEntries()) {
+      hits += entry.getHits();
+    }
+    return hits;
+  }
+
   synchronized void onExit(int exitCode) {
     if (!shuttingDown) {
       shuttingDown = true;
@@ -340,6 +357,15 @@ abstract class Client implements CommandListener {
       log.debug("creating BTraceRuntime instance for {}", probe.getClassName());
     }
     runtime = BTraceRuntimes.getRuntime(probe.getClassName(), args, this, inst);
+    if (runtime != null && settings.getOverheadBudget() > 0) {
+      runtime.setOverheadBudget(settings.getOverheadBudget());
+    }
+    if (runtime != null && settings.isHandlerStats()) {
+      runtime.setHandlerStatsEnabled(true);
+    }
+    if (runtime != null && settings.isMergeAggregations()) {
+      runtime.setAggregationDataEnabled(true);
+    }
     Runtime.getRuntime()
         .addShutdownHook(
             new Thread(
@@ -462,71 +488,108 @@ abstract class Client implements CommandListener {
     if (runtime == null) {
       return false;
     }
-    if (probe.isTransforming() && settings.isRetransformStartup()) {
-      ArrayList<Class<?>> list = new ArrayList<>();
-      log.debug("retransforming loaded classes");
-      log.debug("filtering loaded classes");
-      ClassCache cc = ClassCache.getInstance();
-      for (Class<?> c : inst.getAllLoadedClasses()) {
-        if (c != null) {
-          if (inst.isModifiableClass(c) && isCandidate(c)) {
-            if (log.isDebugEnabled()) {
-              log.debug("candidate {} added", c);
-            }
-            list.add(c);
+    retransformLoaded(inst, Collections.singletonList(this));
+    return true;
+  }
+
+  /**
+   * Retransforms the already loaded classes instrumented by any of the given clients.
+   *
+   * <p>The loaded classes are scanned and retransformed only once for all the clients, which makes
+   * a difference when several scripts are started together with the agent. Each client is notified
+   * about the number of its own candidate classes.
+   *
+   * @param inst the instrumentation instance
+   * @param clients the clients whose probes are already registered with the transformer
+   */
+  static void retransformLoaded(Instrumentation inst, List<Client> clients)
+      throws UnmodifiableClassException {
+    List<Client> transforming = new ArrayList<>(clients.size());
+    for (Client client : clients) {
+      if (client.runtime != null
+          && client.probe.isTransforming()
+          && client.settings.isRetransformStartup()) {
+        transforming.add(client);
+      }
+    }
+    if (transforming.isEmpty()) {
+      return;
+    }
+    ArrayList<Class<?>> list = new ArrayList<>();
+    int[] counts = new int[transforming.size()];
+    log.debug("retransforming loaded classes");
+    log.debug("filtering loaded classes");
+    for (Class<?> c : inst.getAllLoadedClasses()) {
+      if (c != null && inst.isModifiableClass(c)) {
+        boolean candidate = false;
+        for (int i = 0; i < counts.length; i++) {
+          if (transforming.get(i).isCandidate(c)) {
+            counts[i]++;
+            candidate = true;
+          }
+        }
+        if (candidate) {
+          if (log.isDebugEnabled()) {
+            log.debug("candidate {} added", c);
           }
+          list.add(c);
         }
       }
-      list.trimToSize();
-      int size = list.size();
-      if (size > 0) {
-        Class<?>[] classes = new Class[size];
-        list.toArray(classes);
-        startRetransformClasses(size);
-        if (log.isDebugEnabled()) {
+    }
+    list.trimToSize();
+    int size = list.size();
+    if (size > 0) {
+      Class<?>[] classes = new Class[size];
+      list.toArray(classes);
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          transforming.get(i).startRetransformClasses(counts[i]);
+        }
+      }
+      if (log.isDebugEnabled()) {
+        for (Class<?> c : classes) {
+          try {
+            log.debug("Attempting to retransform class: {}", c.getName());
+            inst.retransformClasses(c);
+          } catch (ClassFormatError | VerifyError e) {
+            log.debug("Class '{}' verification failed", c.getName(), e);
+            verificationFailed(transforming, c, e);
+          }
+        }
+      } else {
+        try {
+          inst.retransformClasses(classes);
+        } catch (ClassFormatError | VerifyError e) {
+          /*
+           * If the en-block retransformation fails because of verification retry classes one-by-one.
+           * Otherwise all classes are rolled back to the original state and no instrumentation
+           * is applied.
+           */
           for (Class<?> c : classes) {
             try {
-              log.debug("Attempting to retransform class: {}", c.getName());
               inst.retransformClasses(c);
-            } catch (ClassFormatError | VerifyError e) {
-              log.debug("Class '{}' verification failed", c.getName(), e);
-              sendCommand(
-                  new MessageCommand(
-                      "[BTRACE WARN] Class verification failed: "
-                          + c.getName()
-                          + " ("
-                          + e.getMessage()
-                          + ")"));
-            }
-          }
-        } else {
-          try {
-            inst.retransformClasses(classes);
-          } catch (ClassFormatError | VerifyError e) {
-            /*
-             * If the en-block retransformation fails because of verification retry classes one-by-one.
-             * Otherwise all classes are rolled back to the original state and no instrumentation
-             * is applied.
-             */
-            for (Class<?> c : classes) {
-              try {
-                inst.retransformClasses(c);
-              } catch (ClassFormatError | VerifyError e1) {
-                log.debug("Class '{}' verification failed", c.getName(), e);
-                sendCommand(
-                    new MessageCommand(
-                        "[BTRACE WARN] Class verification failed: "
-                            + c.getName()
-                            + " ("
-                            + e.getMessage()
-                            + ")"));
-              }
+            } catch (ClassFormatError | VerifyError e1) {
+              log.debug("Class '{}' verification failed", c.getName(), e1);
+              verificationFailed(transforming, c, e1);
             }
           }
         }
       }
     }
-    return true;
+  }
+
+  private static void verificationFailed(List<Client> clients, Class<?> c, Throwable e) {
+    for (Client client : clients) {
+      if (client.isCandidate(c)) {
+        client.sendCommand(
+            new MessageCommand(
+                "[BTRACE WARN] Class verification failed: "
+                    + c.getName()
+                    + " ("
+                    + e.getMessage()
+                    + ")"));
+      }
+    }
   }
 
   protected void sendCommand(Command command) {
@@ -40,6 +40,8 @@ import org.openjdk.btrace.core.comm.Command;
 import org.openjdk.btrace.core.comm.ExitCommand;
 import org.openjdk.btrace.core.comm.InstrumentCommand;
 import org.openjdk.btrace.core.comm.PrintableCommand;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+import org.openjdk.btrace.core.comm.SnapshotDecoder;
 import org.openjdk.btrace.instr.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +57,7 @@ class FileClient extends Client {
   private static final Logger log = LoggerFactory.getLogger(FileClient.class);
 
   private final AtomicBoolean noOutputNotified = new AtomicBoolean(false);
+  private final SnapshotDecoder snapshots = new SnapshotDecoder();
 
   private boolean canLoadPack = true;
 
@@ -108,6 +111,9 @@ class FileClient extends Client {
               log.debug("No output stream. DataCommand output is ignored.");
             }
           } else {
+            if (cmd.getType() == Command.SNAPSHOT) {
+              snapshots.apply((SnapshotCommand) cmd);
+            }
             ((PrintableCommand) cmd).print(out);
           }
         }
@@ -28,13 +28,17 @@ import static org.openjdk.btrace.core.Args.BOOT_CLASS_PATH;
 import static org.openjdk.btrace.core.Args.CMD_QUEUE_LIMIT;
 import static org.openjdk.btrace.core.Args.CONFIG;
 import static org.openjdk.btrace.core.Args.DEBUG;
+import static org.openjdk.btrace.core.Args.DORMANT;
 import static org.openjdk.btrace.core.Args.DUMP_CLASSES;
 import static org.openjdk.btrace.core.Args.DUMP_DIR;
 import static org.openjdk.btrace.core.Args.FILE_ROLL_MAX_ROLLS;
 import static org.openjdk.btrace.core.Args.FILE_ROLL_MILLISECONDS;
+import static org.openjdk.btrace.core.Args.HANDLER_STATS;
 import static org.openjdk.btrace.core.Args.HELP;
+import static org.openjdk.btrace.core.Args.INLINE_HANDLERS;
 import static org.openjdk.btrace.core.Args.LIBS;
 import static org.openjdk.btrace.core.Args.NO_SERVER;
+import static org.openjdk.btrace.core.Args.OVERHEAD_BUDGET;
 import static org.openjdk.btrace.core.Args.PORT;
 import static org.openjdk.btrace.core.Args.PROBE_DESC_PATH;
 import static org.openjdk.btrace.core.Args.SCRIPT;
@@ -117,6 +121,7 @@ public final class Main {
   private static volatile ArgsMap argMap;
   private static volatile Instrumentation inst;
   private static volatile Long fileRollMilliseconds;
+  private static volatile boolean active;
 
   private static final Logger log = LoggerFactory.getLogger(Main.class);
 
@@ -143,12 +148,15 @@ public final class Main {
       DebugSupport.initLoggers(isDebug, log);
 
       parseArgs();
-      // settings are all built-up; set the logging system properties accordingly
-      DebugSupport.initLoggers(settings.isDebug(), log);
 
       String tmp = argMap.get(NO_SERVER);
       // noServer is defaulting to true if startup scripts are defined
       boolean noServer = tmp != null ? Boolean.parseBoolean(tmp) : hasScripts();
+      boolean dormant = Boolean.parseBoolean(argMap.get(DORMANT));
+      if (dormant && (noServer || hasScripts())) {
+        log.debug("dormant mode requires the agent server and no startup scripts; ignoring");
+        dormant = false;
+      }
       Thread agentThread = null;
       if (noServer) {
         log.debug("noServer is true, server not started");
@@ -164,12 +172,11 @@ public final class Main {
                   }
                 });
       }
-      // set the fall-back instrumentation object to BTraceRuntime
-      BTraceRuntime.instrumentation = inst;
-      // force back-registration of BTraceRuntimeImpl in BTraceRuntime
-      BTraceRuntimes.getDefault();
-      // init BTraceRuntime
-      BTraceRuntime.initUnsafe();
+      if (dormant) {
+        log.debug("dormant mode, the agent will be activated by the first client connection");
+      } else {
+        activate();
+      }
       if (agentThread != null) {
         BTraceRuntime.enter();
         try {
@@ -181,22 +188,43 @@ public final class Main {
           BTraceRuntime.leave();
         }
       }
-
-      log.debug("Adding class transformer");
-      inst.addTransformer(transformer, true);
-      try {
-        // the MethodHandleNatives must be instrumented to track start-end of indy linking to avoid deadlocking
-        Class<?> clz = ClassLoader.getSystemClassLoader().loadClass("java.lang.invoke.MethodHandleNatives");
-        inst.retransformClasses(clz);
-      } catch (Throwable t) {
-        log.debug("Failed to instrument MethodHandleNatives", t);
+      if (!dormant) {
+        startScripts();
       }
-      int startedScripts = startScripts();
     } finally {
       log.debug("Agent init took: {}", (System.nanoTime() - ts) + "ns");
     }
   }
 
+  /**
+   * Initializes the BTrace runtime and registers the class transformer. Called either directly
+   * from the agent initialization or, in the dormant mode, when the first client connects.
+   */
+  private static synchronized void activate() {
+    if (active) {
+      return;
+    }
+    long activationTs = System.nanoTime();
+    // set the fall-back instrumentation object to BTraceRuntime
+    BTraceRuntime.instrumentation = inst;
+    // force back-registration of BTraceRuntimeImpl in BTraceRuntime
+    BTraceRuntimes.getDefault();
+    // init BTraceRuntime
+    BTraceRuntime.initUnsafe();
+
+    log.debug("Adding class transformer");
+    inst.addTransformer(transformer, true);
+    try {
+      // the MethodHandleNatives must be instrumented to track start-end of indy linking to avoid deadlocking
+      Class<?> clz = ClassLoader.getSystemClassLoader().loadClass("java.lang.invoke.MethodHandleNatives");
+      inst.retransformClasses(clz);
+    } catch (Throwable t) {
+      log.debug("Failed to instrument MethodHandleNatives", t);
+    }
+    active = true;
+    log.debug("Agent activation took: {}", (System.nanoTime() - activationTs) + "ns");
+  }
+
   private static boolean hasScripts() {
     return argMap.containsKey(SCRIPT) || argMap.containsKey(SCRIPT_DIR);
   }
@@ -311,11 +339,25 @@ public final class Main {
     }
 
     List<String> scripts = locateScripts(argMap);
+    List<Client> clients = new ArrayList<>(scripts.size());
     for (String script : scripts) {
-      if (loadBTraceScript(script, traceToStdOut)) {
+      Client client = loadBTraceScript(script, traceToStdOut);
+      if (client != null) {
+        clients.add(client);
         scriptCount++;
       }
     }
+    if (!clients.isEmpty()) {
+      // all the startup probes are registered with the transformer by now
+      // retransform the loaded classes only once for all of them
+      try {
+        handleNewClients(clients).get();
+      } catch (ExecutionException e) {
+        log.debug("Failed to start BTrace scripts", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     return scriptCount;
   }
 
@@ -517,6 +559,34 @@ public final class Main {
             }
             break;
           }
+        case OVERHEAD_BUDGET:
+          {
+            if (!p.isEmpty()) {
+              try {
+                settings.setOverheadBudget(Double.parseDouble(p));
+                log.debug(OVERHEAD_BUDGET + " is {}%", settings.getOverheadBudget());
+              } catch (NumberFormatException ex) {
+                log.warn("Invalid probe overhead budget: {}", p);
+              }
+            }
+            break;
+          }
+        case HANDLER_STATS:
+          {
+            if (!p.isEmpty()) {
+              settings.setHandlerStats(Boolean.parseBoolean(p));
+              log.debug(HANDLER_STATS + " is {}", settings.isHandlerStats());
+            }
+            break;
+          }
+        case INLINE_HANDLERS:
+          {
+            if (!p.isEmpty()) {
+              settings.setInlineHandlers(Boolean.parseBoolean(p));
+              log.debug(INLINE_HANDLERS + " is {}", settings.isInlineHandlers());
+            }
+            break;
+          }
         case PROBE_DESC_PATH:
           {
             settings.setProbeDescPath(!p.isEmpty() ? p : ".");
@@ -746,9 +816,9 @@ public final class Main {
     }
   }
 
-  private static boolean loadBTraceScript(String filePath, boolean traceToStdOut) {
+  private static Client loadBTraceScript(String filePath, boolean traceToStdOut) {
     if (!BTraceProbeFactory.canLoad(filePath)) {
-      return false;
+      return null;
     }
 
     try {
@@ -766,7 +836,7 @@ public final class Main {
         if (log.isDebugEnabled()) {
           log.debug("refusing {} - script should be a pre-compiled class file", filePath);
         }
-        return false;
+        return null;
       }
 
       SharedSettings clientSettings = new SharedSettings();
@@ -787,21 +857,18 @@ public final class Main {
       ClientContext ctx = new ClientContext(inst, transformer, argMap, clientSettings);
       Client client = new FileClient(ctx, traceScript);
       if (client.isInitialized()) {
-        handleNewClient(client).get();
-        return true;
+        return client;
       }
     } catch (NullPointerException e) {
       if (log.isDebugEnabled()) {
         log.debug("script {} does not exist!", filePath, e);
       }
-    } catch (RuntimeException | IOException | ExecutionException re) {
+    } catch (RuntimeException | IOException re) {
       if (log.isDebugEnabled()) {
         log.debug("Failed to load BTrace script {}", filePath, re);
       }
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
     }
-    return false;
+    return null;
   }
 
   // -- Internals only below this point
@@ -841,6 +908,7 @@ public final class Main {
         if (log.isDebugEnabled()) {
           log.debug("client accepted {}", sock);
         }
+        activate();
         ClientContext ctx = new ClientContext(inst, transformer, argMap, settings);
         Client client = RemoteClient.getClient(ctx, sock, Main::handleNewClient);
       } catch (RuntimeException | IOException re) {
@@ -851,6 +919,40 @@ public final class Main {
     }
   }
 
+  private static Future<?> handleNewClients(List<Client> clients) {
+    return serializedExecutor.submit(
+        () -> {
+          try {
+            boolean entered = BTraceRuntime.enter();
+            try {
+              if (log.isDebugEnabled()) {
+                log.debug("new Clients created {}", clients);
+              }
+              Client.retransformLoaded(inst, clients);
+              for (Client client : clients) {
+                if (client.getRuntime() != null) {
+                  client.getRuntime().send(new StatusCommand((byte) 1));
+                }
+              }
+            } catch (UnmodifiableClassException uce) {
+              log.debug("BTrace class retransformation failed", uce);
+              for (Client client : clients) {
+                if (client.getRuntime() != null) {
+                  client.getRuntime().send(new ErrorCommand(uce));
+                  client.getRuntime().send(new StatusCommand(-1 * StatusCommand.STATUS_FLAG));
+                }
+              }
+            } finally {
+              if (entered) {
+                BTraceRuntime.leave();
+              }
+            }
+          } catch (Throwable t) {
+            t.printStackTrace();
+          }
+        });
+  }
+
   private static Future<?> handleNewClient(Client client) {
     return serializedExecutor.submit(
         () -> {
@@ -26,6 +26,8 @@
 package org.openjdk.btrace.agent;
 
 import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.openjdk.btrace.runtime.PerfReader;
 import sun.jvmstat.monitor.IntegerMonitor;
 import sun.jvmstat.monitor.LongMonitor;
@@ -36,25 +38,57 @@ import sun.jvmstat.monitor.MonitoredVm;
 import sun.jvmstat.monitor.StringMonitor;
 import sun.jvmstat.monitor.VmIdentifier;
 
+/**
+ * jvmstat based {@linkplain PerfReader}.
+ *
+ * <p>The counters are looked up by name only once; the resolved {@linkplain Monitor} instances
+ * are backed directly by the memory mapped hsperfdata buffer of this VM and are cached so the
+ * subsequent reads are lock-free.
+ */
 final class PerfReaderImpl implements PerfReader {
+  private final ConcurrentMap<String, Monitor> monitors = new ConcurrentHashMap<>();
   private volatile MonitoredVm thisVm;
 
-  private synchronized MonitoredVm getThisVm() {
-    if (thisVm == null) {
-      try {
-        MonitoredHost localHost = MonitoredHost.getMonitoredHost("localhost");
-        VmIdentifier vmIdent = new VmIdentifier("0");
-        thisVm = localHost.getMonitoredVm(vmIdent);
-      } catch (MonitorException | URISyntaxException me) {
-        throw new IllegalArgumentException("jvmstat perf counters not available: " + me);
+  private MonitoredVm getThisVm() {
+    MonitoredVm vm = thisVm;
+    if (vm == null) {
+      synchronized (this) {
+        vm = thisVm;
+        if (vm == null) {
+          try {
+            MonitoredHost localHost = MonitoredHost.getMonitoredHost("localhost");
+            VmIdentifier vmIdent = new VmIdentifier("0");
+            vm = localHost.getMonitoredVm(vmIdent);
+            thisVm = vm;
+          } catch (MonitorException | URISyntaxException me) {
+            throw new IllegalArgumentException("jvmstat perf counters not available: " + me);
+          }
+        }
+      }
+    }
+    return vm;
+  }
+
+  private Monitor getMonitor(String name) {
+    Monitor mon = monitors.get(name);
+    if (mon == null) {
+      mon = findByName(name);
+      if (mon == null) {
+        throw new IllegalArgumentException("no such counter: " + name);
+      }
+      Monitor prev = monitors.putIfAbsent(name, mon);
+      if (prev != null) {
+        mon = prev;
       }
     }
-    return thisVm;
+    return mon;
   }
 
   private Monitor findByName(String name) {
     try {
       return getThisVm().findByName(name);
+    } catch (IllegalArgumentException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -62,10 +96,7 @@ final class PerfReaderImpl implements PerfReader {
 
   @Override
   public int perfInt(String name) {
-    Monitor mon = findByName(name);
-    if (mon == null) {
-      throw new IllegalArgumentException("no such counter: " + name);
-    }
+    Monitor mon = getMonitor(name);
     if (mon instanceof IntegerMonitor) {
       return ((IntegerMonitor) mon).intValue();
     } else if (mon instanceof LongMonitor) {
@@ -77,10 +108,7 @@ final class PerfReaderImpl implements PerfReader {
 
   @Override
   public long perfLong(String name) {
-    Monitor mon = findByName(name);
-    if (mon == null) {
-      throw new IllegalArgumentException("no such counter: " + name);
-    }
+    Monitor mon = getMonitor(name);
     if (mon instanceof LongMonitor) {
       return ((LongMonitor) mon).longValue();
     } else {
@@ -90,14 +118,28 @@ final class PerfReaderImpl implements PerfReader {
 
   @Override
   public String perfString(String name) {
-    Monitor mon = findByName(name);
-    if (mon == null) {
-      throw new IllegalArgumentException("no such counter: " + name);
-    }
+    Monitor mon = getMonitor(name);
     if (mon instanceof StringMonitor) {
       return ((StringMonitor) mon).stringValue();
     } else {
       throw new IllegalArgumentException(name + " is not a string");
     }
   }
+
+  @Override
+  public void perfLongs(String[] names, long[] values) {
+    if (values.length < names.length) {
+      throw new IllegalArgumentException("values array is too small");
+    }
+    for (int i = 0; i < names.length; i++) {
+      Monitor mon = getMonitor(names[i]);
+      if (mon instanceof LongMonitor) {
+        values[i] = ((LongMonitor) mon).longValue();
+      } else if (mon instanceof IntegerMonitor) {
+        values[i] = ((IntegerMonitor) mon).intValue();
+      } else {
+        throw new IllegalArgumentException(names[i] + " is not a long");
+      }
+    }
+  }
 }
@@ -42,6 +42,8 @@ import org.openjdk.btrace.core.comm.ExitCommand;
 import org.openjdk.btrace.core.comm.InstrumentCommand;
 import org.openjdk.btrace.core.comm.ListProbesCommand;
 import org.openjdk.btrace.core.comm.PrintableCommand;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+import org.openjdk.btrace.core.comm.SnapshotDecoder;
 import org.openjdk.btrace.core.comm.ReconnectCommand;
 import org.openjdk.btrace.core.comm.SetSettingsCommand;
 import org.openjdk.btrace.core.comm.StatusCommand;
@@ -83,6 +85,7 @@ class RemoteClient extends Client {
       AtomicReferenceFieldUpdater.newUpdater(RemoteClient.class, ObjectOutputStream.class, "oos");
 
   private final CircularBuffer<Command> delayedCommands = new CircularBuffer<>(5000);
+  private final SnapshotDecoder snapshots = new SnapshotDecoder();
 
   static Client getClient(ClientContext ctx, Socket sock, Function<Client, Future<?>> initCallback)
       throws IOException {
@@ -203,6 +206,11 @@ class RemoteClient extends Client {
                           getRuntime().handleEvent((EventCommand) cmd);
                           break;
                         }
+                      case Command.HANDLER_STATS:
+                        {
+                          onCommand(getRuntime().getHandlerStats());
+                          break;
+                        }
                       default:
                         if (log.isDebugEnabled()) {
                           log.debug("received {}", cmd);
@@ -307,6 +315,9 @@ class RemoteClient extends Client {
         default:
           if (out != null) {
             if (cmd instanceof PrintableCommand) {
+              if (cmd.getType() == Command.SNAPSHOT) {
+                snapshots.apply((SnapshotCommand) cmd);
+              }
               ((PrintableCommand) cmd).print(out);
               break;
             }
@@ -0,0 +1,53 @@
+package org.openjdk.btrace.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openjdk.btrace.core.comm.AggregationDataCommand;
+
+/**
+ * Keeps the latest state of each aggregation received from several sources and merges them on
+ * demand.
+ *
+ * <p>The merged views are {@linkplain #drain() drained} periodically; only the aggregations updated
+ * since the previous drain are merged again. The last state received from a source stays part of
+ * the merged view even after the source has gone away.
+ *
+ * @see AggregationDataCommand#merge(AggregationDataCommand)
+ */
+final class AggregationMerger {
+  private final Map<String, Map<String, AggregationDataCommand>> aggregations = new HashMap<>();
+  private final Set<String> updated = new LinkedHashSet<>();
+
+  /**
+   * @param source the aggregation source
+   * @param cmd the latest state of the aggregation in the source
+   */
+  synchronized void update(String source, AggregationDataCommand cmd) {
+    String name = cmd.getName() != null ? cmd.getName() : "";
+    aggregations.computeIfAbsent(name, k -> new LinkedHashMap<>()).put(source, cmd);
+    updated.add(name);
+  }
+
+  /** @return the merged views of the aggregations updated since the last call */
+  synchronized List<AggregationDataCommand> drain() {
+    List<AggregationDataCommand> merged = new ArrayList<>(updated.size());
+    for (String name : updated) {
+      AggregationDataCommand result = null;
+      for (AggregationDataCommand cmd : aggregations.get(name).values()) {
+        if (result == null) {
+          result = cmd;
+        } else if (result.getFunction() == cmd.getFunction()) {
+          result = result.merge(cmd);
+        }
+      }
+      merged.add(result);
+    }
+    updated.clear();
+    return merged;
+  }
+}
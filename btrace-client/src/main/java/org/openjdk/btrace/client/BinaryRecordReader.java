@@ -0,0 +1,136 @@
+package org.openjdk.btrace.client;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+import org.openjdk.btrace.core.comm.SnapshotDecoder;
+import org.openjdk.btrace.core.comm.WireIO;
+
+/**
+ * Reads the commands stored in the {@linkplain OutputFormat#BINARY binary record} format.
+ *
+ * <p>It can be also used as a command line tool converting the binary records to text or JSON
+ * Lines:
+ *
+ * <pre>
+ * java -cp btrace-client.jar org.openjdk.btrace.client.BinaryRecordReader [-format text|jsonl] [file]
+ * </pre>
+ *
+ * When no file is given the records are read from the standard input.
+ *
+ * @since 2.3.0
+ */
+public final class BinaryRecordReader implements Closeable {
+  private final DataInputStream in;
+  private byte[] record = new byte[256];
+  private String source;
+
+  /**
+   * @param in the record stream
+   * @throws IOException if the stream does not start with the binary record header
+   */
+  public BinaryRecordReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    byte[] magic = new byte[BinaryRecords.MAGIC.length];
+    try {
+      this.in.readFully(magic);
+      if (!Arrays.equals(magic, BinaryRecords.MAGIC)) {
+        throw new IOException("not a BTrace binary record stream");
+      }
+      byte version = this.in.readByte();
+      if (version != BinaryRecords.VERSION) {
+        throw new IOException("unsupported binary record version: " + version);
+      }
+    } catch (EOFException e) {
+      throw new IOException("not a BTrace binary record stream", e);
+    }
+  }
+
+  /**
+   * @return the next command or {@code null} when the end of the stream has been reached
+   * @throws IOException if the stream is corrupted
+   */
+  public Command read() throws IOException {
+    int len;
+    try {
+      len = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (len > record.length) {
+      record = new byte[Math.max(len, record.length * 2)];
+    }
+    in.readFully(record, 0, len);
+    BinaryRecords.Input input = new BinaryRecords.Input(record, len);
+    String src = input.readUTF();
+    source = src.isEmpty() ? null : src;
+    return WireIO.read(input);
+  }
+
+  /** @return the source of the last read command or {@code null} if not known */
+  public String getSource() {
+    return source;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    OutputFormat format = OutputFormat.TEXT;
+    String file = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-format") && i < args.length - 1) {
+        format = OutputFormat.parse(args[++i]);
+        if (format == null || format == OutputFormat.BINARY) {
+          usage();
+          return;
+        }
+      } else if (file == null && !args[i].startsWith("-")) {
+        file = args[i];
+      } else {
+        usage();
+        return;
+      }
+    }
+    InputStream is = file != null ? Files.newInputStream(Paths.get(file)) : System.in;
+    Map<String, SnapshotDecoder> snapshots = new HashMap<>();
+    try (BinaryRecordReader reader = new BinaryRecordReader(is);
+        CommandWriter writer =
+            CommandWriter.create(
+                format, Channels.newChannel(new FileOutputStream(FileDescriptor.out)))) {
+      Command cmd;
+      while ((cmd = reader.read()) != null) {
+        String source = reader.getSource();
+        if (cmd.getType() == Command.SNAPSHOT) {
+          snapshots
+              .computeIfAbsent(source, k -> new SnapshotDecoder())
+              .apply((SnapshotCommand) cmd);
+        }
+        writer.write(source, cmd);
+      }
+    }
+  }
+
+  private static void usage() {
+    System.err.println(
+        "Usage: java -cp btrace-client.jar "
+            + BinaryRecordReader.class.getName()
+            + " [-format text|jsonl] [file]");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,37 @@
+package org.openjdk.btrace.client;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.WireIO;
+
+/**
+ * Writes the commands as length prefixed binary records.
+ *
+ * @see BinaryRecords
+ * @see BinaryRecordReader
+ */
+final class BinaryRecordWriter extends CommandWriter {
+  private final BinaryRecords.Output record = new BinaryRecords.Output();
+  private final byte[] length = new byte[4];
+
+  BinaryRecordWriter(WritableByteChannel channel) throws IOException {
+    super(channel);
+    put(BinaryRecords.MAGIC, 0, BinaryRecords.MAGIC.length);
+    put(new byte[] {BinaryRecords.VERSION}, 0, 1);
+  }
+
+  @Override
+  protected void encode(String source, Command cmd) throws IOException {
+    record.reset();
+    record.writeUTF(source != null ? source : "");
+    WireIO.write(record, cmd);
+    int len = record.length();
+    length[0] = (byte) (len >>> 24);
+    length[1] = (byte) (len >>> 16);
+    length[2] = (byte) (len >>> 8);
+    length[3] = (byte) len;
+    put(length, 0, 4);
+    put(record.array(), 0, len);
+  }
+}
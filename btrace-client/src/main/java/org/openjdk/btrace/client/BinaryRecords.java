@@ -0,0 +1,216 @@
+package org.openjdk.btrace.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import org.openjdk.btrace.core.aggregation.AverageData;
+import org.openjdk.btrace.core.aggregation.HistogramData;
+
+/**
+ * The binary record format.
+ *
+ * <p>The file starts with the {@linkplain #MAGIC} bytes followed by the format {@linkplain
+ * #VERSION}. Then the records follow - each record is a big-endian {@code int} length followed by
+ * the command source as a modified UTF-8 string (empty if unknown) and the command encoded as by
+ * {@linkplain org.openjdk.btrace.core.comm.WireIO}. The objects embedded in the commands are
+ * encoded by a compact tagged encoding; only the unknown types fall back to the Java
+ * serialization.
+ */
+final class BinaryRecords {
+  static final byte[] MAGIC = {'B', 'T', 'R', 'C'};
+  static final byte VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte SHORT = 6;
+  private static final byte BYTE = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte CHAR = 9;
+  private static final byte HISTOGRAM = 10;
+  private static final byte BIG_INTEGER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte AVERAGE = 13;
+  private static final byte SERIALIZED = 127;
+
+  private BinaryRecords() {}
+
+  /** A reusable record buffer */
+  static final class Output extends DataOutputStream implements ObjectOutput {
+    private static final class Buffer extends ByteArrayOutputStream {
+      Buffer() {
+        super(256);
+      }
+
+      byte[] array() {
+        return buf;
+      }
+    }
+
+    Output() {
+      super(new Buffer());
+    }
+
+    void reset() {
+      ((Buffer) out).reset();
+      written = 0;
+    }
+
+    byte[] array() {
+      return ((Buffer) out).array();
+    }
+
+    int length() {
+      return ((Buffer) out).size();
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException {
+      if (obj == null) {
+        writeByte(NULL);
+      } else if (obj instanceof String) {
+        writeByte(STRING);
+        writeString((String) obj);
+      } else if (obj instanceof Integer) {
+        writeByte(INT);
+        writeInt((Integer) obj);
+      } else if (obj instanceof Long) {
+        writeByte(LONG);
+        writeLong((Long) obj);
+      } else if (obj instanceof Double) {
+        writeByte(DOUBLE);
+        writeDouble((Double) obj);
+      } else if (obj instanceof Float) {
+        writeByte(FLOAT);
+        writeFloat((Float) obj);
+      } else if (obj instanceof Short) {
+        writeByte(SHORT);
+        writeShort((Short) obj);
+      } else if (obj instanceof Byte) {
+        writeByte(BYTE);
+        writeByte((Byte) obj);
+      } else if (obj instanceof Boolean) {
+        writeByte(BOOLEAN);
+        writeBoolean((Boolean) obj);
+      } else if (obj instanceof Character) {
+        writeByte(CHAR);
+        writeChar((Character) obj);
+      } else if (obj instanceof HistogramData) {
+        writeByte(HISTOGRAM);
+        HistogramData hd = (HistogramData) obj;
+        writeLongs(hd.getValues());
+        writeLongs(hd.getCounts());
+      } else if (obj instanceof AverageData) {
+        writeByte(AVERAGE);
+        AverageData ad = (AverageData) obj;
+        writeLong(ad.getSum());
+        writeLong(ad.getCount());
+      } else if (obj instanceof BigInteger) {
+        writeByte(BIG_INTEGER);
+        writeString(obj.toString());
+      } else if (obj instanceof BigDecimal) {
+        writeByte(BIG_DECIMAL);
+        writeString(obj.toString());
+      } else {
+        writeByte(SERIALIZED);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+          oos.writeObject(obj);
+        }
+        writeInt(bos.size());
+        bos.writeTo(this);
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeInt(bytes.length);
+      write(bytes);
+    }
+
+    private void writeLongs(long[] values) throws IOException {
+      writeInt(values.length);
+      for (long v : values) {
+        writeLong(v);
+      }
+    }
+  }
+
+  /** Reads one record */
+  static final class Input extends DataInputStream implements ObjectInput {
+    Input(byte[] data, int length) {
+      super(new ByteArrayInputStream(data, 0, length));
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+      byte tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case INT:
+          return readInt();
+        case LONG:
+          return readLong();
+        case DOUBLE:
+          return readDouble();
+        case FLOAT:
+          return readFloat();
+        case SHORT:
+          return readShort();
+        case BYTE:
+          return readByte();
+        case BOOLEAN:
+          return readBoolean();
+        case CHAR:
+          return readChar();
+        case HISTOGRAM:
+          return new HistogramData(readLongs(), readLongs());
+        case AVERAGE:
+          return new AverageData(readLong(), readLong());
+        case BIG_INTEGER:
+          return new BigInteger(readString());
+        case BIG_DECIMAL:
+          return new BigDecimal(readString());
+        case SERIALIZED:
+          {
+            byte[] bytes = new byte[readInt()];
+            readFully(bytes);
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+              return ois.readObject();
+            }
+          }
+        default:
+          throw new IOException("invalid object tag: " + tag);
+      }
+    }
+
+    private String readString() throws IOException {
+      byte[] bytes = new byte[readInt()];
+      readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long[] readLongs() throws IOException {
+      long[] values = new long[readInt()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = readLong();
+      }
+      return values;
+    }
+  }
+}
@@ -60,6 +60,7 @@ import org.openjdk.btrace.core.comm.CommandListener;
 import org.openjdk.btrace.core.comm.DisconnectCommand;
 import org.openjdk.btrace.core.comm.EventCommand;
 import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.HandlerStatsCommand;
 import org.openjdk.btrace.core.comm.InstrumentCommand;
 import org.openjdk.btrace.core.comm.ListProbesCommand;
 import org.openjdk.btrace.core.comm.MessageCommand;
@@ -136,6 +137,13 @@ public class Client {
   private volatile ObjectOutputStream oos;
 
   private boolean disconnected = false;
+  // terminate the client VM when the probe can not be submitted?
+  private volatile boolean exitOnFailure = true;
+  // the CPU budget of the probe handlers in percent; 0 if unlimited
+  private volatile double overheadBudget = 0;
+  // collect the per-handler statistics?
+  private volatile boolean handlerStats = false;
+  private volatile boolean mergeAggregations = false;
 
   public Client(int port) {
     this(port, null, ".", false, false, false, false, null, null);
@@ -166,7 +174,7 @@ public class Client {
     this.statsdDef = statsdDef;
   }
 
-  private static boolean isPortAvailable(int port) {
+  static boolean isPortAvailable(int port) {
     Socket clSocket = null;
     try {
       clSocket = new Socket("127.0.0.1", port);
@@ -541,6 +549,9 @@ public class Client {
       }
 
       if (sock == null) {
+        if (!exitOnFailure) {
+          throw new IOException("BTrace server not available on port " + port);
+        }
         log.debug("server not available. exiting.");
         System.exit(1);
       }
@@ -553,6 +564,15 @@ public class Client {
       settings.put(SharedSettings.TRUSTED_KEY, trusted);
       settings.put(SharedSettings.PROBE_DESC_PATH_KEY, probeDescPath);
       settings.put(SharedSettings.OUTPUT_FILE_KEY, outputFile);
+      if (overheadBudget > 0) {
+        settings.put(SharedSettings.OVERHEAD_BUDGET_KEY, overheadBudget);
+      }
+      if (handlerStats) {
+        settings.put(SharedSettings.HANDLER_STATS_KEY, true);
+      }
+      if (mergeAggregations) {
+        settings.put(SharedSettings.MERGE_AGGREGATIONS_KEY, true);
+      }
 
       WireIO.write(oos, new SetSettingsCommand(settings));
 
@@ -581,6 +601,9 @@ public class Client {
                     log.info("Successfully started BTrace probe: {}", fileName);
                   } else {
                     log.warn("Failed to start BTrace probe: {}", fileName);
+                    if (!exitOnFailure) {
+                      throw new IOException("Failed to start BTrace probe: " + fileName);
+                    }
                     System.exit(1);
                   }
                   statusReported = true;
@@ -643,6 +666,40 @@ public class Client {
     reset();
   }
 
+  /**
+   * When set to {@code false} a failure to submit the probe is reported by an {@linkplain
+   * IOException} instead of terminating the client VM. Used when several clients share the VM.
+   */
+  void setExitOnFailure(boolean exitOnFailure) {
+    this.exitOnFailure = exitOnFailure;
+  }
+
+  /**
+   * Limits the share of the CPU time the submitted probe handlers may consume in the traced JVM.
+   * The handlers exceeding the budget are throttled and each adjustment is reported as a message.
+   *
+   * @param percent the share of the CPU time in percent; {@code 0} disables the limit
+   */
+  void setOverheadBudget(double percent) {
+    this.overheadBudget = percent;
+  }
+
+  /**
+   * Makes the traced JVM collect the hit counts and timings of the submitted probe handlers. They
+   * can be {@linkplain #requestHandlerStats() requested} at any time.
+   */
+  void setHandlerStats(boolean enabled) {
+    this.handlerStats = enabled;
+  }
+
+  /**
+   * Makes the traced JVM send the aggregations in the mergeable form, with the aggregation function
+   * and the partial values, instead of the plain printed grid.
+   */
+  void setMergeAggregations(boolean enabled) {
+    this.mergeAggregations = enabled;
+  }
+
   boolean isDisconnected() {
     return disconnected;
   }
@@ -656,6 +713,11 @@ public class Client {
     send(new ListProbesCommand());
   }
 
+  /** Requests the per-handler statistics; they are delivered to the command listener */
+  void requestHandlerStats() throws IOException {
+    send(new HandlerStatsCommand());
+  }
+
   /** reset the internal status of the client */
   private void reset() {
     sock = null;
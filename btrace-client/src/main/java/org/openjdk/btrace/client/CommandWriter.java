@@ -0,0 +1,108 @@
+package org.openjdk.btrace.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import org.openjdk.btrace.core.comm.Command;
+
+/**
+ * Writes the commands received from a probe to a byte channel in the given {@linkplain
+ * OutputFormat}.
+ *
+ * <p>The encoded commands are collected in a buffer which is written to the channel once full, when
+ * an urgent command is written or on an explicit {@linkplain #flush()}. This allows a
+ * non-interactive client to keep up with the full output rate of the agent.
+ *
+ * @since 2.3.0
+ */
+public abstract class CommandWriter implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  protected CommandWriter(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * @param format the output format
+   * @param channel the channel to write to
+   * @return a new command writer
+   * @throws IOException if the output can not be initialized
+   */
+  public static CommandWriter create(OutputFormat format, WritableByteChannel channel)
+      throws IOException {
+    switch (format) {
+      case JSONL:
+        return new JsonLinesWriter(channel);
+      case BINARY:
+        return new BinaryRecordWriter(channel);
+      default:
+        return new TextWriter(channel);
+    }
+  }
+
+  public final void write(Command cmd) throws IOException {
+    write(null, cmd);
+  }
+
+  /**
+   * Writes a command tagged by its source, eg. the PID of the traced JVM when the client is
+   * multiplexing output of several targets.
+   *
+   * @param source the command source or {@code null}
+   * @param cmd the command
+   * @throws IOException
+   */
+  public final synchronized void write(String source, Command cmd) throws IOException {
+    encode(source, cmd);
+    if (cmd.isUrgent()) {
+      drain();
+    }
+  }
+
+  public final synchronized void flush() throws IOException {
+    drain();
+  }
+
+  @Override
+  public final synchronized void close() throws IOException {
+    try {
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Encodes the command by the means of {@linkplain #put(byte[], int, int)}. Commands which do not
+   * make sense in the particular format are skipped.
+   *
+   * @param source the command source or {@code null}
+   * @param cmd the command
+   * @throws IOException
+   */
+  protected abstract void encode(String source, Command cmd) throws IOException;
+
+  protected final void put(byte[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int chunk = Math.min(length, buffer.remaining());
+      buffer.put(data, offset, chunk);
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
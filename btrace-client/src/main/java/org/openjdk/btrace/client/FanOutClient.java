@@ -0,0 +1,209 @@
+package org.openjdk.btrace.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.ErrorCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Submits one compiled probe to several local JVMs at once.
+ *
+ * <p>The targets are attached in parallel, with at most {@code concurrency} attach operations in
+ * flight. Each target gets its own agent port, allocated upwards from the base port, and its own
+ * {@linkplain Client} connection; the commands received from all the targets are delivered to a
+ * single {@linkplain Listener} together with the PID of the target they come from.
+ *
+ * @since 2.3.0
+ */
+public final class FanOutClient {
+  private static final Logger log = LoggerFactory.getLogger(FanOutClient.class);
+
+  /** Receives the commands from all the targets */
+  @FunctionalInterface
+  public interface Listener {
+    void onCommand(String pid, Command cmd) throws IOException;
+  }
+
+  private static final class Target {
+    final String pid;
+    final Client client;
+
+    Target(String pid, Client client) {
+      this.pid = pid;
+      this.client = client;
+    }
+  }
+
+  private final IntFunction<Client> clientFactory;
+  private final int basePort;
+  private final int concurrency;
+  private final List<Target> targets = new ArrayList<>();
+
+  /**
+   * @param clientFactory creates a client for the given agent port
+   * @param basePort the first agent port to use
+   * @param concurrency the maximum number of targets being attached at the same time
+   */
+  public FanOutClient(IntFunction<Client> clientFactory, int basePort, int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+    }
+    this.clientFactory = clientFactory;
+    this.basePort = basePort;
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * Attaches to all the given JVMs and submits the probe to each of them. The method returns once
+   * all the targets have exited or disconnected.
+   *
+   * <p>A target which can not be attached or which rejects the probe is reported to the listener
+   * by an {@linkplain ErrorCommand}; the other targets are not affected.
+   *
+   * @param pids the target JVMs
+   * @param fileName the probe file name
+   * @param code the compiled probe, shared by all the targets
+   * @param args the probe arguments
+   * @param bootCp the boot classpath passed to the agents
+   * @param listener the listener receiving the commands from all the targets
+   * @throws InterruptedException
+   */
+  public void submit(
+      List<String> pids,
+      String fileName,
+      byte[] code,
+      String[] args,
+      String bootCp,
+      Listener listener)
+      throws InterruptedException {
+    List<Target> started = allocate(pids);
+    CountDownLatch finished = new CountDownLatch(started.size());
+    AtomicInteger attached = new AtomicInteger();
+    long startTs = System.nanoTime();
+    ExecutorService attachPool =
+        Executors.newFixedThreadPool(
+            Math.min(concurrency, Math.max(1, started.size())),
+            new DaemonThreadFactory("BTrace Attach #"));
+    for (Target target : started) {
+      attachPool.execute(
+          () -> {
+            try {
+              target.client.attach(target.pid, null, bootCp);
+              if (attached.incrementAndGet() == started.size()) {
+                log.info(
+                    "Attached to {} JVMs in {} ms",
+                    started.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTs));
+              }
+            } catch (IOException | RuntimeException e) {
+              fail(target, e, listener);
+              finished.countDown();
+              return;
+            }
+            // the command loop blocks for the lifetime of the probe
+            Thread t =
+                new Thread(
+                    () -> {
+                      try {
+                        target.client.submit(
+                            fileName, code, args, cmd -> listener.onCommand(target.pid, cmd));
+                      } catch (IOException | RuntimeException e) {
+                        fail(target, e, listener);
+                      } finally {
+                        finished.countDown();
+                      }
+                    },
+                    "BTrace Client [" + target.pid + "]");
+            t.setDaemon(true);
+            t.start();
+          });
+    }
+    attachPool.shutdown();
+    finished.await();
+  }
+
+  /** Sends the exit command to all the connected targets. */
+  public void sendExit(int code) {
+    for (Target target : targets()) {
+      try {
+        target.client.sendExit(code);
+      } catch (IOException | IllegalStateException e) {
+        log.debug("unable to send exit to {}", target.pid, e);
+      }
+    }
+  }
+
+  /** Sends the event to all the connected targets. */
+  public void sendEvent(String name) {
+    for (Target target : targets()) {
+      try {
+        target.client.sendEvent(name);
+      } catch (IOException | IllegalStateException e) {
+        log.debug("unable to send event to {}", target.pid, e);
+      }
+    }
+  }
+
+  private synchronized List<Target> targets() {
+    return new ArrayList<>(targets);
+  }
+
+  private synchronized List<Target> allocate(List<String> pids) {
+    Set<String> unique = new HashSet<>();
+    int port = basePort;
+    List<Target> allocated = new ArrayList<>(pids.size());
+    for (String pid : pids) {
+      if (!unique.add(pid)) {
+        continue;
+      }
+      while (!Client.isPortAvailable(port)) {
+        port++;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("using port {} for {}", port, pid);
+      }
+      Client client = clientFactory.apply(port++);
+      client.setExitOnFailure(false);
+      allocated.add(new Target(pid, client));
+    }
+    targets.addAll(allocated);
+    return allocated;
+  }
+
+  private static void fail(Target target, Exception e, Listener listener) {
+    log.debug("failed to trace {}", target.pid, e);
+    try {
+      listener.onCommand(target.pid, new ErrorCommand(e));
+    } catch (IOException ioe) {
+      log.debug("unable to report failure of {}", target.pid, ioe);
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    DaemonThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, prefix + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
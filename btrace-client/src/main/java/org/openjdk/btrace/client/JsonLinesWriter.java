@@ -0,0 +1,314 @@
+package org.openjdk.btrace.client;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.openjdk.btrace.core.aggregation.HistogramData;
+import org.openjdk.btrace.core.comm.AggregationDataCommand;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.ErrorCommand;
+import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.GridDataCommand;
+import org.openjdk.btrace.core.comm.MessageCommand;
+import org.openjdk.btrace.core.comm.NumberDataCommand;
+import org.openjdk.btrace.core.comm.NumberMapDataCommand;
+import org.openjdk.btrace.core.comm.PrintableCommand;
+import org.openjdk.btrace.core.comm.RetransformClassNotification;
+import org.openjdk.btrace.core.comm.RetransformationStartNotification;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+import org.openjdk.btrace.core.comm.StringMapDataCommand;
+
+/**
+ * Writes each command as a single line JSON object. The object always contains the {@code type}
+ * attribute and the {@code source} attribute if the command source is known; the rest of the
+ * attributes depend on the command type:
+ *
+ * <ul>
+ *   <li>{@code message} - {@code time} (if recorded), {@code text}
+ *   <li>{@code number} - {@code name}, {@code value}
+ *   <li>{@code numberMap}, {@code stringMap} - {@code name}, {@code data} object
+ *   <li>{@code grid} - {@code name}, {@code rows} array of arrays
+ *   <li>{@code aggregation} - {@code name}, {@code function}, {@code rows} array of arrays
+ *   <li>{@code snapshot} - {@code name}, {@code sequence}, {@code rows} array of arrays with the
+ *       reconstructed full view or {@code null} if the view is not available yet
+ *   <li>{@code error} - {@code text}
+ *   <li>{@code exit} - {@code code}
+ *   <li>{@code retransformationStart} - {@code classes}
+ *   <li>{@code retransformClass} - {@code class}
+ *   <li>{@code text} - {@code text}, for any other printable command
+ * </ul>
+ */
+final class JsonLinesWriter extends CommandWriter {
+  private final StringBuilder sb = new StringBuilder(256);
+
+  JsonLinesWriter(WritableByteChannel channel) {
+    super(channel);
+  }
+
+  @Override
+  protected void encode(String source, Command cmd) throws IOException {
+    sb.setLength(0);
+    if (!toJson(cmd)) {
+      return;
+    }
+    if (source != null) {
+      attribute("source");
+      string(source);
+    }
+    sb.append("}\n");
+    byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+    put(bytes, 0, bytes.length);
+  }
+
+  private boolean toJson(Command cmd) {
+    switch (cmd.getType()) {
+      case Command.MESSAGE:
+        {
+          MessageCommand mcmd = (MessageCommand) cmd;
+          type("message");
+          if (mcmd.getTime() != 0L) {
+            sb.append(",\"time\":").append(mcmd.getTime());
+          }
+          attribute("text");
+          string(mcmd.getMessage());
+          return true;
+        }
+      case Command.NUMBER:
+        {
+          NumberDataCommand ncmd = (NumberDataCommand) cmd;
+          type("number");
+          name(ncmd.getName());
+          attribute("value");
+          value(ncmd.getValue());
+          return true;
+        }
+      case Command.NUMBER_MAP:
+        {
+          NumberMapDataCommand ncmd = (NumberMapDataCommand) cmd;
+          type("numberMap");
+          name(ncmd.getName());
+          attribute("data");
+          map(ncmd.getData());
+          return true;
+        }
+      case Command.STRING_MAP:
+        {
+          StringMapDataCommand scmd = (StringMapDataCommand) cmd;
+          type("stringMap");
+          name(scmd.getName());
+          attribute("data");
+          map(scmd.getData());
+          return true;
+        }
+      case Command.GRID_DATA:
+        {
+          GridDataCommand gcmd = (GridDataCommand) cmd;
+          type("grid");
+          name(gcmd.getName());
+          attribute("rows");
+          rows(gcmd.getData());
+          return true;
+        }
+      case Command.AGGREGATION_DATA:
+        {
+          AggregationDataCommand acmd = (AggregationDataCommand) cmd;
+          type("aggregation");
+          name(acmd.getName());
+          if (acmd.getFunction() != null) {
+            attribute("function");
+            string(acmd.getFunction().name().toLowerCase(Locale.ROOT));
+          }
+          attribute("rows");
+          rows(acmd.getDisplayData());
+          return true;
+        }
+      case Command.SNAPSHOT:
+        {
+          SnapshotCommand scmd = (SnapshotCommand) cmd;
+          type("snapshot");
+          name(scmd.getName());
+          sb.append(",\"sequence\":").append(scmd.getSequence());
+          attribute("rows");
+          rows(scmd.getView());
+          return true;
+        }
+      case Command.ERROR:
+        {
+          type("error");
+          attribute("text");
+          string(printed((ErrorCommand) cmd));
+          return true;
+        }
+      case Command.EXIT:
+        {
+          type("exit");
+          sb.append(",\"code\":").append(((ExitCommand) cmd).getExitCode());
+          return true;
+        }
+      case Command.RETRANSFORMATION_START:
+        {
+          type("retransformationStart");
+          sb.append(",\"classes\":")
+              .append(((RetransformationStartNotification) cmd).getNumClasses());
+          return true;
+        }
+      case Command.RETRANSFORM_CLASS:
+        {
+          type("retransformClass");
+          attribute("class");
+          string(((RetransformClassNotification) cmd).getClassName());
+          return true;
+        }
+      default:
+        {
+          if (cmd instanceof PrintableCommand) {
+            type("text");
+            attribute("text");
+            string(printed((PrintableCommand) cmd));
+            return true;
+          }
+          return false;
+        }
+    }
+  }
+
+  private static String printed(PrintableCommand cmd) {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    cmd.print(pw);
+    pw.flush();
+    return sw.toString();
+  }
+
+  private void type(String type) {
+    sb.append("{\"type\":\"").append(type).append('"');
+  }
+
+  private void name(String name) {
+    if (name != null && !name.isEmpty()) {
+      attribute("name");
+      string(name);
+    }
+  }
+
+  private void attribute(String name) {
+    sb.append(",\"").append(name).append("\":");
+  }
+
+  private void map(Map<String, ?> data) {
+    if (data == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('{');
+    boolean first = true;
+    for (Map.Entry<String, ?> e : data.entrySet()) {
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      string(e.getKey());
+      sb.append(':');
+      value(e.getValue());
+    }
+    sb.append('}');
+  }
+
+  private void rows(List<Object[]> rows) {
+    if (rows == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('[');
+    for (int i = 0; i < rows.size(); i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append('[');
+      Object[] row = rows.get(i);
+      for (int j = 0; j < row.length; j++) {
+        if (j > 0) {
+          sb.append(',');
+        }
+        value(row[j]);
+      }
+      sb.append(']');
+    }
+    sb.append(']');
+  }
+
+  private void value(Object value) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof Double || value instanceof Float) {
+      double d = ((Number) value).doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        string(value.toString());
+      } else {
+        sb.append(d);
+      }
+    } else if (value instanceof Number || value instanceof Boolean) {
+      sb.append(value);
+    } else if (value instanceof HistogramData) {
+      HistogramData hd = (HistogramData) value;
+      sb.append("{\"values\":");
+      longs(hd.getValues());
+      sb.append(",\"counts\":");
+      longs(hd.getCounts());
+      sb.append('}');
+    } else {
+      string(value.toString());
+    }
+  }
+
+  private void longs(long[] values) {
+    sb.append('[');
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(values[i]);
+    }
+    sb.append(']');
+  }
+
+  private void string(String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
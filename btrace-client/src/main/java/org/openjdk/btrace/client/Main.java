@@ -27,18 +27,36 @@ package org.openjdk.btrace.client;
 
 import java.io.Console;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 import org.openjdk.btrace.core.DebugSupport;
 import org.openjdk.btrace.core.Messages;
+import org.openjdk.btrace.core.comm.AggregationDataCommand;
 import org.openjdk.btrace.core.comm.Command;
 import org.openjdk.btrace.core.comm.CommandListener;
 import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.GridDataCommand;
 import org.openjdk.btrace.core.comm.PrintableCommand;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+import org.openjdk.btrace.core.comm.SnapshotDecoder;
 import org.openjdk.btrace.core.comm.StatusCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +75,10 @@ public final class Main {
   public static final boolean TRACK_RETRANSFORM;
   public static final int BTRACE_DEFAULT_PORT = 2020;
   public static final String BTRACE_DEFAULT_HOST = "localhost";
+  public static final int BTRACE_DEFAULT_PARALLELISM = 8;
+  public static final long BTRACE_DEFAULT_MERGE_INTERVAL = 1000L;
+  // the source of the snapshots merged from all the targets
+  private static final String MERGED_SOURCE = "*";
   private static final Console con;
   private static final PrintWriter out;
   public static volatile boolean exiting;
@@ -64,8 +86,12 @@ public final class Main {
   private static boolean TRUSTED;
   private static boolean DUMP_CLASSES;
   private static String OUTPUT_FILE;
+  private static OutputFormat FORMAT;
+  private static String FORMAT_OUTPUT_FILE;
   private static String DUMP_DIR;
   private static String PROBE_DESC_PATH;
+  private static double OVERHEAD_BUDGET;
+  private static boolean HANDLER_STATS;
 
   static {
     DebugSupport.initLoggers(Boolean.getBoolean("com.sun.btrace.debug"), null);
@@ -125,6 +151,8 @@ public final class Main {
     String probeCommandArg = null;
     boolean listProbes = false;
     boolean unattended = false;
+    int parallelism = BTRACE_DEFAULT_PARALLELISM;
+    long mergeInterval = BTRACE_DEFAULT_MERGE_INTERVAL;
 
     for (int i = 0; i < args.length; i++) {
       String arg = args[i];
@@ -178,6 +206,30 @@ public final class Main {
         } else if (args[count].equals("-o")) {
           OUTPUT_FILE = args[++count];
           if (log.isDebugEnabled()) log.debug("outputFile is {}", OUTPUT_FILE);
+        } else if (args[count].equals("-format")) {
+          FORMAT = OutputFormat.parse(args[++count]);
+          if (FORMAT == null) {
+            usage();
+          }
+          if (log.isDebugEnabled()) log.debug("output format is {}", FORMAT);
+        } else if (args[count].equals("-of")) {
+          FORMAT_OUTPUT_FILE = args[++count];
+          if (log.isDebugEnabled()) log.debug("formatted output file is {}", FORMAT_OUTPUT_FILE);
+        } else if (args[count].equals("-parallel")) {
+          try {
+            parallelism = Integer.parseInt(args[++count]);
+          } catch (NumberFormatException nfe) {
+            usage();
+          }
+          if (parallelism <= 0) {
+            usage();
+          }
+        } else if (args[count].equals("-merge")) {
+          try {
+            mergeInterval = Long.parseLong(args[++count]);
+          } catch (NumberFormatException nfe) {
+            usage();
+          }
         } else if (args[count].equals("-d")) {
           DUMP_CLASSES = true;
           DUMP_DIR = args[++count];
@@ -196,6 +248,17 @@ public final class Main {
           includePathDefined = true;
         } else if (args[count].equals("-statsd")) {
           statsdDef = args[++count];
+        } else if (args[count].equals("-overhead")) {
+          try {
+            OVERHEAD_BUDGET = Double.parseDouble(args[++count]);
+          } catch (NumberFormatException nfe) {
+            usage();
+          }
+          if (OVERHEAD_BUDGET < 0 || OVERHEAD_BUDGET > 100) {
+            usage();
+          }
+        } else if (args[count].equals("-stats")) {
+          HANDLER_STATS = true;
         } else if (args[count].equals("-v")) {
           // already processed
         } else if (args[count].equals("-host") && !hostDefined) {
@@ -248,6 +311,41 @@ public final class Main {
     }
 
     String pidArg = args[count];
+    if (pidArg.indexOf(',') != -1) {
+      // several targets; only a new probe submission is supported
+      if (hostDefined || resumeProbe != null || listProbes || unattended) {
+        usage();
+      }
+      if (args.length < count + 2) {
+        usage();
+      }
+      List<String> pids = new ArrayList<>();
+      for (String name : pidArg.split(",")) {
+        if (name.isEmpty()) {
+          continue;
+        }
+        Integer vmPid = JpsUtils.findVmByName(name);
+        if (vmPid == null) {
+          errorExit("Unable to find JVM with either PID or name: " + name, 1);
+        } else {
+          pids.add(vmPid.toString());
+        }
+      }
+      log.info("Attaching BTrace to PIDs: {}", pids);
+      String fileName = args[count + 1];
+      String[] btraceArgs = Arrays.copyOfRange(args, count + 2, args.length);
+      fanOut(
+          pids,
+          port,
+          parallelism,
+          mergeInterval,
+          statsdDef,
+          classPath,
+          includePath,
+          fileName,
+          btraceArgs);
+      return;
+    }
     Integer pid = JpsUtils.findVmByName(pidArg);
     if (pid == null) {
       errorExit("Unable to find JVM with either PID or name: " + pidArg, 1);
@@ -255,6 +353,11 @@ public final class Main {
       log.info("Attaching BTrace to PID: {}", pid);
     }
 
+    CommandWriter writer = null;
+    if (FORMAT != null || FORMAT_OUTPUT_FILE != null) {
+      writer = createCommandWriter();
+    }
+
     try {
       Client client =
           new Client(
@@ -267,20 +370,22 @@ public final class Main {
               DUMP_CLASSES,
               DUMP_DIR,
               statsdDef);
+      client.setOverheadBudget(OVERHEAD_BUDGET);
+      client.setHandlerStats(HANDLER_STATS);
       if (resumeProbe != null) {
         registerExitHook(client);
-        if (con != null) {
+        if (con != null && writer == null) {
           registerSignalHandler(client);
         }
         client.reconnect(
             host,
             resumeProbe,
-            createCommandListener(client),
+            createCommandListener(client, writer),
             new String[] {probeCommand, probeCommandArg});
       } else if (listProbes) {
         registerExitHook(client);
         client.attach(pid.toString(), null, classPath);
-        client.connectAndListProbes(host, createCommandListener(client));
+        client.connectAndListProbes(host, createCommandListener(client, writer));
         System.exit(0);
       } else {
         String fileName = args[count + 1];
@@ -300,11 +405,11 @@ public final class Main {
         }
         if (!hostDefined) client.attach(pid.toString(), null, classPath);
         registerExitHook(client);
-        if (con != null) {
+        if (con != null && writer == null) {
           registerSignalHandler(client);
         }
         log.debug("submitting the BTrace program");
-        CommandListener listener = createCommandListener(client);
+        CommandListener listener = createCommandListener(client, writer);
 
         boolean isUnattended = unattended;
         client.submit(
@@ -327,10 +432,185 @@ public final class Main {
     }
   }
 
-  private static CommandListener createCommandListener(Client client) {
+  /**
+   * Submits the probe to several JVMs at once. The probe is compiled only once and the output of
+   * all the targets is multiplexed to one {@linkplain CommandWriter}, tagged by the target PID.
+   * The snapshot streams and the aggregations are additionally merged across the targets and
+   * written with the {@code *} source; the merged aggregations every {@code mergeInterval} ms.
+   */
+  private static void fanOut(
+      List<String> pids,
+      int basePort,
+      int parallelism,
+      long mergeInterval,
+      String statsdDef,
+      String classPath,
+      String includePath,
+      String fileName,
+      String[] btraceArgs)
+      throws IOException, InterruptedException {
+    if (!new File(fileName).exists()) {
+      errorExit("File not found: " + fileName, 1);
+    }
+    IntFunction<Client> clients =
+        p -> {
+          Client c =
+              new Client(
+                  p,
+                  OUTPUT_FILE,
+                  PROBE_DESC_PATH,
+                  DEBUG,
+                  TRACK_RETRANSFORM,
+                  TRUSTED,
+                  DUMP_CLASSES,
+                  DUMP_DIR,
+                  statsdDef);
+          c.setOverheadBudget(OVERHEAD_BUDGET);
+          c.setHandlerStats(HANDLER_STATS);
+          c.setMergeAggregations(mergeInterval > 0);
+          return c;
+        };
+    byte[] code = clients.apply(basePort).compile(fileName, classPath, includePath);
+    if (code == null) {
+      errorExit("BTrace compilation failed", 1);
+    }
+    CommandWriter writer = createCommandWriter();
+    FanOutClient client = new FanOutClient(clients, basePort, parallelism);
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  if (!exiting) {
+                    log.debug("sending exit command");
+                    client.sendExit(0);
+                  }
+                }));
+    Map<String, SnapshotDecoder> snapshots = new ConcurrentHashMap<>();
+    SnapshotMerger merger = new SnapshotMerger();
+    AggregationMerger aggregations = new AggregationMerger();
+    // interrupting the merger might close the (interruptible) output channel; stop it by a latch
+    CountDownLatch stopMerging = new CountDownLatch(1);
+    Thread mergeThread = null;
+    if (mergeInterval > 0) {
+      mergeThread =
+          new Thread(
+              () -> {
+                try {
+                  while (!stopMerging.await(mergeInterval, TimeUnit.MILLISECONDS)) {
+                    writeMerged(writer, aggregations);
+                  }
+                } catch (InterruptedException ignored) {
+                } catch (IOException e) {
+                  log.debug("unable to write the merged aggregations", e);
+                }
+              },
+              "BTrace Aggregation Merger");
+      mergeThread.setDaemon(true);
+      mergeThread.start();
+    }
+    client.submit(
+        pids,
+        fileName,
+        code,
+        btraceArgs,
+        classPath,
+        (pid, cmd) -> {
+          int type = cmd.getType();
+          if (type == Command.SNAPSHOT) {
+            SnapshotCommand scmd = (SnapshotCommand) cmd;
+            snapshots.computeIfAbsent(pid, k -> new SnapshotDecoder()).apply(scmd);
+            writer.write(pid, cmd);
+            GridDataCommand merged = merger.merge(pid, scmd);
+            if (merged != null) {
+              writer.write(MERGED_SOURCE, merged);
+            }
+          } else {
+            writer.write(pid, cmd);
+            if (type == Command.AGGREGATION_DATA) {
+              aggregations.update(pid, (AggregationDataCommand) cmd);
+            }
+          }
+          if (type == Command.EXIT || type == Command.DISCONNECT) {
+            for (GridDataCommand merged : merger.remove(pid)) {
+              writer.write(MERGED_SOURCE, merged);
+            }
+          }
+        });
+    if (mergeThread != null) {
+      stopMerging.countDown();
+      mergeThread.join();
+      writeMerged(writer, aggregations);
+    }
+    exiting = true;
+    writer.close();
+    System.exit(0);
+  }
+
+  private static void writeMerged(CommandWriter writer, AggregationMerger aggregations)
+      throws IOException {
+    for (AggregationDataCommand merged : aggregations.drain()) {
+      writer.write(MERGED_SOURCE, merged);
+    }
+  }
+
+  /**
+   * Creates the writer of the non-interactive output. The output is written to the file given by
+   * {@code -of} or to the standard output and is periodically flushed.
+   */
+  private static CommandWriter createCommandWriter() throws IOException {
+    WritableByteChannel channel =
+        FORMAT_OUTPUT_FILE != null
+            ? FileChannel.open(
+                Paths.get(FORMAT_OUTPUT_FILE),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)
+            : Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+    CommandWriter writer =
+        CommandWriter.create(FORMAT != null ? FORMAT : OutputFormat.TEXT, channel);
+    Thread flusher =
+        new Thread(
+            () -> {
+              try {
+                while (!Thread.currentThread().isInterrupted()) {
+                  Thread.sleep(200);
+                  writer.flush();
+                }
+              } catch (InterruptedException ignored) {
+              } catch (IOException e) {
+                log.debug("unable to flush the output", e);
+              }
+            },
+            "BTrace Output Flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    writer.close();
+                  } catch (IOException ignored) {
+                  }
+                }));
+    return writer;
+  }
+
+  private static CommandListener createCommandListener(Client client, CommandWriter writer) {
+    SnapshotDecoder snapshots = new SnapshotDecoder();
     return cmd -> {
       int type = cmd.getType();
-      if (cmd instanceof PrintableCommand) {
+      if (type == Command.SNAPSHOT) {
+        snapshots.apply((SnapshotCommand) cmd);
+      }
+      if (writer != null) {
+        writer.write(cmd);
+        if (type == Command.EXIT) {
+          exiting = true;
+          writer.close();
+          System.exit(((ExitCommand) cmd).getExitCode());
+        }
+      } else if (cmd instanceof PrintableCommand) {
         ((PrintableCommand) cmd).print(out);
         out.flush();
       } else if (type == Command.EXIT) {
@@ -375,7 +655,7 @@ public final class Main {
           try {
             con.printf("Please enter your option:\n");
             con.printf(
-                "\t1. exit\n\t2. send an event\n\t3. send a named event\n\t4. flush console output\n\t5. list probes\n\t6. detach client\n");
+                "\t1. exit\n\t2. send an event\n\t3. send a named event\n\t4. flush console output\n\t5. list probes\n\t6. detach client\n\t7. show handler statistics\n");
             con.flush();
             String option = con.readLine();
             if (option == null) {
@@ -406,6 +686,9 @@ public final class Main {
               case "6":
                 client.disconnect();
                 break;
+              case "7":
+                client.requestHandlerStats();
+                break;
               default:
                 con.printf("invalid option!\n");
                 break;
@@ -0,0 +1,28 @@
+package org.openjdk.btrace.client;
+
+/**
+ * The format of the probe output written by a {@linkplain CommandWriter}.
+ *
+ * @since 2.3.0
+ */
+public enum OutputFormat {
+  /** The human readable text, as printed to the console */
+  TEXT,
+  /** One JSON object per line */
+  JSONL,
+  /** Length prefixed binary records; can be read by {@linkplain BinaryRecordReader} */
+  BINARY;
+
+  /**
+   * @param value the format name, case insensitive
+   * @return the output format or {@code null} if the name is not recognized
+   */
+  public static OutputFormat parse(String value) {
+    for (OutputFormat f : values()) {
+      if (f.name().equalsIgnoreCase(value)) {
+        return f;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,95 @@
+package org.openjdk.btrace.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.comm.AggregationDataCommand;
+import org.openjdk.btrace.core.comm.GridDataCommand;
+import org.openjdk.btrace.core.comm.SnapshotCommand;
+
+/**
+ * Merges the snapshot streams of the same name coming from several sources into one view.
+ *
+ * <p>The values of the same keys are merged according to the aggregation function of the stream,
+ * the same way as by {@linkplain AggregationDataCommand#merge(AggregationDataCommand)} - counts and
+ * sums are added up, minimums and maximums are compared and averages are merged by their sums and
+ * counts. The values of the number maps are added up. The histograms of the quantize aggregations
+ * are not transferred in the snapshots, so their streams are not merged.
+ *
+ * <p>A merged view is produced once each source contributing to the stream has delivered a new
+ * snapshot since the last merge, ie. once per snapshot period rather than once per source.
+ */
+final class SnapshotMerger {
+  private static final class Stream {
+    final Map<String, List<Object[]>> views = new HashMap<>();
+    final Set<String> pending = new HashSet<>();
+    AggregationFunction function;
+  }
+
+  private final Map<String, Stream> streams = new HashMap<>();
+
+  /**
+   * @param source the snapshot source
+   * @param cmd the snapshot with the full view already reconstructed
+   * @return the merged view or {@code null} if some sources have not reported yet or the stream can
+   *     not be merged
+   */
+  synchronized GridDataCommand merge(String source, SnapshotCommand cmd) {
+    if (cmd.getPartialView() == null || cmd.getFunction() == AggregationFunction.QUANTIZE) {
+      return null;
+    }
+    String name = cmd.getName() != null ? cmd.getName() : "";
+    Stream stream = streams.computeIfAbsent(name, k -> new Stream());
+    if (stream.function != cmd.getFunction()) {
+      // the stream has changed; the views of the other sources can not be merged with this one
+      stream.views.clear();
+      stream.pending.clear();
+      stream.function = cmd.getFunction();
+    }
+    stream.views.put(source, cmd.getPartialView());
+    stream.pending.add(source);
+    return tryMerge(name, stream);
+  }
+
+  /**
+   * Stops waiting for the snapshots from the given source and drops its views from the merged data.
+   *
+   * @param source the source which has gone away
+   * @return the merged views which became complete by removing the source
+   */
+  synchronized List<GridDataCommand> remove(String source) {
+    List<GridDataCommand> merged = new ArrayList<>();
+    for (Map.Entry<String, Stream> e : streams.entrySet()) {
+      Stream stream = e.getValue();
+      if (stream.views.remove(source) != null) {
+        stream.pending.remove(source);
+        if (!stream.pending.isEmpty()) {
+          GridDataCommand cmd = tryMerge(e.getKey(), stream);
+          if (cmd != null) {
+            merged.add(cmd);
+          }
+        }
+      }
+    }
+    return merged;
+  }
+
+  private static GridDataCommand tryMerge(String name, Stream stream) {
+    if (stream.pending.size() < stream.views.size()) {
+      return null;
+    }
+    stream.pending.clear();
+    // a number map is merged as a sum
+    AggregationFunction function =
+        stream.function != null ? stream.function : AggregationFunction.SUM;
+    AggregationDataCommand merged = new AggregationDataCommand(null, function, null, null);
+    for (List<Object[]> view : stream.views.values()) {
+      merged = merged.merge(new AggregationDataCommand(null, function, view, null));
+    }
+    return new GridDataCommand(name.isEmpty() ? null : name, merged.getDisplayData());
+  }
+}
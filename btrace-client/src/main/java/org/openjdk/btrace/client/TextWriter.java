@@ -0,0 +1,51 @@
+package org.openjdk.btrace.client;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.PrintableCommand;
+
+/**
+ * Writes the printable commands in the same form as they are printed to the console. The lines of
+ * the commands with a known source are prefixed by {@code [source]}.
+ */
+final class TextWriter extends CommandWriter {
+  private final StringWriter text = new StringWriter();
+  private final PrintWriter printer = new PrintWriter(text);
+
+  TextWriter(WritableByteChannel channel) {
+    super(channel);
+  }
+
+  @Override
+  protected void encode(String source, Command cmd) throws IOException {
+    if (cmd instanceof PrintableCommand) {
+      text.getBuffer().setLength(0);
+      ((PrintableCommand) cmd).print(printer);
+      printer.flush();
+      String printed = text.toString();
+      if (source != null) {
+        printed = tag(source, printed);
+      }
+      byte[] bytes = printed.getBytes(StandardCharsets.UTF_8);
+      put(bytes, 0, bytes.length);
+    }
+  }
+
+  /** Prefixes each line with the source */
+  private static String tag(String source, String printed) {
+    String prefix = "[" + source + "] ";
+    StringBuilder sb = new StringBuilder(printed.length() + prefix.length());
+    int start = 0;
+    while (start < printed.length()) {
+      int end = printed.indexOf('\n', start);
+      end = end == -1 ? printed.length() : end + 1;
+      sb.append(prefix).append(printed, start, end);
+      start = end;
+    }
+    return sb.toString();
+  }
+}
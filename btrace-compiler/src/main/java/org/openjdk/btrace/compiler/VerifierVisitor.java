@@ -36,6 +36,7 @@ import com.sun.source.tree.DoWhileLoopTree;
 import com.sun.source.tree.EnhancedForLoopTree;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.ForLoopTree;
+import com.sun.source.tree.LiteralTree;
 import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.MethodInvocationTree;
 import com.sun.source.tree.MethodTree;
@@ -52,7 +53,9 @@ import com.sun.source.tree.WhileLoopTree;
 import com.sun.source.util.SourcePositions;
 import com.sun.source.util.TreePath;
 import com.sun.source.util.TreeScanner;
+import java.util.Formatter;
 import java.util.HashSet;
+import java.util.IllegalFormatException;
 import java.util.List;
 import java.util.Set;
 import javax.lang.model.element.Element;
@@ -62,6 +65,7 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.Name;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
 import org.openjdk.btrace.core.Messages;
@@ -172,6 +176,8 @@ public class VerifierVisitor extends TreeScanner<Void, Void> {
               if (!eventFieldNames.contains(nameValue)) {
                 reportError("jfr.event.invalid.field", node.getArguments().get(1));
               }
+            } else if (e.getSimpleName().contentEquals("printf")) {
+              validatePrintf(node);
             }
           }
           return super.visitMethodInvocation(node, v);
@@ -696,6 +702,73 @@ public class VerifierVisitor extends TreeScanner<Void, Void> {
     return verifier.getTreeUtils().getTypeMirror(tp);
   }
 
+  /**
+   * The printf arguments are formatted later, on the command thread. Therefore only immutable
+   * values are accepted and the format, which must be a literal, is checked against them now.
+   */
+  private void validatePrintf(MethodInvocationTree node) {
+    List<? extends ExpressionTree> args = node.getArguments();
+    ExpressionTree format = args.get(0);
+    if (format.getKind() != Tree.Kind.STRING_LITERAL) {
+      reportError("printf.format.literal", node);
+      return;
+    }
+    Object[] values = new Object[args.size() - 1];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = sampleValue(getType(args.get(i + 1)));
+      if (values[i] == null) {
+        reportError("printf.argument.type", node);
+        return;
+      }
+    }
+    try {
+      new Formatter().format((String) ((LiteralTree) format).getValue(), values);
+    } catch (IllegalFormatException ex) {
+      reportError("printf.format.invalid", node);
+    }
+  }
+
+  /**
+   * @return a value of the given primitive, boxed primitive or string type; {@code null} for the
+   *     other types
+   */
+  private Object sampleValue(TypeMirror tm) {
+    if (tm == null) {
+      return null;
+    }
+    TypeKind kind = tm.getKind();
+    if (kind == TypeKind.DECLARED) {
+      if (tm.toString().equals(String.class.getName())) {
+        return "";
+      }
+      try {
+        kind = verifier.getTypeUtils().unboxedType(tm).getKind();
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    switch (kind) {
+      case BOOLEAN:
+        return false;
+      case BYTE:
+        return (byte) 0;
+      case SHORT:
+        return (short) 0;
+      case CHAR:
+        return 'c';
+      case INT:
+        return 0;
+      case LONG:
+        return 0L;
+      case FLOAT:
+        return 0f;
+      case DOUBLE:
+        return 0d;
+      default:
+        return null;
+    }
+  }
+
   private boolean validateInjectionParams(MethodInvocationTree node) {
     boolean allLiterals = true;
     outer:
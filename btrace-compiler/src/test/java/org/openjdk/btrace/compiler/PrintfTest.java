@@ -0,0 +1,44 @@
+package org.openjdk.btrace.compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.openjdk.btrace.core.SharedSettings;
+import org.openjdk.btrace.instr.BTraceProbe;
+import org.openjdk.btrace.instr.BTraceProbeFactory;
+
+public class PrintfTest {
+  private static Map<String, byte[]> compile(String probe, StringWriter err) throws Exception {
+    File inputFile = new File(PrintfTest.class.getResource(probe).toURI());
+    return new Compiler(true)
+        .compile(inputFile, new PrintWriter(err), null, System.getProperty("java.class.path"));
+  }
+
+  @Test
+  public void testValidFormats() throws Exception {
+    StringWriter err = new StringWriter();
+    Map<String, byte[]> data = compile("/PrintfProbe.java", err);
+    assertNotNull(data, err.toString());
+    BTraceProbeFactory factory = new BTraceProbeFactory(SharedSettings.GLOBAL);
+    for (byte[] bytes : data.values()) {
+      BTraceProbe probe = factory.createProbe(bytes);
+      StringWriter sw = new StringWriter();
+      CheckClassAdapter.verify(new ClassReader(probe.getFullBytecode()), true, new PrintWriter(sw));
+      assertFalse(sw.toString().contains("AnalyzerException"), sw.toString());
+    }
+  }
+
+  @Test
+  public void testInvalidFormats() throws Exception {
+    StringWriter err = new StringWriter();
+    assertNull(compile("/PrintfInvalidProbe.java", err));
+    assertTrue(err.toString().contains("printf format does not match"), err.toString());
+    assertTrue(err.toString().contains("printf arguments must be primitive"), err.toString());
+  }
+}
@@ -0,0 +1,18 @@
+package test;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+import org.openjdk.btrace.core.annotations.*;
+
+@BTrace public class PrintfInvalidProbe {
+    @OnMethod(clazz = "java.lang.Thread", method = "start")
+    public static void onStart(@ProbeMethodName String method, @Self Object self) {
+        // a string is not a number
+        printf("%d%n", method);
+    }
+
+    @OnMethod(clazz = "java.lang.Thread", method = "run")
+    public static void onRun(@ProbeMethodName String method, @Self Object self) {
+        // the object would be rendered later, on the command thread
+        printf("%s%n", self);
+    }
+}
@@ -0,0 +1,13 @@
+package test;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+import org.openjdk.btrace.core.annotations.*;
+
+@BTrace public class PrintfProbe {
+    @OnMethod(clazz = "java.lang.Thread", method = "start", location = @Location(Kind.RETURN))
+    public static void onStart(@ProbeMethodName String method, @Duration long duration) {
+        printf("%s took %d ns%n", method, duration);
+        printf("%c %b %.2f%n", 'x', true, 1.5d);
+        printf("done%n");
+    }
+}
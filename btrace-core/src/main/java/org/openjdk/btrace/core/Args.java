@@ -17,11 +17,15 @@ public final class Args {
   public static final String FILE_ROLL_MAX_ROLLS = "fileRollMaxRolls";
   public static final String TRUSTED = "trusted";
   public static final String STATSD = "statsd";
+  public static final String OVERHEAD_BUDGET = "overheadBudget";
+  public static final String HANDLER_STATS = "handlerStats";
+  public static final String INLINE_HANDLERS = "inlineHandlers";
   public static final String PROBE_DESC_PATH = "probeDescPath";
   public static final String DEBUG = "debug";
   public static final String PORT = "port";
   public static final String STDOUT = "stdout";
   public static final String NO_SERVER = "noServer";
+  public static final String DORMANT = "dormant";
   public static final String HELP = "help";
   public static final String LIBS = "libs";
 }
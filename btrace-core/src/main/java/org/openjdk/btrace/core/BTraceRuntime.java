@@ -45,6 +45,7 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
@@ -58,11 +59,14 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.openjdk.btrace.core.aggregation.Aggregation;
 import org.openjdk.btrace.core.aggregation.AggregationFunction;
 import org.openjdk.btrace.core.aggregation.AggregationKey;
+import org.openjdk.btrace.core.comm.AggregationDataCommand;
 import org.openjdk.btrace.core.comm.Command;
 import org.openjdk.btrace.core.comm.EventCommand;
 import org.openjdk.btrace.core.comm.GridDataCommand;
+import org.openjdk.btrace.core.comm.HandlerStatsCommand;
 import org.openjdk.btrace.core.comm.NumberDataCommand;
 import org.openjdk.btrace.core.comm.NumberMapDataCommand;
+import org.openjdk.btrace.core.comm.SnapshotEncoder;
 import org.openjdk.btrace.core.comm.StringMapDataCommand;
 import org.openjdk.btrace.core.jfr.JfrEvent;
 import org.openjdk.btrace.core.types.AnyType;
@@ -467,6 +471,11 @@ public final class BTraceRuntime {
     getRt().send(new NumberMapDataCommand(name, data));
   }
 
+  static void printNumberMapSnapshot(String name, Map<String, ? extends Number> data) {
+    Impl rt = getRt();
+    rt.send(rt.snapshotEncoder(name).encode(data));
+  }
+
   static void printStringMap(String name, Map<String, String> data) {
     getRt().send(new StringMapDataCommand(name, data));
   }
@@ -732,6 +741,49 @@ public final class BTraceRuntime {
     return getRt().perfString(name);
   }
 
+  /**
+   * Samples the perf counters named by the map keys. The map lock is held only while copying the
+   * names and storing the results; the counters themselves are read without it, into per-thread
+   * buffers which are reused as long as the number of sampled counters does not change.
+   */
+  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  static void perfLongs(Map<String, Long> samples) {
+    PerfSample sample = perfSamples.get();
+    String[] names;
+    long[] values;
+    synchronized (samples) {
+      int size = samples.size();
+      if (sample.names.length != size) {
+        sample.names = new String[size];
+        sample.values = new long[size];
+      }
+      names = sample.names;
+      values = sample.values;
+      int idx = 0;
+      for (String name : samples.keySet()) {
+        names[idx++] = name;
+      }
+    }
+    getRt().perfLongs(names, values);
+    synchronized (samples) {
+      for (int i = 0; i < names.length; i++) {
+        // do not resurrect a counter removed while sampling nor box an unchanged value
+        Long old = samples.get(names[i]);
+        if (old == null ? samples.containsKey(names[i]) : old != values[i]) {
+          samples.put(names[i], values[i]);
+        }
+      }
+    }
+  }
+
+  private static final ThreadLocal<PerfSample> perfSamples =
+      ThreadLocal.withInitial(PerfSample::new);
+
+  private static final class PerfSample {
+    private String[] names = new String[0];
+    private long[] values = new long[0];
+  }
+
   // stack trace functions
   private static String stackTraceAllStr(int numFrames, boolean printWarning) {
     Set<Map.Entry<Thread, StackTraceElement[]>> traces = Thread.getAllStackTraces().entrySet();
@@ -790,6 +842,35 @@ public final class BTraceRuntime {
     return buf.toString();
   }
 
+  /**
+   * Captures at most the given number of frames of the current thread stack
+   *
+   * @param skip the number of frames to skip; 0 means the first captured frame is the caller of
+   *     this method
+   * @param maxFrames the maximum number of frames to capture
+   * @return the captured frame ids
+   */
+  static int[] captureStack(int skip, int maxFrames) {
+    int[] frames = new int[maxFrames];
+    int cnt = getRt().captureStack(skip + 1, frames, maxFrames);
+    return cnt == maxFrames ? frames : Arrays.copyOf(frames, cnt);
+  }
+
+  static String stackTraceStr(String prefix, int[] frames, int numFrames) {
+    return getRt().stackTraceStr(prefix, frames, numFrames);
+  }
+
+  /**
+   * Prints at most the given number of the current thread stack frames
+   *
+   * @param skip the number of frames to skip; 0 means the first printed frame is the caller of
+   *     this method
+   * @param numFrames the maximum number of frames to print
+   */
+  static void stackTrace(int skip, int numFrames) {
+    getRt().stackTrace(skip + 1, numFrames);
+  }
+
   static void stackTrace(StackTraceElement[] st, int strip, int numFrames) {
     stackTrace(null, st, strip, numFrames);
   }
@@ -811,6 +892,10 @@ public final class BTraceRuntime {
     getRt().send(LINE_SEPARATOR);
   }
 
+  static void printf(String format, Object[] args) {
+    getRt().printf(format, args);
+  }
+
   static String property(String name) {
     return AccessController.doPrivileged(new GetPropertyAction(name));
   }
@@ -1074,6 +1159,41 @@ public final class BTraceRuntime {
     aggregation.add(key, value);
   }
 
+  /**
+   * Adds a value to the aggregation grouped by the current thread stack.
+   *
+   * <p>The stack is captured into a per-thread buffer; the aggregation copies the frames only when
+   * it sees the stack for the first time.
+   *
+   * @param aggregation the aggregation
+   * @param skip the number of frames to skip; 0 means the first captured frame is the caller of
+   *     this method
+   * @param numFrames the maximum number of frames to capture; when not positive the whole stack is
+   *     captured
+   * @param value the value to add
+   */
+  static void addStackToAggregation(Aggregation aggregation, int skip, int numFrames, long value) {
+    StackBuffer buffer = stackBuffers.get();
+    if (numFrames > buffer.frames.length) {
+      buffer.frames = new int[numFrames];
+    }
+    int[] frames = buffer.frames;
+    int cnt = getRt().captureStack(skip + 1, frames, numFrames > 0 ? numFrames : frames.length);
+    // the whole stack is requested but might not fit
+    while (numFrames <= 0 && cnt == frames.length) {
+      frames = buffer.frames = new int[frames.length * 2];
+      cnt = getRt().captureStack(skip + 1, frames, frames.length);
+    }
+    aggregation.add(frames, cnt, value);
+  }
+
+  private static final ThreadLocal<StackBuffer> stackBuffers =
+      ThreadLocal.withInitial(StackBuffer::new);
+
+  private static final class StackBuffer {
+    private int[] frames = new int[64];
+  }
+
   static void clearAggregation(Aggregation aggregation) {
     aggregation.clear();
   }
@@ -1083,7 +1203,21 @@ public final class BTraceRuntime {
   }
 
   static void printAggregation(String name, Aggregation aggregation) {
-    getRt().send(new GridDataCommand(name, aggregation.getData()));
+    printAggregation(name, aggregation, null);
+  }
+
+  static void printAggregationSnapshot(String name, Aggregation aggregation) {
+    Impl rt = getRt();
+    rt.send(rt.snapshotEncoder(name).encode(aggregation, BTraceRuntime::renderStack));
+  }
+
+  static void printCollapsedStacks(Aggregation aggregation) {
+    Impl rt = getRt();
+    rt.send(aggregation.getCollapsedStacks(rt::collapsedStackStr));
+  }
+
+  private static String renderStack(int[] frames) {
+    return getRt().stackTraceStr(null, frames, frames.length);
   }
 
   static void printSnapshot(String name, Profiler.Snapshot snapshot) {
@@ -1109,6 +1243,9 @@ public final class BTraceRuntime {
    * aggregations have values for keys which the first aggregation does not have, these rows are
    * ignored.
    *
+   * <p>The columns of the table come from different aggregation functions so the table is always
+   * sent as a plain grid which is not merged across several JVMs.
+   *
    * @param name
    * @param format
    * @param aggregationArray
@@ -1130,6 +1267,7 @@ public final class BTraceRuntime {
           currAggregationData[aggDataIndex] = obj;
           aggDataIndex++;
         }
+        Aggregation.renderStacks(currAggregationData, BTraceRuntime::renderStack);
 
         for (Aggregation agg : aggregationArray) {
           currAggregationData[aggDataIndex] = agg.getValueForKey(aggKey);
@@ -1154,7 +1292,14 @@ public final class BTraceRuntime {
    * @see String#format(java.lang.String, java.lang.Object[])
    */
   static void printAggregation(String name, Aggregation aggregation, String format) {
-    getRt().send(new GridDataCommand(name, aggregation.getData(), format));
+    Impl rt = getRt();
+    if (rt.isAggregationDataEnabled()) {
+      // sent with the partial data so the client may merge the aggregations of several JVMs
+      List<Object[]> data = aggregation.getPartialData(BTraceRuntime::renderStack);
+      rt.send(new AggregationDataCommand(name, aggregation.getFunction(), data, format));
+    } else {
+      rt.send(new GridDataCommand(name, aggregation.getData(BTraceRuntime::renderStack), format));
+    }
   }
 
   /**
@@ -1270,6 +1415,8 @@ public final class BTraceRuntime {
 
     String perfString(String name);
 
+    void perfLongs(String[] names, long[] values);
+
     String resolveFileName(String name);
 
     boolean isDTraceEnabled();
@@ -1300,6 +1447,58 @@ public final class BTraceRuntime {
 
     Class<?> getCallerClass(int stackDec);
 
+    /**
+     * Captures at most the given number of frames of the current thread stack.
+     *
+     * <p>The stack is walked only as deep as necessary and the frames are returned as the ids
+     * interned by this runtime - they can be rendered later by {@linkplain #stackTraceStr(String,
+     * int[], int)}.
+     *
+     * @param skip the number of frames to skip; 0 means the first captured frame is the caller of
+     *     this method
+     * @param frames receives the captured frame ids
+     * @param maxFrames the maximum number of frames to capture; must not exceed the length of
+     *     {@code frames}
+     * @return the number of the captured frames
+     */
+    int captureStack(int skip, int[] frames, int maxFrames);
+
+    String stackTraceStr(String prefix, int[] frames, int numFrames);
+
+    /**
+     * Sends at most the given number of the current thread stack frames, followed by the number
+     * of the frames left out.
+     *
+     * @param skip the number of frames to skip; 0 means the first sent frame is the caller of this
+     *     method
+     * @param numFrames the maximum number of frames to send; must be positive
+     */
+    void stackTrace(int skip, int numFrames);
+
+    /**
+     * Sends a message formatted only when it is about to be written or printed.
+     *
+     * @since 2.3.0
+     */
+    void printf(String format, Object[] args);
+
+    /**
+     * Renders the captured frames in the collapsed stack format - semicolon separated frames,
+     * starting with the root frame.
+     *
+     * @param frames the frame ids as captured by {@linkplain #captureStack(int, int[], int)}
+     * @return the collapsed stack
+     */
+    String collapsedStackStr(int[] frames);
+
+    /**
+     * Returns the encoder of the named snapshot stream, creating it if necessary.
+     *
+     * @param name the snapshot stream name
+     * @return the snapshot encoder
+     */
+    SnapshotEncoder snapshotEncoder(String name);
+
     JfrEvent.Factory createEventFactory(JfrEvent.Template template);
 
     int version();
@@ -1307,6 +1506,44 @@ public final class BTraceRuntime {
     boolean isBootstrapClass(String className);
 
     String getClassName();
+
+    /**
+     * Limits the CPU time the probe handlers of this runtime may consume. Must be called before the
+     * runtime is started.
+     *
+     * @param percent the share of the CPU time in percent; {@code 0} disables the limit
+     * @since 2.3.0
+     */
+    void setOverheadBudget(double percent);
+
+    /**
+     * Enables collecting the per-handler statistics. Must be called before the runtime is
+     * started.
+     *
+     * @since 2.3.0
+     */
+    void setHandlerStatsEnabled(boolean enabled);
+
+    /**
+     * Makes {@linkplain BTraceUtils.Aggregations#printAggregation(String, Aggregation, String)}
+     * send the mergeable {@linkplain AggregationDataCommand} instead of the plain {@linkplain
+     * GridDataCommand}. Enabled when the client merges the aggregations of several JVMs.
+     *
+     * @since 2.3.0
+     */
+    void setAggregationDataEnabled(boolean enabled);
+
+    /**
+     * @return {@code true} if the aggregations are sent in the mergeable form
+     * @since 2.3.0
+     */
+    boolean isAggregationDataEnabled();
+
+    /**
+     * @return the current per-handler statistics; empty if not enabled
+     * @since 2.3.0
+     */
+    HandlerStatsCommand getHandlerStats();
   }
 
   public interface BTraceRuntimeAccessor {
@@ -881,6 +881,22 @@ public class BTraceUtils {
     BTraceRuntime.printNumberMap(name, data);
   }
 
+  /**
+   * Prints the given Map as a snapshot stream tick.
+   *
+   * <p>Only the entries changed since the previous call for the same name are sent to the client,
+   * which reconstructs and prints the whole map. This is much cheaper than {@linkplain
+   * #printNumberMap(String, Map)} for large maps printed periodically with few changes between
+   * the ticks. The values are transferred as {@code long}s.
+   *
+   * @param name - the name of the map; identifies the snapshot stream
+   * @param data - the map data
+   * @since 2.3.0
+   */
+  public static void printNumberMapSnapshot(String name, Map<String, ? extends Number> data) {
+    BTraceRuntime.printNumberMapSnapshot(name, data);
+  }
+
   /**
    * Prints a number.
    *
@@ -1090,6 +1106,84 @@ public class BTraceUtils {
     BTraceRuntime.println();
   }
 
+  /**
+   * Prints a formatted string. The probe only captures the arguments; the string is formatted
+   * later, by the BTrace command thread, so that the formatting does not slow down the traced
+   * application.
+   *
+   * <p>The format must be a string literal and the arguments primitive values or strings - the
+   * format is checked against the arguments when the script is compiled. There are overloads
+   * taking up to six arguments. When the probe is loaded the calls are rewritten to capture the
+   * primitive arguments without boxing them.
+   *
+   * @param format the format as accepted by {@linkplain String#format(String, Object...)}
+   * @since 2.3.0
+   */
+  public static void printf(String format) {
+    BTraceRuntime.printf(format, new Object[0]);
+  }
+
+  /**
+   * Prints a formatted string with one argument.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(String format, Object a1) {
+    BTraceRuntime.printf(format, new Object[] {a1});
+  }
+
+  /**
+   * Prints a formatted string with two arguments.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(String format, Object a1, Object a2) {
+    BTraceRuntime.printf(format, new Object[] {a1, a2});
+  }
+
+  /**
+   * Prints a formatted string with three arguments.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(String format, Object a1, Object a2, Object a3) {
+    BTraceRuntime.printf(format, new Object[] {a1, a2, a3});
+  }
+
+  /**
+   * Prints a formatted string with four arguments.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(String format, Object a1, Object a2, Object a3, Object a4) {
+    BTraceRuntime.printf(format, new Object[] {a1, a2, a3, a4});
+  }
+
+  /**
+   * Prints a formatted string with five arguments.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(String format, Object a1, Object a2, Object a3, Object a4, Object a5) {
+    BTraceRuntime.printf(format, new Object[] {a1, a2, a3, a4, a5});
+  }
+
+  /**
+   * Prints a formatted string with six arguments.
+   *
+   * @see #printf(String)
+   * @since 2.3.0
+   */
+  public static void printf(
+      String format, Object a1, Object a2, Object a3, Object a4, Object a5, Object a6) {
+    BTraceRuntime.printf(format, new Object[] {a1, a2, a3, a4, a5, a6});
+  }
+
   /**
    * Returns the start time of the Java virtual machine in milliseconds. This method returns the
    * approximate time when the Java virtual machine started.
@@ -1343,7 +1437,8 @@ public class BTraceUtils {
    * </blockquote>
    *
    * <p>If a pattern is to be used multiple times, compiling it once and reusing it will be more
-   * efficient than invoking this method each time.
+   * efficient than invoking this method each time. A string literal regular expression is compiled
+   * only once, when the probe is loaded.
    *
    * @param regex The expression to be compiled
    * @param input The character sequence to be matched
@@ -1981,6 +2076,15 @@ public class BTraceUtils {
     return Counters.perfString(name);
   }
 
+  /**
+   * sampling a set of jvmstat (perf) int or long counters
+   *
+   * @see Counters#perfLongs(Map)
+   */
+  public static void perfLongs(Map<String, Long> samples) {
+    Counters.perfLongs(samples);
+  }
+
   /** Operating on maps */
   // Create a new map
   public static <K, V> Map<K, V> newHashMap() {
@@ -3029,6 +3133,43 @@ public class BTraceUtils {
     Aggregations.printAggregation(name, aggregation, format);
   }
 
+  /**
+   * Prints the aggregation as a snapshot stream tick.
+   *
+   * @param name the name of the aggregation; identifies the snapshot stream
+   * @param aggregation the aggregation to print
+   * @see Aggregations#printAggregationSnapshot(String, Aggregation)
+   * @since 2.3.0
+   */
+  public static void printAggregationSnapshot(String name, Aggregation aggregation) {
+    Aggregations.printAggregationSnapshot(name, aggregation);
+  }
+
+  /**
+   * Adds a value to the aggregation grouped by the current call stack. The aggregation will
+   * calculate a separate aggregated value for each unique call stack.
+   *
+   * @param aggregation the aggregation to which the value should be added
+   * @param numFrames the maximum number of the top stack frames to group by. When this is not
+   *     positive the whole stack is used.
+   * @param value the value to be added
+   * @since 2.3.0
+   */
+  public static void addStackToAggregation(Aggregation aggregation, int numFrames, long value) {
+    Aggregations.addStackToAggregation(2, aggregation, numFrames, value);
+  }
+
+  /**
+   * Prints the aggregation in the collapsed stack format, suitable as an input for the flame graph
+   * tools.
+   *
+   * @param aggregation the aggregation to print
+   * @since 2.3.0
+   */
+  public static void printCollapsedStacks(Aggregation aggregation) {
+    Aggregations.printCollapsedStacks(aggregation);
+  }
+
   // Internals only below this point
   private static void checkStatic(Field field) {
     if (!Modifier.isStatic(field.getModifiers())) {
@@ -3185,6 +3326,11 @@ public class BTraceUtils {
 
     private static void jstack(int strip, int numFrames) {
       if (numFrames == 0) return;
+      if (numFrames > 0) {
+        // resolve only the requested frames
+        BTraceRuntime.stackTrace(strip + 2, numFrames);
+        return;
+      }
       StackTraceElement[] st = Thread.currentThread().getStackTrace();
       BTraceRuntime.stackTrace(st, strip + 2, numFrames);
     }
@@ -3236,6 +3382,10 @@ public class BTraceUtils {
       if (numFrames == 0) {
         return "";
       }
+      if (numFrames > 0) {
+        int[] frames = BTraceRuntime.captureStack(strip + 2, numFrames);
+        return BTraceRuntime.stackTraceStr(null, frames, numFrames);
+      }
       StackTraceElement[] st = Thread.currentThread().getStackTrace();
       return BTraceRuntime.stackTraceStr(st, strip + 2, numFrames);
     }
@@ -3586,7 +3736,8 @@ public class BTraceUtils {
      * </blockquote>
      *
      * <p>If a pattern is to be used multiple times, compiling it once and reusing it will be more
-     * efficient than invoking this method each time.
+     * efficient than invoking this method each time. A string literal regular expression is
+     * compiled only once, when the probe is loaded.
      *
      * @param regex The expression to be compiled
      * @param input The character sequence to be matched
@@ -4868,6 +5019,24 @@ public class BTraceUtils {
       BTraceRuntime.printAggregation(name, aggregation, format);
     }
 
+    /**
+     * Prints the aggregation as a snapshot stream tick.
+     *
+     * <p>Intended for aggregations printed periodically, eg. from an {@code @OnTimer} handler.
+     * Only the rows changed since the previous call for the same name are sent to the client,
+     * which reconstructs and prints the whole aggregation in the same way as {@linkplain
+     * #printAggregation(String, Aggregation)}. The keys are rendered only once and the values are
+     * transferred as the differences to the previously sent ones. Histogram aggregations are
+     * transferred by their scalar values only.
+     *
+     * @param name the name of the aggregation; identifies the snapshot stream
+     * @param aggregation the aggregation to print
+     * @since 2.3.0
+     */
+    public static void printAggregationSnapshot(String name, Aggregation aggregation) {
+      BTraceRuntime.printAggregationSnapshot(name, aggregation);
+    }
+
     public static void printAggregation(
         String name, String format, Collection<Aggregation> aggregationList) {
       Aggregation[] aggregationArray = new Aggregation[aggregationList.size()];
@@ -4878,6 +5047,44 @@ public class BTraceUtils {
       }
       BTraceRuntime.printAggregation(name, format, aggregationArray);
     }
+
+    /**
+     * Adds a value to the aggregation grouped by the current call stack. The aggregation will
+     * calculate a separate aggregated value for each unique call stack.
+     *
+     * <p>The stack is captured as compact frame ids and deduplicated within the aggregation; it is
+     * rendered only when the aggregation is printed.
+     *
+     * @param aggregation the aggregation to which the value should be added
+     * @param numFrames the maximum number of the top stack frames to group by. When this is not
+     *     positive the whole stack is used.
+     * @param value the value to be added
+     * @since 2.3.0
+     */
+    public static void addStackToAggregation(Aggregation aggregation, int numFrames, long value) {
+      addStackToAggregation(1, aggregation, numFrames, value);
+    }
+
+    private static void addStackToAggregation(
+        int strip, Aggregation aggregation, int numFrames, long value) {
+      BTraceRuntime.addStackToAggregation(aggregation, strip + 2, numFrames, value);
+    }
+
+    /**
+     * Prints the aggregation in the collapsed stack format, suitable as an input for the flame
+     * graph tools.
+     *
+     * <p>Each aggregated value is printed on a separate line - the key elements separated by
+     * semicolons, call stacks expanded to the frames starting from the root frame, followed by a
+     * space and the aggregated value.
+     *
+     * @param aggregation the aggregation to print
+     * @see #addStackToAggregation(Aggregation, int, long)
+     * @since 2.3.0
+     */
+    public static void printCollapsedStacks(Aggregation aggregation) {
+      BTraceRuntime.printCollapsedStacks(aggregation);
+    }
   }
 
   /**
@@ -6381,6 +6588,19 @@ public class BTraceUtils {
     public static String perfString(String name) {
       return BTraceRuntime.perfString(name);
     }
+
+    /**
+     * Samples a set of jvmstat (perf) int or long counters in one call.
+     *
+     * <p>The map keys are the counter names; the associated values are replaced by the current
+     * counter values.
+     *
+     * @param samples the map of counter names to their values
+     * @since 2.3.0
+     */
+    public static void perfLongs(Map<String, Long> samples) {
+      BTraceRuntime.perfLongs(samples);
+    }
   }
 
   /*
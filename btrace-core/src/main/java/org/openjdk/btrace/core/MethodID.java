@@ -25,8 +25,8 @@
 
 package org.openjdk.btrace.core;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -36,7 +36,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class MethodID {
   static final AtomicInteger lastMehodId = new AtomicInteger(1);
-  private static final Map<String, Integer> methodIds = new HashMap<>();
+  // resolved concurrently by the transformations of classes loaded in parallel
+  private static final Map<String, Integer> methodIds = new ConcurrentHashMap<>();
 
   /**
    * Generates a unique method id based on the provided method tag
@@ -45,12 +46,12 @@ public class MethodID {
    * @return An ID belonging to the provided method tag
    */
   public static int getMethodId(String methodTag) {
-    synchronized (methodIds) {
-      if (!methodIds.containsKey(methodTag)) {
-        methodIds.put(methodTag, lastMehodId.getAndIncrement());
-      }
-      return methodIds.get(methodTag);
+    Integer id = methodIds.get(methodTag);
+    if (id == null) {
+      // the id is generated only when the tag is not yet mapped; the ids stay dense
+      id = methodIds.computeIfAbsent(methodTag, k -> lastMehodId.getAndIncrement());
     }
+    return id;
   }
 
   public static int getMethodId(String className, String method, String desc) {
@@ -42,6 +42,10 @@ public final class SharedSettings {
   public static final String FILEROLL_MAXROLLS_KEY = "fileRollMaxRolls";
   public static final String OUTPUT_FILE_KEY = "scriptOutputFile";
   public static final String OUTPUT_DIR_KEY = "scriptOutputDir";
+  public static final String OVERHEAD_BUDGET_KEY = "overheadBudget";
+  public static final String HANDLER_STATS_KEY = "handlerStats";
+  public static final String INLINE_HANDLERS_KEY = "inlineHandlers";
+  public static final String MERGE_AGGREGATIONS_KEY = "mergeAggregations";
 
   public static final SharedSettings GLOBAL = new SharedSettings();
 
@@ -61,6 +65,10 @@ public final class SharedSettings {
   private String scriptDir;
   private String scriptOutputDir;
   private String clientName;
+  private double overheadBudget = 0; // percent of CPU; 0 means unlimited
+  private boolean handlerStats = false;
+  private boolean inlineHandlers = false;
+  private boolean mergeAggregations = false;
 
   public void from(Map<String, Object> params) {
     Boolean b = (Boolean) params.get(DEBUG_KEY);
@@ -79,6 +87,18 @@ public final class SharedSettings {
     if (b != null) {
       trusted |= b;
     }
+    b = (Boolean) params.get(HANDLER_STATS_KEY);
+    if (b != null) {
+      handlerStats = b;
+    }
+    b = (Boolean) params.get(INLINE_HANDLERS_KEY);
+    if (b != null) {
+      inlineHandlers = b;
+    }
+    b = (Boolean) params.get(MERGE_AGGREGATIONS_KEY);
+    if (b != null) {
+      mergeAggregations = b;
+    }
     String s = (String) params.get(DUMP_DIR_KEY);
     if (s != null && !s.isEmpty()) {
       dumpDir = s;
@@ -117,6 +137,10 @@ public final class SharedSettings {
     if (s != null && !s.isEmpty()) {
       scriptOutputDir = s;
     }
+    Number n = (Number) params.get(OVERHEAD_BUDGET_KEY);
+    if (n != null) {
+      overheadBudget = n.doubleValue();
+    }
   }
 
   public void from(SharedSettings other) {
@@ -135,6 +159,10 @@ public final class SharedSettings {
     statsdPort = other.statsdPort;
     trackRetransforms = other.trackRetransforms;
     trusted = other.trusted;
+    overheadBudget = other.overheadBudget;
+    handlerStats = other.handlerStats;
+    inlineHandlers = other.inlineHandlers;
+    mergeAggregations = other.mergeAggregations;
   }
 
   public boolean isDebug() {
@@ -262,4 +290,54 @@ public final class SharedSettings {
   public void setClientName(String clientName) {
     this.clientName = clientName;
   }
+
+  /**
+   * @return the share of the CPU time, in percent, the probe handlers may consume before being
+   *     throttled; {@code 0} if the probe handlers are not throttled
+   * @since 2.3.0
+   */
+  public double getOverheadBudget() {
+    return overheadBudget;
+  }
+
+  public void setOverheadBudget(double overheadBudget) {
+    this.overheadBudget = overheadBudget;
+  }
+
+  /**
+   * @return {@code true} if the per-handler hit counts and timings are collected
+   * @since 2.3.0
+   */
+  public boolean isHandlerStats() {
+    return handlerStats;
+  }
+
+  public void setHandlerStats(boolean handlerStats) {
+    this.handlerStats = handlerStats;
+  }
+
+  /**
+   * @return {@code true} if the trivial probe handlers are inlined into the instrumented methods
+   * @since 2.3.0
+   */
+  public boolean isInlineHandlers() {
+    return inlineHandlers;
+  }
+
+  public void setInlineHandlers(boolean inlineHandlers) {
+    this.inlineHandlers = inlineHandlers;
+  }
+
+  /**
+   * @return {@code true} if the client merges the aggregations of several JVMs and needs them in
+   *     the mergeable form
+   * @since 2.3.0
+   */
+  public boolean isMergeAggregations() {
+    return mergeAggregations;
+  }
+
+  public void setMergeAggregations(boolean mergeAggregations) {
+    this.mergeAggregations = mergeAggregations;
+  }
 }
@@ -25,10 +25,15 @@
 package org.openjdk.btrace.core.aggregation;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * BTrace stores the results of aggregating functions in an Aggregation. The aggregated values may
@@ -44,6 +49,7 @@ public class Aggregation implements Cloneable {
   private final AggregationFunction type;
   private final ConcurrentHashMap<AggregationKey, AggregationValue> values =
       new ConcurrentHashMap<>();
+  private final StackTable stacks = new StackTable();
 
   /**
    * Creates an aggregation.
@@ -82,6 +88,44 @@ public class Aggregation implements Cloneable {
     aggregationValue.add(data);
   }
 
+  /**
+   * Adds an item of data to the aggregation grouped by the captured call stack.
+   *
+   * @param frames the frame ids of the captured stack; the array is not retained
+   * @param data the value to be added
+   * @see #add(int[], int, long)
+   * @since 2.3.0
+   */
+  public void add(int[] frames, long data) {
+    add(frames, frames.length, data);
+  }
+
+  /**
+   * Adds an item of data to the aggregation grouped by the captured call stack.
+   *
+   * <p>The stacks are deduplicated - adding data for an already known stack does not allocate. The
+   * frames are copied only for a new stack, so the caller may reuse the array as a capture buffer.
+   *
+   * @param frames the frame ids of the captured stack; the array is not retained
+   * @param length the number of the frame ids to use
+   * @param data the value to be added
+   * @since 2.3.0
+   */
+  public void add(int[] frames, int length, long data) {
+    add(stacks.intern(frames, length).key, data);
+  }
+
+  /**
+   * Creates a key element for the captured call stack, to be used in a composite key.
+   *
+   * @param frames the frame ids of the captured stack; the array is not retained
+   * @return the deduplicated stack key element
+   * @since 2.3.0
+   */
+  public CapturedStack stackKey(int[] frames) {
+    return stacks.intern(frames, frames.length);
+  }
+
   /** Resets all values in the aggregation to their default. */
   public void clear() {
     for (AggregationValue value : values.values()) {
@@ -100,6 +144,7 @@ public class Aggregation implements Cloneable {
   public void truncate(int count) {
     if (count == 0) {
       values.clear();
+      stacks.retain(s -> false);
     } else {
       List<Map.Entry<AggregationKey, AggregationValue>> sortedContents = sort();
 
@@ -118,6 +163,9 @@ public class Aggregation implements Cloneable {
       for (Entry<AggregationKey, AggregationValue> removeContent : removeContents) {
         values.remove(removeContent.getKey());
       }
+      if (stacks.size() > 0) {
+        stacks.retain(stacksInUse()::contains);
+      }
     }
   }
 
@@ -130,6 +178,43 @@ public class Aggregation implements Cloneable {
    * @return details of the aggregation in a tabular format.
    */
   public List<Object[]> getData() {
+    return getData(null);
+  }
+
+  /** @return the aggregation function */
+  public AggregationFunction getFunction() {
+    return type;
+  }
+
+  /**
+   * Returns details of the aggregation in a tabular format with the captured stacks rendered by the
+   * given function.
+   *
+   * @param stackRenderer renders the frame ids of a {@linkplain CapturedStack} key element; if
+   *     {@code null} the elements are kept as they are
+   * @return details of the aggregation in a tabular format.
+   * @see #getData()
+   * @since 2.3.0
+   */
+  public List<Object[]> getData(Function<int[], String> stackRenderer) {
+    return getRows(stackRenderer, false);
+  }
+
+  /**
+   * Returns the aggregation in the same tabular format as {@linkplain #getData(Function)} but with
+   * the values in the form of {@linkplain AggregationValue#getPartialData() partial data}. The
+   * partial data of the same aggregation function coming from several sources can be merged.
+   *
+   * @param stackRenderer renders the frame ids of a {@linkplain CapturedStack} key element; if
+   *     {@code null} the elements are kept as they are
+   * @return details of the aggregation in a tabular format with mergeable values
+   * @since 2.3.0
+   */
+  public List<Object[]> getPartialData(Function<int[], String> stackRenderer) {
+    return getRows(stackRenderer, true);
+  }
+
+  private List<Object[]> getRows(Function<int[], String> stackRenderer, boolean partial) {
     List<Entry<AggregationKey, AggregationValue>> sortedContents = sort();
     List<Object[]> result = new ArrayList<>(sortedContents.size());
 
@@ -140,13 +225,66 @@ public class Aggregation implements Cloneable {
 
       Object[] row = new Object[rowSize];
       System.arraycopy(keyElements, 0, row, 0, keyElements.length);
-      row[rowSize - 1] = item.getValue().getData();
+      if (stackRenderer != null) {
+        renderStacks(row, stackRenderer);
+      }
+      AggregationValue value = item.getValue();
+      row[rowSize - 1] = partial ? value.getPartialData() : value.getData();
       result.add(row);
     }
 
     return result;
   }
 
+  /**
+   * Returns the aggregation in the collapsed stack format consumed by the flame graph tools.
+   *
+   * <p>Each aggregated value is represented by one line containing the key elements separated by
+   * semicolons - a captured stack is expanded to its frames, from the root to the top - followed
+   * by a space and the aggregated value.
+   *
+   * @param stackCollapser renders the frame ids of a {@linkplain CapturedStack} key element as
+   *     semicolon separated frames, root first
+   * @return the aggregation in the collapsed stack format
+   * @since 2.3.0
+   */
+  public String getCollapsedStacks(Function<int[], String> stackCollapser) {
+    StringBuilder sb = new StringBuilder();
+    for (Entry<AggregationKey, AggregationValue> item : sort()) {
+      Object[] keyElements = item.getKey().getElements();
+      if (keyElements.length == 0) {
+        continue;
+      }
+      for (int i = 0; i < keyElements.length; i++) {
+        if (i > 0) {
+          sb.append(';');
+        }
+        Object element = keyElements[i];
+        if (element instanceof CapturedStack) {
+          sb.append(stackCollapser.apply(((CapturedStack) element).getFrames()));
+        } else {
+          sb.append(element);
+        }
+      }
+      sb.append(' ').append(item.getValue().getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Replaces the {@linkplain CapturedStack} elements with their rendered form.
+   *
+   * @param elements the key elements
+   * @param stackRenderer renders the frame ids
+   */
+  public static void renderStacks(Object[] elements, Function<int[], String> stackRenderer) {
+    for (int i = 0; i < elements.length; i++) {
+      if (elements[i] instanceof CapturedStack) {
+        elements[i] = stackRenderer.apply(((CapturedStack) elements[i]).getFrames());
+      }
+    }
+  }
+
   /**
    * Returns a list of the AggregationKeys that belong to this aggregation.
    *
@@ -162,6 +300,19 @@ public class Aggregation implements Cloneable {
     return keyList;
   }
 
+  /**
+   * Passes each aggregation key together with its aggregated value to the consumer. Unlike
+   * {@linkplain #getData()} the values are not sorted and no rows are materialized.
+   *
+   * @param consumer receives the aggregation keys and the values
+   * @since 2.3.0
+   */
+  public void forEach(BiConsumer<AggregationKey, AggregationValue> consumer) {
+    for (Entry<AggregationKey, AggregationValue> e : values.entrySet()) {
+      consumer.accept(e.getKey(), e.getValue());
+    }
+  }
+
   /**
    * Returns a value for the given key if the key has a value associated with it. Returns zero if
    * the key is not valid for this Aggregation.
@@ -199,6 +350,18 @@ public class Aggregation implements Cloneable {
     return result;
   }
 
+  private Set<CapturedStack> stacksInUse() {
+    Set<CapturedStack> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (AggregationKey key : values.keySet()) {
+      for (Object element : key.getElements()) {
+        if (element instanceof CapturedStack) {
+          inUse.add((CapturedStack) element);
+        }
+      }
+    }
+    return inUse;
+  }
+
   @SuppressWarnings({"RedundantThrows", "MethodDoesntCallSuperMethod"})
   @Override
   protected Object clone() throws CloneNotSupportedException {
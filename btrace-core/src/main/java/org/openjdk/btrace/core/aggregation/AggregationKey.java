@@ -30,8 +30,8 @@ import java.util.Set;
 
 /**
  * A key identifying an element of data in an aggregation. This represents a tuple of object values
- * contained in an Object[] array. Elements in the tuple may be null or of type {@link String} or
- * {@link Number}.
+ * contained in an Object[] array. Elements in the tuple may be null or of type {@link String},
+ * {@link Number} or {@link CapturedStack}.
  *
  * <p>
  *
@@ -49,6 +49,7 @@ public final class AggregationKey {
     validKeyElementTypes.add(Short.class);
     validKeyElementTypes.add(Integer.class);
     validKeyElementTypes.add(Long.class);
+    validKeyElementTypes.add(CapturedStack.class);
   }
 
   private final Object[] elements;
@@ -66,7 +67,8 @@ public final class AggregationKey {
           && (element.getClass() != Character.class)
           && (element.getClass() != Short.class)
           && (element.getClass() != Integer.class)
-          && (element.getClass() != Long.class)) {
+          && (element.getClass() != Long.class)
+          && (element.getClass() != CapturedStack.class)) {
         throw new IllegalArgumentException(
             "Aggregation key element type '" + element.getClass().getName() + "' is not supported");
       }
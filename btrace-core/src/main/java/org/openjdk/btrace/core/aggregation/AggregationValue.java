@@ -58,4 +58,14 @@ public interface AggregationValue {
    *     may return objects representing histograms, etc.
    */
   Object getData();
+
+  /**
+   * @return the aggregated value in a form which can be merged with the partial data of another
+   *     value of the same aggregation function. Equals to {@linkplain #getData()} unless the
+   *     aggregated value can not be merged, eg. an average.
+   * @since 2.3.0
+   */
+  default Object getPartialData() {
+    return getData();
+  }
 }
@@ -60,4 +60,9 @@ class Average implements AggregationValue {
   public Object getData() {
     return getValue();
   }
+
+  @Override
+  public synchronized AverageData getPartialData() {
+    return new AverageData(sum, count);
+  }
 }
@@ -0,0 +1,47 @@
+package org.openjdk.btrace.core.aggregation;
+
+import java.io.Serializable;
+
+/**
+ * The partial data of an average aggregation. Unlike the mean value itself the sum and the count
+ * can be merged with the data of other sources.
+ *
+ * @since 2.3.0
+ */
+public final class AverageData implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final long sum;
+  private final long count;
+
+  public AverageData(long sum, long count) {
+    this.sum = sum;
+    this.count = count;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /** @return the mean value, computed the same way as by the average aggregation */
+  public long getMean() {
+    return count != 0 ? (int) (sum / count) : 0;
+  }
+
+  /**
+   * @param other the partial data to merge with
+   * @return the partial data of both the sources
+   */
+  public AverageData merge(AverageData other) {
+    return new AverageData(sum + other.sum, count + other.count);
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(getMean());
+  }
+}
@@ -0,0 +1,73 @@
+package org.openjdk.btrace.core.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * An aggregation key element representing a captured call stack.
+ *
+ * <p>The stack is kept as the frame ids assigned by the BTrace runtime; it is rendered only when
+ * the aggregation is printed. Instances are deduplicated per aggregation, so each distinct stack
+ * is stored only once.
+ *
+ * @since 2.3.0
+ */
+public final class CapturedStack {
+  private final int[] frames;
+  private final int hash;
+  // the single-element key used when the stack is the only key element
+  final AggregationKey key;
+
+  CapturedStack(int[] frames, int hash) {
+    this.frames = frames;
+    this.hash = hash;
+    key = new AggregationKey(new Object[] {this});
+  }
+
+  /** @return the frame ids, top of the stack first; must not be modified */
+  public int[] getFrames() {
+    return frames;
+  }
+
+  static int hash(int[] frames, int length) {
+    // the same as Arrays.hashCode() of the first 'length' frames
+    int h = 1;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + frames[i];
+    }
+    return h ^ (h >>> 16);
+  }
+
+  boolean matches(int[] frames, int length, int hash) {
+    if (this.hash != hash || this.frames.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.frames[i] != frames[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof CapturedStack)) {
+      return false;
+    }
+    CapturedStack other = (CapturedStack) obj;
+    return matches(other.frames, other.frames.length, other.hash);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(frames);
+  }
+}
@@ -26,6 +26,8 @@ package org.openjdk.btrace.core.aggregation;
 
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A wire data structure describing histogram data.
@@ -56,6 +58,31 @@ public class HistogramData implements Serializable {
     return counts;
   }
 
+  /**
+   * Merges the histogram with another one. The counts of the buckets with the same value are
+   * summed up.
+   *
+   * @param other the histogram to merge with
+   * @return the merged histogram
+   * @since 2.3.0
+   */
+  public HistogramData merge(HistogramData other) {
+    TreeMap<Long, Long> buckets = new TreeMap<>();
+    for (HistogramData hd : new HistogramData[] {this, other}) {
+      for (int i = 0; i < hd.values.length; i++) {
+        buckets.merge(hd.values[i], hd.counts[i], Long::sum);
+      }
+    }
+    long[] mergedValues = new long[buckets.size()];
+    long[] mergedCounts = new long[buckets.size()];
+    int i = 0;
+    for (Map.Entry<Long, Long> e : buckets.entrySet()) {
+      mergedValues[i] = e.getKey();
+      mergedCounts[i++] = e.getValue();
+    }
+    return new HistogramData(mergedValues, mergedCounts);
+  }
+
   public void print(PrintWriter p) {
     int totalCount = 0;
     for (long count : counts) {
@@ -0,0 +1,96 @@
+package org.openjdk.btrace.core.aggregation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Deduplicates the captured stacks of an aggregation.
+ *
+ * <p>Looking up an already known stack is lock-free and does not allocate; only adding a new
+ * stack takes a lock and copies the frames.
+ */
+final class StackTable {
+  private static final class Entry {
+    final CapturedStack stack;
+    final Entry next;
+
+    Entry(CapturedStack stack, Entry next) {
+      this.stack = stack;
+      this.next = next;
+    }
+  }
+
+  private volatile AtomicReferenceArray<Entry> buckets = new AtomicReferenceArray<>(16);
+  private int size = 0;
+
+  /**
+   * @param frames the captured frame ids; copied only if the stack is not known yet
+   * @param length the number of the frame ids to use
+   * @return the canonical instance for the given frames
+   */
+  CapturedStack intern(int[] frames, int length) {
+    int hash = CapturedStack.hash(frames, length);
+    AtomicReferenceArray<Entry> b = buckets;
+    for (Entry e = b.get(hash & (b.length() - 1)); e != null; e = e.next) {
+      if (e.stack.matches(frames, length, hash)) {
+        return e.stack;
+      }
+    }
+    return add(frames, length, hash);
+  }
+
+  /**
+   * Removes the stacks not matching the given predicate
+   *
+   * @param filter the stacks to keep
+   */
+  synchronized void retain(Predicate<CapturedStack> filter) {
+    AtomicReferenceArray<Entry> old = buckets;
+    AtomicReferenceArray<Entry> b = new AtomicReferenceArray<>(old.length());
+    size = 0;
+    for (int i = 0; i < old.length(); i++) {
+      for (Entry e = old.get(i); e != null; e = e.next) {
+        if (filter.test(e.stack)) {
+          b.set(i, new Entry(e.stack, b.get(i)));
+          size++;
+        }
+      }
+    }
+    buckets = b;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private synchronized CapturedStack add(int[] frames, int length, int hash) {
+    AtomicReferenceArray<Entry> b = buckets;
+    int idx = hash & (b.length() - 1);
+    Entry head = b.get(idx);
+    for (Entry e = head; e != null; e = e.next) {
+      if (e.stack.matches(frames, length, hash)) {
+        return e.stack;
+      }
+    }
+    CapturedStack stack = new CapturedStack(Arrays.copyOf(frames, length), hash);
+    b.set(idx, new Entry(stack, head));
+    if (++size > b.length() / 4 * 3) {
+      rehash(b);
+    }
+    return stack;
+  }
+
+  private void rehash(AtomicReferenceArray<Entry> old) {
+    AtomicReferenceArray<Entry> b = new AtomicReferenceArray<>(old.length() * 2);
+    int mask = b.length() - 1;
+    for (int i = 0; i < old.length(); i++) {
+      // rebuild the chains instead of relinking so the concurrent readers are not affected
+      for (Entry e = old.get(i); e != null; e = e.next) {
+        int idx = e.stack.hashCode() & mask;
+        b.set(idx, new Entry(e.stack, b.get(idx)));
+      }
+    }
+    buckets = b;
+  }
+}
@@ -0,0 +1,202 @@
+package org.openjdk.btrace.core.comm;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AverageData;
+import org.openjdk.btrace.core.aggregation.HistogramData;
+
+/**
+ * A data command carrying an aggregation together with its function.
+ *
+ * <p>The rows have the same layout as in {@linkplain GridDataCommand} but the values are kept as
+ * the {@linkplain org.openjdk.btrace.core.aggregation.Aggregation#getPartialData(
+ * java.util.function.Function) partial data}, allowing a client to {@linkplain
+ * #merge(AggregationDataCommand) merge} the same aggregation received from several JVMs. When
+ * printed the command looks exactly like the corresponding {@linkplain GridDataCommand}.
+ *
+ * @since 2.3.0
+ */
+public class AggregationDataCommand extends DataCommand {
+  private AggregationFunction function;
+  private List<Object[]> data;
+  private String format;
+
+  public AggregationDataCommand() {
+    this(null, null, null, null);
+  }
+
+  /**
+   * @param name The aggregation name
+   * @param function The aggregation function
+   * @param data The aggregation partial data
+   * @param format The format to use or {@code null}; see {@linkplain GridDataCommand}
+   */
+  public AggregationDataCommand(
+      String name, AggregationFunction function, List<Object[]> data, String format) {
+    super(AGGREGATION_DATA, name, false);
+    this.function = function;
+    this.data = data;
+    this.format = format;
+  }
+
+  public AggregationFunction getFunction() {
+    return function;
+  }
+
+  /** @return the rows with the values in the form of partial data */
+  public List<Object[]> getData() {
+    return data;
+  }
+
+  public String getFormat() {
+    return format;
+  }
+
+  /** @return the rows with the aggregated values as they are printed */
+  public List<Object[]> getDisplayData() {
+    if (data == null) {
+      return null;
+    }
+    List<Object[]> rows = new ArrayList<>(data.size());
+    for (Object[] row : data) {
+      Object value = row[row.length - 1];
+      if (value instanceof AverageData) {
+        row = row.clone();
+        row[row.length - 1] = ((AverageData) value).getMean();
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /**
+   * Merges this aggregation with the same aggregation coming from another source. The values of
+   * the rows with equal keys are combined according to the aggregation function - counts and sums
+   * are added up, minimums and maximums are compared, averages are merged by their sums and counts
+   * and the histogram buckets are added up.
+   *
+   * @param other the aggregation to merge with
+   * @return the merged aggregation, having the name and the format of this aggregation
+   * @throws IllegalArgumentException if the aggregation functions differ
+   */
+  public AggregationDataCommand merge(AggregationDataCommand other) {
+    if (function != other.function) {
+      throw new IllegalArgumentException(
+          "Can not merge " + function + " aggregation with " + other.function + " aggregation");
+    }
+    Map<List<Object>, Object> merged = new LinkedHashMap<>();
+    for (List<Object[]> rows : Arrays.asList(data, other.data)) {
+      if (rows == null) {
+        continue;
+      }
+      for (Object[] row : rows) {
+        List<Object> key = Arrays.asList(Arrays.copyOf(row, row.length - 1));
+        Object value = row[row.length - 1];
+        if (value != null) {
+          merged.merge(key, value, this::mergeValues);
+        } else {
+          // eg. an empty histogram
+          merged.putIfAbsent(key, null);
+        }
+      }
+    }
+    List<Object[]> rows = new ArrayList<>(merged.size());
+    for (Map.Entry<List<Object>, Object> e : merged.entrySet()) {
+      List<Object> key = e.getKey();
+      Object[] row = key.toArray(new Object[key.size() + 1]);
+      row[key.size()] = e.getValue();
+      rows.add(row);
+    }
+    // the same ordering as for the printed aggregations
+    rows.sort(
+        (r1, r2) -> Long.compare(sortValue(r1[r1.length - 1]), sortValue(r2[r2.length - 1])));
+    return new AggregationDataCommand(name, function, rows, format);
+  }
+
+  private Object mergeValues(Object v1, Object v2) {
+    switch (function) {
+      case MINIMUM:
+        return Math.min(((Number) v1).longValue(), ((Number) v2).longValue());
+      case MAXIMUM:
+        return Math.max(((Number) v1).longValue(), ((Number) v2).longValue());
+      case AVERAGE:
+        return ((AverageData) v1).merge((AverageData) v2);
+      case QUANTIZE:
+        return ((HistogramData) v1).merge((HistogramData) v2);
+      default:
+        return ((Number) v1).longValue() + ((Number) v2).longValue();
+    }
+  }
+
+  /** The value of the row used for sorting, as for the source aggregation */
+  private static long sortValue(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof AverageData) {
+      return ((AverageData) value).getMean();
+    }
+    if (value instanceof HistogramData) {
+      HistogramData hd = (HistogramData) value;
+      // the highest non-empty bucket
+      long[] counts = hd.getCounts();
+      for (int i = counts.length - 1; i >= 0; i--) {
+        if (counts[i] > 0) {
+          return hd.getValues()[i];
+        }
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public void print(PrintWriter out) {
+    new GridDataCommand(name, getDisplayData(), format).print(out);
+  }
+
+  @Override
+  protected void write(ObjectOutput out) throws IOException {
+    out.writeUTF(name != null ? name : "");
+    out.writeUTF(format != null ? format : "");
+    out.writeByte(function != null ? function.ordinal() : -1);
+    if (data != null) {
+      out.writeInt(data.size());
+      for (Object[] row : data) {
+        out.writeInt(row.length);
+        for (Object cell : row) {
+          out.writeObject(cell);
+        }
+      }
+    } else {
+      out.writeInt(0);
+    }
+  }
+
+  @Override
+  protected void read(ObjectInput in) throws IOException, ClassNotFoundException {
+    name = in.readUTF();
+    format = in.readUTF();
+    if (format.isEmpty()) {
+      format = null;
+    }
+    byte ordinal = in.readByte();
+    function = ordinal >= 0 ? AggregationFunction.values()[ordinal] : null;
+    int rowCount = in.readInt();
+    data = new ArrayList<>(rowCount);
+    for (int i = 0; i < rowCount; i++) {
+      Object[] row = new Object[in.readInt()];
+      for (int j = 0; j < row.length; j++) {
+        row[j] = in.readObject();
+      }
+      data.add(row);
+    }
+  }
+}
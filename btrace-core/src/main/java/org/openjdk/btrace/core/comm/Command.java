@@ -48,9 +48,12 @@ public abstract class Command implements Serializable {
   public static final byte LIST_PROBES = 14;
   public static final byte DISCONNECT = 15;
   public static final byte RECONNECT = 16;
+  public static final byte SNAPSHOT = 17;
+  public static final byte AGGREGATION_DATA = 18;
+  public static final byte HANDLER_STATS = 19;
 
   public static final byte FIRST_COMMAND = ERROR;
-  public static final byte LAST_COMMAND = RECONNECT;
+  public static final byte LAST_COMMAND = HANDLER_STATS;
 
   @SuppressWarnings("RedundantThrows")
   public static final Command NULL =
@@ -0,0 +1,122 @@
+package org.openjdk.btrace.core.comm;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Requests and carries the per-handler statistics of a BTrace probe - the number of invocations,
+ * the total and the maximum time spent in each handler and the number of messages the handler
+ * could not send because the command queue was full.
+ *
+ * <p>The client sends the command without any statistics; the agent responds with the same
+ * command filled in. The statistics are empty unless the handler statistics are enabled for the
+ * probe.
+ *
+ * @since 2.3.0
+ */
+public class HandlerStatsCommand extends Command implements PrintableCommand {
+  /** The statistics of one handler */
+  public static final class Entry {
+    private final String handler;
+    private final long hits;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long dropped;
+
+    public Entry(String handler, long hits, long totalNanos, long maxNanos, long dropped) {
+      this.handler = handler;
+      this.hits = hits;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+      this.dropped = dropped;
+    }
+
+    public String getHandler() {
+      return handler;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getDropped() {
+      return dropped;
+    }
+
+    /** @return the average invocation time in nanoseconds */
+    public long getAverageNanos() {
+      return hits > 0 ? totalNanos / hits : 0;
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  public HandlerStatsCommand() {
+    super(HANDLER_STATS, true);
+  }
+
+  public HandlerStatsCommand(List<Entry> entries) {
+    this();
+    this.entries.addAll(entries);
+  }
+
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  @Override
+  public void print(PrintWriter out) {
+    if (entries.isEmpty()) {
+      out.println("No handler statistics available");
+      return;
+    }
+    out.printf(
+        "%-40s %12s %14s %12s %12s %10s%n",
+        "handler", "hits", "total (us)", "avg (ns)", "max (ns)", "dropped");
+    for (Entry e : entries) {
+      out.printf(
+          "%-40s %12d %14d %12d %12d %10d%n",
+          e.handler,
+          e.hits,
+          e.totalNanos / 1000,
+          e.getAverageNanos(),
+          e.maxNanos,
+          e.dropped);
+    }
+  }
+
+  @Override
+  protected void write(ObjectOutput out) throws IOException {
+    out.writeInt(entries.size());
+    for (Entry e : entries) {
+      out.writeUTF(e.handler);
+      out.writeLong(e.hits);
+      out.writeLong(e.totalNanos);
+      out.writeLong(e.maxNanos);
+      out.writeLong(e.dropped);
+    }
+  }
+
+  @Override
+  protected void read(ObjectInput in) throws IOException {
+    entries.clear();
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      entries.add(
+          new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+    }
+  }
+}
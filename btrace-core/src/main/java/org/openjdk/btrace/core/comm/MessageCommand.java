@@ -66,6 +66,7 @@ public class MessageCommand extends DataCommand {
   protected void write(ObjectOutput out) throws IOException {
     out.writeBoolean(isUrgent());
     out.writeLong(time);
+    String msg = getMessage();
     byte[] bytes = msg != null ? msg.getBytes(StandardCharsets.UTF_8) : new byte[0];
     out.writeInt(bytes.length);
     if (bytes.length > 0) {
@@ -94,6 +95,12 @@ public class MessageCommand extends DataCommand {
     return time;
   }
 
+  /**
+   * Subclasses may override this method to produce the message lazily - it is called only when
+   * the message is about to be written or printed.
+   *
+   * @return the message text
+   */
   public String getMessage() {
     return msg;
   }
@@ -104,6 +111,7 @@ public class MessageCommand extends DataCommand {
       out.print(DATE_FORMAT.get().format(new Date(time)));
       out.print(" : ");
     }
+    String msg = getMessage();
     if (msg != null) {
       out.println(msg);
     }
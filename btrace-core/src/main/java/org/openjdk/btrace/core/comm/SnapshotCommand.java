@@ -0,0 +1,253 @@
+package org.openjdk.btrace.core.comm;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.PrintWriter;
+import java.util.List;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+
+/**
+ * A data command carrying one tick of a periodic snapshot stream.
+ *
+ * <p>Only the rows changed since the previous tick are transferred. A row key is sent only once -
+ * when it is seen for the first time it is added to the stream key dictionary and then referenced
+ * by its id. The row values are sent as varint encoded differences to the previously sent values.
+ * Every now and then the stream starts over with a full snapshot, allowing a newly connected client
+ * to catch up.
+ *
+ * <p>A snapshot of an aggregation carries the aggregation function. The rows of an average are
+ * transferred as the sums and the counts so the views coming from several sources can be merged.
+ *
+ * <p>The full view is reconstructed on the receiving side by {@linkplain SnapshotDecoder}.
+ *
+ * @see SnapshotEncoder
+ * @since 2.3.0
+ */
+public class SnapshotCommand extends DataCommand {
+  private static final int[] NO_IDS = new int[0];
+  private static final long[] NO_VALUES = new long[0];
+  private static final Object[][] NO_KEYS = new Object[0][];
+
+  private AggregationFunction function;
+  private long sequence;
+  private boolean full;
+  private int firstKeyId;
+  private Object[][] keys = NO_KEYS;
+  private int[] ids = NO_IDS;
+  private long[] deltas = NO_VALUES;
+  private long[] countDeltas = NO_VALUES;
+  private int[] removed = NO_IDS;
+
+  // the reconstructed full view; set by the decoder
+  private transient List<Object[]> view;
+  private transient List<Object[]> partialView;
+
+  public SnapshotCommand() {
+    this(null);
+  }
+
+  public SnapshotCommand(String name) {
+    super(SNAPSHOT, name, false);
+  }
+
+  SnapshotCommand(
+      String name,
+      AggregationFunction function,
+      long sequence,
+      boolean full,
+      int firstKeyId,
+      Object[][] keys,
+      int[] ids,
+      long[] deltas,
+      long[] countDeltas,
+      int[] removed) {
+    this(name);
+    this.function = function;
+    this.sequence = sequence;
+    this.full = full;
+    this.firstKeyId = firstKeyId;
+    this.keys = keys;
+    this.ids = ids;
+    this.deltas = deltas;
+    this.countDeltas = countDeltas;
+    this.removed = removed;
+  }
+
+  /** @return the aggregation function or {@code null} for a snapshot of a number map */
+  public AggregationFunction getFunction() {
+    return function;
+  }
+
+  /** @return the position of this tick in the snapshot stream */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /** @return {@code true} if this tick starts the stream over with a full snapshot */
+  public boolean isFull() {
+    return full;
+  }
+
+  /** @return the number of the rows transferred in this tick */
+  public int getChangedRows() {
+    return ids.length;
+  }
+
+  /**
+   * @return the full snapshot view reconstructed by {@linkplain SnapshotDecoder} or {@code null}
+   *     if the command has not been decoded
+   */
+  public List<Object[]> getView() {
+    return view;
+  }
+
+  /**
+   * @return the full snapshot view with the values in the form of {@linkplain
+   *     org.openjdk.btrace.core.aggregation.AggregationValue#getPartialData() partial data}, as in
+   *     {@linkplain AggregationDataCommand}, or {@code null} if the command has not been decoded
+   */
+  public List<Object[]> getPartialView() {
+    return partialView;
+  }
+
+  int getFirstKeyId() {
+    return firstKeyId;
+  }
+
+  Object[][] getKeys() {
+    return keys;
+  }
+
+  int[] getIds() {
+    return ids;
+  }
+
+  long[] getDeltas() {
+    return deltas;
+  }
+
+  long[] getCountDeltas() {
+    return countDeltas;
+  }
+
+  int[] getRemoved() {
+    return removed;
+  }
+
+  void setView(List<Object[]> view, List<Object[]> partialView) {
+    this.view = view;
+    this.partialView = partialView;
+  }
+
+  @Override
+  public void print(PrintWriter out) {
+    if (view != null) {
+      new GridDataCommand(name, view).print(out);
+    } else {
+      if (name != null && !name.isEmpty()) {
+        out.println(name);
+      }
+      out.println("<waiting for a full snapshot>");
+      out.flush();
+    }
+  }
+
+  @Override
+  protected void write(ObjectOutput out) throws IOException {
+    out.writeUTF(name != null ? name : "");
+    out.writeByte(function != null ? function.ordinal() : -1);
+    writeVarLong(out, sequence);
+    out.writeBoolean(full);
+    writeVarLong(out, firstKeyId);
+    writeVarLong(out, keys.length);
+    for (Object[] key : keys) {
+      writeVarLong(out, key.length);
+      for (Object element : key) {
+        out.writeObject(element);
+      }
+    }
+    writeVarLong(out, ids.length);
+    int prevId = -1;
+    for (int i = 0; i < ids.length; i++) {
+      // the ids are ascending; send only the gaps
+      writeVarLong(out, ids[i] - prevId - 1);
+      writeVarLong(out, zigzag(deltas[i]));
+      if (function == AggregationFunction.AVERAGE) {
+        writeVarLong(out, zigzag(countDeltas[i]));
+      }
+      prevId = ids[i];
+    }
+    writeVarLong(out, removed.length);
+    prevId = -1;
+    for (int id : removed) {
+      writeVarLong(out, id - prevId - 1);
+      prevId = id;
+    }
+  }
+
+  @Override
+  protected void read(ObjectInput in) throws IOException, ClassNotFoundException {
+    name = in.readUTF();
+    byte ordinal = in.readByte();
+    function = ordinal >= 0 ? AggregationFunction.values()[ordinal] : null;
+    sequence = readVarLong(in);
+    full = in.readBoolean();
+    firstKeyId = (int) readVarLong(in);
+    keys = new Object[(int) readVarLong(in)][];
+    for (int i = 0; i < keys.length; i++) {
+      Object[] key = new Object[(int) readVarLong(in)];
+      for (int j = 0; j < key.length; j++) {
+        key[j] = in.readObject();
+      }
+      keys[i] = key;
+    }
+    int rows = (int) readVarLong(in);
+    ids = new int[rows];
+    deltas = new long[rows];
+    countDeltas = function == AggregationFunction.AVERAGE ? new long[rows] : NO_VALUES;
+    int prevId = -1;
+    for (int i = 0; i < rows; i++) {
+      ids[i] = prevId + 1 + (int) readVarLong(in);
+      deltas[i] = unzigzag(readVarLong(in));
+      if (countDeltas.length > 0) {
+        countDeltas[i] = unzigzag(readVarLong(in));
+      }
+      prevId = ids[i];
+    }
+    removed = new int[(int) readVarLong(in)];
+    prevId = -1;
+    for (int i = 0; i < removed.length; i++) {
+      removed[i] = prevId + 1 + (int) readVarLong(in);
+      prevId = removed[i];
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarLong(ObjectOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(ObjectInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed varint");
+  }
+}
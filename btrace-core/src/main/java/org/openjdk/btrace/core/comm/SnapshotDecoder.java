@@ -0,0 +1,119 @@
+package org.openjdk.btrace.core.comm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AverageData;
+
+/**
+ * Reconstructs the full views of the snapshot streams received as {@linkplain SnapshotCommand}s.
+ *
+ * <p>One decoder instance should be used per connection. The streams are identified by their
+ * names; a stream joined in the middle is reconstructed starting with the next full snapshot.
+ *
+ * @since 2.3.0
+ */
+public final class SnapshotDecoder {
+  private static final class Stream {
+    final AggregationFunction function;
+    Object[][] keys = new Object[16][];
+    long[] values = new long[16];
+    long[] counts = new long[16];
+    int size;
+    long nextSequence;
+
+    Stream(AggregationFunction function) {
+      this.function = function;
+    }
+
+    void addKey(int id, Object[] key) {
+      if (id >= keys.length) {
+        int capacity = Math.max(id + 1, keys.length * 2);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+      }
+      keys[id] = key;
+      values[id] = 0;
+      counts[id] = 0;
+      size = Math.max(size, id + 1);
+    }
+
+    List<Object[]> view(boolean partial) {
+      boolean average = function == AggregationFunction.AVERAGE;
+      List<Object[]> rows = new ArrayList<>(size);
+      for (int id = 0; id < size; id++) {
+        Object[] key = keys[id];
+        if (key != null) {
+          Object[] row = Arrays.copyOf(key, key.length + 1);
+          if (average) {
+            AverageData data = new AverageData(values[id], counts[id]);
+            row[key.length] = partial ? data : data.getMean();
+          } else {
+            row[key.length] = values[id];
+          }
+          rows.add(row);
+        }
+      }
+      // the same ordering as for the printed aggregations
+      rows.sort((r1, r2) -> Long.compare(sortValue(r1), sortValue(r2)));
+      return rows;
+    }
+
+    private static long sortValue(Object[] row) {
+      Object value = row[row.length - 1];
+      return value instanceof AverageData ? ((AverageData) value).getMean() : (Long) value;
+    }
+  }
+
+  private final Map<String, Stream> streams = new HashMap<>();
+
+  /**
+   * Applies the snapshot tick to the view of its stream and attaches the reconstructed full view to
+   * the command.
+   *
+   * @param cmd the snapshot tick
+   * @return {@code true} if the full view could be reconstructed
+   */
+  public synchronized boolean apply(SnapshotCommand cmd) {
+    String name = cmd.getName() != null ? cmd.getName() : "";
+    Stream stream = streams.get(name);
+    if (cmd.isFull()) {
+      stream = new Stream(cmd.getFunction());
+      streams.put(name, stream);
+    } else if (stream == null
+        || stream.nextSequence != cmd.getSequence()
+        || stream.function != cmd.getFunction()) {
+      // missed some ticks; wait for the next full snapshot
+      streams.remove(name);
+      return false;
+    }
+    stream.nextSequence = cmd.getSequence() + 1;
+
+    for (int id : cmd.getRemoved()) {
+      if (id < stream.size) {
+        stream.keys[id] = null;
+      }
+    }
+    Object[][] keys = cmd.getKeys();
+    for (int i = 0; i < keys.length; i++) {
+      stream.addKey(cmd.getFirstKeyId() + i, keys[i]);
+    }
+    int[] ids = cmd.getIds();
+    long[] deltas = cmd.getDeltas();
+    long[] countDeltas = cmd.getCountDeltas();
+    for (int i = 0; i < ids.length; i++) {
+      stream.values[ids[i]] += deltas[i];
+      if (countDeltas.length > 0) {
+        stream.counts[ids[i]] += countDeltas[i];
+      }
+    }
+    List<Object[]> view = stream.view(false);
+    cmd.setView(
+        view, stream.function == AggregationFunction.AVERAGE ? stream.view(true) : view);
+    return true;
+  }
+}
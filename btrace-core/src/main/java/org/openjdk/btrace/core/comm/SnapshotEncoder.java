@@ -0,0 +1,220 @@
+package org.openjdk.btrace.core.comm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AverageData;
+
+/**
+ * Produces the {@linkplain SnapshotCommand} ticks of one snapshot stream.
+ *
+ * <p>The encoder remembers the rows sent in the previous ticks and emits only the changed ones. The
+ * row keys are rendered only once, when they are first seen. Every {@code
+ * btrace.snapshot.fullInterval} ticks (60 by default) a full snapshot is sent, compacting the key
+ * dictionary and letting a client which joined the stream late reconstruct the view.
+ *
+ * <p>The aggregation function is sent along with the rows so the views coming from several JVMs can
+ * be merged. An average is transferred as its sum and count rather than as the mean.
+ *
+ * @since 2.3.0
+ */
+public final class SnapshotEncoder {
+  private static final int FULL_INTERVAL =
+      Math.max(1, Integer.getInteger("btrace.snapshot.fullInterval", 60));
+  private static final Entry[] NO_ENTRIES = new Entry[0];
+
+  private static final class Entry {
+    final Object key;
+    final Object[] elements;
+    int id = -1;
+    long value;
+    long sent;
+    long count;
+    long sentCount;
+    long seen;
+    boolean added;
+
+    Entry(Object key, Object[] elements) {
+      this.key = key;
+      this.elements = elements;
+    }
+  }
+
+  private final String name;
+  private final int fullInterval;
+  private final Map<Object, Entry> entries = new HashMap<>();
+  private Entry[] byId = NO_ENTRIES;
+  private int nextId;
+  private long sequence;
+  // the current tick state
+  private AggregationFunction function;
+  private boolean full;
+  private int firstNewId;
+
+  public SnapshotEncoder(String name) {
+    this(name, FULL_INTERVAL);
+  }
+
+  SnapshotEncoder(String name, int fullInterval) {
+    this.name = name;
+    this.fullInterval = fullInterval;
+  }
+
+  /**
+   * Encodes the current state of an aggregation. The rows are keyed by the aggregation keys and
+   * carry the aggregated values - or the sums and the counts for an average.
+   *
+   * @param aggregation the aggregation
+   * @param stackRenderer renders the captured stack key elements
+   * @return the snapshot tick
+   */
+  public synchronized SnapshotCommand encode(
+      Aggregation aggregation, Function<int[], String> stackRenderer) {
+    begin(aggregation.getFunction());
+    boolean average = function == AggregationFunction.AVERAGE;
+    aggregation.forEach(
+        (key, value) -> {
+          Entry e = entries.get(key);
+          if (e == null) {
+            Object[] elements = key.getElements().clone();
+            Aggregation.renderStacks(elements, stackRenderer);
+            e = new Entry(key, elements);
+          }
+          if (average) {
+            AverageData data = (AverageData) value.getPartialData();
+            row(e, data.getSum(), data.getCount());
+          } else {
+            row(e, value.getValue(), 0);
+          }
+        });
+    return end();
+  }
+
+  /**
+   * Encodes the current state of a number map. The values are transferred as {@code long}s.
+   *
+   * @param data the map
+   * @return the snapshot tick
+   */
+  public synchronized SnapshotCommand encode(Map<String, ? extends Number> data) {
+    begin(null);
+    for (Map.Entry<String, ? extends Number> me : data.entrySet()) {
+      Number value = me.getValue();
+      if (value != null) {
+        Entry e = entries.get(me.getKey());
+        if (e == null) {
+          e = new Entry(me.getKey(), new Object[] {me.getKey()});
+        }
+        row(e, value.longValue(), 0);
+      }
+    }
+    return end();
+  }
+
+  private void begin(AggregationFunction function) {
+    sequence++;
+    // start over if the stream changes its function
+    full = (sequence - 1) % fullInterval == 0 || function != this.function;
+    this.function = function;
+    if (full) {
+      // re-number the retained keys from scratch
+      nextId = 0;
+      byId = new Entry[Math.max(16, entries.size())];
+    }
+    firstNewId = nextId;
+  }
+
+  private void row(Entry e, long value, long count) {
+    if (e.seen == sequence) {
+      // duplicate key
+      return;
+    }
+    e.seen = sequence;
+    e.value = value;
+    e.count = count;
+    boolean isNew = e.id < 0;
+    if (isNew) {
+      entries.put(e.key, e);
+    }
+    if (isNew || full) {
+      e.id = nextId++;
+      if (e.id == byId.length) {
+        byId = Arrays.copyOf(byId, Math.max(16, byId.length * 2));
+      }
+      byId[e.id] = e;
+      e.added = true;
+      e.sent = 0;
+      e.sentCount = 0;
+    }
+  }
+
+  private SnapshotCommand end() {
+    if (full) {
+      // drop the keys not present any more
+      Iterator<Entry> iter = entries.values().iterator();
+      while (iter.hasNext()) {
+        if (iter.next().seen != sequence) {
+          iter.remove();
+        }
+      }
+    }
+    Object[][] keys = new Object[nextId - firstNewId][];
+    int[] ids = new int[16];
+    long[] deltas = new long[16];
+    long[] countDeltas = new long[function == AggregationFunction.AVERAGE ? 16 : 0];
+    int[] removed = new int[8];
+    int rows = 0;
+    int removedCnt = 0;
+    for (int id = 0; id < nextId; id++) {
+      Entry e = byId[id];
+      if (e == null) {
+        continue;
+      }
+      if (e.seen != sequence) {
+        entries.remove(e.key);
+        byId[id] = null;
+        if (removedCnt == removed.length) {
+          removed = Arrays.copyOf(removed, removedCnt * 2);
+        }
+        removed[removedCnt++] = id;
+        continue;
+      }
+      if (e.added) {
+        keys[id - firstNewId] = e.elements;
+      }
+      e.added = false;
+      if (e.value != e.sent || e.count != e.sentCount) {
+        if (rows == ids.length) {
+          ids = Arrays.copyOf(ids, rows * 2);
+          deltas = Arrays.copyOf(deltas, rows * 2);
+          if (countDeltas.length > 0) {
+            countDeltas = Arrays.copyOf(countDeltas, rows * 2);
+          }
+        }
+        ids[rows] = id;
+        deltas[rows] = e.value - e.sent;
+        if (countDeltas.length > 0) {
+          countDeltas[rows] = e.count - e.sentCount;
+        }
+        rows++;
+        e.sent = e.value;
+        e.sentCount = e.count;
+      }
+    }
+    return new SnapshotCommand(
+        name,
+        function,
+        sequence - 1,
+        full,
+        firstNewId,
+        keys,
+        Arrays.copyOf(ids, rows),
+        Arrays.copyOf(deltas, rows),
+        Arrays.copyOf(countDeltas, countDeltas.length > 0 ? rows : 0),
+        Arrays.copyOf(removed, removedCnt));
+  }
+}
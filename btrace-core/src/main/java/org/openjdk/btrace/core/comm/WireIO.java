@@ -88,6 +88,15 @@ public class WireIO {
       case Command.RECONNECT:
         cmd = new ReconnectCommand();
         break;
+      case Command.SNAPSHOT:
+        cmd = new SnapshotCommand();
+        break;
+      case Command.AGGREGATION_DATA:
+        cmd = new AggregationDataCommand();
+        break;
+      case Command.HANDLER_STATS:
+        cmd = new HandlerStatsCommand();
+        break;
       default:
         throw new RuntimeException("invalid command: " + type);
     }
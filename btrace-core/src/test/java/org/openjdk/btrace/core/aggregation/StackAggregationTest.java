@@ -0,0 +1,129 @@
+package org.openjdk.btrace.core.aggregation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class StackAggregationTest {
+  private static String render(int[] frames) {
+    return Arrays.toString(frames);
+  }
+
+  private static String collapse(int[] frames) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = frames.length - 1; i >= 0; i--) {
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append('f').append(frames[i]);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testDeduplicateStacks() {
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    int[] first = {3, 2, 1};
+    agg.add(first, 1);
+    agg.add(new int[] {3, 2, 1}, 1);
+    agg.add(new int[] {4, 2, 1}, 1);
+
+    List<AggregationKey> keys = agg.getKeyData();
+    assertEquals(2, keys.size());
+    CapturedStack stack = (CapturedStack) keys.get(1).getElements()[0];
+    assertArrayEquals(first, stack.getFrames());
+    assertSame(stack, agg.stackKey(new int[] {3, 2, 1}));
+    assertEquals(2L, (long) agg.getValueForKey(new AggregationKey(new Object[] {stack})));
+  }
+
+  @Test
+  public void testRenderStacks() {
+    Aggregation agg = new Aggregation(AggregationFunction.SUM);
+    agg.add(new int[] {2, 1}, 10);
+    agg.add(new AggregationKey(new Object[] {"t1", agg.stackKey(new int[] {3, 1})}), 5);
+
+    List<Object[]> data = agg.getData(StackAggregationTest::render);
+    assertEquals(2, data.size());
+    assertArrayEquals(new Object[] {"t1", "[3, 1]", 5L}, data.get(0));
+    assertArrayEquals(new Object[] {"[2, 1]", 10L}, data.get(1));
+
+    // no renderer - the elements are kept
+    assertTrue(agg.getData().get(1)[0] instanceof CapturedStack);
+  }
+
+  @Test
+  public void testCollapsedStacks() {
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    agg.add(new int[] {3, 2, 1}, 1);
+    agg.add(new int[] {3, 2, 1}, 1);
+    agg.add(new int[] {4, 1}, 1);
+    agg.add(new AggregationKey(new Object[] {"main", agg.stackKey(new int[] {5})}), 1);
+    agg.add(1);
+
+    String[] lines = agg.getCollapsedStacks(StackAggregationTest::collapse).split("\n");
+    assertEquals(3, lines.length);
+    // sorted by the aggregated value; the order of equal values is not defined
+    assertEquals("f1;f2;f3 2", lines[2]);
+    assertEquals(
+        new HashSet<>(Arrays.asList("f1;f4 1", "main;f5 1")),
+        new HashSet<>(Arrays.asList(lines[0], lines[1])));
+  }
+
+  @Test
+  public void testReuseCaptureBuffer() {
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    int[] buffer = {3, 2, 1, 9, 9};
+    agg.add(buffer, 3, 1);
+    buffer[0] = 4;
+    agg.add(buffer, 3, 1);
+    buffer[0] = 3;
+    buffer[3] = 8;
+    agg.add(buffer, 3, 1);
+
+    CapturedStack stack = agg.stackKey(new int[] {3, 2, 1});
+    assertArrayEquals(new int[] {3, 2, 1}, stack.getFrames());
+    assertEquals(2L, (long) agg.getValueForKey(new AggregationKey(new Object[] {stack})));
+    CapturedStack other = agg.stackKey(new int[] {4, 2, 1});
+    assertEquals(1L, (long) agg.getValueForKey(new AggregationKey(new Object[] {other})));
+    assertEquals(2, agg.getKeyData().size());
+  }
+
+  @Test
+  public void testTruncateReleasesStacks() {
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    int[] hot = {1, 2};
+    for (int i = 0; i < 10; i++) {
+      agg.add(hot, 1);
+    }
+    agg.add(new int[] {3, 4}, 1);
+    CapturedStack hotStack = agg.stackKey(hot);
+    CapturedStack coldStack = agg.stackKey(new int[] {3, 4});
+
+    agg.truncate(1);
+    assertEquals(1, agg.getKeyData().size());
+    assertSame(hotStack, agg.stackKey(new int[] {1, 2}));
+    // the removed stack is not deduplicated to the old instance any more
+    assertNotSame(coldStack, agg.stackKey(new int[] {3, 4}));
+
+    agg.truncate(0);
+    assertTrue(agg.getKeyData().isEmpty());
+    assertNotSame(hotStack, agg.stackKey(new int[] {1, 2}));
+  }
+
+  @Test
+  public void testManyStacks() {
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    for (int i = 0; i < 1000; i++) {
+      agg.add(new int[] {i, i + 1}, 1);
+      agg.add(new int[] {i, i + 1}, 1);
+    }
+    List<Object[]> data = agg.getData(StackAggregationTest::render);
+    assertEquals(1000, data.size());
+    for (Object[] row : data) {
+      assertEquals(2L, row[1]);
+    }
+  }
+}
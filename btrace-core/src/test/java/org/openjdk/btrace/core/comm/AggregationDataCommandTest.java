@@ -0,0 +1,155 @@
+package org.openjdk.btrace.core.comm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AggregationKey;
+import org.openjdk.btrace.core.aggregation.HistogramData;
+
+public class AggregationDataCommandTest {
+  private static final int SOURCES = 4;
+
+  private static AggregationDataCommand transfer(AggregationDataCommand cmd) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      WireIO.write(oos, cmd);
+    }
+    try (ObjectInputStream ois =
+        new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      return (AggregationDataCommand) WireIO.read(ois);
+    }
+  }
+
+  private static AggregationDataCommand command(Aggregation agg) {
+    return new AggregationDataCommand("agg", agg.getFunction(), agg.getPartialData(null), null);
+  }
+
+  /** Maps the row keys to the values; the empty histogram buckets are ignored */
+  private static Map<List<Object>, Object> rows(List<Object[]> data) {
+    Map<List<Object>, Object> rows = new HashMap<>();
+    for (Object[] row : data) {
+      Object value = row[row.length - 1];
+      if (value instanceof HistogramData) {
+        HistogramData hd = (HistogramData) value;
+        Map<Long, Long> buckets = new TreeMap<>();
+        for (int i = 0; i < hd.getValues().length; i++) {
+          if (hd.getCounts()[i] != 0) {
+            buckets.put(hd.getValues()[i], hd.getCounts()[i]);
+          }
+        }
+        value = buckets;
+      }
+      rows.put(Arrays.asList(Arrays.copyOf(row, row.length - 1)), value);
+    }
+    return rows;
+  }
+
+  /**
+   * Spreads random data over several source aggregations (JVMs), merges their transferred partial
+   * data and compares the result with a single aggregation which has seen all the data.
+   */
+  private static void assertMerged(AggregationFunction function) throws IOException {
+    Random rnd = new Random(function.ordinal());
+    Aggregation all = new Aggregation(function);
+    List<Aggregation> sources = new ArrayList<>();
+    for (int i = 0; i < SOURCES; i++) {
+      sources.add(new Aggregation(function));
+    }
+    for (int i = 0; i < 10_000; i++) {
+      AggregationKey key = new AggregationKey(new Object[] {"key" + rnd.nextInt(20)});
+      long value = rnd.nextInt(1_000_000) - 1000;
+      all.add(key, value);
+      // some keys are seen only by some sources
+      sources.get(rnd.nextInt(SOURCES)).add(key, value);
+    }
+
+    AggregationDataCommand merged = null;
+    for (Aggregation source : sources) {
+      AggregationDataCommand cmd = transfer(command(source));
+      merged = merged == null ? cmd : merged.merge(cmd);
+    }
+    assertEquals(function, merged.getFunction());
+    assertEquals(rows(all.getData()), rows(merged.getDisplayData()), function.toString());
+  }
+
+  @Test
+  public void testMergeCount() throws Exception {
+    assertMerged(AggregationFunction.COUNT);
+  }
+
+  @Test
+  public void testMergeSum() throws Exception {
+    assertMerged(AggregationFunction.SUM);
+  }
+
+  @Test
+  public void testMergeMinimum() throws Exception {
+    assertMerged(AggregationFunction.MINIMUM);
+  }
+
+  @Test
+  public void testMergeMaximum() throws Exception {
+    assertMerged(AggregationFunction.MAXIMUM);
+  }
+
+  @Test
+  public void testMergeAverage() throws Exception {
+    assertMerged(AggregationFunction.AVERAGE);
+  }
+
+  @Test
+  public void testMergeQuantize() throws Exception {
+    assertMerged(AggregationFunction.QUANTIZE);
+  }
+
+  @Test
+  public void testAverageIsNotAveraged() throws Exception {
+    Aggregation a1 = new Aggregation(AggregationFunction.AVERAGE);
+    Aggregation a2 = new Aggregation(AggregationFunction.AVERAGE);
+    a1.add(10);
+    for (int i = 0; i < 9; i++) {
+      a2.add(100);
+    }
+    List<Object[]> data = command(a1).merge(command(a2)).getDisplayData();
+    assertEquals(1, data.size());
+    // (10 + 9 * 100) / 10 and not (10 + 100) / 2
+    assertEquals(91L, data.get(0)[0]);
+  }
+
+  @Test
+  public void testMismatchedFunctions() {
+    Aggregation sum = new Aggregation(AggregationFunction.SUM);
+    Aggregation max = new Aggregation(AggregationFunction.MAXIMUM);
+    assertThrows(IllegalArgumentException.class, () -> command(sum).merge(command(max)));
+  }
+
+  @Test
+  public void testPrintedAsGrid() throws Exception {
+    Aggregation agg = new Aggregation(AggregationFunction.AVERAGE);
+    agg.add(new AggregationKey(new Object[] {"a"}), 4);
+    agg.add(new AggregationKey(new Object[] {"a"}), 8);
+    agg.add(new AggregationKey(new Object[] {"b"}), 1);
+
+    StringWriter expected = new StringWriter();
+    new GridDataCommand("agg", agg.getData()).print(new PrintWriter(expected));
+    StringWriter printed = new StringWriter();
+    transfer(command(agg)).print(new PrintWriter(printed));
+    assertEquals(expected.toString(), printed.toString());
+  }
+}
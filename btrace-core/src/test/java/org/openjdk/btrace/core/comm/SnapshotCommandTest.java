@@ -0,0 +1,242 @@
+package org.openjdk.btrace.core.comm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.aggregation.AggregationKey;
+import org.openjdk.btrace.core.aggregation.AverageData;
+
+public class SnapshotCommandTest {
+  private final SnapshotDecoder decoder = new SnapshotDecoder();
+
+  private static SnapshotCommand transfer(SnapshotCommand cmd) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      WireIO.write(oos, cmd);
+    }
+    try (ObjectInputStream ois =
+        new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      return (SnapshotCommand) WireIO.read(ois);
+    }
+  }
+
+  private static AggregationKey key(Object... elements) {
+    return new AggregationKey(elements);
+  }
+
+  private static Set<List<Object>> rows(List<Object[]> data) {
+    Set<List<Object>> rows = new HashSet<>();
+    for (Object[] row : data) {
+      rows.add(Arrays.asList(row));
+    }
+    return rows;
+  }
+
+  private SnapshotCommand tick(SnapshotEncoder encoder, Aggregation agg) throws IOException {
+    SnapshotCommand cmd = transfer(encoder.encode(agg, Arrays::toString));
+    assertTrue(decoder.apply(cmd));
+    assertEquals(rows(agg.getData()), rows(cmd.getView()));
+    return cmd;
+  }
+
+  @Test
+  public void testDeltas() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("agg", 1000);
+    Aggregation agg = new Aggregation(AggregationFunction.SUM);
+    for (int i = 0; i < 100; i++) {
+      agg.add(key("k" + i, i), i);
+    }
+    SnapshotCommand cmd = tick(encoder, agg);
+    assertTrue(cmd.isFull());
+    // the zero value is not transferred
+    assertEquals(99, cmd.getChangedRows());
+
+    // nothing changed
+    cmd = tick(encoder, agg);
+    assertFalse(cmd.isFull());
+    assertEquals(0, cmd.getChangedRows());
+    assertEquals(0, cmd.getKeys().length);
+
+    // two changes and a new key
+    agg.add(key("k5", 5), 10);
+    agg.add(key("k50", 50), -100);
+    agg.add(key("new", 1), 3);
+    cmd = tick(encoder, agg);
+    assertEquals(3, cmd.getChangedRows());
+    assertEquals(1, cmd.getKeys().length);
+    assertEquals(100, cmd.getFirstKeyId());
+
+    // the view is sorted by the values as the printed aggregation
+    List<Object[]> view = cmd.getView();
+    assertArrayEquals(new Object[] {"k50", 50, -50L}, view.get(0));
+    assertArrayEquals(new Object[] {"k99", 99, 99L}, view.get(view.size() - 1));
+  }
+
+  @Test
+  public void testRemovedKeys() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("agg", 1000);
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j <= i; j++) {
+        agg.add(key("k" + i), 1);
+      }
+    }
+    tick(encoder, agg);
+
+    agg.truncate(3);
+    SnapshotCommand cmd = tick(encoder, agg);
+    assertEquals(7, cmd.getRemoved().length);
+    assertEquals(0, cmd.getChangedRows());
+    assertEquals(3, cmd.getView().size());
+
+    // a removed key is added again
+    agg.add(key("k0"), 1);
+    cmd = tick(encoder, agg);
+    assertEquals(1, cmd.getKeys().length);
+    assertEquals(4, cmd.getView().size());
+
+    agg.truncate(0);
+    cmd = tick(encoder, agg);
+    assertEquals(4, cmd.getRemoved().length);
+    assertTrue(cmd.getView().isEmpty());
+  }
+
+  @Test
+  public void testFullSnapshots() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("agg", 3);
+    Aggregation agg = new Aggregation(AggregationFunction.MAXIMUM);
+    agg.add(key("a"), 1);
+    agg.add(key("b"), 2);
+    agg.add(key("c"), 3);
+    assertTrue(tick(encoder, agg).isFull());
+
+    // another decoder joins the stream in the middle
+    SnapshotDecoder lateDecoder = new SnapshotDecoder();
+    agg.truncate(-1);
+    agg.add(key("d"), 4);
+    SnapshotCommand cmd = transfer(tick(encoder, agg));
+    assertFalse(lateDecoder.apply(cmd));
+    assertNull(cmd.getView());
+
+    agg.add(key("e"), 5);
+    assertFalse(lateDecoder.apply(transfer(tick(encoder, agg))));
+
+    // the full snapshot re-numbers the keys compactly
+    cmd = tick(encoder, agg);
+    assertTrue(cmd.isFull());
+    assertEquals(0, cmd.getFirstKeyId());
+    assertEquals(3, cmd.getKeys().length);
+    cmd = transfer(cmd);
+    assertTrue(lateDecoder.apply(cmd));
+    assertEquals(rows(agg.getData()), rows(cmd.getView()));
+  }
+
+  @Test
+  public void testNumberMap() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("map", 1000);
+    Map<String, Number> map = new HashMap<>();
+    map.put("x", 1);
+    map.put("y", 2L);
+    SnapshotCommand cmd = transfer(encoder.encode(map));
+    assertTrue(decoder.apply(cmd));
+
+    map.put("x", Long.MIN_VALUE);
+    map.remove("y");
+    map.put("z", 7);
+    cmd = transfer(encoder.encode(map));
+    assertTrue(decoder.apply(cmd));
+    List<Object[]> view = cmd.getView();
+    assertEquals(2, view.size());
+    assertArrayEquals(new Object[] {"x", Long.MIN_VALUE}, view.get(0));
+    assertArrayEquals(new Object[] {"z", 7L}, view.get(1));
+  }
+
+  @Test
+  public void testAverage() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("agg", 1000);
+    Aggregation agg = new Aggregation(AggregationFunction.AVERAGE);
+    agg.add(key("a"), 1);
+    agg.add(key("a"), 4);
+    agg.add(key("b"), 10);
+    SnapshotCommand cmd = tick(encoder, agg);
+    assertEquals(AggregationFunction.AVERAGE, cmd.getFunction());
+
+    // the count changes while the mean stays the same
+    agg.add(key("b"), 10);
+    cmd = tick(encoder, agg);
+    assertEquals(1, cmd.getChangedRows());
+    assertEquals(rows(agg.getData()), rows(cmd.getView()));
+    List<Object[]> partial = cmd.getPartialView();
+    assertEquals(2, partial.size());
+    AverageData a = (AverageData) partial.get(0)[1];
+    AverageData b = (AverageData) partial.get(1)[1];
+    assertEquals(5, a.getSum());
+    assertEquals(2, a.getCount());
+    assertEquals(20, b.getSum());
+    assertEquals(2, b.getCount());
+  }
+
+  @Test
+  public void testMergePartialViews() throws Exception {
+    for (AggregationFunction function :
+        new AggregationFunction[] {AggregationFunction.MAXIMUM, AggregationFunction.AVERAGE}) {
+      Aggregation agg1 = new Aggregation(function);
+      agg1.add(key("a"), 1);
+      agg1.add(key("a"), 8);
+      Aggregation agg2 = new Aggregation(function);
+      agg2.add(key("a"), 3);
+      SnapshotCommand cmd1 = transfer(new SnapshotEncoder("agg").encode(agg1, Arrays::toString));
+      SnapshotCommand cmd2 = transfer(new SnapshotEncoder("agg").encode(agg2, Arrays::toString));
+      assertTrue(new SnapshotDecoder().apply(cmd1));
+      assertTrue(new SnapshotDecoder().apply(cmd2));
+
+      AggregationDataCommand merged =
+          new AggregationDataCommand("agg", cmd1.getFunction(), cmd1.getPartialView(), null)
+              .merge(
+                  new AggregationDataCommand(
+                      "agg", cmd2.getFunction(), cmd2.getPartialView(), null));
+      long expected = function == AggregationFunction.MAXIMUM ? 8 : 4;
+      assertEquals(expected, merged.getDisplayData().get(0)[1], function.name());
+    }
+  }
+
+  @Test
+  public void testManyKeysFewChanges() throws Exception {
+    SnapshotEncoder encoder = new SnapshotEncoder("agg", 1000);
+    Aggregation agg = new Aggregation(AggregationFunction.COUNT);
+    for (int i = 0; i < 10000; i++) {
+      agg.add(key("some.package.SomeClass", "method" + i), 1);
+    }
+    int fullSize = size(new GridDataCommand("agg", agg.getData()));
+    tick(encoder, agg);
+
+    for (int i = 0; i < 10000; i += 100) {
+      agg.add(key("some.package.SomeClass", "method" + i), 1);
+    }
+    SnapshotCommand cmd = tick(encoder, agg);
+    assertEquals(100, cmd.getChangedRows());
+    int deltaSize = size(cmd);
+    assertTrue(deltaSize * 100 < fullSize, deltaSize + " vs " + fullSize);
+  }
+
+  private static int size(Command cmd) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      WireIO.write(oos, cmd);
+    }
+    return bos.size();
+  }
+}
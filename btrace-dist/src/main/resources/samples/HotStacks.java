@@ -0,0 +1,30 @@
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnEvent;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+import static org.openjdk.btrace.core.BTraceUtils.Aggregations.*;
+
+/*
+ * This sample counts the call stacks leading to the creation of
+ * a java.io.File instance. Sending an event prints the counted
+ * stacks in the collapsed stack format, ready to be turned into
+ * a flame graph (eg. by the flamegraph.pl tool).
+ */
+@BTrace
+public class HotStacks {
+    private static Aggregation stacks = newAggregation(AggregationFunction.COUNT);
+
+    @OnMethod(clazz = "java.io.File", method = "<init>")
+    public static void onNewFile() {
+        // group by the top 32 frames; the stacks are rendered only when printed
+        addStackToAggregation(stacks, 32, 1);
+    }
+
+    @OnEvent
+    public static void onEvent() {
+        printCollapsedStacks(stacks);
+        clearAggregation(stacks);
+    }
+}
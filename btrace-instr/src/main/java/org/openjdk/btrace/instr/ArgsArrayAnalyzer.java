@@ -0,0 +1,110 @@
+package org.openjdk.btrace.instr;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Finds the elements of the {@code AnyType[]} argument the probe handlers read.
+ *
+ * <p>When a handler does not let the array escape and reads its elements only at constant indices,
+ * the instrumented code needs to box and store just those elements. The other elements are left
+ * {@code null}; the handler can not observe them.
+ */
+final class ArgsArrayAnalyzer {
+  private final Map<String, BitSet> readArgs = new HashMap<>();
+
+  /** @param probeCode the preprocessed probe class */
+  ArgsArrayAnalyzer(byte[] probeCode) {
+    ClassNode cn = new ClassNode();
+    new ClassReader(probeCode).accept(cn, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    for (MethodNode mn : cn.methods) {
+      BitSet read = readArgs(mn);
+      if (read != null) {
+        readArgs.put(CallGraph.methodId(mn.name, mn.desc), read);
+      }
+    }
+  }
+
+  /**
+   * @param om the handler
+   * @return the indices of the {@code AnyType[]} argument elements the handler reads or {@code
+   *     null} if the handler may access any of them
+   */
+  BitSet getReadArgs(OnMethod om) {
+    BitSet read = readArgs.get(CallGraph.methodId(om.getTargetName(), om.getTargetDescriptor()));
+    return read != null ? (BitSet) read.clone() : null;
+  }
+
+  private static BitSet readArgs(MethodNode mn) {
+    if ((mn.access & ACC_STATIC) == 0) {
+      return null;
+    }
+    int slot = -1;
+    int ptr = 0;
+    for (Type t : Type.getArgumentTypes(mn.desc)) {
+      if (TypeUtils.isAnyTypeArray(t)) {
+        if (slot != -1) {
+          return null;
+        }
+        slot = ptr;
+      }
+      ptr += t.getSize();
+    }
+    if (slot == -1) {
+      return null;
+    }
+    BitSet read = new BitSet();
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+      if (n.getType() != AbstractInsnNode.VAR_INSN || ((VarInsnNode) n).var != slot) {
+        continue;
+      }
+      if (n.getOpcode() != ALOAD) {
+        return null;
+      }
+      AbstractInsnNode next = nextInsn(n);
+      if (next == null) {
+        return null;
+      }
+      if (next.getOpcode() == ARRAYLENGTH) {
+        continue;
+      }
+      // args[i] with a constant index
+      int index = constantIndex(next);
+      next = nextInsn(next);
+      if (index < 0 || next == null || next.getOpcode() != AALOAD) {
+        return null;
+      }
+      read.set(index);
+    }
+    return read;
+  }
+
+  private static int constantIndex(AbstractInsnNode n) {
+    int opcode = n.getOpcode();
+    if (opcode >= ICONST_0 && opcode <= ICONST_5) {
+      return opcode - ICONST_0;
+    }
+    if (opcode == BIPUSH || opcode == SIPUSH) {
+      return ((IntInsnNode) n).operand;
+    }
+    return -1;
+  }
+
+  private static AbstractInsnNode nextInsn(AbstractInsnNode n) {
+    AbstractInsnNode next = n.getNext();
+    while (next != null && next.getOpcode() == -1) {
+      next = next.getNext();
+    }
+    return next;
+  }
+}
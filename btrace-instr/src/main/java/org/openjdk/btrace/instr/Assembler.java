@@ -31,6 +31,7 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 import org.openjdk.btrace.runtime.Interval;
 
 /**
@@ -515,6 +516,18 @@ public final class Assembler {
     return this;
   }
 
+  /**
+   * Emits the code of an inlinable probe handler in place of its invocation.
+   *
+   * @param handler the handler code as returned by {@linkplain
+   *     BTraceProbe#getInlinableHandler(OnMethod)}
+   * @return itself
+   */
+  public Assembler inline(MethodNode handler) {
+    HandlerInliner.inline(handler, mv, mHelper);
+    return this;
+  }
+
   public Assembler addLevelCheck(String clsName, Level level, Label jmp) {
     return addLevelCheck(clsName, level.getValue(), jmp);
   }
@@ -61,7 +61,7 @@ final class BTraceClassReader extends ClassReader {
 
       m2 =
           ClassReader.class.getDeclaredMethod(
-              "readElementValue", AnnotationVisitor.class, int.class, String.class, char[].class);
+              "readElementValues", AnnotationVisitor.class, int.class, boolean.class, char[].class);
       m2.setAccessible(true);
 
       f1 = ClassReader.class.getDeclaredField("cpInfoOffsets");
@@ -198,7 +198,8 @@ final class BTraceClassReader extends ClassReader {
   private int skipAnnotationValues(int off, char[] buf) {
     try {
       if (readAnnotationValuesMthd != null) {
-        return (int) readAnnotationValuesMthd.invoke(this, null, off, null, buf);
+        // the element_value_pairs of an annotation
+        return (int) readAnnotationValuesMthd.invoke(this, null, off, true, buf);
       }
     } catch (Exception e) {
       e.printStackTrace();
@@ -44,8 +44,10 @@
  */
 package org.openjdk.btrace.instr;
 
+import java.util.BitSet;
 import java.util.Collection;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.MethodNode;
 import org.openjdk.btrace.core.ArgsMap;
 import org.openjdk.btrace.core.BTraceRuntime;
 
@@ -82,6 +84,22 @@ public interface BTraceProbe {
 
   void copyHandlers(ClassVisitor copyingVisitor);
 
+  /**
+   * @param om the handler
+   * @return the preprocessed handler code if handler inlining is enabled and the handler is trivial
+   *     enough to be inlined into the instrumented methods; {@code null} otherwise
+   * @since 2.3.0
+   */
+  MethodNode getInlinableHandler(OnMethod om);
+
+  /**
+   * @param om the handler
+   * @return the indices of the {@code AnyType[]} argument elements the handler reads or {@code
+   *     null} if the handler may access any of them
+   * @since 2.3.0
+   */
+  BitSet getReadArgs(OnMethod om);
+
   void applyArgs(ArgsMap argsMap);
 
   BTraceRuntime.Impl getRuntime();
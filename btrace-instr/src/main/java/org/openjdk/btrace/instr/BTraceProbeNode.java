@@ -28,6 +28,7 @@ package org.openjdk.btrace.instr;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -72,6 +73,8 @@ public final class BTraceProbeNode extends ClassNode implements BTraceProbe {
   private final BTraceBCPClassLoader bcpResourceClassLoader;
 
   private volatile BTraceRuntime.Impl rt = null;
+  private volatile HandlerInliner inliner;
+  private volatile ArgsArrayAnalyzer argsArrays;
 
   private BTraceTransformer transformer;
   private VerifierException verifierException = null;
@@ -84,7 +87,7 @@ public final class BTraceProbeNode extends ClassNode implements BTraceProbe {
     delegate = new BTraceProbeSupport();
     idmap = new HashMap<>();
     graph = new CallGraph();
-    prep = new Preprocessor();
+    prep = new Preprocessor(factory.getSettings().isHandlerStats());
   }
 
   BTraceProbeNode(BTraceProbeFactory factory, byte[] code) {
@@ -369,6 +372,31 @@ public final class BTraceProbeNode extends ClassNode implements BTraceProbe {
     copyingVisitor.visitEnd();
   }
 
+  @Override
+  public MethodNode getInlinableHandler(OnMethod om) {
+    if (!factory.getSettings().isInlineHandlers()) {
+      return null;
+    }
+    HandlerInliner hi = inliner;
+    if (hi == null) {
+      // a benign race; the inliner is immutable
+      hi = new HandlerInliner(getFullBytecode());
+      inliner = hi;
+    }
+    return hi.getHandler(om);
+  }
+
+  @Override
+  public BitSet getReadArgs(OnMethod om) {
+    ArgsArrayAnalyzer aaa = argsArrays;
+    if (aaa == null) {
+      // a benign race; the analyzer is immutable
+      aaa = new ArgsArrayAnalyzer(getFullBytecode());
+      argsArrays = aaa;
+    }
+    return aaa.getReadArgs(om);
+  }
+
   @Override
   public void applyArgs(ArgsMap argsMap) {
     delegate.applyArgs(argsMap);
@@ -26,6 +26,7 @@ import static org.objectweb.asm.Opcodes.*;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,6 +39,7 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.MethodNode;
 import org.openjdk.btrace.core.ArgsMap;
 import org.openjdk.btrace.core.BTraceRuntime;
 import org.openjdk.btrace.core.DebugSupport;
@@ -62,6 +64,8 @@ public class BTraceProbePersisted implements BTraceProbe {
   private final AtomicBoolean triedVerify = new AtomicBoolean(false);
   private final Map<String, Set<String>> calleeMap = new HashMap<>();
   private volatile BTraceRuntime.Impl rt = null;
+  private volatile HandlerInliner inliner;
+  private volatile ArgsArrayAnalyzer argsArrays;
   private BTraceTransformer transformer;
   private byte[] fullData = null;
   private byte[] dataHolder = null;
@@ -563,6 +567,31 @@ public class BTraceProbePersisted implements BTraceProbe {
         0);
   }
 
+  @Override
+  public MethodNode getInlinableHandler(OnMethod om) {
+    if (!factory.getSettings().isInlineHandlers()) {
+      return null;
+    }
+    HandlerInliner hi = inliner;
+    if (hi == null) {
+      // a benign race; the inliner is immutable
+      hi = new HandlerInliner(getFullBytecode());
+      inliner = hi;
+    }
+    return hi.getHandler(om);
+  }
+
+  @Override
+  public BitSet getReadArgs(OnMethod om) {
+    ArgsArrayAnalyzer aaa = argsArrays;
+    if (aaa == null) {
+      // a benign race; the analyzer is immutable
+      aaa = new ArgsArrayAnalyzer(getFullBytecode());
+      argsArrays = aaa;
+    }
+    return aaa.getReadArgs(om);
+  }
+
   @Override
   public void applyArgs(ArgsMap argsMap) {
     delegate.applyArgs(argsMap);
@@ -159,10 +159,12 @@ public final class BTraceTransformer implements ClassFileTransformer {
         return null;
       }
 
-      if (filter.matchClass(className) == Filter.Result.FALSE) return null;
-
+      // the class matching may load or resolve classes itself; it must not be re-entered
       boolean entered = BTraceRuntime.enter();
       try {
+        if (filter.matchClass(className, loader, classfileBuffer) == Filter.Result.FALSE) {
+          return null;
+        }
         if (debug.isDumpClasses()) {
           debug.dumpClass(className.replace('.', '/') + "_orig", classfileBuffer);
         }
@@ -205,6 +207,8 @@ public final class BTraceTransformer implements ClassFileTransformer {
   static class Filter {
     private final Map<String, Integer> nameMap = new HashMap<>();
     private final Map<Pattern, Integer> nameRegexMap = new HashMap<>();
+    private final Map<String, Integer> superTypeMap = new HashMap<>();
+    private final SubtypePrefilter subtypePrefilter = new SubtypePrefilter();
     private boolean isFast = true;
     private boolean isRegex = false;
 
@@ -225,13 +229,18 @@ public final class BTraceTransformer implements ClassFileTransformer {
         int freq = i - 1;
         if (freq == 0) {
           map.remove(name);
+        } else {
+          map.put(name, freq);
         }
       }
     }
 
     void add(OnMethod om) {
-      if (om.isSubtypeMatcher() || om.isClassAnnotationMatcher()) {
+      if (om.isClassAnnotationMatcher()) {
         isFast = false;
+      } else if (om.isSubtypeMatcher()) {
+        addToMap(superTypeMap, om.getClazz());
+        updateSubtypePrefilter();
       } else {
         if (om.isClassRegexMatcher()) {
           isRegex = true;
@@ -246,7 +255,10 @@ public final class BTraceTransformer implements ClassFileTransformer {
 
     void remove(OnMethod om) {
       String name = om.getClazz().replace('.', '/');
-      if (!(om.isSubtypeMatcher() || om.isClassAnnotationMatcher())) {
+      if (om.isSubtypeMatcher()) {
+        removeFromMap(superTypeMap, om.getClazz());
+        updateSubtypePrefilter();
+      } else if (!om.isClassAnnotationMatcher()) {
         if (om.isClassRegexMatcher()) {
           removeFromMap(nameRegexMap, Pattern.compile(name));
         } else {
@@ -255,25 +267,52 @@ public final class BTraceTransformer implements ClassFileTransformer {
       }
     }
 
+    private void updateSubtypePrefilter() {
+      synchronized (superTypeMap) {
+        subtypePrefilter.setTargets(superTypeMap.keySet());
+      }
+    }
+
     public Result matchClass(String className) {
       if (isFast) {
-        synchronized (nameMap) {
-          if (nameMap.containsKey(className)) {
-            return Result.TRUE;
-          }
+        if (matchName(className)) {
+          return Result.TRUE;
         }
-        if (isRegex) {
-          synchronized (nameRegexMap) {
-            for (Pattern p : nameRegexMap.keySet()) {
-              if (p.matcher(className).matches()) {
-                return Result.TRUE;
-              }
+        return subtypePrefilter.hasTargets() ? Result.MAYBE : Result.FALSE;
+      }
+      return Result.MAYBE;
+    }
+
+    /**
+     * Matches the class by its name and, if there are any subtype matchers, by its direct
+     * supertypes as recorded in the class file bytes.
+     */
+    public Result matchClass(String className, ClassLoader loader, byte[] classfileBuffer) {
+      Result r = matchClass(className);
+      if (r == Result.MAYBE && isFast) {
+        return subtypePrefilter.matches(className, loader, classfileBuffer)
+            ? Result.TRUE
+            : Result.FALSE;
+      }
+      return r;
+    }
+
+    private boolean matchName(String className) {
+      synchronized (nameMap) {
+        if (nameMap.containsKey(className)) {
+          return true;
+        }
+      }
+      if (isRegex) {
+        synchronized (nameRegexMap) {
+          for (Pattern p : nameRegexMap.keySet()) {
+            if (p.matcher(className).matches()) {
+              return true;
             }
           }
         }
-        return Result.FALSE;
       }
-      return Result.MAYBE;
+      return false;
     }
 
     enum Result {
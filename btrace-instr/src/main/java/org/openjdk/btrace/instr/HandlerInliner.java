@@ -0,0 +1,343 @@
+package org.openjdk.btrace.instr;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Inlines trivial probe handlers directly into the instrumented methods.
+ *
+ * <p>A handler is trivial when its body, apart from the runtime enter and leave calls added by the
+ * {@linkplain Preprocessor}, only reads its arguments, computes with primitive values, accesses the
+ * static fields of the probe class and calls the atomic counter and aggregation helpers. None of
+ * these can throw so the exception handler the preprocessor wraps the body in is left out and the
+ * inlined code does not add any try-catch block to the instrumented method.
+ */
+final class HandlerInliner {
+  /** The maximum number of instructions of an inlined handler */
+  static final int MAX_INSTRUCTIONS = 48;
+
+  private static final String ATOMIC_INTERNAL = Constants.BTRACE_UTILS + "$Atomic";
+  private static final String AGGREGATIONS_INTERNAL = Constants.BTRACE_UTILS + "$Aggregations";
+  private static final String ADD_TO_AGGREGATION_DESC =
+      "(Lorg/openjdk/btrace/core/aggregation/Aggregation;J)V";
+  private static final Set<String> ATOMIC_METHODS =
+      new HashSet<>(
+          Arrays.asList(
+              "get",
+              "set",
+              "lazySet",
+              "getAndIncrement",
+              "getAndDecrement",
+              "incrementAndGet",
+              "decrementAndGet",
+              "getAndAdd",
+              "addAndGet",
+              "getAndSet"));
+
+  private final String probeClassName;
+  private final Set<String> finalFields = new HashSet<>();
+  private final Map<String, MethodNode> handlers = new HashMap<>();
+
+  /** @param probeCode the preprocessed probe class */
+  HandlerInliner(byte[] probeCode) {
+    ClassNode cn = new ClassNode();
+    new ClassReader(probeCode).accept(cn, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    probeClassName = cn.name;
+    for (FieldNode fn : cn.fields) {
+      if ((fn.access & (ACC_STATIC | ACC_FINAL)) == (ACC_STATIC | ACC_FINAL)) {
+        finalFields.add(fn.name);
+      }
+    }
+    for (MethodNode mn : cn.methods) {
+      if (isInlinable(mn)) {
+        handlers.put(CallGraph.methodId(mn.name, mn.desc), mn);
+      }
+    }
+  }
+
+  /**
+   * @param om the handler
+   * @return the handler code if it can be inlined or {@code null}
+   */
+  MethodNode getHandler(OnMethod om) {
+    return handlers.get(CallGraph.methodId(om.getTargetName(), om.getTargetDescriptor()));
+  }
+
+  /**
+   * Emits the handler code in place of the handler invocation. The handler arguments are expected
+   * on the stack, as for the invocation.
+   *
+   * @param handler the {@linkplain #getHandler(OnMethod) inlinable handler}
+   * @param mv the instrumented method
+   * @param helper the frame and local variable support for the instrumented method
+   */
+  static void inline(MethodNode handler, MethodVisitor mv, MethodInstrumentorHelper helper) {
+    Type[] args = Type.getArgumentTypes(handler.desc);
+    int[] argSlots = new int[args.length];
+    int slots = 0;
+    for (int i = 0; i < args.length; i++) {
+      argSlots[i] = slots;
+      slots += args[i].getSize();
+    }
+    int[] vars = new int[slots];
+    for (int i = args.length - 1; i >= 0; i--) {
+      vars[argSlots[i]] = helper.storeAsNew();
+    }
+
+    AbstractInsnNode bodyEnd = bodyEnd(handler);
+    AbstractInsnNode lastInsn =
+        bodyEnd != null ? bodyEnd.getPrevious() : handler.instructions.getLast();
+    while (lastInsn.getOpcode() == -1) {
+      lastInsn = lastInsn.getPrevious();
+    }
+    Map<LabelNode, Label> labels = new HashMap<>();
+    Label end = new Label();
+    boolean jumpsToEnd = false;
+    for (AbstractInsnNode n = handler.instructions.getFirst(); n != bodyEnd; n = n.getNext()) {
+      switch (n.getType()) {
+        case AbstractInsnNode.LABEL:
+          {
+            Label l = labels.computeIfAbsent((LabelNode) n, k -> new Label());
+            mv.visitLabel(l);
+            helper.insertFrameSameStack(l);
+            break;
+          }
+        case AbstractInsnNode.JUMP_INSN:
+          {
+            LabelNode target = ((JumpInsnNode) n).label;
+            mv.visitJumpInsn(n.getOpcode(), labels.computeIfAbsent(target, k -> new Label()));
+            break;
+          }
+        case AbstractInsnNode.VAR_INSN:
+          {
+            mv.visitVarInsn(n.getOpcode(), vars[((VarInsnNode) n).var]);
+            break;
+          }
+        default:
+          {
+            if (n.getOpcode() == RETURN) {
+              if (n != lastInsn) {
+                mv.visitJumpInsn(GOTO, end);
+                jumpsToEnd = true;
+              }
+            } else {
+              n.accept(mv);
+            }
+          }
+      }
+    }
+    if (jumpsToEnd) {
+      mv.visitLabel(end);
+      helper.insertFrameSameStack(end);
+      // the frame at 'end' includes the handler arguments; a label the instrumentation places
+      // right after the inlined code must not share its offset
+      mv.visitInsn(NOP);
+    }
+  }
+
+  /** @return the first instruction of the exception handler or {@code null} */
+  private static AbstractInsnNode bodyEnd(MethodNode mn) {
+    return mn.tryCatchBlocks.isEmpty() ? null : mn.tryCatchBlocks.get(0).handler;
+  }
+
+  private boolean isInlinable(MethodNode mn) {
+    if ((mn.access & ACC_STATIC) == 0
+        || mn.name.startsWith("<")
+        || !Type.getReturnType(mn.desc).equals(Type.VOID_TYPE)) {
+      return false;
+    }
+    List<TryCatchBlockNode> tcbs = mn.tryCatchBlocks;
+    if (tcbs.size() > 1
+        || (tcbs.size() == 1 && !Constants.THROWABLE_INTERNAL.equals(tcbs.get(0).type))) {
+      return false;
+    }
+    int argSlots = 0;
+    for (Type t : Type.getArgumentTypes(mn.desc)) {
+      argSlots += t.getSize();
+    }
+    AbstractInsnNode bodyEnd = bodyEnd(mn);
+    Set<LabelNode> seenLabels = new HashSet<>();
+    int count = 0;
+    boolean returns = false;
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != bodyEnd; n = n.getNext()) {
+      if (n == null) {
+        // the exception handler is not placed after the body
+        return false;
+      }
+      if (n.getOpcode() == -1) {
+        if (n.getType() == AbstractInsnNode.LABEL) {
+          seenLabels.add((LabelNode) n);
+        }
+        continue;
+      }
+      if (++count > MAX_INSTRUCTIONS) {
+        return false;
+      }
+      returns = n.getOpcode() == RETURN;
+      if (!isAllowed(n, argSlots)) {
+        return false;
+      }
+      if (n.getType() == AbstractInsnNode.JUMP_INSN) {
+        LabelNode target = ((JumpInsnNode) n).label;
+        // only forward jumps within the body
+        if (seenLabels.contains(target) || !precedes(target, bodyEnd)) {
+          return false;
+        }
+      }
+    }
+    return returns;
+  }
+
+  private static boolean precedes(LabelNode label, AbstractInsnNode bodyEnd) {
+    for (AbstractInsnNode n = label; n != null; n = n.getNext()) {
+      if (n == bodyEnd) {
+        return true;
+      }
+    }
+    return bodyEnd == null;
+  }
+
+  private boolean isAllowed(AbstractInsnNode n, int argSlots) {
+    int opcode = n.getOpcode();
+    switch (n.getType()) {
+      case AbstractInsnNode.VAR_INSN:
+        // reading the handler arguments only
+        return opcode >= ILOAD && opcode <= ALOAD && ((VarInsnNode) n).var < argSlots;
+      case AbstractInsnNode.INT_INSN:
+        return opcode == BIPUSH || opcode == SIPUSH;
+      case AbstractInsnNode.LDC_INSN:
+        {
+          Object cst = ((LdcInsnNode) n).cst;
+          return cst instanceof Number || cst instanceof String;
+        }
+      case AbstractInsnNode.JUMP_INSN:
+        return opcode != JSR;
+      case AbstractInsnNode.FIELD_INSN:
+        {
+          FieldInsnNode fin = (FieldInsnNode) n;
+          if ((opcode != GETSTATIC && opcode != PUTSTATIC) || !fin.owner.equals(probeClassName)) {
+            return false;
+          }
+          char sort = fin.desc.charAt(0);
+          if (opcode == GETSTATIC && (sort == 'L' || sort == '[')) {
+            // the references passed to the helpers must not be null
+            return finalFields.contains(fin.name) || fin.desc.equals(Constants.BTRACERTBASE_DESC);
+          }
+          return true;
+        }
+      case AbstractInsnNode.METHOD_INSN:
+        return isAllowedCall((MethodInsnNode) n);
+      case AbstractInsnNode.INSN:
+        return isNonThrowing(opcode);
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isAllowedCall(MethodInsnNode min) {
+    switch (min.owner) {
+      case Constants.BTRACERTACCESS_INTERNAL:
+        return min.getOpcode() == INVOKESTATIC && min.name.equals("enter");
+      case Constants.BTRACERTBASE_INTERNAL:
+        return min.getOpcode() == INVOKEVIRTUAL && min.name.equals("leave");
+      default:
+        if (min.getOpcode() != INVOKESTATIC) {
+          return false;
+        }
+        if (min.owner.equals(ATOMIC_INTERNAL)) {
+          return ATOMIC_METHODS.contains(min.name);
+        }
+        if (min.owner.equals(Constants.BTRACE_UTILS) || min.owner.equals(AGGREGATIONS_INTERNAL)) {
+          return min.name.equals("addToAggregation") && min.desc.equals(ADD_TO_AGGREGATION_DESC);
+        }
+        return false;
+    }
+  }
+
+  private static boolean isNonThrowing(int opcode) {
+    if (opcode >= ACONST_NULL && opcode <= DCONST_1) {
+      return opcode != ACONST_NULL;
+    }
+    if (opcode >= POP && opcode <= SWAP) {
+      return true;
+    }
+    switch (opcode) {
+      case NOP:
+      case IADD:
+      case LADD:
+      case FADD:
+      case DADD:
+      case ISUB:
+      case LSUB:
+      case FSUB:
+      case DSUB:
+      case IMUL:
+      case LMUL:
+      case FMUL:
+      case DMUL:
+      case FDIV:
+      case DDIV:
+      case INEG:
+      case LNEG:
+      case FNEG:
+      case DNEG:
+      case ISHL:
+      case LSHL:
+      case ISHR:
+      case LSHR:
+      case IUSHR:
+      case LUSHR:
+      case IAND:
+      case LAND:
+      case IOR:
+      case LOR:
+      case IXOR:
+      case LXOR:
+      case I2L:
+      case I2F:
+      case I2D:
+      case L2I:
+      case L2F:
+      case L2D:
+      case F2I:
+      case F2L:
+      case F2D:
+      case D2I:
+      case D2L:
+      case D2F:
+      case I2B:
+      case I2C:
+      case I2S:
+      case LCMP:
+      case FCMPL:
+      case FCMPG:
+      case DCMPL:
+      case DCMPG:
+      case RETURN:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
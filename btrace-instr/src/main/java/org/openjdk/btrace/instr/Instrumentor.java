@@ -43,6 +43,7 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 import org.openjdk.btrace.core.BTraceRuntime;
 import org.openjdk.btrace.core.MethodID;
 import org.openjdk.btrace.core.annotations.Kind;
@@ -60,6 +61,7 @@ import org.openjdk.btrace.instr.templates.impl.MethodTrackingExpander;
 public class Instrumentor extends ClassVisitor {
   private final BTraceProbe bcn;
   private final ClassLoader cl;
+  private final MethodPrefilter prefilter;
   private final Collection<OnMethod> applicableOnMethods;
   private final Set<OnMethod> calledOnMethods = new HashSet<>();
 
@@ -70,7 +72,7 @@ public class Instrumentor extends ClassVisitor {
   private static boolean useHiddenClassesInTest = false;
 
   private Instrumentor(
-      ClassLoader cl, BTraceProbe bcn, Collection<OnMethod> applicables, ClassVisitor cv) {
+      ClassLoader cl, BTraceProbe bcn, MethodPrefilter prefilter, ClassVisitor cv) {
     super(ASM9, cv);
     this.cl = cl;
     this.bcn = bcn;
@@ -78,7 +80,8 @@ public class Instrumentor extends ClassVisitor {
     // 'rt' is null only during instrumentation tests; we want to default to in-situ instrumentation
     // there
     useHiddenClasses = useHiddenClassesInTest || (rt != null && rt.version() >= 15);
-    applicableOnMethods = applicables;
+    this.prefilter = prefilter;
+    applicableOnMethods = prefilter.getOnMethods();
   }
 
   static final Instrumentor create(
@@ -90,7 +93,12 @@ public class Instrumentor extends ClassVisitor {
 
     Collection<OnMethod> applicables = bcn.getApplicableHandlers(cr);
     if (applicables != null && !applicables.isEmpty()) {
-      return new Instrumentor(cl, bcn, applicables, cv);
+      // a cheap scan of the class avoids running it (or its methods) through the instrumenting
+      // visitors only to find out nothing matches
+      MethodPrefilter prefilter = MethodPrefilter.scan(cr, applicables);
+      if (!prefilter.getOnMethods().isEmpty()) {
+        return new Instrumentor(cl, bcn, prefilter, cv);
+      }
     }
     return null;
   }
@@ -142,32 +150,16 @@ public class Instrumentor extends ClassVisitor {
           annotationMatchers.add(om);
           continue;
         }
-        String methodName = om.getMethod();
-        boolean regexMatch = om.isMethodRegexMatcher();
-        if (methodName.isEmpty()) {
-          methodName = ".*"; // match all the methods
-          regexMatch = true;
-        }
-        if (methodName.equals("#")) {
-          methodName = om.getTargetName(); // match just the same-named method
-        }
-
-        if (methodName.equals(name) && typeMatches(om.getType(), desc, om.isExactTypeMatch())) {
+        if (matchesMethodName(om, name)
+            && prefilter.mayApply(om, name, desc)
+            && typeMatches(om.getType(), desc, om.isExactTypeMatch())) {
           appliedOnMethods.add(om);
-        } else if (regexMatch) {
-          try {
-            if (name.matches(methodName)
-                && typeMatches(om.getType(), desc, om.isExactTypeMatch())) {
-              appliedOnMethods.add(om);
-            }
-          } catch (PatternSyntaxException pse) {
-            reportPatternSyntaxException(name);
-          }
         }
       }
     }
 
     if (annotationMatchers.isEmpty() && appliedOnMethods.isEmpty()) {
+      // the class writer copies the method code as it is
       return super.visitMethod(access, name, desc, signature, exceptions);
     }
 
@@ -209,6 +201,36 @@ public class Instrumentor extends ClassVisitor {
     };
   }
 
+  /**
+   * @param om the handler; not a {@linkplain OnMethod#isMethodAnnotationMatcher() method annotation
+   *     matcher}
+   * @param name the method name
+   * @return {@code true} if the handler applies to the methods of the given name
+   */
+  static boolean matchesMethodName(OnMethod om, String name) {
+    String methodName = om.getMethod();
+    boolean regexMatch = om.isMethodRegexMatcher();
+    if (methodName.isEmpty()) {
+      methodName = ".*"; // match all the methods
+      regexMatch = true;
+    }
+    if (methodName.equals("#")) {
+      methodName = om.getTargetName(); // match just the same-named method
+    }
+
+    if (methodName.equals(name)) {
+      return true;
+    }
+    if (regexMatch) {
+      try {
+        return name.matches(methodName);
+      } catch (PatternSyntaxException pse) {
+        reportPatternSyntaxException(name);
+      }
+    }
+    return false;
+  }
+
   private String getMethodOrFieldName(
       boolean fqn, int opcode, String owner, String name, String desc) {
     StringBuilder mName = new StringBuilder();
@@ -267,6 +289,20 @@ public class Instrumentor extends ClassVisitor {
       int access,
       String name,
       String desc) {
+    MethodVisitor instrumentor = newInstrumentor(om, mv, mHelper, access, name, desc);
+    if (instrumentor instanceof MethodInstrumentor) {
+      ((MethodInstrumentor) instrumentor).setReadArgs(bcn.getReadArgs(om));
+    }
+    return instrumentor;
+  }
+
+  private MethodVisitor newInstrumentor(
+      OnMethod om,
+      MethodVisitor mv,
+      MethodInstrumentorHelper mHelper,
+      int access,
+      String name,
+      String desc) {
     Location loc = om.getLocation();
     Where where = loc.getWhere();
     Type[] actionArgTypes = Type.getArgumentTypes(om.getTargetDescriptor());
@@ -1821,7 +1857,10 @@ public class Instrumentor extends ClassVisitor {
   }
 
   private void invokeBTraceAction(Assembler asm, OnMethod om) {
-    if (useHiddenClasses) {
+    MethodNode inlined = bcn.getInlinableHandler(om);
+    if (inlined != null) {
+      asm.inline(inlined);
+    } else if (useHiddenClasses) {
       MethodType mt =
           MethodType.methodType(
               CallSite.class,
@@ -1857,7 +1896,7 @@ public class Instrumentor extends ClassVisitor {
    * @param input
    * @return
    */
-  private boolean matches(String pattern, String input) {
+  static boolean matches(String pattern, String input) {
     if (pattern.length() == 0) {
       return false;
     }
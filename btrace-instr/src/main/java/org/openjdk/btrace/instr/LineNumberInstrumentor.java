@@ -66,7 +66,9 @@ public class LineNumberInstrumentor extends MethodInstrumentor {
   public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean iface) {
     boolean beforeConstructor = !isPrologueVisited();
     super.visitMethodInsn(opcode, owner, name, desc, iface);
-    if (lastLine != -1 && beforeConstructor) {
+    // the superclass constructor call has just been visited; the calls made before it do not
+    // enter the line
+    if (lastLine != -1 && beforeConstructor && isPrologueVisited()) {
       onBeforeLine(lastLine);
     }
   }
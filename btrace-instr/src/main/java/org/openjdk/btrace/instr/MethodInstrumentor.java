@@ -30,6 +30,7 @@ import static org.objectweb.asm.Opcodes.*;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -60,6 +61,7 @@ public class MethodInstrumentor extends BTraceMethodVisitor {
   private final Map<Integer, Type> extraTypes;
   private Label skipLabel;
   private boolean prologueVisited = false;
+  private BitSet readArgs = null;
 
   public MethodInstrumentor(
       ClassLoader cl,
@@ -161,6 +163,17 @@ public class MethodInstrumentor extends BTraceMethodVisitor {
     this.skipLabel = skipLabel;
   }
 
+  /**
+   * Restricts the {@code AnyType[]} handler argument to the elements the handler reads; the other
+   * elements are neither boxed nor stored.
+   *
+   * @param readArgs the indices of the read elements or {@code null} to provide all the elements
+   * @see BTraceProbe#getReadArgs(OnMethod)
+   */
+  final void setReadArgs(BitSet readArgs) {
+    this.readArgs = readArgs;
+  }
+
   public final String getDescriptor() {
     return desc;
   }
@@ -665,7 +678,13 @@ public class MethodInstrumentor extends BTraceMethodVisitor {
       asm.newArray(Constants.OBJECT_TYPE);
       for (int j = 0; j < myArgTypes.length; j++) {
         Type argType = myArgTypes[j];
-        asm.dup().push(j).loadLocal(argType, argPtr).box(argType).arrayStore(Constants.OBJECT_TYPE);
+        if (readArgs == null || readArgs.get(j)) {
+          asm.dup()
+              .push(j)
+              .loadLocal(argType, argPtr)
+              .box(argType)
+              .arrayStore(Constants.OBJECT_TYPE);
+        }
         argPtr += argType.getSize();
       }
     }
@@ -0,0 +1,340 @@
+package org.openjdk.btrace.instr;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.openjdk.btrace.core.annotations.Kind;
+
+/**
+ * Narrows the handlers applicable to a class down to those which may instrument at least one of
+ * its methods before the class is run through the instrumenting visitors.
+ *
+ * <p>Usually only the method table is read - the method code is skipped. The handlers instrumenting
+ * method calls, field accesses or allocations are also checked against the constant pool; a class
+ * without a reference to the target member can not contain a matching instruction. If such a
+ * handler passes the check the code of the methods it applies to is scanned for the matching
+ * instructions as well. The instrumentor then leaves out the methods without any and {@linkplain
+ * org.objectweb.asm.ClassWriter ASM} copies them to the instrumented class as they are, instead of
+ * re-emitting them with the stack frames tracked.
+ *
+ * <p>The check is conservative. A handler this class keeps may still turn out not to match, e.g.
+ * due to the method signature, but a handler it drops would not instrument anything.
+ */
+final class MethodPrefilter {
+  private static final int CONSTANT_CLASS_TAG = 7;
+  private static final int CONSTANT_FIELDREF_TAG = 9;
+  private static final int CONSTANT_METHODREF_TAG = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF_TAG = 11;
+
+  private final Collection<OnMethod> onMethods;
+  // handler -> the methods (name + descriptor) containing an instruction it instruments
+  private final Map<OnMethod, Set<String>> sites;
+
+  private MethodPrefilter(Collection<OnMethod> onMethods, Map<OnMethod, Set<String>> sites) {
+    this.onMethods = onMethods;
+    this.sites = sites;
+  }
+
+  /**
+   * @param cr the class to be instrumented
+   * @param onMethods the handlers {@linkplain BTraceProbe#getApplicableHandlers(BTraceClassReader)
+   *     applicable} to the class
+   * @return the prefilter for the class
+   */
+  static MethodPrefilter scan(BTraceClassReader cr, Collection<OnMethod> onMethods) {
+    List<OnMethod> candidates = new ArrayList<>(onMethods.size());
+    Map<OnMethod, Set<String>> sites = new HashMap<>();
+    char[] buf = null;
+    for (OnMethod om : onMethods) {
+      if (hasLocationTarget(om)) {
+        if (buf == null) {
+          buf = new char[cr.getMaxStringLength()];
+        }
+        if (!hasLocationReference(cr, om.getLocation(), buf)) {
+          continue;
+        }
+      }
+      if (isSiteMatcher(om)) {
+        sites.put(om, new HashSet<>());
+      }
+      candidates.add(om);
+    }
+    if (candidates.isEmpty()) {
+      return new MethodPrefilter(candidates, sites);
+    }
+
+    List<OnMethod> matched = new ArrayList<>(candidates.size());
+    cr.accept(
+        new ClassVisitor(ASM9) {
+          @Override
+          public MethodVisitor visitMethod(
+              int access, String name, String desc, String signature, String[] exceptions) {
+            // the same methods as skipped by the instrumentor
+            if ((access & ACC_ABSTRACT) != 0 || name.startsWith(Constants.BTRACE_METHOD_PREFIX)) {
+              return null;
+            }
+            List<OnMethod> annotationMatchers = null;
+            List<OnMethod> siteMatchers = null;
+            for (OnMethod om : candidates) {
+              if (sites.containsKey(om)) {
+                // all the methods the handler applies to need to be scanned
+                if (Instrumentor.matchesMethodName(om, name)) {
+                  if (siteMatchers == null) {
+                    siteMatchers = new ArrayList<>();
+                  }
+                  siteMatchers.add(om);
+                }
+                continue;
+              }
+              if (matched.contains(om)) {
+                continue;
+              }
+              if (om.getLocation().getValue() == Kind.LINE) {
+                matched.add(om);
+              } else if (om.isMethodAnnotationMatcher()) {
+                if (annotationMatchers == null) {
+                  annotationMatchers = new ArrayList<>();
+                }
+                annotationMatchers.add(om);
+              } else if (Instrumentor.matchesMethodName(om, name)) {
+                matched.add(om);
+              }
+            }
+            if (sites.isEmpty() && matched.size() == candidates.size()) {
+              // no need to look any further
+              BTraceClassReader.bailout();
+            }
+            if (annotationMatchers == null && siteMatchers == null) {
+              return null;
+            }
+            return new MethodScanner(name + desc, annotationMatchers, siteMatchers);
+          }
+
+          final class MethodScanner extends MethodVisitor {
+            private final String methodKey;
+            private final List<OnMethod> annotationMatchers;
+            private final List<OnMethod> siteMatchers;
+
+            MethodScanner(
+                String methodKey, List<OnMethod> annotationMatchers, List<OnMethod> siteMatchers) {
+              super(ASM9);
+              this.methodKey = methodKey;
+              this.annotationMatchers = annotationMatchers;
+              this.siteMatchers = siteMatchers;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String annoDesc, boolean visible) {
+              if (annotationMatchers != null) {
+                String annoName = Type.getType(annoDesc).getClassName();
+                for (OnMethod om : annotationMatchers) {
+                  if (!matched.contains(om) && matchesAnnotation(om, annoName)) {
+                    matched.add(om);
+                  }
+                }
+              }
+              return null;
+            }
+
+            @Override
+            public void visitMethodInsn(
+                int opcode, String owner, String name, String desc, boolean isInterface) {
+              // the same calls as skipped by the instrumentor
+              if (!name.startsWith("$btrace")) {
+                visitSite(Kind.CALL, owner, name);
+              }
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+              // the same fields as skipped by the instrumentor
+              if (!name.contains("$btrace$")) {
+                visitSite(
+                    opcode == GETFIELD || opcode == GETSTATIC ? Kind.FIELD_GET : Kind.FIELD_SET,
+                    owner,
+                    name);
+              }
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+              if (opcode == NEW) {
+                visitSite(Kind.NEW, type, null);
+              }
+            }
+
+            private void visitSite(Kind kind, String owner, String memberName) {
+              if (siteMatchers == null) {
+                return;
+              }
+              for (Iterator<OnMethod> iter = siteMatchers.iterator(); iter.hasNext(); ) {
+                OnMethod om = iter.next();
+                if (matchesSite(om.getLocation(), kind, owner, memberName)) {
+                  sites.get(om).add(methodKey);
+                  if (!matched.contains(om)) {
+                    matched.add(om);
+                  }
+                  // one instruction is enough to instrument the method
+                  iter.remove();
+                }
+              }
+            }
+          }
+        },
+        (sites.isEmpty() ? ClassReader.SKIP_CODE : 0)
+            | ClassReader.SKIP_DEBUG
+            | ClassReader.SKIP_FRAMES);
+
+    if (matched.size() != candidates.size()) {
+      // keep the original order
+      candidates.retainAll(matched);
+    }
+    return new MethodPrefilter(candidates, sites);
+  }
+
+  /** @return the handlers which may instrument the class, in the original order */
+  Collection<OnMethod> getOnMethods() {
+    return onMethods;
+  }
+
+  /**
+   * @param om one of the {@linkplain #getOnMethods() handlers} which may instrument the class
+   * @param name the method name
+   * @param desc the method descriptor
+   * @return {@code false} if the handler would not instrument anything in the given method
+   */
+  boolean mayApply(OnMethod om, String name, String desc) {
+    Set<String> methods = sites.get(om);
+    return methods == null || methods.contains(name + desc);
+  }
+
+  /**
+   * @return {@code true} if the handler instruments only certain instructions; the methods without
+   *     any can be skipped
+   */
+  private static boolean isSiteMatcher(OnMethod om) {
+    if (om.isMethodAnnotationMatcher()) {
+      // the methods are known only after their annotations are read
+      return false;
+    }
+    switch (om.getLocation().getValue()) {
+      case CALL:
+      case FIELD_GET:
+      case FIELD_SET:
+      case NEW:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Mirrors the matching done by the instrumentor for the particular instruction */
+  private static boolean matchesSite(Location loc, Kind kind, String owner, String memberName) {
+    if (loc.getValue() != kind || !Instrumentor.matches(loc.getClazz(), owner.replace('/', '.'))) {
+      return false;
+    }
+    switch (kind) {
+      case CALL:
+        return Instrumentor.matches(loc.getMethod(), memberName);
+      case FIELD_GET:
+      case FIELD_SET:
+        return Instrumentor.matches(loc.getField(), memberName);
+      default:
+        return true;
+    }
+  }
+
+  private static boolean matchesAnnotation(OnMethod om, String annoName) {
+    String pattern = om.getMethod();
+    if (om.isMethodRegexMatcher()) {
+      try {
+        return annoName.matches(pattern);
+      } catch (PatternSyntaxException pse) {
+        return false;
+      }
+    }
+    return pattern.equals(annoName);
+  }
+
+  private static boolean hasLocationTarget(OnMethod om) {
+    Location loc = om.getLocation();
+    switch (loc.getValue()) {
+      case CALL:
+        return isExact(loc.getClazz()) || isExact(loc.getMethod());
+      case FIELD_GET:
+      case FIELD_SET:
+        return isExact(loc.getClazz()) || isExact(loc.getField());
+      case NEW:
+        return isExact(loc.getClazz());
+      default:
+        return false;
+    }
+  }
+
+  /** @return {@code true} if the pattern is a plain name, not a regular expression */
+  private static boolean isExact(String pattern) {
+    return !pattern.isEmpty()
+        && pattern.charAt(0) != '+'
+        && !(pattern.charAt(0) == '/' && Constants.REGEX_SPECIFIER.matcher(pattern).matches());
+  }
+
+  private static boolean hasLocationReference(BTraceClassReader cr, Location loc, char[] buf) {
+    String owner = isExact(loc.getClazz()) ? loc.getClazz().replace('.', '/') : null;
+    for (int i = 1; i < cr.getItemCount(); i++) {
+      int offset = cr.getItem(i);
+      if (offset == 0) {
+        // the second slot of a long or double constant
+        continue;
+      }
+      int tag = cr.readByte(offset - 1);
+      switch (loc.getValue()) {
+        case CALL:
+          if ((tag == CONSTANT_METHODREF_TAG || tag == CONSTANT_INTERFACE_METHODREF_TAG)
+              && isReference(cr, offset, owner, loc.getMethod(), buf)) {
+            return true;
+          }
+          break;
+        case FIELD_GET:
+        case FIELD_SET:
+          if (tag == CONSTANT_FIELDREF_TAG && isReference(cr, offset, owner, loc.getField(), buf)) {
+            return true;
+          }
+          break;
+        case NEW:
+          if (tag == CONSTANT_CLASS_TAG && owner.equals(cr.readUTF8(offset, buf))) {
+            return true;
+          }
+          break;
+        default:
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /** Checks a {@code CONSTANT_Fieldref}, {@code CONSTANT_Methodref} or interface method entry */
+  private static boolean isReference(
+      BTraceClassReader cr, int offset, String owner, String memberName, char[] buf) {
+    if (owner != null && !owner.equals(cr.readClass(offset, buf))) {
+      return false;
+    }
+    if (!isExact(memberName)) {
+      return true;
+    }
+    int nameAndType = cr.getItem(cr.readUnsignedShort(offset + 2));
+    return memberName.equals(cr.readUTF8(nameAndType, buf));
+  }
+}
@@ -24,28 +24,37 @@
  */
 package org.openjdk.btrace.instr;
 
-import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.openjdk.btrace.core.MethodID;
 
 /**
  * Provides a centralized place to track the fundamental metrics for method execution. It is mostly
  * called from the injected code to support sampling and timing.
  *
+ * <p>The counters are registered while transforming classes, possibly from many class loading
+ * threads at once. Registration does not lock unless the counter table needs to grow.
+ *
  * @author Jaroslav Bachorik
  */
 public final class MethodTracker {
   private static final RandomIntProvider rndIntProvider = RandomIntProvider.getInstance();
 
-  private static AtomicLong[] counters = new AtomicLong[50];
+  private static final Object growLock = new Object();
+  private static volatile AtomicReferenceArray<Counter> counters = new AtomicReferenceArray<>(50);
 
-  @SuppressWarnings("unchecked")
-  private static ThreadLocal<Long>[] tsArray = new ThreadLocal[50];
+  /** The supporting structures for one method id */
+  private static final class Counter {
+    final AtomicLong counter = new AtomicLong(0);
+    final ThreadLocal<Long> ts = ThreadLocal.withInitial(() -> 0L);
+    final int origMean;
+    int mean;
 
-  private static Object[] rLocks = new Object[50];
-  private static int[] means = new int[50];
-  private static int[] origMeans = new int[50];
-  private static int[] samplers = new int[50];
+    Counter(int mean) {
+      this.mean = mean * 2;
+      this.origMean = mean;
+    }
+  }
 
   /**
    * Creates a supporting structures for a new method id
@@ -53,23 +62,48 @@ public final class MethodTracker {
    * @param methodId The method id - generated by the {@linkplain MethodID} class
    * @param mean The sampler mean or 0 if not applicable
    */
-  public static synchronized void registerCounter(int methodId, int mean) {
-    if (counters.length <= methodId) {
-      int newLen = methodId * 2;
-      counters = Arrays.copyOf(counters, newLen);
-      rLocks = Arrays.copyOf(rLocks, newLen);
-      means = Arrays.copyOf(means, newLen);
-      origMeans = Arrays.copyOf(means, newLen);
-      samplers = Arrays.copyOf(samplers, newLen);
-      tsArray = Arrays.copyOf(tsArray, newLen);
+  public static void registerCounter(int methodId, int mean) {
+    AtomicReferenceArray<Counter> cntrs = counters;
+    if (cntrs.length() > methodId && cntrs.get(methodId) != null) {
+      return;
+    }
+    Counter c = new Counter(mean);
+    while (true) {
+      if (cntrs.length() <= methodId) {
+        cntrs = grow(methodId);
+      }
+      if (!cntrs.compareAndSet(methodId, null, c)) {
+        // already registered
+        return;
+      }
+      AtomicReferenceArray<Counter> current = counters;
+      if (current == cntrs) {
+        return;
+      }
+      // the table grew concurrently and may have been copied before the counter was set
+      cntrs = current;
     }
-    if (counters[methodId] == null) {
-      counters[methodId] = new AtomicLong(0);
-      rLocks[methodId] = new Object();
-      means[methodId] = mean * 2;
-      origMeans[methodId] = mean;
-      tsArray[methodId] = ThreadLocal.withInitial(() -> 0L);
-      samplers[methodId] = 0;
+  }
+
+  private static AtomicReferenceArray<Counter> grow(int methodId) {
+    synchronized (growLock) {
+      AtomicReferenceArray<Counter> old = counters;
+      if (old.length() > methodId) {
+        return old;
+      }
+      AtomicReferenceArray<Counter> grown = new AtomicReferenceArray<>(methodId * 2);
+      for (int i = 0; i < old.length(); i++) {
+        grown.set(i, old.get(i));
+      }
+      counters = grown;
+      // pick up the counters set in the old table while it was being copied
+      for (int i = 0; i < old.length(); i++) {
+        Counter c = old.get(i);
+        if (c != null) {
+          grown.compareAndSet(i, null, c);
+        }
+      }
+      return grown;
     }
   }
 
@@ -81,11 +115,12 @@ public final class MethodTracker {
    * @return {@code true} if the invocation should be traced
    */
   public static boolean hit(int methodId) {
-    int mean = means[methodId];
+    Counter c = counters.get(methodId);
+    int mean = c.mean;
     if (mean == 0) {
       return true;
     }
-    AtomicLong l = counters[methodId];
+    AtomicLong l = c.counter;
     if (l.getAndDecrement() <= 0) {
       int inc = rndIntProvider.nextInt(mean) + 1;
       l.addAndGet(inc);
@@ -103,18 +138,19 @@ public final class MethodTracker {
    * @return a positive number (invocation time stamp) if the invocation should be traced
    */
   public static long hitTimed(int methodId) {
-    int mean = means[methodId];
+    Counter c = counters.get(methodId);
+    int mean = c.mean;
     if (mean == 0) {
       long ts = System.nanoTime();
-      tsArray[methodId].set(ts);
+      c.ts.set(ts);
       return ts;
     }
-    AtomicLong l = counters[methodId];
+    AtomicLong l = c.counter;
     if (l.getAndDecrement() <= 0) {
       long ts = System.nanoTime();
       int inc = rndIntProvider.nextInt(mean) + 1;
       l.addAndGet(inc);
-      tsArray[methodId].set(ts);
+      c.ts.set(ts);
       return ts;
     }
     return 0L;
@@ -128,22 +164,23 @@ public final class MethodTracker {
    * @return {@code true} if the invocation should be traced
    */
   public static boolean hitAdaptive(int methodId) {
-    AtomicLong cntr = counters[methodId];
-    int origMean = origMeans[methodId];
-    int mean = means[methodId];
+    Counter c = counters.get(methodId);
+    AtomicLong cntr = c.counter;
+    int origMean = c.origMean;
+    int mean = c.mean;
     if (cntr.getAndDecrement() <= 0) {
       long ts = System.nanoTime();
-      ThreadLocal<Long> tsRef = tsArray[methodId];
+      ThreadLocal<Long> tsRef = c.ts;
       long ts1 = tsRef.get();
       if (ts1 != 0) {
         long diff = ts - ts1;
         if (mean < 1500 && diff < origMean) {
-          synchronized (rLocks[methodId]) {
-            means[methodId] = ++mean;
+          synchronized (c) {
+            c.mean = ++mean;
           }
         } else if (mean > 1 && diff > origMean) {
-          synchronized (rLocks[methodId]) {
-            means[methodId] = --mean;
+          synchronized (c) {
+            c.mean = --mean;
           }
         }
       }
@@ -166,22 +203,23 @@ public final class MethodTracker {
    * @return a positive number (invocation time stamp) if the invocation should be traced
    */
   public static long hitTimedAdaptive(int methodId) {
-    AtomicLong cntr = counters[methodId];
-    int mean = means[methodId];
-    int origMean = origMeans[methodId];
+    Counter c = counters.get(methodId);
+    AtomicLong cntr = c.counter;
+    int origMean = c.origMean;
+    int mean = c.mean;
     if (cntr.getAndDecrement() <= 0) {
       long ts = System.nanoTime();
-      ThreadLocal<Long> tsRef = tsArray[methodId];
+      ThreadLocal<Long> tsRef = c.ts;
       long ts1 = tsRef.get();
       if (ts1 != 0) {
         long diff = ts - ts1;
         if (mean < 1500 && diff < origMean) {
-          synchronized (rLocks[methodId]) {
-            means[methodId] = ++mean;
+          synchronized (c) {
+            c.mean = ++mean;
           }
         } else if (mean > 1 && diff > origMean) {
-          synchronized (rLocks[methodId]) {
-            means[methodId] = --mean;
+          synchronized (c) {
+            c.mean = --mean;
           }
         }
       }
@@ -204,7 +242,7 @@ public final class MethodTracker {
    */
   public static long getEndTs(int methodId) {
     long ts = System.nanoTime();
-    tsArray[methodId].set(ts);
+    counters.get(methodId).ts.set(ts);
     return ts;
   }
 
@@ -214,6 +252,6 @@ public final class MethodTracker {
    * @param methodId The method id generated by {@linkplain MethodID} class
    */
   public static void updateEndTs(int methodId) {
-    tsArray[methodId].set(System.nanoTime());
+    counters.get(methodId).ts.set(System.nanoTime());
   }
 }
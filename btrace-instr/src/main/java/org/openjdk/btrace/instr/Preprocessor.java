@@ -35,6 +35,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -46,11 +48,14 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
@@ -59,6 +64,7 @@ import org.openjdk.btrace.core.DebugSupport;
 import org.openjdk.btrace.core.annotations.Event;
 import org.openjdk.btrace.core.annotations.Return;
 import org.openjdk.btrace.runtime.BTraceRuntimeImplBase;
+import org.openjdk.btrace.runtime.FormattedMessageCommand;
 
 /**
  * This class preprocesses a compiled BTrace program. This is done after BTrace safety verification
@@ -112,6 +118,8 @@ final class Preprocessor {
           + Constants.STRING_DESC
           + ")"
           + Constants.VOID_DESC;
+  private static final String PERFCOUNTER_SLOT_DESC =
+      "(" + Constants.STRING_DESC + ")" + Constants.INT_DESC;
   private static final String BTRACERT_FOR_CLASS_DESC =
       "("
           + Constants.CLASS_DESC
@@ -129,6 +137,27 @@ final class Preprocessor {
           + Constants.BTRACERTBASE_DESC;
   private static final String BTRACERT_ENTER_DESC =
       "(" + Constants.BTRACERTIMPL_DESC + ")" + Constants.BOOLEAN_DESC;
+  private static final String BTRACERT_ENTER_HANDLER_DESC =
+      "(" + Constants.BTRACERTIMPL_DESC + Constants.INT_DESC + ")" + Constants.BOOLEAN_DESC;
+  private static final String HANDLER_SLOT_DESC =
+      "(" + Constants.STRING_DESC + ")" + Constants.INT_DESC;
+  private static final String PATTERN_INTERNAL = "java/util/regex/Pattern";
+  private static final String PATTERN_DESC = "L" + PATTERN_INTERNAL + ";";
+  private static final String PATTERN_COMPILE_DESC =
+      "(" + Constants.STRING_DESC + ")" + PATTERN_DESC;
+  private static final String STRING_MATCHES_DESC =
+      "(" + Constants.STRING_DESC + Constants.STRING_DESC + ")" + Constants.BOOLEAN_DESC;
+  private static final String PATTERN_MATCHES_DESC =
+      "(" + PATTERN_DESC + Constants.STRING_DESC + ")" + Constants.BOOLEAN_DESC;
+  private static final String STRCAT_DESC =
+      "(" + Constants.STRING_DESC + Constants.STRING_DESC + ")" + Constants.STRING_DESC;
+  private static final String FORMATTED_MESSAGE_INTERNAL =
+      "org/openjdk/btrace/runtime/FormattedMessageCommand";
+  private static final String FORMATTED_MESSAGE_DESC = "L" + FORMATTED_MESSAGE_INTERNAL + ";";
+  private static final String NEW_FORMATTED_MESSAGE_DESC =
+      "(" + Constants.STRING_DESC + Constants.STRING_DESC + ")" + FORMATTED_MESSAGE_DESC;
+  private static final String COMMAND_SEND_DESC =
+      "(Lorg/openjdk/btrace/core/comm/Command;)" + Constants.VOID_DESC;
   private static final String BTRACERT_HANDLE_EXCEPTION_DESC =
       "(" + Constants.THROWABLE_DESC + ")" + Constants.VOID_DESC;
   private static final String RT_CTX_INTERNAL = "org/openjdk/btrace/services/api/RuntimeContext";
@@ -155,7 +184,13 @@ final class Preprocessor {
   // For each @Export field, we create a perf counter
   // with the name "btrace.<class name>.<field name>"
   private static final String BTRACE_COUNTER_PREFIX = "btrace.";
+  // ... and a static field holding the perf counter slot index
+  private static final String EXPORT_SLOT_FIELD_PREFIX = "$export$slot$";
   private static final String JFR_HANDLER_FIELD_PREFIX = "$jfr$handler$";
+  // For each guarded handler, a static field holding the handler statistics slot index
+  private static final String HANDLER_SLOT_FIELD_PREFIX = "$handler$slot$";
+  // For each distinct constant regular expression, a static field holding the compiled pattern
+  private static final String REGEX_FIELD_PREFIX = "$regex$";
 
   static {
     BOX_TYPE_MAP.put("I", Constants.INTEGER_BOXED_DESC);
@@ -182,6 +217,12 @@ final class Preprocessor {
 
   private final Set<String> tlsFldNames = new HashSet<>();
   private final Set<String> exportFldNames = new HashSet<>();
+  private final List<FieldNode> exportSlotFlds = new ArrayList<>();
+  private final List<FieldNode> handlerSlotFlds = new ArrayList<>();
+  private final InsnList handlerSlotsInit = new InsnList();
+  private final Map<String, String> regexFldNames = new HashMap<>();
+  private final List<FieldNode> regexFlds = new ArrayList<>();
+  private final InsnList regexInit = new InsnList();
   private final Set<String> jfrHandlerNames = new HashSet<>();
   private final Map<String, AnnotationNode> eventFlds = new HashMap<>();
   private final Map<String, AnnotationNode> injectedFlds = new HashMap<>();
@@ -191,6 +232,20 @@ final class Preprocessor {
 
   private final Map<MethodNode, EnumSet<MethodClassifier>> classifierMap = new HashMap<>();
   private AbstractInsnNode clinitEntryPoint;
+  // the handler slots are resolved and passed to the runtime only for the handler statistics
+  private final boolean handlerStats;
+
+  Preprocessor() {
+    this(false);
+  }
+
+  /**
+   * @param handlerStats {@code true} if the handler invocations are to be accounted to their
+   *     statistics slots
+   */
+  Preprocessor(boolean handlerStats) {
+    this.handlerStats = handlerStats;
+  }
 
   public static AnnotationNode getAnnotation(FieldNode fn, Type annotation) {
     if (fn == null || (fn.visibleAnnotations == null && fn.invisibleAnnotations == null))
@@ -238,7 +293,12 @@ final class Preprocessor {
       preprocessMethod(cn, mn);
     }
 
+    getFields(cn).addAll(handlerSlotFlds);
+    getFields(cn).addAll(regexFlds);
+
     InsnList eventsInit = initJfrEventFields(cn);
+    eventsInit.add(handlerSlotsInit);
+    eventsInit.add(regexInit);
     clinit.instructions.insertBefore(clinitEntryPoint, eventsInit);
   }
 
@@ -525,6 +585,7 @@ final class Preprocessor {
       }
       tryProcessEvent(fn);
     }
+    getFields(cn).addAll(exportSlotFlds);
   }
 
   private void tryProcessTLS(ClassNode cn, FieldNode fn) {
@@ -591,6 +652,16 @@ final class Preprocessor {
 
   private void initExport(ClassNode cn, FieldNode fn, String typeDesc) {
     exportFldNames.add(fn.name);
+    if (isPerfCounterType(typeDesc)) {
+      exportSlotFlds.add(
+          new FieldNode(
+              Opcodes.ASM9,
+              Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+              EXPORT_SLOT_FIELD_PREFIX + fn.name,
+              Constants.INT_DESC,
+              null,
+              null));
+    }
     initAnnotatedField(fn, typeDesc, exportInitSequence(cn, fn.name, fn.desc));
   }
 
@@ -608,6 +679,22 @@ final class Preprocessor {
             "newPerfCounter",
             NEW_PERFCOUNTER_DESC,
             false));
+    if (!isPerfCounterType(desc)) {
+      return init;
+    }
+    // resolve the counter slot once; the field accesses will use the slot directly
+    init.add(getRuntimeImpl(cn));
+    init.add(new LdcInsnNode(perfCounterName(cn, name)));
+    init.add(
+        new MethodInsnNode(
+            Opcodes.INVOKEVIRTUAL,
+            Constants.BTRACERTBASE_INTERNAL,
+            "perfCounterSlot",
+            PERFCOUNTER_SLOT_DESC,
+            false));
+    init.add(
+        new FieldInsnNode(
+            Opcodes.PUTSTATIC, cn.name, EXPORT_SLOT_FIELD_PREFIX + name, Constants.INT_DESC));
 
     return init;
   }
@@ -748,6 +835,12 @@ final class Preprocessor {
       } else if (type == AbstractInsnNode.METHOD_INSN) {
         MethodInsnNode min = (MethodInsnNode) n;
         n = unfoldServiceInstantiation(cn, min, l);
+        if (n == min) {
+          n = foldConstantArguments(cn, mn, min, l);
+        }
+        if (n == min) {
+          n = capturePrintfArguments(cn, mn, min, l);
+        }
       } else if (n.getOpcode() == retopcode
           && getClassifiers(mn).contains(MethodClassifier.RT_AWARE)) {
         addBTraceRuntimeExit(cn, (InsnNode) n, l);
@@ -820,7 +913,7 @@ final class Preprocessor {
     l.add(new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, rtField.name, rtField.desc));
 
     l.add(getRuntimeImpl(cn));
-    addRuntimeCheck(cn, clinit, l, true);
+    addRuntimeCheck(cn, clinit, l, true, false);
 
     clinitEntryPoint = l.getLast();
 
@@ -1189,20 +1282,60 @@ final class Preprocessor {
       InsnList entryCheck = new InsnList();
       entryCheck.add(getRuntimeImpl(cn));
       if (clsf.contains(MethodClassifier.GUARDED)) {
-        addRuntimeCheck(cn, mn, entryCheck, false);
+        if (handlerStats) {
+          entryCheck.add(
+              new FieldInsnNode(
+                  Opcodes.GETSTATIC, cn.name, addHandlerSlot(cn, mn), Constants.INT_DESC));
+        }
+        addRuntimeCheck(cn, mn, entryCheck, false, handlerStats);
       }
       mn.instructions.insert(entryCheck);
     }
   }
 
-  private void addRuntimeCheck(ClassNode cn, MethodNode mn, InsnList entryCheck, boolean b) {
+  /**
+   * Creates the static field holding the statistics slot of the given handler. The slot is
+   * resolved once in the static initializer.
+   *
+   * @return the slot field name
+   */
+  private String addHandlerSlot(ClassNode cn, MethodNode mn) {
+    String fldName = HANDLER_SLOT_FIELD_PREFIX + handlerSlotFlds.size();
+    handlerSlotFlds.add(
+        new FieldNode(
+            Opcodes.ASM9,
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+            fldName,
+            Constants.INT_DESC,
+            null,
+            null));
+    handlerSlotsInit.add(getRuntimeImpl(cn));
+    handlerSlotsInit.add(new LdcInsnNode(mn.name));
+    handlerSlotsInit.add(
+        new MethodInsnNode(
+            Opcodes.INVOKEVIRTUAL,
+            Constants.BTRACERTBASE_INTERNAL,
+            "handlerSlot",
+            HANDLER_SLOT_DESC,
+            false));
+    handlerSlotsInit.add(
+        new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, fldName, Constants.INT_DESC));
+    return fldName;
+  }
+
+  /**
+   * Adds the runtime enter check. The entry check is expected to load the runtime and, if {@code
+   * withSlot} is set, the handler slot.
+   */
+  private void addRuntimeCheck(
+      ClassNode cn, MethodNode mn, InsnList entryCheck, boolean b, boolean withSlot) {
     LabelNode start = new LabelNode();
     entryCheck.add(
         new MethodInsnNode(
             Opcodes.INVOKESTATIC,
             Constants.BTRACERTACCESS_INTERNAL,
             "enter",
-            BTRACERT_ENTER_DESC,
+            withSlot ? BTRACERT_ENTER_HANDLER_DESC : BTRACERT_ENTER_DESC,
             false));
     entryCheck.add(new JumpInsnNode(Opcodes.IFNE, start));
     entryCheck.add(getReturnSequence(cn, mn, b));
@@ -1428,15 +1561,20 @@ final class Preprocessor {
           toInsert.add(new InsnNode(Opcodes.POP));
         }
       }
-      toInsert.add(new LdcInsnNode(perfCounterName(cn, fin.name)));
+      toInsert.add(
+          new FieldInsnNode(
+              Opcodes.GETSTATIC,
+              cn.name,
+              EXPORT_SLOT_FIELD_PREFIX + fin.name,
+              Constants.INT_DESC));
       toInsert.add(
           new MethodInsnNode(
               Opcodes.INVOKEVIRTUAL,
               Constants.BTRACERTBASE_INTERNAL,
               methodName,
               isPut
-                  ? Type.getMethodDescriptor(Type.VOID_TYPE, tType, Constants.STRING_TYPE)
-                  : Type.getMethodDescriptor(tType, Constants.STRING_TYPE),
+                  ? Type.getMethodDescriptor(Type.VOID_TYPE, tType, Type.INT_TYPE)
+                  : Type.getMethodDescriptor(tType, Type.INT_TYPE),
               false));
       l.insert(fin, toInsert);
     }
@@ -1528,6 +1666,385 @@ final class Preprocessor {
     return next;
   }
 
+  /**
+   * Evaluates the calls of the string and regular expression utilities with constant arguments
+   * once instead of on each probe hit. The constant regular expressions are compiled in the static
+   * initializer and the calls are redirected to the overloads taking the precompiled pattern; the
+   * concatenations of string literals are folded into a single literal.
+   *
+   * @return the instruction to continue the scan from
+   */
+  private AbstractInsnNode foldConstantArguments(
+      ClassNode cn, MethodNode mn, MethodInsnNode min, InsnList l) {
+    if (min.getOpcode() != Opcodes.INVOKESTATIC || !isBTraceUtils(min.owner)) {
+      return min;
+    }
+    switch (min.name) {
+      case "matches":
+        {
+          if (min.desc.equals(STRING_MATCHES_DESC)) {
+            // the regex is followed by the one-slot input argument on the stack
+            LdcInsnNode regex = constantStringArgument(mn, min, 1);
+            String fldName = regex != null ? regexField(cn, (String) regex.cst) : null;
+            if (fldName != null) {
+              l.set(regex, new FieldInsnNode(Opcodes.GETSTATIC, cn.name, fldName, PATTERN_DESC));
+              min.desc = PATTERN_MATCHES_DESC;
+            }
+          }
+          break;
+        }
+      case "regexp":
+      case "pattern":
+        {
+          if (min.desc.equals(PATTERN_COMPILE_DESC)) {
+            LdcInsnNode regex = constantStringArgument(mn, min, 0);
+            String fldName = regex != null ? regexField(cn, (String) regex.cst) : null;
+            if (fldName != null) {
+              l.remove(regex);
+              FieldInsnNode load =
+                  new FieldInsnNode(Opcodes.GETSTATIC, cn.name, fldName, PATTERN_DESC);
+              l.set(min, load);
+              return load;
+            }
+          }
+          break;
+        }
+      case "strcat":
+      case "concat":
+        {
+          if (min.desc.equals(STRCAT_DESC)) {
+            LdcInsnNode str2 = constantStringArgument(mn, min, 0);
+            LdcInsnNode str1 = str2 != null ? constantStringArgument(mn, str2, 0) : null;
+            if (str1 != null) {
+              l.remove(str1);
+              l.remove(str2);
+              LdcInsnNode folded = new LdcInsnNode(((String) str1.cst).concat((String) str2.cst));
+              l.set(min, folded);
+              return folded;
+            }
+          }
+          break;
+        }
+    }
+    return min;
+  }
+
+  private static boolean isBTraceUtils(String owner) {
+    return owner.equals(Constants.BTRACE_UTILS)
+        || owner.equals(Constants.BTRACE_UTILS + "$Strings");
+  }
+
+  /**
+   * @return the name of the static field holding the compiled pattern; {@code null} if the regular
+   *     expression is invalid and has to fail at the call site as before
+   */
+  private String regexField(ClassNode cn, String regex) {
+    String fldName = regexFldNames.get(regex);
+    if (fldName != null) {
+      return fldName;
+    }
+    try {
+      Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+    fldName = REGEX_FIELD_PREFIX + regexFlds.size();
+    regexFldNames.put(regex, fldName);
+    regexFlds.add(
+        new FieldNode(
+            Opcodes.ASM9,
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+            fldName,
+            PATTERN_DESC,
+            null,
+            null));
+    regexInit.add(new LdcInsnNode(regex));
+    regexInit.add(
+        new MethodInsnNode(
+            Opcodes.INVOKESTATIC, PATTERN_INTERNAL, "compile", PATTERN_COMPILE_DESC, false));
+    regexInit.add(new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, fldName, PATTERN_DESC));
+    return fldName;
+  }
+
+  /**
+   * Rewrites the {@code BTraceUtils.printf} calls to capture the arguments straight into a single
+   * pre-sized {@linkplain FormattedMessageCommand} instead of boxing them into an array. The
+   * message is created right after the format is loaded and each argument is captured right after
+   * it is computed, with the boxing generated by javac removed; the call itself is replaced by
+   * sending the message. The calls with an argument of an undeterminable origin are left alone and
+   * box their arguments as before.
+   *
+   * @return the instruction to continue the scan from
+   */
+  private AbstractInsnNode capturePrintfArguments(
+      ClassNode cn, MethodNode mn, MethodInsnNode min, InsnList l) {
+    if (min.getOpcode() != Opcodes.INVOKESTATIC
+        || !min.owner.equals(Constants.BTRACE_UTILS)
+        || !min.name.equals("printf")) {
+      return min;
+    }
+    Type[] argTypes = Type.getArgumentTypes(min.desc);
+    int argCnt = argTypes.length - 1;
+    if (argCnt < 0 || argCnt > FormattedMessageCommand.MAX_ARGS) {
+      return min;
+    }
+    for (Type t : argTypes) {
+      if (t.getSort() != Type.OBJECT) {
+        return min;
+      }
+    }
+    // the format and all the arguments occupy a single stack slot
+    AbstractInsnNode[] producers = new AbstractInsnNode[argTypes.length];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = argumentProducer(mn, min, producers.length - 1 - i);
+      if (producers[i] == null) {
+        return min;
+      }
+    }
+
+    StringBuilder types = new StringBuilder(argCnt);
+    for (int i = 1; i < producers.length; i++) {
+      String primitive = boxedPrimitive(producers[i]);
+      InsnList capture = new InsnList();
+      String captureDesc;
+      if (primitive == null) {
+        types.append('L');
+        captureDesc = Constants.OBJECT_DESC;
+      } else {
+        types.append(primitive);
+        switch (primitive) {
+          case "J":
+            captureDesc = Type.LONG_TYPE.getDescriptor();
+            break;
+          case "D":
+            captureDesc = Type.DOUBLE_TYPE.getDescriptor();
+            break;
+          case "F":
+            capture.add(new InsnNode(Opcodes.F2D));
+            captureDesc = Type.DOUBLE_TYPE.getDescriptor();
+            break;
+          default:
+            capture.add(new InsnNode(Opcodes.I2L));
+            captureDesc = Type.LONG_TYPE.getDescriptor();
+        }
+      }
+      capture.add(
+          new MethodInsnNode(
+              Opcodes.INVOKEVIRTUAL,
+              FORMATTED_MESSAGE_INTERNAL,
+              "arg",
+              "(" + captureDesc + ")" + FORMATTED_MESSAGE_DESC,
+              false));
+      l.insert(producers[i], capture);
+      if (primitive != null) {
+        l.remove(producers[i]);
+      }
+    }
+
+    InsnList create = new InsnList();
+    create.add(getRuntimeImpl(cn));
+    create.add(new InsnNode(Opcodes.SWAP));
+    create.add(new LdcInsnNode(types.toString()));
+    create.add(
+        new MethodInsnNode(
+            Opcodes.INVOKEVIRTUAL,
+            Constants.BTRACERTBASE_INTERNAL,
+            "newFormattedMessage",
+            NEW_FORMATTED_MESSAGE_DESC,
+            false));
+    l.insert(producers[0], create);
+
+    InsnList send = new InsnList();
+    send.add(getRuntimeImpl(cn));
+    send.add(new InsnNode(Opcodes.SWAP));
+    MethodInsnNode sendCall =
+        new MethodInsnNode(
+            Opcodes.INVOKEVIRTUAL,
+            Constants.BTRACERTBASE_INTERNAL,
+            "send",
+            COMMAND_SEND_DESC,
+            false);
+    send.add(sendCall);
+    l.insert(min, send);
+    l.remove(min);
+    return sendCall;
+  }
+
+  /**
+   * @return the descriptor of the primitive type boxed by the given instruction or {@code null} if
+   *     it is not a {@code valueOf} call of a primitive wrapper
+   */
+  private static String boxedPrimitive(AbstractInsnNode n) {
+    if (n.getOpcode() != Opcodes.INVOKESTATIC) {
+      return null;
+    }
+    MethodInsnNode min = (MethodInsnNode) n;
+    if (!min.name.equals("valueOf")) {
+      return null;
+    }
+    Type[] args = Type.getArgumentTypes(min.desc);
+    if (args.length != 1) {
+      return null;
+    }
+    String primitive = args[0].getDescriptor();
+    String boxed = BOX_TYPE_MAP.get(primitive);
+    return boxed != null
+            && boxed.equals(Type.getReturnType(min.desc).getDescriptor())
+            && boxed.equals(Type.getObjectType(min.owner).getDescriptor())
+        ? primitive
+        : null;
+  }
+
+  /**
+   * Finds the string literal loaded as an argument of the given instruction.
+   *
+   * @param mn the method containing the instruction
+   * @param insn the instruction consuming the argument
+   * @param above the number of the stack slots occupied by the arguments following the requested
+   *     one
+   * @return the instruction loading the literal or {@code null} if the argument is not a literal
+   *     or its origin can not be determined
+   */
+  private static LdcInsnNode constantStringArgument(
+      MethodNode mn, AbstractInsnNode insn, int above) {
+    AbstractInsnNode n = argumentProducer(mn, insn, above);
+    return n != null
+            && n.getType() == AbstractInsnNode.LDC_INSN
+            && ((LdcInsnNode) n).cst instanceof String
+        ? (LdcInsnNode) n
+        : null;
+  }
+
+  /**
+   * Finds the instruction pushing an argument of the given instruction on the stack - the last
+   * instruction of the code computing the argument.
+   *
+   * @param mn the method containing the instruction
+   * @param insn the instruction consuming the argument
+   * @param above the number of the stack slots occupied by the arguments following the requested
+   *     one
+   * @return the instruction pushing the argument or {@code null} if it can not be determined
+   */
+  private static AbstractInsnNode argumentProducer(
+      MethodNode mn, AbstractInsnNode insn, int above) {
+    AbstractInsnNode n = insn.getPrevious();
+    while (n != null) {
+      if (n.getType() == AbstractInsnNode.LABEL) {
+        if (isJumpTarget(mn, (LabelNode) n)) {
+          // the value may come from another branch
+          return null;
+        }
+      } else if (n.getType() != AbstractInsnNode.LINE && n.getType() != AbstractInsnNode.FRAME) {
+        int[] effect = stackEffect(n);
+        if (effect == null) {
+          return null;
+        }
+        if (above == 0) {
+          return effect[1] == 1 ? n : null;
+        }
+        if (effect[1] > above) {
+          return null;
+        }
+        above += effect[0] - effect[1];
+      }
+      n = n.getPrevious();
+    }
+    return null;
+  }
+
+  private static boolean isJumpTarget(MethodNode mn, LabelNode label) {
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+      switch (n.getType()) {
+        case AbstractInsnNode.JUMP_INSN:
+          if (((JumpInsnNode) n).label == label) {
+            return true;
+          }
+          break;
+        case AbstractInsnNode.TABLESWITCH_INSN:
+          {
+            TableSwitchInsnNode tsin = (TableSwitchInsnNode) n;
+            if (tsin.dflt == label || tsin.labels.contains(label)) {
+              return true;
+            }
+            break;
+          }
+        case AbstractInsnNode.LOOKUPSWITCH_INSN:
+          {
+            LookupSwitchInsnNode lsin = (LookupSwitchInsnNode) n;
+            if (lsin.dflt == label || lsin.labels.contains(label)) {
+              return true;
+            }
+            break;
+          }
+      }
+    }
+    for (TryCatchBlockNode tcbn : mn.tryCatchBlocks) {
+      if (tcbn.handler == label) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of the stack slots popped and pushed by the instruction; {@code null} for
+   *     the instructions which do not simply produce a value (stores, jumps, stack manipulation)
+   */
+  private static int[] stackEffect(AbstractInsnNode n) {
+    int opcode = n.getOpcode();
+    switch (n.getType()) {
+      case AbstractInsnNode.VAR_INSN:
+        if (opcode == Opcodes.LLOAD || opcode == Opcodes.DLOAD) {
+          return new int[] {0, 2};
+        }
+        return opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD ? new int[] {0, 1} : null;
+      case AbstractInsnNode.LDC_INSN:
+        {
+          Object cst = ((LdcInsnNode) n).cst;
+          return new int[] {0, cst instanceof Long || cst instanceof Double ? 2 : 1};
+        }
+      case AbstractInsnNode.INT_INSN:
+        return new int[] {opcode == Opcodes.NEWARRAY ? 1 : 0, 1};
+      case AbstractInsnNode.INSN:
+        if (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.ICONST_5
+            || opcode >= Opcodes.FCONST_0 && opcode <= Opcodes.FCONST_2) {
+          return new int[] {0, 1};
+        }
+        if (opcode == Opcodes.LCONST_0
+            || opcode == Opcodes.LCONST_1
+            || opcode == Opcodes.DCONST_0
+            || opcode == Opcodes.DCONST_1) {
+          return new int[] {0, 2};
+        }
+        return null;
+      case AbstractInsnNode.TYPE_INSN:
+        return opcode == Opcodes.NEW ? null : new int[] {1, 1};
+      case AbstractInsnNode.FIELD_INSN:
+        {
+          FieldInsnNode fin = (FieldInsnNode) n;
+          int size = Type.getType(fin.desc).getSize();
+          if (opcode == Opcodes.GETSTATIC) {
+            return new int[] {0, size};
+          }
+          return opcode == Opcodes.GETFIELD ? new int[] {1, size} : null;
+        }
+      case AbstractInsnNode.METHOD_INSN:
+        {
+          MethodInsnNode min = (MethodInsnNode) n;
+          int sizes = Type.getArgumentsAndReturnSizes(min.desc);
+          int receiver = opcode == Opcodes.INVOKESTATIC ? 0 : 1;
+          return new int[] {(sizes >> 2) - 1 + receiver, sizes & 0x03};
+        }
+      case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+        {
+          int sizes = Type.getArgumentsAndReturnSizes(((InvokeDynamicInsnNode) n).desc);
+          return new int[] {(sizes >> 2) - 1, sizes & 0x03};
+        }
+      default:
+        return null;
+    }
+  }
+
   private AbstractInsnNode unfoldServiceInstantiation(
       ClassNode cn, MethodInsnNode min, InsnList l) {
     if (min.owner.equals(SERVICE_INTERNAL)) {
@@ -1683,6 +2200,10 @@ final class Preprocessor {
     return l;
   }
 
+  private static boolean isPerfCounterType(String desc) {
+    return TypeUtils.isPrimitive(desc) || desc.equals(Constants.STRING_DESC);
+  }
+
   private String perfCounterName(ClassNode cn, String fieldName) {
     return BTRACE_COUNTER_PREFIX + Type.getObjectType(cn.name).getInternalName() + "." + fieldName;
   }
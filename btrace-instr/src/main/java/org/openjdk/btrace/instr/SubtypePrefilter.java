@@ -0,0 +1,242 @@
+package org.openjdk.btrace.instr;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fast pre-filter for subtype ({@code +com.foo.Base}) class matchers.
+ *
+ * <p>Instead of building a full {@linkplain BTraceClassReader} and resolving the complete type
+ * hierarchy via {@linkplain ClassCache} for each transformed class this filter reads only the
+ * super class and interface entries from the raw class file bytes and checks them against an
+ * incrementally maintained set of known subtypes and known non-subtypes of the target types. Only
+ * when a direct supertype has not been seen yet the hierarchy is resolved via {@linkplain
+ * ClassFilter#isSubTypeOf(String, ClassLoader, String...)} and the result is recorded.
+ *
+ * <p>The known (non-)subtype sets are keyed by the internal class name only; classes of the same
+ * name defined by different class loaders are assumed to share the same hierarchy.
+ */
+public final class SubtypePrefilter {
+  private static final String OBJECT_INTERNAL = "java/lang/Object";
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  private volatile State state = new State(new String[0]);
+
+  public SubtypePrefilter() {}
+
+  public SubtypePrefilter(Collection<String> targetTypes) {
+    setTargets(targetTypes);
+  }
+
+  /**
+   * Replaces the set of target types. All the previously learned (non-)subtype information is
+   * discarded.
+   *
+   * <p>The new targets are published together with empty learned sets by a single write; a
+   * concurrent {@linkplain #matches(String, ClassLoader, byte[]) check} sees either the old or the
+   * new state, never a partially filled one.
+   *
+   * @param targetTypes the target types in either Java or internal name form
+   */
+  public void setTargets(Collection<String> targetTypes) {
+    String[] newTargets = new String[targetTypes.size()];
+    int idx = 0;
+    for (String t : targetTypes) {
+      newTargets[idx++] = t.replace('/', '.');
+    }
+    state = new State(newTargets);
+  }
+
+  public boolean hasTargets() {
+    return state.targets.length > 0;
+  }
+
+  /**
+   * Checks whether the given class is a subtype of any of the target types.
+   *
+   * @param className the internal name of the checked class
+   * @param loader the defining class loader (may be {@code null})
+   * @param classfileBuffer the class file bytes
+   * @return {@code true} if the class is a subtype of any of the target types
+   */
+  public boolean matches(String className, ClassLoader loader, byte[] classfileBuffer) {
+    State s = state;
+    if (s.targets.length == 0) {
+      return false;
+    }
+    if (s.knownSubtypes.contains(className)) {
+      return true;
+    }
+    if (s.knownNonSubtypes.contains(className)) {
+      return false;
+    }
+    String[] supers = readSupers(classfileBuffer);
+    if (supers == null) {
+      // unparseable class header; resolve the whole hierarchy the hard way
+      return s.record(className, ClassFilter.isSubTypeOf(className, loader, s.targets));
+    }
+    boolean unknown = false;
+    for (String sup : supers) {
+      if (sup == null) {
+        continue;
+      }
+      if (s.knownSubtypes.contains(sup)) {
+        return s.record(className, true);
+      }
+      if (!s.knownNonSubtypes.contains(sup)) {
+        unknown = true;
+      }
+    }
+    if (unknown) {
+      for (String sup : supers) {
+        if (sup == null || s.knownNonSubtypes.contains(sup)) {
+          continue;
+        }
+        if (s.record(sup, ClassFilter.isSubTypeOf(sup, loader, s.targets))) {
+          return s.record(className, true);
+        }
+      }
+    }
+    return s.record(className, false);
+  }
+
+  /** The target types and the (non-)subtypes learned for them so far */
+  private static final class State {
+    private final String[] targets;
+    private final Set<String> knownSubtypes = ConcurrentHashMap.newKeySet();
+    private final Set<String> knownNonSubtypes = ConcurrentHashMap.newKeySet();
+
+    State(String[] targets) {
+      this.targets = targets;
+      for (String t : targets) {
+        knownSubtypes.add(t.replace('.', '/'));
+      }
+      knownNonSubtypes.add(OBJECT_INTERNAL);
+    }
+
+    boolean record(String className, boolean isSubtype) {
+      (isSubtype ? knownSubtypes : knownNonSubtypes).add(className);
+      return isSubtype;
+    }
+  }
+
+  /**
+   * Reads the direct supertypes from the raw class file bytes without parsing the whole class.
+   *
+   * @param b the class file bytes
+   * @return the internal names of the super class (at index 0, may be {@code null}) followed by
+   *     the implemented interfaces or {@code null} if the class header can not be read
+   */
+  static String[] readSupers(byte[] b) {
+    try {
+      if (b == null || readInt(b, 0) != 0xCAFEBABE) {
+        return null;
+      }
+      int cpCount = readUnsignedShort(b, 8);
+      int[] cpOffsets = new int[cpCount];
+      int offset = 10;
+      for (int i = 1; i < cpCount; i++) {
+        cpOffsets[i] = offset + 1;
+        switch (b[offset]) {
+          case CONSTANT_UTF8:
+            offset += 3 + readUnsignedShort(b, offset + 1);
+            break;
+          case CONSTANT_INTEGER:
+          case CONSTANT_FLOAT:
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+          case CONSTANT_NAME_AND_TYPE:
+          case CONSTANT_DYNAMIC:
+          case CONSTANT_INVOKE_DYNAMIC:
+            offset += 5;
+            break;
+          case CONSTANT_LONG:
+          case CONSTANT_DOUBLE:
+            offset += 9;
+            i++;
+            break;
+          case CONSTANT_METHOD_HANDLE:
+            offset += 4;
+            break;
+          case CONSTANT_CLASS:
+          case CONSTANT_STRING:
+          case CONSTANT_METHOD_TYPE:
+          case CONSTANT_MODULE:
+          case CONSTANT_PACKAGE:
+            offset += 3;
+            break;
+          default:
+            return null;
+        }
+      }
+      // skip access flags and this class
+      offset += 4;
+      int superIdx = readUnsignedShort(b, offset);
+      int ifcCount = readUnsignedShort(b, offset + 2);
+      offset += 4;
+      String[] supers = new String[ifcCount + 1];
+      supers[0] = superIdx != 0 ? readClassName(b, cpOffsets, superIdx) : null;
+      for (int i = 0; i < ifcCount; i++) {
+        supers[i + 1] = readClassName(b, cpOffsets, readUnsignedShort(b, offset));
+        offset += 2;
+      }
+      return supers;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  private static String readClassName(byte[] b, int[] cpOffsets, int classIdx) {
+    int utf8Offset = cpOffsets[readUnsignedShort(b, cpOffsets[classIdx])];
+    return readUtf8(b, utf8Offset + 2, readUnsignedShort(b, utf8Offset));
+  }
+
+  // decodes the 'modified UTF-8' encoding used by the class file format
+  private static String readUtf8(byte[] b, int offset, int length) {
+    char[] chars = new char[length];
+    int endOffset = offset + length;
+    int len = 0;
+    while (offset < endOffset) {
+      int c = b[offset++];
+      if ((c & 0x80) == 0) {
+        chars[len++] = (char) (c & 0x7F);
+      } else if ((c & 0xE0) == 0xC0) {
+        chars[len++] = (char) (((c & 0x1F) << 6) + (b[offset++] & 0x3F));
+      } else {
+        chars[len++] =
+            (char) (((c & 0xF) << 12) + ((b[offset++] & 0x3F) << 6) + (b[offset++] & 0x3F));
+      }
+    }
+    return new String(chars, 0, len);
+  }
+
+  private static int readUnsignedShort(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+  }
+
+  private static int readInt(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 24)
+        | ((b[offset + 1] & 0xFF) << 16)
+        | ((b[offset + 2] & 0xFF) << 8)
+        | (b[offset + 3] & 0xFF);
+  }
+}
@@ -0,0 +1,24 @@
+package traces.onmethod;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+
+/** A counter-style handler which can be inlined into the instrumented method */
+@BTrace
+public class ArgsInlined {
+  private static long hits;
+  private static long total;
+  private static final AtomicLong positive = Atomic.newAtomicLong(0);
+
+  @OnMethod(clazz = "/.*\\.OnMethodTest/", method = "args")
+  public static void args(String a, long b, String[] c, int[] d) {
+    hits++;
+    total += b;
+    if (b > 0) {
+      Atomic.incrementAndGet(positive);
+    }
+  }
+}
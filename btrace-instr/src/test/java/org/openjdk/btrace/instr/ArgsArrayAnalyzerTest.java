@@ -0,0 +1,149 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.BitSet;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+class ArgsArrayAnalyzerTest {
+  private static final String PROBE = "org/openjdk/btrace/runtime/auxiliary/TestProbe";
+  private static final String ARGS_DESC = "[" + Constants.ANYTYPE_DESC;
+
+  private static ArgsArrayAnalyzer analyzer;
+
+  @BeforeAll
+  static void setup() {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_8, ACC_PUBLIC, PROBE, null, "java/lang/Object", null);
+    handler(
+        cw,
+        "length",
+        "(" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitInsn(ARRAYLENGTH);
+          mv.visitInsn(POP);
+        });
+    handler(
+        cw,
+        "element",
+        "(Ljava/lang/Object;" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 1);
+          mv.visitInsn(ICONST_0);
+          mv.visitInsn(AALOAD);
+          println(mv);
+        });
+    handler(
+        cw,
+        "escaping",
+        "(" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          println(mv);
+        });
+    handler(
+        cw,
+        "stored",
+        "(" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitVarInsn(ASTORE, 1);
+        });
+    handler(
+        cw,
+        "computedIndex",
+        "(" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitInsn(ICONST_0);
+          mv.visitInsn(ICONST_1);
+          mv.visitInsn(IADD);
+          mv.visitInsn(AALOAD);
+          mv.visitInsn(POP);
+        });
+    handler(
+        cw,
+        "elements",
+        "(" + ARGS_DESC + ")V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitInsn(ICONST_1);
+          mv.visitInsn(AALOAD);
+          println(mv);
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitIntInsn(BIPUSH, 7);
+          mv.visitInsn(AALOAD);
+          println(mv);
+        });
+    handler(
+        cw,
+        "variableIndex",
+        "(" + ARGS_DESC + "I)V",
+        mv -> {
+          mv.visitVarInsn(ALOAD, 0);
+          mv.visitVarInsn(ILOAD, 1);
+          mv.visitInsn(AALOAD);
+          println(mv);
+        });
+    handler(cw, "noArray", "(I)V", mv -> {});
+    cw.visitEnd();
+    analyzer = new ArgsArrayAnalyzer(cw.toByteArray());
+  }
+
+  private static void handler(
+      ClassWriter cw, String name, String desc, Consumer<MethodVisitor> body) {
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, name, desc, null, null);
+    mv.visitCode();
+    body.accept(mv);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private static void println(MethodVisitor mv) {
+    mv.visitMethodInsn(
+        INVOKESTATIC, Constants.BTRACE_UTILS, "println", "(Ljava/lang/Object;)V", false);
+  }
+
+  private static BitSet readArgs(String name, String desc) {
+    OnMethod om = new OnMethod();
+    om.setTargetName(name);
+    om.setTargetDescriptor(desc);
+    return analyzer.getReadArgs(om);
+  }
+
+  private static BitSet bits(int... indices) {
+    BitSet bits = new BitSet();
+    for (int i : indices) {
+      bits.set(i);
+    }
+    return bits;
+  }
+
+  @Test
+  void readElements() {
+    assertEquals(bits(), readArgs("length", "(" + ARGS_DESC + ")V"));
+    assertEquals(bits(0), readArgs("element", "(Ljava/lang/Object;" + ARGS_DESC + ")V"));
+    assertEquals(bits(1, 7), readArgs("elements", "(" + ARGS_DESC + ")V"));
+  }
+
+  @Test
+  void anyElement() {
+    assertNull(readArgs("escaping", "(" + ARGS_DESC + ")V"));
+    assertNull(readArgs("stored", "(" + ARGS_DESC + ")V"));
+    assertNull(readArgs("computedIndex", "(" + ARGS_DESC + ")V"));
+    assertNull(readArgs("variableIndex", "(" + ARGS_DESC + "I)V"));
+  }
+
+  @Test
+  void notApplicable() {
+    assertNull(readArgs("noArray", "(I)V"));
+    assertNull(readArgs("missing", "(" + ARGS_DESC + ")V"));
+  }
+}
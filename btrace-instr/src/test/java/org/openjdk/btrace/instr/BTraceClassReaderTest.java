@@ -0,0 +1,32 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+
+class BTraceClassReaderTest {
+  @Test
+  void annotationTypes() {
+    ClassWriter cw = new ClassWriter(0);
+    cw.visit(V1_8, ACC_PUBLIC, "test/Annotated", null, "java/lang/Object", null);
+    cw.visitAnnotation("Ljava/lang/FunctionalInterface;", true).visitEnd();
+    AnnotationVisitor av = cw.visitAnnotation("Ljava/lang/Deprecated;", true);
+    av.visit("since", "9");
+    av.visit("forRemoval", true);
+    av.visitEnd();
+    cw.visitAnnotation("Ljava/lang/SafeVarargs;", true).visitEnd();
+    cw.visitEnd();
+
+    BTraceClassReader cr = new BTraceClassReader(null, cw.toByteArray());
+    assertEquals(
+        new HashSet<>(
+            Arrays.asList(
+                "java.lang.FunctionalInterface", "java.lang.Deprecated", "java.lang.SafeVarargs")),
+        cr.getAnnotationTypes());
+  }
+}
@@ -0,0 +1,224 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.lang.reflect.Field;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.btrace.core.SharedSettings;
+
+class HandlerInlinerTest extends InstrumentorTestBase {
+  private static final String PROBE = "org/openjdk/btrace/runtime/auxiliary/TestProbe";
+  private static final String ATOMIC_LONG = "Ljava/util/concurrent/atomic/AtomicLong;";
+
+  private static HandlerInliner inliner;
+  private static HandlerInliner statsInliner;
+
+  @BeforeAll
+  static void setup() {
+    inliner = new HandlerInliner(probe(false));
+    statsInliner = new HandlerInliner(probe(true));
+  }
+
+  /** Generates the probe handlers the way javac does and preprocesses them */
+  private static byte[] probe(boolean handlerStats) {
+    ClassNode cn = new ClassNode();
+    cn.visit(V1_8, ACC_PUBLIC, PROBE, null, "java/lang/Object", null);
+    cn.visitField(ACC_PUBLIC | ACC_STATIC, "hits", "J", null, null).visitEnd();
+    cn.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, "calls", ATOMIC_LONG, null, null).visitEnd();
+    cn.visitField(ACC_PUBLIC | ACC_STATIC, "mutable", ATOMIC_LONG, null, null).visitEnd();
+
+    handler(cn, "counter", "()V", HandlerInlinerTest::countHit);
+    handler(
+        cn,
+        "withArg",
+        "(I)V",
+        mv -> {
+          mv.visitVarInsn(ILOAD, 0);
+          mv.visitInsn(I2L);
+          mv.visitFieldInsn(GETSTATIC, PROBE, "hits", "J");
+          mv.visitInsn(LADD);
+          mv.visitFieldInsn(PUTSTATIC, PROBE, "hits", "J");
+        });
+    handler(
+        cn,
+        "atomic",
+        "()V",
+        mv -> {
+          mv.visitFieldInsn(GETSTATIC, PROBE, "calls", ATOMIC_LONG);
+          mv.visitMethodInsn(
+              INVOKESTATIC,
+              Constants.BTRACE_UTILS + "$Atomic",
+              "incrementAndGet",
+              "(" + ATOMIC_LONG + ")J",
+              false);
+          mv.visitInsn(POP2);
+        });
+    handler(
+        cn,
+        "mutableAtomic",
+        "()V",
+        mv -> {
+          mv.visitFieldInsn(GETSTATIC, PROBE, "mutable", ATOMIC_LONG);
+          mv.visitMethodInsn(
+              INVOKESTATIC,
+              Constants.BTRACE_UTILS + "$Atomic",
+              "incrementAndGet",
+              "(" + ATOMIC_LONG + ")J",
+              false);
+          mv.visitInsn(POP2);
+        });
+    handler(
+        cn,
+        "printing",
+        "()V",
+        mv -> {
+          mv.visitLdcInsn("hit");
+          mv.visitMethodInsn(
+              INVOKESTATIC, Constants.BTRACE_UTILS, "println", "(Ljava/lang/Object;)V", false);
+        });
+    handler(
+        cn,
+        "division",
+        "(I)V",
+        mv -> {
+          mv.visitVarInsn(ILOAD, 0);
+          mv.visitInsn(ICONST_2);
+          mv.visitInsn(IDIV);
+          mv.visitInsn(POP);
+        });
+    handler(
+        cn,
+        "storing",
+        "(I)V",
+        mv -> {
+          mv.visitVarInsn(ILOAD, 0);
+          mv.visitVarInsn(ISTORE, 1);
+        });
+    handler(
+        cn,
+        "conditional",
+        "(I)V",
+        mv -> {
+          Label skip = new Label();
+          mv.visitVarInsn(ILOAD, 0);
+          mv.visitJumpInsn(IFLE, skip);
+          countHit(mv);
+          mv.visitLabel(skip);
+        });
+    handler(
+        cn,
+        "large",
+        "()V",
+        mv -> {
+          for (int i = 0; i < HandlerInliner.MAX_INSTRUCTIONS; i++) {
+            countHit(mv);
+          }
+        });
+    cn.visitEnd();
+
+    new Preprocessor(handlerStats).process(cn);
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    cn.accept(cw);
+    return cw.toByteArray();
+  }
+
+  private static void handler(
+      ClassNode cn, String name, String desc, Consumer<MethodVisitor> body) {
+    MethodVisitor mv = cn.visitMethod(ACC_PUBLIC | ACC_STATIC, name, desc, null, null);
+    AnnotationVisitor av = mv.visitAnnotation(Constants.ONMETHOD_DESC, true);
+    av.visit("clazz", "java.lang.String");
+    av.visit("method", "length");
+    av.visitEnd();
+    mv.visitCode();
+    body.accept(mv);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private static void countHit(MethodVisitor mv) {
+    mv.visitFieldInsn(GETSTATIC, PROBE, "hits", "J");
+    mv.visitInsn(LCONST_1);
+    mv.visitInsn(LADD);
+    mv.visitFieldInsn(PUTSTATIC, PROBE, "hits", "J");
+  }
+
+  private static boolean inlinable(boolean handlerStats, String name, String desc) {
+    OnMethod om = new OnMethod();
+    om.setTargetName(name);
+    om.setTargetDescriptor(desc);
+    return (handlerStats ? statsInliner : inliner).getHandler(om) != null;
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void trivialHandlers(boolean handlerStats) {
+    assertTrue(inlinable(handlerStats, "counter", "()V"));
+    assertTrue(inlinable(handlerStats, "withArg", "(I)V"));
+    assertTrue(inlinable(handlerStats, "atomic", "()V"));
+    assertTrue(inlinable(handlerStats, "conditional", "(I)V"));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void nonTrivialHandlers(boolean handlerStats) {
+    // the field may be null
+    assertFalse(inlinable(handlerStats, "mutableAtomic", "()V"));
+    assertFalse(inlinable(handlerStats, "printing", "()V"));
+    // may throw ArithmeticException
+    assertFalse(inlinable(handlerStats, "division", "(I)V"));
+    assertFalse(inlinable(handlerStats, "storing", "(I)V"));
+    assertFalse(inlinable(handlerStats, "large", "()V"));
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void unknownHandler(boolean handlerStats) {
+    assertFalse(inlinable(handlerStats, "counter", "(I)V"));
+    assertFalse(inlinable(handlerStats, "missing", "()V"));
+  }
+
+  @Test
+  void instrumentInlined() throws Exception {
+    Field hiddenClasses = Instrumentor.class.getDeclaredField("useHiddenClassesInTest");
+    hiddenClasses.setAccessible(true);
+    boolean useHiddenClasses = hiddenClasses.getBoolean(null);
+    hiddenClasses.setBoolean(null, false);
+    SharedSettings.GLOBAL.setInlineHandlers(true);
+    try {
+      loadTargetClass("OnMethodTest");
+      transform("onmethod/ArgsInlined");
+    } finally {
+      SharedSettings.GLOBAL.setInlineHandlers(false);
+      hiddenClasses.setBoolean(null, useHiddenClasses);
+    }
+
+    // the handler code is emitted in place of the handler call
+    ClassNode cn = new ClassNode();
+    new ClassReader(transformedBC).accept(cn, 0);
+    for (MethodNode mn : cn.methods) {
+      for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+        assertNotEquals(INVOKEDYNAMIC, n.getOpcode());
+        if (n instanceof MethodInsnNode) {
+          assertFalse(((MethodInsnNode) n).name.contains("ArgsInlined"));
+        }
+      }
+    }
+    // verifies the instrumented class and compares it with the expected code
+    checkTransformation("inlined/onmethod/ArgsInlined");
+  }
+}
@@ -26,6 +26,7 @@ package org.openjdk.btrace.instr;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -73,4 +74,39 @@ public class MethodCounterTest {
 
     assertTrue(Math.abs(mean - (iterations / hits)) < (mean / 10));
   }
+
+  @Test
+  public void testConcurrentRegistration() throws Exception {
+    final int threads = 4;
+    final int firstId = 1000;
+    final int lastId = 100000;
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] registrars = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int offset = t;
+      registrars[t] =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return;
+                }
+                // interleaved ids make the threads grow the counter table concurrently
+                for (int id = firstId + offset; id < lastId; id += threads) {
+                  MethodTracker.registerCounter(id, 0);
+                }
+              });
+      registrars[t].start();
+    }
+    start.countDown();
+    for (Thread t : registrars) {
+      t.join();
+    }
+    for (int id = firstId; id < lastId; id++) {
+      // a lost registration would fail here
+      assertTrue(MethodTracker.hit(id));
+    }
+  }
 }
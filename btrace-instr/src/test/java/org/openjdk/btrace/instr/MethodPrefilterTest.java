@@ -0,0 +1,168 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.openjdk.btrace.core.annotations.Kind;
+
+class MethodPrefilterTest {
+  private static BTraceClassReader cr;
+
+  @BeforeAll
+  static void setup() {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_8, ACC_PUBLIC, "test/Target", null, "java/lang/Object", null);
+    cw.visitField(ACC_PRIVATE, "count", "I", null, null).visitEnd();
+
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", "()V", null, null);
+    mv.visitCode();
+    mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
+    mv.visitInsn(POP);
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "hashCode", "()I", false);
+    mv.visitInsn(POP);
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitFieldInsn(GETFIELD, "test/Target", "count", "I");
+    mv.visitInsn(POP);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(ACC_PUBLIC, "run", "(I)V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitVarInsn(ILOAD, 1);
+    mv.visitFieldInsn(PUTFIELD, "test/Target", "count", "I");
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(ACC_PUBLIC, "old", "()V", null, null);
+    mv.visitAnnotation("Ljava/lang/Deprecated;", true).visitEnd();
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    cr = new BTraceClassReader(null, cw.toByteArray());
+  }
+
+  private static OnMethod onMethod(String method) {
+    OnMethod om = new OnMethod();
+    om.setMethod(method);
+    om.setLocation(new Location());
+    return om;
+  }
+
+  private static OnMethod onMethod(String method, Kind kind, String clazz, String member) {
+    OnMethod om = onMethod(method);
+    Location loc = om.getLocation();
+    loc.setValue(kind);
+    loc.setClazz(clazz);
+    if (kind == Kind.FIELD_GET || kind == Kind.FIELD_SET) {
+      loc.setField(member);
+    } else {
+      loc.setMethod(member);
+    }
+    return om;
+  }
+
+  private static boolean mayApply(OnMethod om) {
+    return !MethodPrefilter.scan(cr, Collections.singletonList(om)).getOnMethods().isEmpty();
+  }
+
+  private static boolean mayApply(OnMethod om, String name, String desc) {
+    MethodPrefilter prefilter = MethodPrefilter.scan(cr, Collections.singletonList(om));
+    return !prefilter.getOnMethods().isEmpty() && prefilter.mayApply(om, name, desc);
+  }
+
+  @Test
+  void methodNames() {
+    assertTrue(mayApply(onMethod("run")));
+    assertTrue(mayApply(onMethod("/r.*/")));
+    assertTrue(mayApply(onMethod("")));
+    assertFalse(mayApply(onMethod("walk")));
+    assertFalse(mayApply(onMethod("/w.*/")));
+  }
+
+  @Test
+  void methodAnnotations() {
+    assertTrue(mayApply(onMethod("@java.lang.Deprecated")));
+    assertTrue(mayApply(onMethod("@/.*\\.Deprecated/")));
+    assertFalse(mayApply(onMethod("@java.lang.FunctionalInterface")));
+  }
+
+  @Test
+  void lines() {
+    OnMethod om = onMethod("walk");
+    om.getLocation().setValue(Kind.LINE);
+    assertTrue(mayApply(om));
+  }
+
+  @Test
+  void calls() {
+    assertTrue(mayApply(onMethod("run", Kind.CALL, "java.lang.Object", "hashCode")));
+    assertTrue(mayApply(onMethod("run", Kind.CALL, "/.*/", "hashCode")));
+    assertTrue(mayApply(onMethod("run", Kind.CALL, "java.lang.Object", "/.*/")));
+    assertFalse(mayApply(onMethod("run", Kind.CALL, "java.lang.String", "hashCode")));
+    assertFalse(mayApply(onMethod("run", Kind.CALL, "/.*/", "equals")));
+    // the called method is referenced but the handler does not apply to any method
+    assertFalse(mayApply(onMethod("walk", Kind.CALL, "java.lang.Object", "hashCode")));
+  }
+
+  @Test
+  void fieldAccesses() {
+    assertTrue(mayApply(onMethod("run", Kind.FIELD_GET, "test.Target", "count")));
+    assertTrue(mayApply(onMethod("run", Kind.FIELD_SET, "/.*/", "count")));
+    assertFalse(mayApply(onMethod("run", Kind.FIELD_GET, "test.Target", "size")));
+  }
+
+  @Test
+  void allocations() {
+    assertTrue(mayApply(onMethod("run", Kind.NEW, "java.lang.StringBuilder", "")));
+    assertFalse(mayApply(onMethod("run", Kind.NEW, "java.lang.StringBuffer", "")));
+  }
+
+  @Test
+  void keepsOrder() {
+    OnMethod first = onMethod("old");
+    OnMethod dropped = onMethod("walk");
+    OnMethod last = onMethod("run");
+    Collection<OnMethod> filtered =
+        MethodPrefilter.scan(cr, Arrays.asList(first, dropped, last)).getOnMethods();
+    assertEquals(Arrays.asList(first, last), filtered);
+  }
+
+  @Test
+  void sites() {
+    OnMethod call = onMethod("run", Kind.CALL, "java.lang.Object", "hashCode");
+    assertTrue(mayApply(call, "run", "()V"));
+    assertFalse(mayApply(call, "run", "(I)V"));
+
+    OnMethod get = onMethod("/.*/", Kind.FIELD_GET, "test.Target", "count");
+    assertTrue(mayApply(get, "run", "()V"));
+    assertFalse(mayApply(get, "run", "(I)V"));
+    assertFalse(mayApply(get, "old", "()V"));
+
+    OnMethod set = onMethod("/.*/", Kind.FIELD_SET, "test.Target", "count");
+    assertFalse(mayApply(set, "run", "()V"));
+    assertTrue(mayApply(set, "run", "(I)V"));
+  }
+
+  @Test
+  void notSites() {
+    OnMethod entry = onMethod("run");
+    assertTrue(mayApply(entry, "run", "()V"));
+    assertTrue(mayApply(entry, "run", "(I)V"));
+
+    OnMethod annotated = onMethod("@java.lang.Deprecated", Kind.CALL, "/.*/", "/.*/");
+    assertTrue(mayApply(annotated, "old", "()V"));
+  }
+}
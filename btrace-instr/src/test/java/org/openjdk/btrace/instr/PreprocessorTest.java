@@ -0,0 +1,387 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+class PreprocessorTest {
+  private static final String PROBE = "org/openjdk/btrace/runtime/auxiliary/PreprocessorProbe";
+  private static final String STRING_MATCHES_DESC = "(Ljava/lang/String;Ljava/lang/String;)Z";
+  private static final String PATTERN_MATCHES_DESC =
+      "(Ljava/util/regex/Pattern;Ljava/lang/String;)Z";
+  private static final String FORMATTED_MESSAGE =
+      "org/openjdk/btrace/runtime/FormattedMessageCommand";
+
+  /** Creates a probe with a single {@code handler(String)} method and preprocesses it */
+  private static ClassNode preprocess(boolean handlerStats, Consumer<MethodVisitor> body) {
+    ClassNode cn = new ClassNode();
+    cn.visit(V1_8, ACC_PUBLIC, PROBE, null, "java/lang/Object", null);
+    MethodVisitor mv =
+        cn.visitMethod(ACC_PUBLIC | ACC_STATIC, "handler", "(Ljava/lang/String;)V", null, null);
+    AnnotationVisitor av = mv.visitAnnotation(Constants.ONMETHOD_DESC, true);
+    av.visit("clazz", "java.lang.String");
+    av.visit("method", "length");
+    av.visitEnd();
+    mv.visitCode();
+    body.accept(mv);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cn.visitEnd();
+
+    new Preprocessor(handlerStats).process(cn);
+    verify(cn);
+    return cn;
+  }
+
+  private static void verify(ClassNode cn) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    cn.accept(cw);
+    StringWriter sw = new StringWriter();
+    CheckClassAdapter.verify(new ClassReader(cw.toByteArray()), false, new PrintWriter(sw));
+    assertFalse(sw.toString().contains("AnalyzerException"), sw.toString());
+  }
+
+  private static MethodNode method(ClassNode cn, String name) {
+    for (MethodNode mn : cn.methods) {
+      if (mn.name.equals(name)) {
+        return mn;
+      }
+    }
+    fail("No method " + name);
+    return null;
+  }
+
+  private static FieldNode field(ClassNode cn, String prefix) {
+    for (FieldNode fn : cn.fields) {
+      if (fn.name.startsWith(prefix)) {
+        return fn;
+      }
+    }
+    return null;
+  }
+
+  private static MethodInsnNode call(MethodNode mn, String owner, String name) {
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+      if (n instanceof MethodInsnNode) {
+        MethodInsnNode min = (MethodInsnNode) n;
+        if (min.owner.equals(owner) && min.name.equals(name)) {
+          return min;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static int fieldCount(ClassNode cn, String prefix) {
+    int cnt = 0;
+    for (FieldNode fn : cn.fields) {
+      if (fn.name.startsWith(prefix)) {
+        cnt++;
+      }
+    }
+    return cnt;
+  }
+
+  private static boolean loads(MethodNode mn, Object cst) {
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+      if (n instanceof LdcInsnNode && ((LdcInsnNode) n).cst.equals(cst)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Calls {@code BTraceUtils.matches(regex, input)} with the values on the stack; drops result */
+  private static void matches(MethodVisitor mv) {
+    mv.visitMethodInsn(INVOKESTATIC, Constants.BTRACE_UTILS, "matches", STRING_MATCHES_DESC, false);
+    mv.visitInsn(POP);
+  }
+
+  private static void emptyBody(MethodVisitor mv) {}
+
+  /** Boxes the primitive value on the stack the way javac does */
+  private static void box(MethodVisitor mv, String wrapper, String primitive) {
+    mv.visitMethodInsn(
+        INVOKESTATIC, wrapper, "valueOf", "(" + primitive + ")L" + wrapper + ";", false);
+  }
+
+  /** Calls {@code BTraceUtils.printf(format, ...)} with the values on the stack */
+  private static void printf(MethodVisitor mv, int argCnt) {
+    StringBuilder desc = new StringBuilder("(Ljava/lang/String;");
+    for (int i = 0; i < argCnt; i++) {
+      desc.append("Ljava/lang/Object;");
+    }
+    mv.visitMethodInsn(INVOKESTATIC, Constants.BTRACE_UTILS, "printf", desc + ")V", false);
+  }
+
+  private static int count(MethodNode mn, String owner, String name) {
+    int cnt = 0;
+    for (AbstractInsnNode n = mn.instructions.getFirst(); n != null; n = n.getNext()) {
+      if (n instanceof MethodInsnNode) {
+        MethodInsnNode min = (MethodInsnNode) n;
+        if (min.owner.equals(owner) && min.name.equals(name)) {
+          cnt++;
+        }
+      }
+    }
+    return cnt;
+  }
+
+  @Test
+  void noHandlerSlotWithoutStats() {
+    ClassNode cn = preprocess(false, PreprocessorTest::emptyBody);
+    MethodNode handler = method(cn, "handler");
+
+    MethodInsnNode enter = call(handler, Constants.BTRACERTACCESS_INTERNAL, "enter");
+    assertNotNull(enter);
+    assertEquals("(" + Constants.BTRACERTIMPL_DESC + ")Z", enter.desc);
+    assertNull(field(cn, "$handler$slot$"));
+    assertNull(call(method(cn, "<clinit>"), Constants.BTRACERTBASE_INTERNAL, "handlerSlot"));
+  }
+
+  @Test
+  void handlerSlotWithStats() {
+    ClassNode cn = preprocess(true, PreprocessorTest::emptyBody);
+    MethodNode handler = method(cn, "handler");
+
+    MethodInsnNode enter = call(handler, Constants.BTRACERTACCESS_INTERNAL, "enter");
+    assertNotNull(enter);
+    assertEquals("(" + Constants.BTRACERTIMPL_DESC + "I)Z", enter.desc);
+    FieldNode slot = field(cn, "$handler$slot$");
+    assertNotNull(slot);
+    AbstractInsnNode load = enter.getPrevious();
+    assertEquals(GETSTATIC, load.getOpcode());
+    assertEquals(slot.name, ((FieldInsnNode) load).name);
+    assertNotNull(call(method(cn, "<clinit>"), Constants.BTRACERTBASE_INTERNAL, "handlerSlot"));
+  }
+
+  @Test
+  void literalPatternHoisted() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("a.*b");
+              mv.visitVarInsn(ALOAD, 0);
+              matches(mv);
+              // the input computed by a call between the pattern load and its use
+              mv.visitLdcInsn("a.*b");
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitMethodInsn(
+                  INVOKEVIRTUAL, "java/lang/String", "trim", "()Ljava/lang/String;", false);
+              matches(mv);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertFalse(loads(handler, "a.*b"));
+    // the same pattern is compiled only once
+    assertEquals(1, fieldCount(cn, "$regex$"));
+    FieldNode regex = field(cn, "$regex$");
+    assertEquals("Ljava/util/regex/Pattern;", regex.desc);
+    int hoisted = 0;
+    for (AbstractInsnNode n = handler.instructions.getFirst(); n != null; n = n.getNext()) {
+      if (n instanceof MethodInsnNode && ((MethodInsnNode) n).name.equals("matches")) {
+        assertEquals(PATTERN_MATCHES_DESC, ((MethodInsnNode) n).desc);
+        hoisted++;
+      }
+    }
+    assertEquals(2, hoisted);
+    MethodNode clinit = method(cn, "<clinit>");
+    assertTrue(loads(clinit, "a.*b"));
+    assertNotNull(call(clinit, "java/util/regex/Pattern", "compile"));
+  }
+
+  @Test
+  void literalConcatenationFolded() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("foo");
+              mv.visitLdcInsn("bar");
+              mv.visitMethodInsn(
+                  INVOKESTATIC,
+                  Constants.BTRACE_UTILS,
+                  "strcat",
+                  "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;",
+                  false);
+              mv.visitInsn(POP);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertTrue(loads(handler, "foobar"));
+    assertFalse(loads(handler, "foo"));
+    assertNull(call(handler, Constants.BTRACE_UTILS, "strcat"));
+  }
+
+  @Test
+  void nonLiteralPatternLeftAlone() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitVarInsn(ALOAD, 0);
+              matches(mv);
+              // the origin of the pattern can not be tracked through the stack manipulation
+              mv.visitLdcInsn("a.*b");
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitInsn(DUP);
+              mv.visitInsn(POP);
+              matches(mv);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertEquals(0, fieldCount(cn, "$regex$"));
+    assertEquals(STRING_MATCHES_DESC, call(handler, Constants.BTRACE_UTILS, "matches").desc);
+    assertTrue(loads(handler, "a.*b"));
+  }
+
+  @Test
+  void branchTargetPatternLeftAlone() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              Label other = new Label();
+              Label match = new Label();
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitJumpInsn(IFNULL, other);
+              mv.visitLdcInsn("a.*");
+              mv.visitJumpInsn(GOTO, match);
+              mv.visitLabel(other);
+              mv.visitLdcInsn("b.*");
+              // the pattern on the stack depends on the branch taken
+              mv.visitLabel(match);
+              mv.visitVarInsn(ALOAD, 0);
+              matches(mv);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertEquals(0, fieldCount(cn, "$regex$"));
+    assertEquals(STRING_MATCHES_DESC, call(handler, Constants.BTRACE_UTILS, "matches").desc);
+    assertTrue(loads(handler, "a.*"));
+    assertTrue(loads(handler, "b.*"));
+  }
+
+  @Test
+  void invalidPatternLeftAlone() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("[unclosed");
+              mv.visitVarInsn(ALOAD, 0);
+              matches(mv);
+              mv.visitLdcInsn("(unclosed");
+              mv.visitMethodInsn(
+                  INVOKESTATIC,
+                  Constants.BTRACE_UTILS,
+                  "regexp",
+                  "(Ljava/lang/String;)Ljava/util/regex/Pattern;",
+                  false);
+              mv.visitInsn(POP);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    // not compiled in the static initializer, so the class still loads ...
+    assertEquals(0, fieldCount(cn, "$regex$"));
+    assertNull(call(method(cn, "<clinit>"), "java/util/regex/Pattern", "compile"));
+    // ... and the handler fails at the call site as before
+    assertTrue(loads(handler, "[unclosed"));
+    assertTrue(loads(handler, "(unclosed"));
+    assertEquals(STRING_MATCHES_DESC, call(handler, Constants.BTRACE_UTILS, "matches").desc);
+    assertNotNull(call(handler, Constants.BTRACE_UTILS, "regexp"));
+  }
+
+  @Test
+  void printfArgumentsCaptured() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("%s %d %d %.1f %c %b");
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitInsn(ICONST_5);
+              box(mv, "java/lang/Integer", "I");
+              mv.visitLdcInsn(42L);
+              box(mv, "java/lang/Long", "J");
+              mv.visitLdcInsn(1.5f);
+              box(mv, "java/lang/Float", "F");
+              mv.visitIntInsn(BIPUSH, 'x');
+              box(mv, "java/lang/Character", "C");
+              mv.visitInsn(ICONST_1);
+              box(mv, "java/lang/Boolean", "Z");
+              printf(mv, 6);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertNull(call(handler, Constants.BTRACE_UTILS, "printf"));
+    assertNull(call(handler, "java/lang/Integer", "valueOf"));
+    assertNull(call(handler, "java/lang/Long", "valueOf"));
+    assertNull(call(handler, "java/lang/Float", "valueOf"));
+    assertNull(call(handler, "java/lang/Character", "valueOf"));
+    assertNull(call(handler, "java/lang/Boolean", "valueOf"));
+    assertEquals(1, count(handler, Constants.BTRACERTBASE_INTERNAL, "newFormattedMessage"));
+    assertTrue(loads(handler, "LIJFCZ"));
+    assertEquals(6, count(handler, FORMATTED_MESSAGE, "arg"));
+    assertEquals(1, count(handler, Constants.BTRACERTBASE_INTERNAL, "send"));
+  }
+
+  @Test
+  void printfWithoutArgumentsCaptured() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("done%n");
+              printf(mv, 0);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertNull(call(handler, Constants.BTRACE_UTILS, "printf"));
+    assertEquals(1, count(handler, Constants.BTRACERTBASE_INTERNAL, "newFormattedMessage"));
+    assertEquals(0, count(handler, FORMATTED_MESSAGE, "arg"));
+    assertEquals(1, count(handler, Constants.BTRACERTBASE_INTERNAL, "send"));
+  }
+
+  @Test
+  void printfUntraceableArgumentsLeftAlone() {
+    ClassNode cn =
+        preprocess(
+            false,
+            mv -> {
+              mv.visitLdcInsn("%d %s");
+              mv.visitInsn(ICONST_1);
+              box(mv, "java/lang/Integer", "I");
+              // the origin of the argument can not be tracked through the stack manipulation
+              mv.visitVarInsn(ALOAD, 0);
+              mv.visitInsn(DUP);
+              mv.visitInsn(POP);
+              printf(mv, 2);
+            });
+    MethodNode handler = method(cn, "handler");
+
+    assertNotNull(call(handler, Constants.BTRACE_UTILS, "printf"));
+    assertNotNull(call(handler, "java/lang/Integer", "valueOf"));
+    assertNull(call(handler, Constants.BTRACERTBASE_INTERNAL, "newFormattedMessage"));
+  }
+}
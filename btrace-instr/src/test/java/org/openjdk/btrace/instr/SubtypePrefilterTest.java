@@ -0,0 +1,104 @@
+package org.openjdk.btrace.instr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openjdk.btrace.runtime.BTraceRuntimeAccess;
+
+class SubtypePrefilterTest {
+  @BeforeAll
+  static void setupAll() throws Throwable {
+    Method m = BTraceRuntimeAccess.class.getDeclaredMethod("registerRuntimeAccessor");
+    m.setAccessible(true);
+    m.invoke(null);
+  }
+
+  @Test
+  void readSupers() throws Exception {
+    String[] supers = SubtypePrefilter.readSupers(classBytes(ArrayList.class));
+    assertNotNull(supers);
+    assertEquals("java/util/AbstractList", supers[0]);
+    assertTrue(Arrays.asList(supers).contains("java/util/List"));
+    assertTrue(Arrays.asList(supers).contains("java/util/RandomAccess"));
+  }
+
+  @Test
+  void readSupersObject() throws Exception {
+    String[] supers = SubtypePrefilter.readSupers(classBytes(Object.class));
+    assertNotNull(supers);
+    assertEquals(1, supers.length);
+    assertNull(supers[0]);
+  }
+
+  @Test
+  void readSupersInvalid() {
+    assertNull(SubtypePrefilter.readSupers(new byte[] {1, 2, 3}));
+    assertNull(SubtypePrefilter.readSupers(null));
+  }
+
+  @Test
+  void matchDirectSubtype() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter(Collections.singleton(List.class.getName()));
+    assertTrue(filter.matches("java/util/AbstractList", null, classBytes(AbstractList.class)));
+    // the supertype is known now; no resolution necessary
+    assertTrue(filter.matches("java/util/ArrayList", null, classBytes(ArrayList.class)));
+  }
+
+  @Test
+  void matchIndirectSubtype() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter(Collections.singleton("java.util.Collection"));
+    assertTrue(filter.matches("java/util/ArrayList", null, classBytes(ArrayList.class)));
+  }
+
+  @Test
+  void matchTarget() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter(Collections.singleton(List.class.getName()));
+    assertTrue(filter.matches("java/util/List", null, classBytes(List.class)));
+  }
+
+  @Test
+  void noMatch() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter(Collections.singleton(List.class.getName()));
+    assertFalse(filter.matches("java/lang/String", null, classBytes(String.class)));
+    assertFalse(filter.matches("java/lang/Thread", null, classBytes(Thread.class)));
+  }
+
+  @Test
+  void noTargets() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter();
+    assertFalse(filter.hasTargets());
+    assertFalse(filter.matches("java/util/ArrayList", null, classBytes(ArrayList.class)));
+  }
+
+  @Test
+  void retarget() throws Exception {
+    SubtypePrefilter filter = new SubtypePrefilter(Collections.singleton(List.class.getName()));
+    assertFalse(filter.matches("java/lang/Thread", null, classBytes(Thread.class)));
+    filter.setTargets(Collections.singleton(Runnable.class.getName()));
+    assertTrue(filter.matches("java/lang/Thread", null, classBytes(Thread.class)));
+    assertFalse(filter.matches("java/util/ArrayList", null, classBytes(ArrayList.class)));
+  }
+
+  private static byte[] classBytes(Class<?> clz) throws IOException {
+    try (InputStream is =
+        ClassLoader.getSystemResourceAsStream(clz.getName().replace('.', '/') + ".class")) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) > 0) {
+        bos.write(buffer, 0, read);
+      }
+      return bos.toByteArray();
+    }
+  }
+}
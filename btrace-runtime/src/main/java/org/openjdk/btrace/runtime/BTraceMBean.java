@@ -30,6 +30,9 @@ package org.openjdk.btrace.runtime;
 
  @author A. Sundararajan
 */
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -43,6 +46,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.management.Attribute;
@@ -76,16 +80,22 @@ import org.openjdk.btrace.core.annotations.Property;
  * @author A. Sundararajan
  */
 public class BTraceMBean implements DynamicMBean {
+  /**
+   * The composite values (maps, profiler snapshots) are converted to their open type representation
+   * at most once per this period (in milliseconds) and the cached snapshot is served in between.
+   */
+  private static final long SNAPSHOT_PERIOD_MS = Long.getLong("btrace.mbean.snapshotPeriod", 1000L);
 
   private final Class<?> clazz;
-  private final Map<String, Field> attributes;
+  private final Map<String, AttributeAccessor> attributes;
   private final String beanName;
-  private MBeanInfo cachedBeanInfo;
+  private final MBeanInfo beanInfo;
 
   public BTraceMBean(Class<?> clazz) {
     this.clazz = clazz;
     attributes = getJMXAttributes(clazz);
     beanName = getBeanName(clazz);
+    beanInfo = createMBeanInfo();
   }
 
   public static void registerMBean(Class<?> clazz) {
@@ -126,26 +136,9 @@ public class BTraceMBean implements DynamicMBean {
     return false;
   }
 
-  private static Object getFieldValue(Field field) {
+  private static Map<String, AttributeAccessor> getJMXAttributes(Class<?> clazz) {
     try {
-      Object value = field.get(null);
-      OpenType<?> ot = OpenTypeUtils.typeToOpenType(field.getGenericType());
-      if (ot != null) {
-        return OpenTypeUtils.convertToOpenTypeValue(ot, value);
-      } else {
-        // no conversion attempted!
-        return value;
-      }
-    } catch (RuntimeException re) {
-      throw re;
-    } catch (Exception exp) {
-      throw new RuntimeException(exp);
-    }
-  }
-
-  private static Map<String, Field> getJMXAttributes(Class<?> clazz) {
-    try {
-      Map<String, Field> fields = new HashMap<>();
+      Map<String, AttributeAccessor> fields = new HashMap<>();
       for (Field field : clazz.getDeclaredFields()) {
         if (Modifier.isStatic(field.getModifiers()) && field.isAnnotationPresent(Property.class)) {
           Property attr = field.getAnnotation(Property.class);
@@ -159,7 +152,7 @@ public class BTraceMBean implements DynamicMBean {
                 attrName = attrName.substring(1);
               }
             }
-            fields.put(attrName, field);
+            fields.put(attrName, new AttributeAccessor(field));
           }
         }
       }
@@ -172,29 +165,29 @@ public class BTraceMBean implements DynamicMBean {
   }
 
   @Override
-  public synchronized Object getAttribute(String name) throws AttributeNotFoundException {
-    Field field = attributes.get(name);
-    if (field == null) {
+  public Object getAttribute(String name) throws AttributeNotFoundException {
+    AttributeAccessor accessor = attributes.get(name);
+    if (accessor == null) {
       throw new AttributeNotFoundException("No such property: " + name);
     }
-    return getFieldValue(field);
+    return accessor.getValue();
   }
 
   @SuppressWarnings("RedundantThrows")
   @Override
-  public synchronized void setAttribute(Attribute attribute)
+  public void setAttribute(Attribute attribute)
       throws InvalidAttributeValueException, MBeanException, AttributeNotFoundException {
     throw new MBeanException(new RuntimeException("BTrace attributes are read-only"));
   }
 
   @Override
-  public synchronized AttributeList getAttributes(String[] names) {
+  public AttributeList getAttributes(String[] names) {
     AttributeList list = new AttributeList();
     for (String name : names) {
-      Field field = attributes.get(name);
+      AttributeAccessor accessor = attributes.get(name);
       Object value = null;
-      if (field != null) {
-        value = getFieldValue(field);
+      if (accessor != null) {
+        value = accessor.getValue();
       }
       if (value != null) {
         list.add(new Attribute(name, value));
@@ -204,7 +197,7 @@ public class BTraceMBean implements DynamicMBean {
   }
 
   @Override
-  public synchronized AttributeList setAttributes(AttributeList list) {
+  public AttributeList setAttributes(AttributeList list) {
     // we don't support attribute sets -- return an empty list.
     return new AttributeList();
   }
@@ -217,31 +210,31 @@ public class BTraceMBean implements DynamicMBean {
   }
 
   @Override
-  public synchronized MBeanInfo getMBeanInfo() {
-    if (cachedBeanInfo != null) {
-      return cachedBeanInfo;
-    }
+  public MBeanInfo getMBeanInfo() {
+    return beanInfo;
+  }
+
+  private MBeanInfo createMBeanInfo() {
     SortedSet<String> names = new TreeSet<>(attributes.keySet());
     MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[names.size()];
     Iterator<String> it = names.iterator();
     for (int i = 0; i < attrs.length; i++) {
       String name = it.next();
-      Field field = attributes.get(name);
-      Property attr = field.getAnnotation(Property.class);
+      AttributeAccessor accessor = attributes.get(name);
+      Property attr = accessor.field.getAnnotation(Property.class);
       String description = attr.description();
       if (description.isEmpty()) {
         description = name;
       }
       Descriptor descriptor = new DescriptorSupport();
-      OpenType<?> ot = OpenTypeUtils.typeToOpenType(field.getGenericType());
-      if (ot != null) {
-        descriptor.setField("openType", ot);
+      if (accessor.openType != null) {
+        descriptor.setField("openType", accessor.openType);
       }
 
       attrs[i] =
           new MBeanAttributeInfo(
               name,
-              field.getType().getName(),
+              accessor.field.getType().getName(),
               description,
               true, // isReadable
               false, // isWritable
@@ -254,15 +247,83 @@ public class BTraceMBean implements DynamicMBean {
     if (description.isEmpty()) {
       description = "BTrace MBean : " + beanName;
     }
-    cachedBeanInfo =
-        new MBeanInfo(
-            beanName,
-            description,
-            attrs,
-            null, // constructors
-            null,
-            null); // notifications
-    return cachedBeanInfo;
+    return new MBeanInfo(
+        beanName,
+        description,
+        attrs,
+        null, // constructors
+        null,
+        null); // notifications
+  }
+
+  /**
+   * Pre-resolved access to a single {@linkplain Property} field.
+   *
+   * <p>The field is read through a {@linkplain MethodHandle} and its open type is computed only
+   * once. The composite values, which are expensive to convert, are served from a snapshot which
+   * is refreshed when the underlying profiler snapshot changes or, for other values, once per
+   * {@linkplain #SNAPSHOT_PERIOD_MS}. The access is lock-free; concurrent readers may occasionally
+   * both refresh the snapshot.
+   */
+  private static final class AttributeAccessor {
+    private final Field field;
+    private final MethodHandle getter;
+    private final OpenType<?> openType;
+    private volatile ValueSnapshot snapshot;
+
+    AttributeAccessor(Field field) throws IllegalAccessException {
+      this.field = field;
+      this.getter =
+          MethodHandles.lookup()
+              .unreflectGetter(field)
+              .asType(MethodType.methodType(Object.class));
+      this.openType = OpenTypeUtils.typeToOpenType(field.getGenericType());
+    }
+
+    Object getValue() {
+      Object value;
+      try {
+        value = (Object) getter.invokeExact();
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new RuntimeException(t);
+      }
+      if (openType == null) {
+        // no conversion attempted!
+        return value;
+      }
+      if (openType instanceof SimpleType) {
+        return OpenTypeUtils.convertToOpenTypeValue(openType, value);
+      }
+      boolean isProfiler =
+          value instanceof Profiler && value instanceof Profiler.MBeanValueProvider;
+      // a profiler publishes a new snapshot instance on each refresh - use it as the generation
+      Object source = isProfiler ? ((Profiler.MBeanValueProvider) value).getMBeanValue() : value;
+      long now = System.nanoTime();
+      ValueSnapshot s = snapshot;
+      if (s != null
+          && s.source == source
+          && (isProfiler
+              || now - s.timestamp < TimeUnit.MILLISECONDS.toNanos(SNAPSHOT_PERIOD_MS))) {
+        return s.value;
+      }
+      Object converted = OpenTypeUtils.convertToOpenTypeValue(openType, value);
+      snapshot = new ValueSnapshot(source, now, converted);
+      return converted;
+    }
+  }
+
+  private static final class ValueSnapshot {
+    private final Object source;
+    private final long timestamp;
+    private final Object value;
+
+    ValueSnapshot(Object source, long timestamp, Object value) {
+      this.source = source;
+      this.timestamp = timestamp;
+      this.value = value;
+    }
   }
 
   private static class OpenTypeUtils {
@@ -61,6 +61,16 @@ public abstract class BTraceRuntimeAccess implements RuntimeContext {
 
   static final class RTWrapper {
     private BTraceRuntime.Impl rt = null;
+    // BTrace own threads (eg. timers) are never throttled
+    private boolean governed = true;
+    // overhead accounting of the current handler invocation, if timed
+    private int entries = 0;
+    private OverheadGovernor timed = null;
+    private long enteredAt = 0;
+    // statistics of the current handler invocation, if enabled
+    private HandlerStats stats = null;
+    private int handler = -1;
+    private long handlerEnteredAt = 0;
 
     boolean set(BTraceRuntime.Impl other) {
       if (rt != null && other != null) {
@@ -70,6 +80,39 @@ public abstract class BTraceRuntimeAccess implements RuntimeContext {
       return true;
     }
 
+    void startTiming(OverheadGovernor governor) {
+      if ((++entries & (OverheadGovernor.SAMPLE_INTERVAL - 1)) == 0) {
+        timed = governor;
+        enteredAt = System.nanoTime();
+      }
+    }
+
+    void stopTiming() {
+      if (timed != null) {
+        timed.record((System.nanoTime() - enteredAt) * OverheadGovernor.SAMPLE_INTERVAL);
+        timed = null;
+      }
+    }
+
+    void startHandler(HandlerStats handlerStats, int slot) {
+      stats = handlerStats;
+      handler = slot;
+      handlerEnteredAt = System.nanoTime();
+    }
+
+    void stopHandler() {
+      if (stats != null) {
+        stats.record(handler, System.nanoTime() - handlerEnteredAt);
+        stats = null;
+      }
+    }
+
+    void dropped() {
+      if (stats != null) {
+        stats.dropped(handler);
+      }
+    }
+
     <T> T escape(Callable<T> c) {
       BTraceRuntime.Impl oldRuntime = rt;
       rt = null;
@@ -126,15 +169,69 @@ public abstract class BTraceRuntimeAccess implements RuntimeContext {
     runtimes.put(className, rt);
   }
 
-  /** Enter method is called by every probed method just before the probe actions start. */
+  /**
+   * Enter method is called by every probed method just before the probe actions start. When the
+   * runtime has an overhead budget the entry may be refused to throttle the probe.
+   */
   public static boolean enter(BTraceRuntime.Impl currentRt) {
+    return enter(currentRt, -1);
+  }
+
+  /**
+   * Enter method called by the handlers of the preprocessed BTrace classes. The invocation is
+   * accounted to the given handler slot when the handler statistics are enabled.
+   *
+   * @param currentRt the runtime of the BTrace class
+   * @param handler the handler slot as returned by {@linkplain
+   *     BTraceRuntimeImplBase#handlerSlot(String)} or {@code -1}
+   */
+  public static boolean enter(BTraceRuntime.Impl currentRt, int handler) {
     BTraceRuntimeImplBase current = (BTraceRuntimeImplBase) currentRt;
+    if (current.isDisabled()) return false;
+    OverheadGovernor governor = current.getGovernor();
+    RTWrapper rtw = rt.get();
+    if (governor != null && rtw.governed) {
+      if (!governor.admit() || !rtw.set(current)) {
+        return false;
+      }
+      rtw.startTiming(governor);
+    } else if (!rtw.set(current)) {
+      return false;
+    }
+    if (handler >= 0) {
+      HandlerStats stats = current.getActiveHandlerStats();
+      if (stats != null) {
+        rtw.startHandler(stats, handler);
+      }
+    }
+    return true;
+  }
+
+  /** Enters the runtime for its own housekeeping; never throttled nor accounted. */
+  static boolean enterUngoverned(BTraceRuntimeImplBase current) {
     if (current.isDisabled()) return false;
     return rt.get().set(current);
   }
 
+  /**
+   * Exempts the current thread from the probe overhead budget. To be called by the threads BTrace
+   * runs the periodic handlers on, so eg. the results keep being reported while the probes are
+   * throttled.
+   */
+  static void exemptFromGovernor() {
+    rt.get().governed = false;
+  }
+
   public static void leave() {
-    rt.get().set(null);
+    RTWrapper rtw = rt.get();
+    rtw.stopHandler();
+    rtw.stopTiming();
+    rtw.set(null);
+  }
+
+  /** Accounts a message dropped by the current handler, if any. */
+  static void messageDropped() {
+    rt.get().dropped();
   }
 
   public static String getClientName(String forClassName) {
@@ -32,6 +32,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.instrument.Instrumentation;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
@@ -41,11 +44,11 @@ import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
 import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -53,6 +56,7 @@ import java.nio.file.Path;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -60,8 +64,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -69,12 +71,12 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
 import javax.management.NotificationEmitter;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 import org.jctools.queues.MessagePassingQueue;
-import org.jctools.queues.MpmcArrayQueue;
 import org.jctools.queues.MpscChunkedArrayQueue;
 import org.openjdk.btrace.core.ArgsMap;
 import org.openjdk.btrace.core.BTraceRuntime;
@@ -85,7 +87,9 @@ import org.openjdk.btrace.core.comm.CommandListener;
 import org.openjdk.btrace.core.comm.ErrorCommand;
 import org.openjdk.btrace.core.comm.EventCommand;
 import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.HandlerStatsCommand;
 import org.openjdk.btrace.core.comm.MessageCommand;
+import org.openjdk.btrace.core.comm.SnapshotEncoder;
 import org.openjdk.btrace.core.handlers.ErrorHandler;
 import org.openjdk.btrace.core.handlers.EventHandler;
 import org.openjdk.btrace.core.handlers.ExitHandler;
@@ -113,6 +117,13 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   private static final String HOTSPOT_BEAN_NAME = "com.sun.management:type=HotSpotDiagnostic";
 
+  // object graph dump (writeXML, writeDOT) settings
+  private static final boolean ASYNC_DUMP = Boolean.getBoolean("btrace.dump.async");
+  private static final int XML_DEPTH_LIMIT =
+      Integer.getInteger("btrace.xml.depthLimit", Integer.MAX_VALUE);
+  private static final int XML_NODE_LIMIT =
+      Integer.getInteger("btrace.xml.nodeLimit", Integer.MAX_VALUE);
+
   private static final int CMD_QUEUE_LIMIT_DEFAULT = 100;
   private static int CMD_QUEUE_LIMIT;
   private boolean shouldInitializeMBeans =
@@ -124,74 +135,133 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
    */
   public abstract void newPerfCounter(Object value, String name, String desc);
 
+  /**
+   * Resolves the slot index of a perf counter previously created by {@linkplain
+   * #newPerfCounter(Object, String, String)}. Called by preprocessed BTrace class once for
+   * each @Export variable; the slot index is then used to access the counter directly.
+   *
+   * @param name the counter name
+   * @return the counter slot index
+   * @throws IllegalArgumentException if there is no such counter
+   */
+  public final int perfCounterSlot(String name) {
+    int slot = counters.slotOf(name);
+    if (slot < 0) {
+      throw new IllegalArgumentException("no such perf counter: " + name);
+    }
+    return slot;
+  }
+
+  /**
+   * Registers a handler for the per-handler statistics. Called by preprocessed BTrace class once
+   * for each handler; the handler passes the slot to {@linkplain BTraceRuntimeAccess#enter(
+   * BTraceRuntime.Impl, int)}.
+   *
+   * @param name the handler name
+   * @return the handler slot
+   */
+  public final int handlerSlot(String name) {
+    return handlerStats.register(name);
+  }
+
   /** Return the value of integer perf. counter of given name. */
   public final int getPerfInt(String name) {
-    return (int) getPerfLong(name);
+    return getPerfInt(perfCounterSlot(name));
+  }
+
+  /** Return the value of integer perf. counter in the given slot. */
+  public final int getPerfInt(int slot) {
+    return (int) counters.getLong(slot);
   }
 
   /** Write the value of integer perf. counter of given name. */
   public final void putPerfInt(int value, String name) {
-    putPerfLong(value, name);
+    putPerfInt(value, perfCounterSlot(name));
+  }
+
+  /** Write the value of integer perf. counter in the given slot. */
+  public final void putPerfInt(int value, int slot) {
+    counters.putLong(slot, value);
   }
 
   /** Return the value of float perf. counter of given name. */
   public final float getPerfFloat(String name) {
-    int val = getPerfInt(name);
-    return Float.intBitsToFloat(val);
+    return getPerfFloat(perfCounterSlot(name));
+  }
+
+  /** Return the value of float perf. counter in the given slot. */
+  public final float getPerfFloat(int slot) {
+    return Float.intBitsToFloat(getPerfInt(slot));
   }
 
   /** Write the value of float perf. counter of given name. */
   public final void putPerfFloat(float value, String name) {
-    int i = Float.floatToRawIntBits(value);
-    putPerfInt(i, name);
+    putPerfFloat(value, perfCounterSlot(name));
+  }
+
+  /** Write the value of float perf. counter in the given slot. */
+  public final void putPerfFloat(float value, int slot) {
+    putPerfInt(Float.floatToRawIntBits(value), slot);
+  }
+
+  /** Return the value of double perf. counter of given name. */
+  public final double getPerfDouble(String name) {
+    return getPerfDouble(perfCounterSlot(name));
+  }
+
+  /** Return the value of double perf. counter in the given slot. */
+  public final double getPerfDouble(int slot) {
+    return Double.longBitsToDouble(getPerfLong(slot));
+  }
+
+  /** Write the value of double perf. counter of given name. */
+  public final void putPerfDouble(double value, String name) {
+    putPerfDouble(value, perfCounterSlot(name));
+  }
+
+  /** Write the value of double perf. counter in the given slot. */
+  public final void putPerfDouble(double value, int slot) {
+    putPerfLong(Double.doubleToRawLongBits(value), slot);
   }
 
   /** Return the value of long perf. counter of given name. */
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   public final long getPerfLong(String name) {
-    ByteBuffer b = counters.get(name);
-    synchronized (b) {
-      long l = b.getLong();
-      b.rewind();
-      return l;
-    }
+    return getPerfLong(perfCounterSlot(name));
   }
 
-  /** Write the value of float perf. counter of given name. */
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  /** Return the value of long perf. counter in the given slot. */
+  public final long getPerfLong(int slot) {
+    return counters.getLong(slot);
+  }
+
+  /** Write the value of long perf. counter of given name. */
   public final void putPerfLong(long value, String name) {
-    ByteBuffer b = counters.get(name);
-    synchronized (b) {
-      b.putLong(value);
-      b.rewind();
-    }
+    putPerfLong(value, perfCounterSlot(name));
+  }
+
+  /** Write the value of long perf. counter in the given slot. */
+  public final void putPerfLong(long value, int slot) {
+    counters.putLong(slot, value);
   }
 
   /** Return the value of String perf. counter of given name. */
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   public final String getPerfString(String name) {
-    ByteBuffer b = counters.get(name);
-    byte[] buf = new byte[b.limit()];
-    byte t = 0;
-    int i = 0;
-    synchronized (b) {
-      while ((t = b.get()) != '\0') {
-        buf[i++] = t;
-      }
-      b.rewind();
-    }
-    return new String(buf, 0, i, StandardCharsets.UTF_8);
+    return getPerfString(perfCounterSlot(name));
   }
 
-  /** Write the value of float perf. counter of given name. */
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+  /** Return the value of String perf. counter in the given slot. */
+  public final String getPerfString(int slot) {
+    return counters.getString(slot);
+  }
+
+  /** Write the value of String perf. counter of given name. */
   public final void putPerfString(String value, String name) {
-    ByteBuffer b = counters.get(name);
-    byte[] v = getStringBytes(value);
-    synchronized (b) {
-      b.put(v);
-      b.rewind();
-    }
+    putPerfString(value, perfCounterSlot(name));
+  }
+
+  /** Write the value of String perf. counter in the given slot. */
+  public final void putPerfString(String value, int slot) {
+    counters.putString(slot, value);
   }
 
   private static final class ConsumerWrapper implements MessagePassingQueue.Consumer<Command> {
@@ -257,11 +327,23 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   private LowMemoryHandler[] lowMemoryHandlers;
 
   // map of client event handling methods
-  private Map<String, Method> eventHandlerMap;
+  private Map<String, MethodHandle> eventHandlerMap;
   private Map<String, LowMemoryHandler> lowMemoryHandlerMap;
 
-  // timer to run profile provider actions
-  private volatile Timer timer;
+  // registrations of the timer handlers in the shared scheduler
+  private volatile TimerScheduler.Registration[] timers;
+
+  // the CPU budget of the probe handlers in percent; 0 if unlimited
+  private double overheadBudget;
+  // throttles the probe handlers to the overhead budget, if any
+  private volatile OverheadGovernor governor;
+  private volatile TimerScheduler.Registration governorCheck;
+
+  // per-handler statistics; the handlers are registered even when the statistics are disabled
+  private final HandlerStats handlerStats = new HandlerStats();
+  private boolean handlerStatsEnabled;
+  private volatile boolean aggregationDataEnabled;
+  private volatile HandlerStats activeHandlerStats;
 
   // executer to run low memory handlers
   private volatile ExecutorService threadPool;
@@ -271,92 +353,10 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   // Command queue for the client
   private final CommandQueue queue;
 
-  private static class SpeculativeQueueManager {
-    // maximum number of speculative buffers
-    private static final int MAX_SPECULATIVE_BUFFERS = Short.MAX_VALUE;
-    // per buffer message limit
-    private static final int MAX_SPECULATIVE_MSG_LIMIT = Short.MAX_VALUE;
-    // next speculative buffer id
-    private int nextSpeculationId;
-    // speculative buffers map
-    private ConcurrentHashMap<Integer, MpmcArrayQueue<Command>> speculativeQueues;
-    // per thread current speculative buffer id
-    private ThreadLocal<Integer> currentSpeculationId;
-
-    SpeculativeQueueManager() {
-      speculativeQueues = new ConcurrentHashMap<>();
-      currentSpeculationId = new ThreadLocal<>();
-    }
-
-    void clear() {
-      speculativeQueues.clear();
-      speculativeQueues = null;
-      currentSpeculationId.remove();
-      currentSpeculationId = null;
-    }
-
-    int speculation() {
-      int nextId = getNextSpeculationId();
-      if (nextId != -1) {
-        speculativeQueues.put(nextId, new MpmcArrayQueue<>(MAX_SPECULATIVE_MSG_LIMIT));
-      }
-      return nextId;
-    }
-
-    boolean send(Command cmd) {
-      if (currentSpeculationId != null) {
-        Integer curId = currentSpeculationId.get();
-        if ((curId != null) && (cmd.getType() != Command.EXIT)) {
-          MpmcArrayQueue<Command> sb = speculativeQueues.get(curId);
-          if (sb != null) {
-            if (!sb.offer(cmd)) {
-              sb.clear();
-              sb.offer(new MessageCommand("speculative buffer overflow: " + curId));
-            }
-            return true;
-          }
-        }
-      }
-      return false;
-    }
-
-    void speculate(int id) {
-      validateId(id);
-      currentSpeculationId.set(id);
-    }
-
-    void commit(int id, CommandQueue result) {
-      validateId(id);
-      currentSpeculationId.set(null);
-      MpmcArrayQueue<Command> sb = speculativeQueues.get(id);
-      if (sb != null) {
-        result.addAll(sb);
-        sb.clear();
-      }
-    }
-
-    void discard(int id) {
-      validateId(id);
-      currentSpeculationId.set(null);
-      speculativeQueues.get(id).clear();
-    }
-
-    // -- Internals only below this point
-    private synchronized int getNextSpeculationId() {
-      if (nextSpeculationId == MAX_SPECULATIVE_BUFFERS) {
-        return -1;
-      }
-      return nextSpeculationId++;
-    }
-
-    private void validateId(int id) {
-      if (!speculativeQueues.containsKey(id)) {
-        throw new RuntimeException("invalid speculative buffer id: " + id);
-      }
-    }
-  }
-  // per client speculative buffer manager
-  private final SpeculativeQueueManager specQueueManager;
+  // per client speculative buffers
+  private final SpeculativeBuffers specBuffers;
+  // per client snapshot streams
+  private final Map<String, SnapshotEncoder> snapshotEncoders = new ConcurrentHashMap<>();
   // background thread that sends Commands to the handler
   private volatile Thread cmdThread;
   private final Instrumentation instrumentation;
@@ -384,7 +384,9 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   // interface to read perf counters of this process
   protected static final PerfReader perfReader = createPerfReaderImpl();
   // performance counters created by this client
-  protected static final Map<String, ByteBuffer> counters = new HashMap<>();
+  protected static final PerfCounterSlots counters = new PerfCounterSlots();
+  // the interned stack frames captured by all clients
+  protected static final StackFrameRegistry stackFrames = new StackFrameRegistry();
 
   private static final BTraceRuntimeImplFactory<BTraceRuntime.Impl> factory = null;
 
@@ -396,7 +398,7 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   BTraceRuntimeImplBase() {
     args = null;
     queue = null;
-    specQueueManager = null;
+    specBuffers = null;
     className = null;
     instrumentation = null;
   }
@@ -405,7 +407,7 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
       String className, ArgsMap args, CommandListener cmdListener, Instrumentation inst) {
     this.args = args;
     queue = new CommandQueue(CMD_QUEUE_LIMIT);
-    specQueueManager = new SpeculativeQueueManager();
+    specBuffers = new SpeculativeBuffers();
     this.className = className;
     instrumentation = inst;
 
@@ -420,7 +422,7 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
                     new ConsumerWrapper(cmdListener, exitting), waitStrategy, exitCondition);
               } finally {
                 queue.clear();
-                specQueueManager.clear();
+                specBuffers.clear();
                 leave();
                 disabled = true;
               }
@@ -501,19 +503,27 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
    */
   public final void start() {
     initMBeans();
+    startGovernor();
+    startHandlerStats();
     if (timerHandlers != null) {
-      timer = new Timer(true);
-      TimerTask[] timerTasks = new TimerTask[timerHandlers.length];
-      wrapToTimerTasks(timerTasks);
+      TimerScheduler scheduler = TimerScheduler.getInstance();
+      TimerScheduler.Registration[] registrations =
+          new TimerScheduler.Registration[timerHandlers.length];
       for (int index = 0; index < timerHandlers.length; index++) {
         TimerHandler th = timerHandlers[index];
+        MethodHandle handler = bindHandler(th);
+        if (handler == null) {
+          continue;
+        }
         long period = th.period;
         String periodArg = th.periodArg;
         if (periodArg != null) {
           period = BTraceRuntime.parseLong(args.template(periodArg), period);
         }
-        timer.schedule(timerTasks[index], period, period);
+        registrations[index] =
+            scheduler.schedule(className + "." + th.method, handler, period, this::send);
       }
+      timers = registrations;
     }
 
     if (lowMemoryHandlers != null) {
@@ -538,6 +548,139 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
     leave();
   }
 
+  @Override
+  public final void setOverheadBudget(double percent) {
+    overheadBudget = percent;
+  }
+
+  final OverheadGovernor getGovernor() {
+    return governor;
+  }
+
+  @Override
+  public final void setHandlerStatsEnabled(boolean enabled) {
+    handlerStatsEnabled = enabled;
+  }
+
+  @Override
+  public final void setAggregationDataEnabled(boolean enabled) {
+    aggregationDataEnabled = enabled;
+  }
+
+  @Override
+  public final boolean isAggregationDataEnabled() {
+    return aggregationDataEnabled;
+  }
+
+  final HandlerStats getActiveHandlerStats() {
+    return activeHandlerStats;
+  }
+
+  @Override
+  public final HandlerStatsCommand getHandlerStats() {
+    List<HandlerStatsCommand.Entry> entries = new ArrayList<>();
+    if (activeHandlerStats != null) {
+      for (Object[] row : activeHandlerStats.getRows()) {
+        entries.add(
+            new HandlerStatsCommand.Entry(
+                (String) row[0], (Long) row[1], (Long) row[2], (Long) row[3], (Long) row[4]));
+      }
+    }
+    return new HandlerStatsCommand(entries);
+  }
+
+  private void startHandlerStats() {
+    if (!handlerStatsEnabled) {
+      return;
+    }
+    activeHandlerStats = handlerStats;
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(handlerStats, handlerStatsName());
+    } catch (Exception e) {
+      log.debug("Unable to register the handler statistics MBean", e);
+    }
+  }
+
+  private void stopHandlerStats() {
+    if (activeHandlerStats == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(handlerStatsName());
+    } catch (Exception e) {
+      log.debug("Unable to unregister the handler statistics MBean", e);
+    }
+  }
+
+  private ObjectName handlerStatsName() throws MalformedObjectNameException {
+    return new ObjectName("btrace:type=HandlerStats,name=" + ObjectName.quote(className));
+  }
+
+  private void startGovernor() {
+    if (overheadBudget <= 0) {
+      return;
+    }
+    int initialLevel = level != null ? getLevel() : 0;
+    OverheadGovernor g =
+        new OverheadGovernor(
+            overheadBudget,
+            Runtime.getRuntime().availableProcessors(),
+            new OverheadGovernor.Control() {
+              @Override
+              public boolean lowerLevel() {
+                if (level == null) {
+                  return false;
+                }
+                int current = getLevel();
+                if (current <= 0) {
+                  return false;
+                }
+                setLevel(current - 1);
+                return true;
+              }
+
+              @Override
+              public boolean restoreLevel() {
+                if (level == null) {
+                  return false;
+                }
+                int current = getLevel();
+                if (current >= initialLevel) {
+                  return false;
+                }
+                setLevel(current + 1);
+                return true;
+              }
+
+              @Override
+              public int getLevel() {
+                return BTraceRuntimeImplBase.this.getLevel();
+              }
+
+              @Override
+              public void report(String msg) {
+                log.info(msg.trim());
+                send(msg);
+              }
+            });
+    try {
+      MethodHandle check =
+          MethodHandles.lookup()
+              .findVirtual(OverheadGovernor.class, "check", MethodType.methodType(void.class))
+              .bindTo(g);
+      governorCheck =
+          TimerScheduler.getInstance()
+              .schedule(className + " overhead governor", check, OverheadGovernor.CHECK_PERIOD);
+      governor = g;
+      if (log.isDebugEnabled()) {
+        log.debug("{} probe overhead budget is {}% of CPU", className, overheadBudget);
+      }
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      log.warn("Unable to enforce the probe overhead budget", e);
+    }
+  }
+
   @Override
   public final void handleEvent(EventCommand ecmd) {
     if (eventHandlers != null) {
@@ -546,20 +689,24 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
         for (EventHandler eh : eventHandlers) {
           try {
             String eventName = args.template(eh.getEvent());
-            eventHandlerMap.put(eventName, eh.getMethod(clazz));
-          } catch (NoSuchMethodException ignored) {
+            eventHandlerMap.put(eventName, TimerScheduler.bind(eh.getMethod(clazz)));
+          } catch (NoSuchMethodException | IllegalAccessException ignored) {
           }
         }
       }
       String event = ecmd.getEvent();
       event = event != null ? event : EventHandler.ALL_EVENTS;
 
-      Method eventHandler = eventHandlerMap.get(event);
+      MethodHandle eventHandler = eventHandlerMap.get(event);
       if (eventHandler != null) {
         BTraceRuntimeAccess.doWithCurrent(
             (Callable<Void>)
                 () -> {
-                  eventHandler.invoke(null, (Object[]) null);
+                  try {
+                    eventHandler.invokeExact();
+                  } catch (Throwable t) {
+                    handleException(t);
+                  }
                   return null;
                 });
       }
@@ -617,7 +764,8 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
           for (ErrorHandler eh : errorHandlers) {
             try {
               eh.getMethod(clazz).invoke(null, th);
-            } catch (Throwable ignored) {
+            } catch (Throwable t) {
+              log.debug("@OnError handler {}.{} failed", className, eh.method, t);
             }
           }
         } else {
@@ -637,22 +785,22 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   @Override
   public final int speculation() {
-    return specQueueManager.speculation();
+    return specBuffers.speculation();
   }
 
   @Override
   public final void speculate(int id) {
-    specQueueManager.speculate(id);
+    specBuffers.speculate(id);
   }
 
   @Override
   public final void discard(int id) {
-    specQueueManager.discard(id);
+    specBuffers.discard(id);
   }
 
   @Override
   public final void commit(int id) {
-    specQueueManager.commit(id, queue);
+    specBuffers.commit(id, this::enqueue);
   }
 
   @Override
@@ -701,6 +849,11 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
     return getPerfReader().perfString(name);
   }
 
+  @Override
+  public final void perfLongs(String[] names, long[] values) {
+    getPerfReader().perfLongs(names, values);
+  }
+
   @Override
   public final String toXML(Object obj) {
     try {
@@ -714,16 +867,17 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   @Override
   public final void writeXML(Object obj, String fileName) {
-    try {
-      Path p = FileSystems.getDefault().getPath(resolveFileName(fileName));
-      try (BufferedWriter bw = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
-        XMLSerializer.write(obj, bw);
-      }
-    } catch (RuntimeException re) {
-      throw re;
-    } catch (Exception exp) {
-      throw new RuntimeException(exp);
-    }
+    Path p = FileSystems.getDefault().getPath(resolveFileName(fileName));
+    dump(
+        () -> {
+          try (BufferedWriter bw = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
+            XMLSerializer.write(obj, bw, XML_DEPTH_LIMIT, XML_NODE_LIMIT);
+          } catch (RuntimeException re) {
+            throw re;
+          } catch (Exception exp) {
+            throw new RuntimeException(exp);
+          }
+        });
   }
 
   private static synchronized void initDOTWriterProps() {
@@ -753,11 +907,43 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   @Override
   public final void writeDOT(Object obj, String fileName) {
-    DOTWriter writer = new DOTWriter(resolveFileName(fileName));
+    String resolvedName = resolveFileName(fileName);
     initDOTWriterProps();
-    writer.customize(dotWriterProps);
-    writer.addNode(null, obj);
-    writer.close();
+    dump(
+        () -> {
+          DOTWriter writer = new DOTWriter(resolvedName);
+          try {
+            writer.customize(dotWriterProps);
+            writer.addNode(null, obj);
+          } finally {
+            writer.close();
+          }
+        });
+  }
+
+  /**
+   * Runs an object graph dump either in the calling thread or, if {@linkplain #ASYNC_DUMP} is
+   * enabled, in the BTrace worker thread so the traced thread is not stalled by the traversal.
+   */
+  private void dump(Runnable task) {
+    if (!ASYNC_DUMP) {
+      task.run();
+      return;
+    }
+    getThreadPool()
+        .submit(
+            () -> {
+              boolean entered = enter();
+              try {
+                task.run();
+              } catch (Throwable th) {
+                handleException(th);
+              } finally {
+                if (entered) {
+                  leave();
+                }
+              }
+            });
   }
 
   // profiling related methods
@@ -813,7 +999,7 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   @Override
   public final boolean enter() {
-    return BTraceRuntimeAccess.enter(this);
+    return BTraceRuntimeAccess.enterUngoverned(this);
   }
 
   @Override
@@ -910,7 +1096,10 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
     return BTraceRuntimeAccess.getCurrent();
   }
 
-  private void initThreadPool() {
+  private synchronized void initThreadPool() {
+    if (threadPool != null) {
+      return;
+    }
     threadPool =
         Executors.newFixedThreadPool(
             1,
@@ -921,6 +1110,13 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
             });
   }
 
+  private ExecutorService getThreadPool() {
+    if (threadPool == null) {
+      initThreadPool();
+    }
+    return threadPool;
+  }
+
   /** Must be called exactly once before the runtime starts */
   private synchronized void initMBeans() {
     if (shouldInitializeMBeans) {
@@ -985,46 +1181,105 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
 
   @Override
   public final void send(Command cmd) {
-    boolean speculated = specQueueManager.send(cmd);
+    boolean speculated = specBuffers.send(cmd);
     if (!speculated) {
       enqueue(cmd);
     }
   }
 
-  private void enqueue(Command cmd) {
-    if (queue != null) {
-      queue.enqueue(cmd);
+  @Override
+  public int captureStack(int skip, int[] frames, int maxFrames) {
+    // the baseline implementation; materializes the whole stack
+    StackTraceElement[] st = new Throwable().getStackTrace();
+    // skip this method frame as well
+    int from = Math.min(skip + 1, st.length);
+    int to = (int) Math.min((long) from + Math.max(maxFrames, 0), st.length);
+    for (int i = from; i < to; i++) {
+      frames[i - from] = stackFrames.intern(st[i]);
     }
+    return to - from;
   }
 
-  private void wrapToTimerTasks(TimerTask[] tasks) {
-    for (int index = 0; index < timerHandlers.length; index++) {
-      TimerHandler th = timerHandlers[index];
-      tasks[index] =
-          new TimerTask() {
-            final Method mthd;
+  @Override
+  public final String stackTraceStr(String prefix, int[] frames, int numFrames) {
+    return StackTraceCommand.render(stackFrames, prefix, frames, numFrames, false);
+  }
 
-            {
-              Method m = null;
-              try {
-                m = th.getMethod(clazz);
-              } catch (Throwable t) {
-                t.printStackTrace();
-              }
-              mthd = m;
-            }
+  @Override
+  public final SnapshotEncoder snapshotEncoder(String name) {
+    return snapshotEncoders.computeIfAbsent(name != null ? name : "", SnapshotEncoder::new);
+  }
 
-            @Override
-            public void run() {
-              if (mthd != null) {
-                try {
-                  mthd.invoke(null, (Object[]) null);
-                } catch (Throwable th) {
-                  th.printStackTrace();
-                }
-              }
-            }
-          };
+  @Override
+  public final String collapsedStackStr(int[] frames) {
+    StringBuilder sb = new StringBuilder(frames.length * 48);
+    for (int i = frames.length - 1; i >= 0; i--) {
+      StackTraceElement e = stackFrames.element(frames[i]);
+      if (e == null) {
+        continue;
+      }
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append(e.getClassName()).append('.').append(e.getMethodName());
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public final void printf(String format, Object[] args) {
+    send(new FormattedMessageCommand(messageTimestamp ? System.nanoTime() : 0L, format, args));
+  }
+
+  /**
+   * Creates the message the preprocessed {@code printf} call sites capture their arguments into.
+   * The message is sent by {@linkplain #send(Command)} once all the arguments are captured.
+   *
+   * @param format the format
+   * @param types the type descriptor characters of the arguments
+   * @return a new formatted message
+   */
+  public final FormattedMessageCommand newFormattedMessage(String format, String types) {
+    return new FormattedMessageCommand(messageTimestamp ? System.nanoTime() : 0L, format, types);
+  }
+
+  @Override
+  public final void stackTrace(int skip, int numFrames) {
+    // one more frame tells whether the stack is truncated without walking the rest of it
+    int maxFrames = numFrames < Integer.MAX_VALUE ? numFrames + 1 : numFrames;
+    int[] frames = new int[maxFrames];
+    // skip this method frame as well
+    int captured = captureStack(skip + 1, frames, maxFrames);
+    boolean truncated = captured > numFrames;
+    if (captured != frames.length || truncated) {
+      frames = Arrays.copyOf(frames, Math.min(captured, numFrames));
+    }
+    send(
+        new StackTraceCommand(
+            messageTimestamp ? System.nanoTime() : 0L, stackFrames, null, frames, truncated));
+  }
+
+  private void enqueue(Command cmd) {
+    if (queue != null && !queue.enqueue(cmd)) {
+      BTraceRuntimeAccess.messageDropped();
+    }
+  }
+
+  private MethodHandle bindHandler(TimerHandler th) {
+    try {
+      MethodHandle handler = TimerScheduler.bind(th.getMethod(clazz));
+      // route anything escaping the handler through the probe exception handling
+      MethodHandle onError =
+          MethodHandles.lookup()
+              .findVirtual(
+                  BTraceRuntimeImplBase.class,
+                  "handleException",
+                  MethodType.methodType(void.class, Throwable.class))
+              .bindTo(this);
+      return MethodHandles.catchException(handler, Throwable.class, onError);
+    } catch (Throwable t) {
+      t.printStackTrace();
+      return null;
     }
   }
 
@@ -1036,9 +1291,21 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   private synchronized void exitImpl(int exitCode) {
     boolean entered = enter();
     try {
-      if (timer != null) {
-        timer.cancel();
+      TimerScheduler.Registration[] registrations = timers;
+      if (registrations != null) {
+        for (TimerScheduler.Registration r : registrations) {
+          if (r != null) {
+            r.cancel();
+          }
+        }
+        timers = null;
+      }
+      TimerScheduler.Registration check = governorCheck;
+      if (check != null) {
+        check.cancel();
+        governorCheck = null;
       }
+      stopHandlerStats();
 
       if (memoryListener != null && memoryMBean != null) {
         NotificationEmitter emitter = (NotificationEmitter) memoryMBean;
@@ -1056,7 +1323,8 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
         for (ExitHandler eh : exitHandlers) {
           try {
             eh.getMethod(clazz).invoke(null, exitCode);
-          } catch (Throwable ignored) {
+          } catch (Throwable t) {
+            log.debug("@OnExit handler {}.{} failed", className, eh.method, t);
           }
         }
         exitHandlers = null;
@@ -1211,11 +1479,12 @@ public abstract class BTraceRuntimeImplBase implements BTraceRuntime.Impl, Runti
   private static PerfReader createPerfReaderImpl() {
     // see if we can access any jvmstat class
     try {
-      if (String.class.getResource("sun/jvmstat/monitor/MonitoredHost.class") != null) {
-        return (PerfReader)
-            Class.forName("org.openjdk.btrace.agent.PerfReaderImpl")
-                .getDeclaredConstructor()
-                .newInstance();
+      // must be an absolute lookup - the resource name is not relative to any class package
+      if (ClassLoader.getSystemResource("sun/jvmstat/monitor/MonitoredHost.class") != null) {
+        Constructor<?> c =
+            Class.forName("org.openjdk.btrace.agent.PerfReaderImpl").getDeclaredConstructor();
+        c.setAccessible(true);
+        return (PerfReader) c.newInstance();
       }
     } catch (Exception exp) {
       // can happen if jvmstat is not available
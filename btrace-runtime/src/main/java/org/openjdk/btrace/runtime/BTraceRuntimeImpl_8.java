@@ -36,7 +36,9 @@ import org.openjdk.btrace.core.ArgsMap;
 import org.openjdk.btrace.core.BTraceRuntime;
 import org.openjdk.btrace.core.comm.CommandListener;
 import org.openjdk.btrace.core.jfr.JfrEvent;
+import sun.misc.JavaLangAccess;
 import sun.misc.Perf;
+import sun.misc.SharedSecrets;
 import sun.misc.Unsafe;
 import sun.reflect.CallerSensitive;
 import sun.reflect.Reflection;
@@ -165,7 +167,7 @@ public final class BTraceRuntimeImpl_8 extends BTraceRuntimeImplBase {
           long initValue = (value != null) ? ((Number) value).longValue() : 0L;
           ByteBuffer b = perf.createLong(name, V_Variable, V_None, initValue);
           b.order(ByteOrder.nativeOrder());
-          counters.put(name, b);
+          counters.registerLong(name, b);
         }
         break;
 
@@ -182,7 +184,7 @@ public final class BTraceRuntimeImpl_8 extends BTraceRuntimeImplBase {
               buf[0] = '\0';
             }
             ByteBuffer b = perf.createByteArray(name, V_Variable, V_String, buf, buf.length);
-            counters.put(name, b);
+            counters.registerString(name, b);
           }
         }
         break;
@@ -200,6 +202,21 @@ public final class BTraceRuntimeImpl_8 extends BTraceRuntimeImplBase {
     return Reflection.getCallerClass(stackDec + 1);
   }
 
+  @Override
+  public int captureStack(int skip, int[] frames, int maxFrames) {
+    // resolve only the requested stack trace elements instead of the whole stack
+    Throwable t = new Throwable();
+    JavaLangAccess jla = SharedSecrets.getJavaLangAccess();
+    int depth = jla.getStackTraceDepth(t);
+    // skip this method frame as well
+    int from = Math.min(skip + 1, depth);
+    int to = (int) Math.min((long) from + Math.max(maxFrames, 0), depth);
+    for (int i = from; i < to; i++) {
+      frames[i - from] = stackFrames.intern(jla.getStackTraceElement(t, i));
+    }
+    return to - from;
+  }
+
   @Override
   public JfrEvent.Factory createEventFactory(JfrEvent.Template template) {
     if (hasJfr) {
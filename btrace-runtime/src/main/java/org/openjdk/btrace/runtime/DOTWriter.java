@@ -25,19 +25,23 @@
 
 package org.openjdk.btrace.runtime;
 
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -80,8 +84,10 @@ import java.util.regex.Pattern;
  * file, and should have the .dot extension. <br>
  * <br>
  * public void close(); <br>
- * This method writes the graph to the file stream and closes out the graph. Any further operations
- * will be ignored. <br>
+ * This method closes out the graph and the file stream. Any further operations will be ignored.
+ * <br>
+ * The nodes and edges are written to the file stream as soon as they are processed; only the
+ * objects waiting to be processed are retained by the writer. <br>
  * <br>
  * public static void graph(String fileName, Object... objects); <br>
  * All-in-one graph objects. Specify which objects you want graphed. If an object argument is a
@@ -117,6 +123,14 @@ import java.util.regex.Pattern;
  * The maximum number of slots to display for an array (default=32.) Having a lower limit speeds up
  * the processing of the graph. <br>
  * <br>
+ * public void nodeLimit(int nodeLimit); <br>
+ * The maximum number of nodes in the graph (default=unlimited.) References to objects over this
+ * limit are not followed. <br>
+ * <br>
+ * public void depthLimit(int depthLimit); <br>
+ * The maximum distance of a displayed object from the object it was reached from via {@code
+ * addNode} (default=unlimited.) Objects deeper than this limit are displayed truncated. <br>
+ * <br>
  * public void stringLimit(int stringLimit); <br>
  * The maximum length of a string to display (default=32.) Having a lower limit speeds up the
  * processing of the graph. <br>
@@ -171,20 +185,26 @@ public class DOTWriter {
   private int fieldLimit = 64;
   // Maximum number of array entries displayed.
   private int arrayLimit = 32;
-  // Map of visited objects.
-  private final Map<Object, Node> visited = new IdentityHashMap<>();
+  // Maximum number of nodes in the graph.
+  private int nodeLimit = Integer.MAX_VALUE;
+  // Maximum depth of detailed nodes.
+  private int depthLimit = Integer.MAX_VALUE;
+  // Map of visited objects to their node ids.
+  private final IdentityIntMap visited = new IdentityIntMap(1024);
   // Graph properties.
   private final Properties graphProperties = new Properties();
   // Default node properties.
   private final Properties nodeProperties = new Properties();
   // Default edge properties.
   private final Properties edgeProperties = new Properties();
-  // List of nodes.
-  private final List<Node> nodes = new ArrayList<>();
-  // List of edges.
-  private final List<Edge> edges = new ArrayList<>();
+  // Nodes waiting to be processed.
+  private final Deque<Node> pending = new ArrayDeque<>();
+  // Number of nodes in the graph.
+  private int nodeCount = 0;
+  // Number of edges in the graph.
+  private int edgeCount = 0;
   // Output stream.
-  private PrintStream dotStream;
+  private Writer dotStream;
   // True if filters are active.
   private boolean filtering = false;
   // Include set of instances.
@@ -208,7 +228,7 @@ public class DOTWriter {
 
   public DOTWriter(String fileName) {
     try {
-      dotStream = new PrintStream(fileName);
+      dotStream = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8);
     } catch (Throwable ignored) {
     }
 
@@ -216,6 +236,8 @@ public class DOTWriter {
     graphProperties.addProperties(GRAPHDEFAULTS);
     nodeProperties.addProperties(NODEDEFAULTS);
     edgeProperties.addProperties(EDGEDEFAULTS);
+
+    writeGraphHeader();
   }
 
   // All-in-one graph objects.  Specify which objects you want graphed.
@@ -301,6 +323,14 @@ public class DOTWriter {
     if (prop != null) {
       arrayLimit(Integer.parseInt(prop));
     }
+    prop = props.getProperty(DOTWRITER_PREFIX + "nodeLimit");
+    if (prop != null) {
+      nodeLimit(Integer.parseInt(prop));
+    }
+    prop = props.getProperty(DOTWRITER_PREFIX + "depthLimit");
+    if (prop != null) {
+      depthLimit(Integer.parseInt(prop));
+    }
     prop = props.getProperty(DOTWRITER_PREFIX + "expandCollections");
     if (prop != null) {
       expandCollections(Boolean.parseBoolean(prop));
@@ -344,15 +374,28 @@ public class DOTWriter {
     // No primitive types in the graph.
     if (isPrimitive(object)) return;
 
-    // Capture where to continue graphing.
-    int index = nodes.size();
+    // Nodes referenced only by explicit edges are not graphed in detail.
+    pending.clear();
     // Add the new node or get the existing one.
-    Node newNode = getNode(object);
+    Node newNode = getNode(object, 0);
+    if (newNode == null) return;
+
+    // Add properties to the node if present.
+    if (propertyString != null) {
+      if (pending.peekFirst() == newNode) {
+        newNode.addProperties(propertyString);
+      } else {
+        // The node has already been written; amend its properties.
+        Node amended = new Node(newNode.id, object, 0);
+        amended.addProperties(propertyString);
+        writeNode(amended);
+      }
+    }
 
     // While the node list is not exhausted.
-    for (; index < nodes.size(); index++) {
-      // get the next node.
-      Node node = nodes.get(index);
+    Node node;
+    while ((node = pending.pollFirst()) != null) {
+      int index = node.id;
       // Get the node object.
       object = node.object;
       // Get the object class.
@@ -363,7 +406,7 @@ public class DOTWriter {
       // If the object is an array.
       if (clazz.isArray()) {
         // Display detail if under object limit and not excluded.
-        if (index < arrayLimit && shouldDetail(object)) {
+        if (index < arrayLimit && node.depth < depthLimit && shouldDetail(object)) {
           addArrayDetail(object, node);
         } else {
           // Indicate there is more than displayed.
@@ -371,7 +414,7 @@ public class DOTWriter {
         }
       } else {
         // Display detail if under object limit and not excluded.
-        if (index < objectLimit && shouldDetail(object)) {
+        if (index < objectLimit && node.depth < depthLimit && shouldDetail(object)) {
           if (!expandCollections && object instanceof Collection) {
             // Display collection as an array of enties.
             addCollectionDetail(object, clazz, node);
@@ -390,11 +433,8 @@ public class DOTWriter {
           addContinuation(node);
         }
       }
-    }
-
-    // Add properties to the node if present.
-    if (propertyString != null) {
-      newNode.addProperties(propertyString);
+      // The node is complete; stream it out.
+      writeNode(node);
     }
   }
 
@@ -413,6 +453,16 @@ public class DOTWriter {
     this.arrayLimit = arrayLimit;
   }
 
+  // Set maximum number of nodes in the graph.
+  public void nodeLimit(int nodeLimit) {
+    this.nodeLimit = nodeLimit;
+  }
+
+  // Set maximum depth of detailed nodes.
+  public void depthLimit(int depthLimit) {
+    this.depthLimit = depthLimit;
+  }
+
   // Set maximum number of string characters displayed
   public void stringLimit(int stringLimit) {
     dotWriterFormatter.stringLimit(stringLimit);
@@ -482,7 +532,7 @@ public class DOTWriter {
 
   public void addEdge(
       Object head, int headFieldId, Object tail, int tailFieldId, String propertyString) {
-    addEdge(getNode(head), headFieldId, getNode(tail), tailFieldId, propertyString);
+    addEdge(getNode(head, 0), headFieldId, getNode(tail, 0), tailFieldId, propertyString);
   }
 
   private void addEdge(Node head, int headFieldId, Node tail, int tailFieldId) {
@@ -492,10 +542,14 @@ public class DOTWriter {
   // Write the graph and close the dot file.
   public void close() {
     if (dotStream != null) {
-      writeGraph();
-      dotStream.close();
+      print("}\n");
+      try {
+        dotStream.close();
+      } catch (IOException ignored) {
+      }
       dotStream = null;
     }
+    pending.clear();
   }
 
   // Return true if the object is a primitive type.
@@ -506,62 +560,76 @@ public class DOTWriter {
         || object instanceof String;
   }
 
-  // Write the graph to the stream.
-  private void writeGraph() {
-    dotStream.println("digraph g {");
+  // Write the graph header to the stream.
+  private void writeGraphHeader() {
+    StringBuilder sb = new StringBuilder("digraph g {\n");
 
-    dotStream.print(" graph ");
-    graphProperties.writeProperties(dotStream);
-    dotStream.println(";");
+    sb.append(" graph ");
+    graphProperties.writeProperties(sb);
+    sb.append(";\n");
 
-    dotStream.print(" node ");
-    nodeProperties.writeProperties(dotStream);
-    dotStream.println(";");
+    sb.append(" node ");
+    nodeProperties.writeProperties(sb);
+    sb.append(";\n");
 
-    dotStream.print(" edge ");
-    edgeProperties.writeProperties(dotStream);
-    dotStream.println(";");
+    sb.append(" edge ");
+    edgeProperties.writeProperties(sb);
+    sb.append(";\n");
 
-    for (Node node : nodes) {
-      dotStream.print(" node" + node.id + " ");
-      node.writeProperties(dotStream);
-      dotStream.println(";");
-    }
+    print(sb);
+  }
 
-    for (Edge edge : edges) {
-      dotStream.print(
-          " node" + edge.head.id + (edge.headFieldId < 0 ? ":f" : ":f" + edge.headFieldId));
-      dotStream.print(" -> ");
-      dotStream.print(
-          " node" + edge.tail.id + (edge.tailFieldId < 0 ? ":f" : ":f" + edge.tailFieldId));
-      dotStream.print(" ");
-      edge.writeProperties(dotStream);
-      dotStream.println(";");
-    }
+  // Write a completely processed node to the stream.
+  private void writeNode(Node node) {
+    StringBuilder sb = new StringBuilder(" node").append(node.id).append(' ');
+    node.writeProperties(sb);
+    sb.append(";\n");
+    print(sb);
+  }
 
-    dotStream.println("}");
+  // Write an edge to the stream.
+  private void writeEdge(Edge edge) {
+    StringBuilder sb = new StringBuilder(" node").append(edge.head.id).append(":f");
+    if (edge.headFieldId >= 0) sb.append(edge.headFieldId);
+    sb.append(" ->  node").append(edge.tail.id).append(":f");
+    if (edge.tailFieldId >= 0) sb.append(edge.tailFieldId);
+    sb.append(' ');
+    edge.writeProperties(sb);
+    sb.append(";\n");
+    print(sb);
+  }
+
+  private void print(CharSequence text) {
+    if (dotStream == null) return;
+    try {
+      dotStream.append(text);
+    } catch (IOException e) {
+      // Stop writing; the graph can not be completed anyway.
+      try {
+        dotStream.close();
+      } catch (IOException ignored) {
+      }
+      dotStream = null;
+    }
   }
 
   // Add an object to the node work list.
-  private Node getNode(Object object) {
+  private Node getNode(Object object, int depth) {
     // Don't add nulls to graph.
     if (object == null) return null;
 
-    // Some object types fail mapping.
-    Node node = null;
-    try {
-      node = visited.get(object);
-    } catch (Throwable ex) {
-      return null;
-    }
-
-    // If the node is not found add one.
-    if (node == null) {
-      node = new Node(nodes.size(), object);
-      nodes.add(node);
-      visited.put(object, node);
+    int id = visited.get(object);
+    if (id != IdentityIntMap.NOT_FOUND) {
+      // Already graphed; a transient handle is enough to reference it.
+      return new Node(id, object, depth);
     }
+    // Stop growing the graph over the node limit.
+    if (nodeCount >= nodeLimit) return null;
 
+    // The node is not found; add one.
+    Node node = new Node(nodeCount++, object, depth);
+    visited.putIfAbsent(object, node.id);
+    pending.addLast(node);
     return node;
   }
 
@@ -616,11 +684,11 @@ public class DOTWriter {
     if (tailFieldId > getLimit(tail) && tail.id >= objectLimit) tailFieldId = -1;
 
     // Create edge.
-    Edge edge = new Edge(edges.size(), head, headFieldId, tail, tailFieldId);
+    Edge edge = new Edge(edgeCount++, head, headFieldId, tail, tailFieldId);
     // Add properties if present.
     if (propertyString != null) edge.addProperties(propertyString);
-    // Add to edge list.
-    edges.add(edge);
+    // Stream it out; the tail node may be written later.
+    writeEdge(edge);
   }
 
   // Return the field/slot limit for a node's object.
@@ -694,7 +762,7 @@ public class DOTWriter {
     Field[] fields = getFields(clazz);
 
     if (displayStatics && fields.length != 0) {
-      addEdge(node, -1, getNode(clazz), -1);
+      addEdge(node, -1, getNode(clazz, node.depth + 1), -1);
     }
 
     for (int index = 0; index < fields.length && index < fieldLimit; index++) {
@@ -711,7 +779,7 @@ public class DOTWriter {
 
       // If linking to another object then add edge.
       if (displayLinks && !format.isSimple) {
-        addEdge(node, index, getNode(value), -1);
+        addEdge(node, index, getNode(value, node.depth + 1), -1);
       }
     }
 
@@ -739,7 +807,7 @@ public class DOTWriter {
 
       // If linking to another object then add edge.
       if (displayLinks && !format.isSimple) {
-        addEdge(node, index, getNode(value), -1);
+        addEdge(node, index, getNode(value, node.depth + 1), -1);
       }
     }
 
@@ -783,7 +851,7 @@ public class DOTWriter {
 
         // If linking to another object then add edge.
         if (displayLinks && !format.isSimple) {
-          addEdge(node, index, getNode(value), -1);
+          addEdge(node, index, getNode(value, node.depth + 1), -1);
         }
       }
     }
@@ -820,8 +888,8 @@ public class DOTWriter {
 
   // This class maintains properties.
   static class Properties {
-    // Property map.
-    private final Map<String, String> properties = new HashMap<>();
+    // Property map; the extended values are kept in a builder.
+    private final Map<String, CharSequence> properties = new HashMap<>();
 
     // Adds a new property to the map.
     void addProperty(String key, String value) {
@@ -850,41 +918,44 @@ public class DOTWriter {
     // Adds new information to a property.
     void extendProperty(String key, String extension) {
       // Get existing property
-      String value = getProperty(key);
-      // If no property exists then start one.
-      if (value == null) value = "";
-      // Add the extension to the value.
-      value += extension;
-      // Update the property.
-      addProperty(key, value);
+      CharSequence value = properties.get(key);
+      if (value instanceof StringBuilder) {
+        // Add the extension to the value.
+        ((StringBuilder) value).append(extension);
+      } else {
+        // If no property exists then start one.
+        StringBuilder sb = value != null ? new StringBuilder(value) : new StringBuilder();
+        // Update the property.
+        properties.put(key, sb.append(extension));
+      }
     }
 
     // Return the value of the property, null if not found.
     String getProperty(String key) {
-      return properties.get(key);
+      CharSequence value = properties.get(key);
+      return value != null ? value.toString() : null;
     }
 
-    // Write properties to a stream in the form "[key=value, ..., key=value]".
-    void writeProperties(PrintStream dotStream) {
+    // Write properties to a buffer in the form "[key=value, ..., key=value]".
+    void writeProperties(StringBuilder sb) {
       // Only if there are properties.
       if (!properties.isEmpty()) {
-        dotStream.print("[");
+        sb.append("[");
 
         String comma = "";
-        for (String key : properties.keySet()) {
-          String value = properties.get(key);
+        for (Map.Entry<String, CharSequence> entry : properties.entrySet()) {
+          String value = entry.getValue().toString();
 
+          sb.append(comma).append(entry.getKey());
           // true properties don't require a value.
-          if (value.equals("true")) {
-            dotStream.print(comma + key);
-          } else {
-            dotStream.print(comma + key + "=" + escapeString(value));
+          if (!value.equals("true")) {
+            sb.append("=").append(escapeString(value));
           }
 
           comma = ", ";
         }
 
-        dotStream.print("]");
+        sb.append("]");
       }
     }
   }
@@ -903,10 +974,13 @@ public class DOTWriter {
   static class Node extends Element {
     // Subject of the node.
     final Object object;
+    // Distance from the object the node was reached from.
+    final int depth;
 
-    Node(int id, Object object) {
+    Node(int id, Object object, int depth) {
       super(id);
       this.object = object;
+      this.depth = depth;
     }
   }
 
@@ -0,0 +1,164 @@
+package org.openjdk.btrace.runtime;
+
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import org.openjdk.btrace.core.comm.MessageCommand;
+
+/**
+ * A message carrying a format and its captured arguments.
+ *
+ * <p>The text is formatted only when the command is being sent or printed - which happens on the
+ * command thread rather than on the application thread executing the probe.
+ *
+ * <p>The preprocessed {@code printf} call sites capture up to {@linkplain #MAX_ARGS} arguments
+ * directly into the fields of the command, one {@code arg(...)} call per argument - the primitive
+ * values are neither boxed nor collected into an array. Their original types are kept in the type
+ * tags passed to {@linkplain BTraceRuntimeImplBase#newFormattedMessage(String, String)} - one JVM
+ * type descriptor character per argument, with {@code L} standing for any reference.
+ */
+public final class FormattedMessageCommand extends MessageCommand {
+  /** The maximum number of the arguments captured into the fields of the command */
+  public static final int MAX_ARGS = 6;
+
+  private final String format;
+  private final String types;
+  private final Object[] args;
+  private String rendered;
+
+  private int size;
+  private long v0, v1, v2, v3, v4, v5;
+  private Object o0, o1, o2, o3, o4, o5;
+
+  FormattedMessageCommand(long time, String format, Object[] args) {
+    super(time, null);
+    this.format = format;
+    this.types = null;
+    this.args = args;
+  }
+
+  FormattedMessageCommand(long time, String format, String types) {
+    super(time, null);
+    this.format = format;
+    this.types = types;
+    this.args = null;
+  }
+
+  /**
+   * Captures the next argument of a primitive integral, {@code char} or {@code boolean} type
+   *
+   * @param value the value widened to {@code long}
+   * @return this command
+   */
+  public FormattedMessageCommand arg(long value) {
+    capture(value, null);
+    return this;
+  }
+
+  /**
+   * Captures the next argument of a floating point type
+   *
+   * @param value the value widened to {@code double}
+   * @return this command
+   */
+  public FormattedMessageCommand arg(double value) {
+    capture(Double.doubleToRawLongBits(value), null);
+    return this;
+  }
+
+  /**
+   * Captures the next argument of a reference type
+   *
+   * @param value the value
+   * @return this command
+   */
+  public FormattedMessageCommand arg(Object value) {
+    capture(0L, value);
+    return this;
+  }
+
+  private void capture(long v, Object o) {
+    if (size == MAX_ARGS) {
+      throw new IllegalStateException("More than " + MAX_ARGS + " printf arguments");
+    }
+    switch (size++) {
+      case 0:
+        v0 = v;
+        o0 = o;
+        break;
+      case 1:
+        v1 = v;
+        o1 = o;
+        break;
+      case 2:
+        v2 = v;
+        o2 = o;
+        break;
+      case 3:
+        v3 = v;
+        o3 = o;
+        break;
+      case 4:
+        v4 = v;
+        o4 = o;
+        break;
+      default:
+        v5 = v;
+        o5 = o;
+    }
+  }
+
+  @Override
+  public String getMessage() {
+    if (rendered == null) {
+      rendered = render(format, args != null ? args : capturedArgs());
+    }
+    return rendered;
+  }
+
+  private Object[] capturedArgs() {
+    long[] vs = {v0, v1, v2, v3, v4, v5};
+    Object[] os = {o0, o1, o2, o3, o4, o5};
+    Object[] values = new Object[size];
+    for (int i = 0; i < size; i++) {
+      long v = vs[i];
+      switch (types.charAt(i)) {
+        case 'I':
+          values[i] = (int) v;
+          break;
+        case 'J':
+          values[i] = v;
+          break;
+        case 'S':
+          values[i] = (short) v;
+          break;
+        case 'B':
+          values[i] = (byte) v;
+          break;
+        case 'C':
+          values[i] = (char) v;
+          break;
+        case 'Z':
+          values[i] = v != 0;
+          break;
+        case 'F':
+          values[i] = (float) Double.longBitsToDouble(v);
+          break;
+        case 'D':
+          values[i] = Double.longBitsToDouble(v);
+          break;
+        default:
+          values[i] = os[i];
+      }
+    }
+    return values;
+  }
+
+  static String render(String format, Object[] args) {
+    try {
+      return String.format(format, args);
+    } catch (IllegalFormatException e) {
+      // the format is checked at compile time; keep the data for the precompiled probes
+      return format + " " + Arrays.toString(args);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.openjdk.btrace.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation counts and times of the handlers of one BTrace script.
+ *
+ * <p>Each handler gets a slot, resolved once by the preprocessed class initializer. The counters
+ * are striped ({@linkplain LongAdder}) so that the handlers running on many threads do not contend
+ * on them; recording an invocation does not allocate.
+ */
+final class HandlerStats implements HandlerStatsMXBean {
+  private static final class Slot {
+    final String name;
+    final LongAdder hits = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    final LongAdder dropped = new LongAdder();
+
+    Slot(String name) {
+      this.name = name;
+    }
+  }
+
+  private volatile Slot[] slots = new Slot[0];
+
+  /**
+   * @param name the handler name
+   * @return the slot of the handler
+   */
+  synchronized int register(String name) {
+    Slot[] current = slots;
+    Slot[] updated = Arrays.copyOf(current, current.length + 1);
+    updated[current.length] = new Slot(name);
+    slots = updated;
+    return current.length;
+  }
+
+  void record(int slot, long nanos) {
+    Slot s = slots[slot];
+    s.hits.increment();
+    s.nanos.add(nanos);
+    s.maxNanos.accumulate(nanos);
+  }
+
+  void dropped(int slot) {
+    slots[slot].dropped.increment();
+  }
+
+  /** @return one row per handler - name, hits, total ns, max ns and dropped messages */
+  List<Object[]> getRows() {
+    Slot[] current = slots;
+    List<Object[]> rows = new ArrayList<>(current.length);
+    for (Slot s : current) {
+      rows.add(
+          new Object[] {s.name, s.hits.sum(), s.nanos.sum(), s.maxNanos.get(), s.dropped.sum()});
+    }
+    return rows;
+  }
+
+  @Override
+  public String[] getHandlerNames() {
+    Slot[] current = slots;
+    String[] names = new String[current.length];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = current[i].name;
+    }
+    return names;
+  }
+
+  @Override
+  public long[] getHits() {
+    Slot[] current = slots;
+    long[] values = new long[current.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = current[i].hits.sum();
+    }
+    return values;
+  }
+
+  @Override
+  public long[] getTotalNanos() {
+    Slot[] current = slots;
+    long[] values = new long[current.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = current[i].nanos.sum();
+    }
+    return values;
+  }
+
+  @Override
+  public long[] getMaxNanos() {
+    Slot[] current = slots;
+    long[] values = new long[current.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = current[i].maxNanos.get();
+    }
+    return values;
+  }
+
+  @Override
+  public long[] getDroppedMessages() {
+    Slot[] current = slots;
+    long[] values = new long[current.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = current[i].dropped.sum();
+    }
+    return values;
+  }
+
+  @Override
+  public void reset() {
+    for (Slot s : slots) {
+      s.hits.reset();
+      s.nanos.reset();
+      s.maxNanos.reset();
+      s.dropped.reset();
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package org.openjdk.btrace.runtime;
+
+/**
+ * The per-handler statistics of a BTrace script, registered as {@code
+ * btrace:type=HandlerStats,name=<script>}. The arrays are indexed alike - the n-th element of each
+ * array belongs to the n-th handler name.
+ *
+ * @since 2.3.0
+ */
+public interface HandlerStatsMXBean {
+  String[] getHandlerNames();
+
+  /** @return the number of the handler invocations */
+  long[] getHits();
+
+  /** @return the total time spent in the handlers in nanoseconds */
+  long[] getTotalNanos();
+
+  /** @return the longest handler invocation in nanoseconds */
+  long[] getMaxNanos();
+
+  /** @return the number of the messages dropped due to a full command queue */
+  long[] getDroppedMessages();
+
+  /** Resets all the statistics to zero */
+  void reset();
+}
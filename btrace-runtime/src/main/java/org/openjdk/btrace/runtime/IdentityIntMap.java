@@ -0,0 +1,104 @@
+package org.openjdk.btrace.runtime;
+
+/**
+ * A minimal open-addressing map from object identity to a non-negative {@code int}.
+ *
+ * <p>Used to track the already visited objects when walking large object graphs - unlike
+ * {@linkplain java.util.IdentityHashMap} it neither boxes the values nor allocates per entry.
+ *
+ * <p>Not thread safe.
+ */
+final class IdentityIntMap {
+  static final int NOT_FOUND = -1;
+
+  private Object[] keys;
+  private int[] values;
+  private int size;
+
+  IdentityIntMap() {
+    this(64);
+  }
+
+  IdentityIntMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+    keys = new Object[capacity];
+    values = new int[capacity];
+  }
+
+  /**
+   * @param key the object
+   * @return the associated value or {@linkplain #NOT_FOUND}
+   */
+  int get(Object key) {
+    Object[] k = keys;
+    int mask = k.length - 1;
+    for (int idx = hash(key) & mask; ; idx = (idx + 1) & mask) {
+      Object candidate = k[idx];
+      if (candidate == key) {
+        return values[idx];
+      }
+      if (candidate == null) {
+        return NOT_FOUND;
+      }
+    }
+  }
+
+  /**
+   * Associates a value with the object unless it already has one.
+   *
+   * @param key the object
+   * @param value the non-negative value
+   * @return the previously associated value or {@linkplain #NOT_FOUND} if the value was stored
+   */
+  int putIfAbsent(Object key, int value) {
+    Object[] k = keys;
+    int mask = k.length - 1;
+    int idx = hash(key) & mask;
+    for (; ; idx = (idx + 1) & mask) {
+      Object candidate = k[idx];
+      if (candidate == key) {
+        return values[idx];
+      }
+      if (candidate == null) {
+        break;
+      }
+    }
+    k[idx] = key;
+    values[idx] = value;
+    if (++size * 2 > k.length) {
+      resize();
+    }
+    return NOT_FOUND;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void resize() {
+    Object[] oldKeys = keys;
+    int[] oldValues = values;
+    Object[] newKeys = new Object[oldKeys.length * 2];
+    int[] newValues = new int[newKeys.length];
+    int mask = newKeys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      Object key = oldKeys[i];
+      if (key != null) {
+        int idx = hash(key) & mask;
+        while (newKeys[idx] != null) {
+          idx = (idx + 1) & mask;
+        }
+        newKeys[idx] = key;
+        newValues[idx] = oldValues[i];
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+  }
+
+  private static int hash(Object key) {
+    int h = System.identityHashCode(key);
+    // spread the bits; identity hash codes tend to be clustered
+    return (h ^ (h >>> 16)) * 0x9E3779B9;
+  }
+}
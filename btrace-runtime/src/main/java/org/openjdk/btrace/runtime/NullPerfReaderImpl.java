@@ -49,4 +49,10 @@ final class NullPerfReaderImpl implements PerfReader {
     throw new UnsupportedOperationException(
         "jvmstat not supported, do you have tools.jar (or classes.jar) in CLASSPATH?");
   }
+
+  @Override
+  public void perfLongs(String[] names, long[] values) {
+    throw new UnsupportedOperationException(
+        "jvmstat not supported, do you have tools.jar (or classes.jar) in CLASSPATH?");
+  }
 }
@@ -0,0 +1,137 @@
+package org.openjdk.btrace.runtime;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the CPU time spent in the probe handlers of one runtime within a budget.
+ *
+ * <p>Only every {@linkplain #SAMPLE_INTERVAL n-th} handler invocation on a thread is timed and the
+ * measured time is scaled up accordingly, so the accounting itself stays cheap. The overhead is
+ * periodically {@linkplain #check(long) evaluated} as the share of the total CPU time of the
+ * process. When it exceeds the budget the instrumentation level is lowered first; once the level
+ * can not be lowered any more only one of {@code mean} handler invocations is {@linkplain #admit()
+ * admitted}, the mean being raised proportionally to the excess. The throttling is relaxed step by
+ * step after the overhead has stayed below half of the budget for several consecutive checks.
+ */
+final class OverheadGovernor {
+  /** Time one of this many handler invocations on a thread; a power of 2 */
+  static final int SAMPLE_INTERVAL = 64;
+  /** The period of the overhead checks in milliseconds */
+  static final long CHECK_PERIOD = 1000;
+  /** The number of consecutive checks below half of the budget required to relax the throttling */
+  static final int RELAX_CHECKS = 5;
+  /** The maximum sampling mean */
+  static final int MAX_MEAN = 1 << 20;
+
+  /** The actions the governor takes on the governed runtime */
+  interface Control {
+    /** @return {@code true} if the instrumentation level has been lowered */
+    boolean lowerLevel();
+
+    /** @return {@code true} if the instrumentation level has been restored by one step */
+    boolean restoreLevel();
+
+    /** @return the current instrumentation level */
+    int getLevel();
+
+    /** Reports the adjustment to the client */
+    void report(String msg);
+  }
+
+  private final double budget;
+  private final int cpus;
+  private final Control control;
+  private final LongAdder spentNanos = new LongAdder();
+
+  private volatile int mean = 1;
+  // guarded by 'this'
+  private long lastCheck;
+  private int relaxedChecks;
+
+  /**
+   * @param percent the overhead budget as the percentage of the total CPU time
+   * @param cpus the number of the available processors
+   * @param control the governed runtime
+   */
+  OverheadGovernor(double percent, int cpus, Control control) {
+    if (percent <= 0 || percent > 100) {
+      throw new IllegalArgumentException("Invalid overhead budget: " + percent);
+    }
+    this.budget = percent / 100;
+    this.cpus = Math.max(1, cpus);
+    this.control = control;
+    this.lastCheck = System.nanoTime();
+  }
+
+  /** @return {@code true} if the current handler invocation may proceed */
+  boolean admit() {
+    int m = mean;
+    return m <= 1 || ThreadLocalRandom.current().nextInt(m) == 0;
+  }
+
+  /**
+   * Records the time spent in a timed handler invocation.
+   *
+   * @param nanos the measured time, already scaled by the {@linkplain #SAMPLE_INTERVAL}
+   */
+  void record(long nanos) {
+    spentNanos.add(nanos);
+  }
+
+  /** @return the current sampling mean; {@code 1} if the handlers are not throttled */
+  int getMean() {
+    return mean;
+  }
+
+  void check() {
+    check(System.nanoTime());
+  }
+
+  /**
+   * Evaluates the overhead since the previous check and adjusts the throttling.
+   *
+   * @param now the current {@linkplain System#nanoTime() time}
+   * @return the measured overhead as a fraction of the total CPU time
+   */
+  synchronized double check(long now) {
+    long elapsed = now - lastCheck;
+    if (elapsed <= 0) {
+      return 0;
+    }
+    lastCheck = now;
+    double overhead = (double) spentNanos.sumThenReset() / ((double) elapsed * cpus);
+    if (overhead > budget) {
+      relaxedChecks = 0;
+      if (control.lowerLevel()) {
+        report(overhead, "lowered the instrumentation level to " + control.getLevel());
+      } else if (mean < MAX_MEAN) {
+        long raised = (long) Math.ceil(mean * overhead / budget);
+        mean = (int) Math.min(MAX_MEAN, Math.max(mean + 1L, raised));
+        report(overhead, "sampling 1 in " + mean + " probe hits");
+      }
+    } else if (overhead < budget / 2 && ++relaxedChecks >= RELAX_CHECKS) {
+      relaxedChecks = 0;
+      if (mean > 1) {
+        mean = Math.max(1, mean / 2);
+        report(overhead, mean > 1 ? "sampling 1 in " + mean + " probe hits" : "not sampling");
+      } else if (control.restoreLevel()) {
+        report(overhead, "restored the instrumentation level to " + control.getLevel());
+      }
+    } else if (overhead >= budget / 2) {
+      relaxedChecks = 0;
+    }
+    return overhead;
+  }
+
+  private void report(double overhead, String action) {
+    control.report(
+        String.format(
+            Locale.ROOT,
+            "BTrace probe overhead %.2f%% of CPU (budget %.2f%%): %s%n",
+            overhead * 100,
+            budget * 100,
+            action));
+  }
+}
@@ -0,0 +1,174 @@
+package org.openjdk.btrace.runtime;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openjdk.btrace.core.BTraceRuntime;
+import sun.misc.Unsafe;
+
+/**
+ * Registry of the jvmstat perf counters created for {@linkplain
+ * org.openjdk.btrace.core.annotations.Export} fields.
+ *
+ * <p>Each counter is assigned a stable slot index when it is registered. The preprocessed BTrace
+ * classes resolve the slot index once, in the static initializer, and then access the counter
+ * memory directly by the index - no name lookup and no locking is involved.
+ *
+ * <p>Long counters are written by a single ordered store (and read by a volatile load) directly to
+ * the counter memory if {@linkplain Unsafe} is available; otherwise the absolute {@linkplain
+ * ByteBuffer} accessors are used. String counters cache the last written value so reading them
+ * does not need to decode the counter memory.
+ */
+final class PerfCounterSlots {
+  private static final Unsafe UNSAFE;
+  private static final long ADDRESS_OFFSET;
+
+  static {
+    Unsafe u = null;
+    long offset = -1;
+    try {
+      u = BTraceRuntime.initUnsafe();
+      if (u != null) {
+        Field f = Buffer.class.getDeclaredField("address");
+        offset = u.objectFieldOffset(f);
+      }
+    } catch (Throwable ignored) {
+      // fall back to the ByteBuffer accessors
+      u = null;
+    }
+    UNSAFE = u;
+    ADDRESS_OFFSET = offset;
+  }
+
+  private static final class Slot {
+    final ByteBuffer buffer;
+    // the native address of the counter value or 0 if not accessible
+    final long address;
+    volatile String stringValue;
+
+    Slot(ByteBuffer buffer, long address, String stringValue) {
+      this.buffer = buffer;
+      this.address = address;
+      this.stringValue = stringValue;
+    }
+  }
+
+  private final Map<String, Integer> slotIndices = new ConcurrentHashMap<>();
+  private volatile Slot[] slots = new Slot[0];
+
+  /**
+   * Registers a long counter.
+   *
+   * @param name the counter name
+   * @param buffer the counter memory in native order
+   * @return the assigned slot index
+   */
+  int registerLong(String name, ByteBuffer buffer) {
+    return register(name, new Slot(buffer, addressOf(buffer), null));
+  }
+
+  /**
+   * Registers a string counter.
+   *
+   * @param name the counter name
+   * @param buffer the counter memory
+   * @return the assigned slot index
+   */
+  int registerString(String name, ByteBuffer buffer) {
+    return register(name, new Slot(buffer, 0, decode(buffer)));
+  }
+
+  /**
+   * @param name the counter name
+   * @return the slot index of the counter or -1 if no such counter has been registered
+   */
+  int slotOf(String name) {
+    Integer idx = slotIndices.get(name);
+    return idx != null ? idx : -1;
+  }
+
+  long getLong(int slot) {
+    Slot s = slots[slot];
+    if (s.address != 0) {
+      return UNSAFE.getLongVolatile(null, s.address);
+    }
+    return s.buffer.getLong(0);
+  }
+
+  void putLong(int slot, long value) {
+    Slot s = slots[slot];
+    if (s.address != 0) {
+      UNSAFE.putOrderedLong(null, s.address, value);
+    } else {
+      s.buffer.putLong(0, value);
+    }
+  }
+
+  String getString(int slot) {
+    return slots[slot].stringValue;
+  }
+
+  void putString(int slot, String value) {
+    Slot s = slots[slot];
+    String current = s.stringValue;
+    if (current == value || (current != null && current.equals(value))) {
+      // nothing changed; don't touch the counter memory
+      return;
+    }
+    byte[] v = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    // writing multiple bytes can not be done atomically; serialize only the concurrent writers
+    synchronized (s) {
+      ByteBuffer b = s.buffer;
+      int len = Math.min(v.length, b.limit() - 1);
+      for (int i = 0; i < len; i++) {
+        b.put(i, v[i]);
+      }
+      b.put(len, (byte) '\0');
+      s.stringValue = value;
+    }
+  }
+
+  private synchronized int register(String name, Slot slot) {
+    Integer existing = slotIndices.get(name);
+    Slot[] current = slots;
+    if (existing != null) {
+      // the counter has been recreated; keep the index
+      Slot[] updated = current.clone();
+      updated[existing] = slot;
+      slots = updated;
+      return existing;
+    }
+    Slot[] updated = new Slot[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = slot;
+    // publish the slot before its index becomes visible
+    slots = updated;
+    slotIndices.put(name, current.length);
+    return current.length;
+  }
+
+  private static long addressOf(ByteBuffer buffer) {
+    if (UNSAFE == null || !buffer.isDirect() || buffer.capacity() < 8) {
+      return 0;
+    }
+    long address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+    // the ordered store is only guaranteed to be atomic for aligned addresses
+    return (address & 7) == 0 ? address : 0;
+  }
+
+  private static String decode(ByteBuffer buffer) {
+    int len = 0;
+    int limit = buffer.limit();
+    while (len < limit && buffer.get(len) != '\0') {
+      len++;
+    }
+    byte[] buf = new byte[len];
+    for (int i = 0; i < len; i++) {
+      buf[i] = buffer.get(i);
+    }
+    return new String(buf, StandardCharsets.UTF_8);
+  }
+}
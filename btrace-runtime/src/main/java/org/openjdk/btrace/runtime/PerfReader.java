@@ -37,4 +37,12 @@ public interface PerfReader {
   long perfLong(String name);
 
   String perfString(String name);
+
+  /**
+   * Reads a set of int or long counters in one call.
+   *
+   * @param names the counter names
+   * @param values the array receiving the counter values; must be at least as long as {@code names}
+   */
+  void perfLongs(String[] names, long[] values);
 }
@@ -0,0 +1,198 @@
+package org.openjdk.btrace.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.MessageCommand;
+
+/**
+ * A fixed pool of speculative buffers.
+ *
+ * <p>The buffers are pre-allocated slots which are reused once the speculation is committed or
+ * discarded. A speculation id encodes the slot index and the slot generation, so a stale id can
+ * not be used to access a reused slot.
+ *
+ * <p>Acquiring a slot is a lock-free scan; recording into a buffer synchronizes only on the slot,
+ * which is normally used by a single thread.
+ */
+final class SpeculativeBuffers {
+  private static final int SLOT_BITS = 10;
+  // maximum number of the concurrently used speculative buffers
+  static final int MAX_SPECULATIVE_BUFFERS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = MAX_SPECULATIVE_BUFFERS - 1;
+  private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+  // per buffer message limit
+  static final int MAX_SPECULATIVE_MSG_LIMIT = Short.MAX_VALUE;
+  // buffers grown over this capacity are not retained when the slot is released
+  private static final int RETAINED_CAPACITY = 256;
+  private static final Command[] EMPTY = new Command[0];
+
+  private static final class Slot {
+    private static final AtomicIntegerFieldUpdater<Slot> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Slot.class, "state");
+
+    // the assigned speculation id; when the slot is free it holds the complement of the last id
+    volatile int state;
+    // guarded by 'this'
+    Command[] buffer = EMPTY;
+    int size;
+
+    Slot(int index) {
+      state = ~index;
+    }
+
+    boolean tryAcquire(int free, int id) {
+      return STATE.compareAndSet(this, free, id);
+    }
+
+    boolean release(int id) {
+      return STATE.compareAndSet(this, id, ~id);
+    }
+
+    void add(Command cmd) {
+      if (size == buffer.length) {
+        if (size == MAX_SPECULATIVE_MSG_LIMIT) {
+          // drop the recorded commands but keep the buffer
+          Arrays.fill(buffer, null);
+          size = 0;
+          cmd = new MessageCommand("speculative buffer overflow: " + state);
+        } else {
+          buffer =
+              Arrays.copyOf(buffer, Math.min(Math.max(size * 2, 16), MAX_SPECULATIVE_MSG_LIMIT));
+        }
+      }
+      buffer[size++] = cmd;
+    }
+
+    void clear() {
+      if (buffer.length > RETAINED_CAPACITY) {
+        buffer = EMPTY;
+      } else {
+        Arrays.fill(buffer, 0, size, null);
+      }
+      size = 0;
+    }
+  }
+
+  private final Slot[] slots = new Slot[MAX_SPECULATIVE_BUFFERS];
+  private final AtomicInteger nextSlot = new AtomicInteger();
+  // per thread [current speculative buffer id or -1, last acquired slot index or -1]
+  private final ThreadLocal<int[]> threadState = ThreadLocal.withInitial(() -> new int[] {-1, -1});
+  // set once any speculation has been started; allows skipping the thread local lookup otherwise
+  private volatile boolean used;
+  private volatile boolean closed;
+
+  SpeculativeBuffers() {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot(i);
+    }
+  }
+
+  /** @return an id of a free speculative buffer or -1 if all the buffers are in use */
+  int speculation() {
+    if (closed) {
+      return -1;
+    }
+    if (!used) {
+      used = true;
+    }
+    int[] state = threadState.get();
+    // prefer the slot last used by this thread - it is most likely free and not shared
+    int start = state[1] >= 0 ? state[1] : nextSlot.getAndIncrement();
+    for (int i = 0; i < MAX_SPECULATIVE_BUFFERS; i++) {
+      int idx = (start + i) & SLOT_MASK;
+      Slot slot = slots[idx];
+      int free = slot.state;
+      if (free < 0) {
+        int generation = ((~free >>> SLOT_BITS) + 1) & GENERATION_MASK;
+        int id = (generation << SLOT_BITS) | idx;
+        if (slot.tryAcquire(free, id)) {
+          state[1] = idx;
+          return id;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Records the command to the current thread speculative buffer, if any.
+   *
+   * @param cmd the command
+   * @return {@code true} if the command has been recorded
+   */
+  boolean send(Command cmd) {
+    if (!used || closed || cmd.getType() == Command.EXIT) {
+      return false;
+    }
+    int id = threadState.get()[0];
+    if (id < 0) {
+      return false;
+    }
+    Slot slot = slots[id & SLOT_MASK];
+    synchronized (slot) {
+      if (slot.state != id) {
+        // the speculation has been committed or discarded meanwhile
+        return false;
+      }
+      slot.add(cmd);
+    }
+    return true;
+  }
+
+  void speculate(int id) {
+    validateId(id);
+    threadState.get()[0] = id;
+  }
+
+  void commit(int id, Consumer<Command> result) {
+    Slot slot = validateId(id);
+    threadState.get()[0] = -1;
+    synchronized (slot) {
+      if (slot.release(id)) {
+        for (int i = 0; i < slot.size; i++) {
+          result.accept(slot.buffer[i]);
+        }
+        slot.clear();
+      }
+    }
+  }
+
+  void discard(int id) {
+    Slot slot = validateId(id);
+    threadState.get()[0] = -1;
+    synchronized (slot) {
+      if (slot.release(id)) {
+        slot.clear();
+      }
+    }
+  }
+
+  void clear() {
+    closed = true;
+    for (Slot slot : slots) {
+      synchronized (slot) {
+        int state = slot.state;
+        if (state >= 0) {
+          slot.release(state);
+        }
+        slot.buffer = EMPTY;
+        slot.size = 0;
+      }
+    }
+    threadState.remove();
+  }
+
+  // -- Internals only below this point
+  private Slot validateId(int id) {
+    if (id >= 0) {
+      Slot slot = slots[id & SLOT_MASK];
+      if (slot.state == id) {
+        return slot;
+      }
+    }
+    throw new RuntimeException("invalid speculative buffer id: " + id);
+  }
+}
@@ -0,0 +1,206 @@
+package org.openjdk.btrace.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns the captured stack frames to compact, process-wide unique frame ids.
+ *
+ * <p>A captured stack is then just an {@code int[]} of frame ids - cheap to store, compare and use
+ * as an aggregation key. The {@linkplain StackTraceElement} of a frame is resolved only the first
+ * time the frame is seen; rendering a captured stack does not need to touch the stack again.
+ *
+ * <p>Frame lookups are lock-free; only registering a new frame takes a lock.
+ *
+ * <p>The registry is bounded - once it holds the maximum number of frames any new frame gets the
+ * {@linkplain #UNRECORDED} id which does not resolve to an element.
+ */
+final class StackFrameRegistry {
+  /** The id of a frame seen only after the registry was full */
+  static final int UNRECORDED = -1;
+
+  private static final int DEFAULT_LIMIT =
+      Math.max(1, Integer.getInteger("btrace.stackFrames.limit", 65536));
+
+  /**
+   * Resolves the {@linkplain StackTraceElement} for a frame which has not been registered yet.
+   *
+   * @param <F> the frame type
+   */
+  interface Resolver<F> {
+    StackTraceElement resolve(F frame);
+  }
+
+  private static final class Entry {
+    final String className;
+    final String methodName;
+    final String descriptor;
+    final int position;
+    final int hash;
+    final int id;
+    final Entry next;
+
+    Entry(
+        String className,
+        String methodName,
+        String descriptor,
+        int position,
+        int hash,
+        int id,
+        Entry next) {
+      this.className = className;
+      this.methodName = methodName;
+      this.descriptor = descriptor;
+      this.position = position;
+      this.hash = hash;
+      this.id = id;
+      this.next = next;
+    }
+
+    boolean matches(String className, String methodName, String descriptor, int position) {
+      return this.position == position
+          && this.className.equals(className)
+          && this.methodName.equals(methodName)
+          && (this.descriptor == null
+              ? descriptor == null
+              : this.descriptor.equals(descriptor));
+    }
+
+    Entry withNext(Entry next) {
+      return new Entry(className, methodName, descriptor, position, hash, id, next);
+    }
+  }
+
+  private volatile AtomicReferenceArray<Entry> buckets = new AtomicReferenceArray<>(1024);
+  // indexed by the frame id; replaced when growing
+  private volatile StackTraceElement[] elements = new StackTraceElement[1024];
+  private int size = 0;
+  private final int limit;
+
+  StackFrameRegistry() {
+    this(DEFAULT_LIMIT);
+  }
+
+  /** @param limit the maximum number of registered frames */
+  StackFrameRegistry(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Retrieves the id of the given frame, registering the frame if necessary.
+   *
+   * @param frame the frame
+   * @param className the name of the frame declaring class
+   * @param methodName the frame method name
+   * @param descriptor the frame method descriptor or {@code null} if not available
+   * @param position the position within the method; either the bytecode index or the line number
+   * @param resolver used to resolve the {@linkplain StackTraceElement} for a new frame
+   * @param <F> the frame type
+   * @return the frame id or {@linkplain #UNRECORDED} if the frame is new and the registry is full
+   */
+  <F> int intern(
+      F frame,
+      String className,
+      String methodName,
+      String descriptor,
+      int position,
+      Resolver<F> resolver) {
+    int hash = hash(className, methodName, descriptor, position);
+    AtomicReferenceArray<Entry> b = buckets;
+    for (Entry e = b.get(hash & (b.length() - 1)); e != null; e = e.next) {
+      if (e.hash == hash && e.matches(className, methodName, descriptor, position)) {
+        return e.id;
+      }
+    }
+    return register(frame, className, methodName, descriptor, position, hash, resolver);
+  }
+
+  /**
+   * Convenience method to intern an already resolved frame
+   *
+   * @param element the frame
+   * @return the frame id or {@linkplain #UNRECORDED} if the frame is new and the registry is full
+   */
+  int intern(StackTraceElement element) {
+    String methodName = element.getMethodName();
+    return intern(
+        element,
+        element.getClassName(),
+        methodName != null ? methodName : "",
+        null,
+        element.getLineNumber(),
+        e -> e);
+  }
+
+  /**
+   * @param id the frame id
+   * @return the frame or {@code null} if no frame of that id has been registered
+   */
+  StackTraceElement element(int id) {
+    StackTraceElement[] e = elements;
+    return id >= 0 && id < e.length ? e[id] : null;
+  }
+
+  /** @return the number of registered frames */
+  int size() {
+    synchronized (this) {
+      return size;
+    }
+  }
+
+  private synchronized <F> int register(
+      F frame,
+      String className,
+      String methodName,
+      String descriptor,
+      int position,
+      int hash,
+      Resolver<F> resolver) {
+    AtomicReferenceArray<Entry> b = buckets;
+    int idx = hash & (b.length() - 1);
+    Entry head = b.get(idx);
+    for (Entry e = head; e != null; e = e.next) {
+      if (e.hash == hash && e.matches(className, methodName, descriptor, position)) {
+        return e.id;
+      }
+    }
+    if (size == limit) {
+      return UNRECORDED;
+    }
+    int id = size++;
+    StackTraceElement[] current = elements;
+    if (id == current.length) {
+      current = Arrays.copyOf(current, (int) Math.min(current.length * 2L, limit));
+    }
+    current[id] = resolver.resolve(frame);
+    // publish the element before the entry makes the id reachable
+    elements = current;
+    b.set(idx, new Entry(className, methodName, descriptor, position, hash, id, head));
+    if (size > b.length() / 4 * 3) {
+      rehash(b);
+    }
+    return id;
+  }
+
+  private void rehash(AtomicReferenceArray<Entry> old) {
+    AtomicReferenceArray<Entry> b = new AtomicReferenceArray<>(old.length() * 2);
+    int mask = b.length() - 1;
+    for (int i = 0; i < old.length(); i++) {
+      // the entries are immutable - the chains are rebuilt so the concurrent readers of the old
+      // table are not affected
+      for (Entry e = old.get(i); e != null; e = e.next) {
+        int idx = e.hash & mask;
+        b.set(idx, e.withNext(b.get(idx)));
+      }
+    }
+    buckets = b;
+  }
+
+  private static int hash(String className, String methodName, String descriptor, int position) {
+    int h = className.hashCode();
+    h = 31 * h + methodName.hashCode();
+    h = 31 * h + (descriptor != null ? descriptor.hashCode() : 0);
+    h = 31 * h + position;
+    return h ^ (h >>> 16);
+  }
+}
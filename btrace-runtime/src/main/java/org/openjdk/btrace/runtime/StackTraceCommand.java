@@ -0,0 +1,66 @@
+package org.openjdk.btrace.runtime;
+
+import org.openjdk.btrace.core.comm.MessageCommand;
+
+/**
+ * A message carrying a captured stack trace as frame ids.
+ *
+ * <p>The textual form is rendered only when the command is being sent or printed - which happens
+ * on the command thread rather than on the application thread executing the probe.
+ */
+final class StackTraceCommand extends MessageCommand {
+  private final StackFrameRegistry registry;
+  private final String prefix;
+  private final int[] frames;
+  private final boolean truncated;
+  private String rendered;
+
+  StackTraceCommand(
+      long time, StackFrameRegistry registry, String prefix, int[] frames, boolean truncated) {
+    super(time, null);
+    this.registry = registry;
+    this.prefix = prefix;
+    this.frames = frames;
+    this.truncated = truncated;
+  }
+
+  @Override
+  public String getMessage() {
+    if (rendered == null) {
+      rendered = render(registry, prefix, frames, frames.length, truncated);
+    }
+    return rendered;
+  }
+
+  /**
+   * Renders the captured frames in the same format as {@linkplain
+   * org.openjdk.btrace.core.BTraceUtils.Threads#jstackStr()}.
+   *
+   * @param registry the registry the frames were interned to
+   * @param prefix the line prefix; may be {@code null}
+   * @param frames the frame ids
+   * @param numFrames the maximum number of frames to render
+   * @param truncated {@code true} if the stack has more frames than captured; a truncation mark
+   *     is appended then - the frames are not counted, so that the rest of the stack need not be
+   *     walked
+   * @return the rendered stack trace
+   */
+  static String render(
+      StackFrameRegistry registry, String prefix, int[] frames, int numFrames, boolean truncated) {
+    if (prefix == null) {
+      prefix = "";
+    }
+    int limit = Math.min(frames.length, numFrames);
+    StringBuilder buf = new StringBuilder(limit * 64);
+    for (int i = 0; i < limit; i++) {
+      StackTraceElement e = registry.element(frames[i]);
+      buf.append(prefix)
+          .append(e != null ? e : "<unrecorded frame>")
+          .append(System.lineSeparator());
+    }
+    if (truncated) {
+      buf.append(prefix).append("more frame(s) ...").append(System.lineSeparator());
+    }
+    return buf.toString();
+  }
+}
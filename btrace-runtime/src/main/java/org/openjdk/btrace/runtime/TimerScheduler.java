@@ -0,0 +1,254 @@
+package org.openjdk.btrace.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Agent wide scheduler for the {@linkplain org.openjdk.btrace.core.annotations.OnTimer} handlers.
+ *
+ * <p>All the loaded probes share a small pool of daemon threads (one by default, configurable via
+ * {@code btrace.timer.threads} system property) instead of running a {@linkplain java.util.Timer}
+ * thread each. Handlers with the same period are coalesced into a single scheduled tick which
+ * invokes them one after another through pre-bound method handles.
+ *
+ * <p>Just like with the {@linkplain java.util.Timer} the ticks are scheduled with a fixed delay -
+ * the next tick is due one period after the previous one has finished and the missed ticks are not
+ * caught up with. Since the handlers of all the probes share the scheduler thread(s) a slow handler
+ * delays the ticks of the other handlers, including those of the other probes; more threads can be
+ * set up via the {@code btrace.timer.threads} system property when that becomes an issue.
+ *
+ * <p>The scheduler keeps track of the tick lag - the delay between the time a tick was due and the
+ * time it actually started. A tick late for more than its period is logged as a warning and passed
+ * to the reporter of each delayed handler - the runtime sends it to the client. A handler is
+ * reported at most once in {@code btrace.timer.lateReportInterval} milliseconds (10s by default).
+ *
+ * <p>The handlers are expected to deal with their exceptions themselves (the runtime wraps them in
+ * its exception handling); anything escaping a handler is only logged.
+ */
+final class TimerScheduler {
+  private static final Logger log = LoggerFactory.getLogger(TimerScheduler.class);
+  private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class);
+  private static final long LATE_REPORT_INTERVAL =
+      TimeUnit.MILLISECONDS.toNanos(Long.getLong("btrace.timer.lateReportInterval", 10_000));
+
+  private static final class Singleton {
+    private static final TimerScheduler INSTANCE =
+        new TimerScheduler(Math.max(1, Integer.getInteger("btrace.timer.threads", 1)));
+  }
+
+  /** A handler registration; cancelling it stops the handler being invoked */
+  static final class Registration {
+    private final String name;
+    private final MethodHandle handler;
+    private final Ticks ticks;
+    private final Consumer<String> lateTicks;
+    private volatile long lastLag;
+    private volatile long maxLag;
+    // accessed only by the tick; the ticks of one period never overlap
+    private long lastReport;
+
+    private Registration(
+        String name, MethodHandle handler, Ticks ticks, Consumer<String> lateTicks) {
+      this.name = name;
+      this.handler = handler;
+      this.ticks = ticks;
+      this.lateTicks = lateTicks;
+      this.lastReport = System.nanoTime() - LATE_REPORT_INTERVAL;
+    }
+
+    void cancel() {
+      ticks.owner.remove(this);
+    }
+
+    /** @return the lag of the last tick in nanoseconds */
+    long getLastLag() {
+      return lastLag;
+    }
+
+    /** @return the maximum observed tick lag in nanoseconds */
+    long getMaxLag() {
+      return maxLag;
+    }
+
+    private void tick(long lag) {
+      lastLag = lag;
+      if (lag > maxLag) {
+        maxLag = lag;
+      }
+      if (lag > ticks.periodNanos && lateTicks != null) {
+        reportLate(lag);
+      }
+      try {
+        handler.invokeExact();
+      } catch (Throwable t) {
+        log.debug("@OnTimer handler {} failed", name, t);
+      }
+    }
+
+    private void reportLate(long lag) {
+      long now = System.nanoTime();
+      if (now - lastReport < LATE_REPORT_INTERVAL) {
+        return;
+      }
+      lastReport = now;
+      lateTicks.accept(
+          String.format(
+              Locale.ROOT,
+              "[BTRACE WARN] @OnTimer(%d) %s tick is late by %d ms (max %d ms)%n",
+              ticks.period,
+              name,
+              TimeUnit.NANOSECONDS.toMillis(lag),
+              TimeUnit.NANOSECONDS.toMillis(maxLag)));
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** All the handlers sharing the same period */
+  private static final class Ticks implements Runnable {
+    private final TimerScheduler owner;
+    private final long period;
+    private final long periodNanos;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    private volatile long nextTick;
+    private ScheduledFuture<?> future;
+
+    Ticks(TimerScheduler owner, long period) {
+      this.owner = owner;
+      this.period = period;
+      this.periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+    }
+
+    @Override
+    public void run() {
+      long lag = Math.max(0, System.nanoTime() - nextTick);
+      if (lag > periodNanos) {
+        log.warn("@OnTimer({}) tick is late by {} ms: {}", period, lag / 1_000_000, registrations);
+      }
+      for (Registration r : registrations) {
+        r.tick(lag);
+      }
+      // fixed delay - the next tick is due one period after this one has finished
+      nextTick = System.nanoTime() + periodNanos;
+    }
+  }
+
+  private final ScheduledThreadPoolExecutor executor;
+  // guarded by 'this'
+  private final Map<Long, Ticks> ticks = new HashMap<>();
+
+  TimerScheduler(int threads) {
+    AtomicInteger threadCounter = new AtomicInteger();
+    executor =
+        new ScheduledThreadPoolExecutor(
+            threads,
+            r -> {
+              Thread t =
+                  new Thread(
+                      () -> {
+                        BTraceRuntimeAccess.exemptFromGovernor();
+                        r.run();
+                      },
+                      "BTrace Timer #" + threadCounter.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    executor.setRemoveOnCancelPolicy(true);
+  }
+
+  static TimerScheduler getInstance() {
+    return Singleton.INSTANCE;
+  }
+
+  /**
+   * Binds a timer handler method to a method handle.
+   *
+   * @param method the static, no-arg handler method
+   * @return the handle of {@code ()void} type
+   * @throws IllegalAccessException if the method is not accessible
+   */
+  static MethodHandle bind(Method method) throws IllegalAccessException {
+    if (!method.isAccessible()) {
+      method.setAccessible(true);
+    }
+    return MethodHandles.lookup().unreflect(method).asType(HANDLER_TYPE);
+  }
+
+  /**
+   * Schedules a periodic handler.
+   *
+   * @param name the handler name, used for reporting
+   * @param handler the handler of {@code ()void} type
+   * @param period the period in milliseconds
+   * @return the handler registration
+   * @throws IllegalArgumentException if the period is not positive
+   */
+  Registration schedule(String name, MethodHandle handler, long period) {
+    return schedule(name, handler, period, null);
+  }
+
+  /**
+   * Schedules a periodic handler.
+   *
+   * @param name the handler name, used for reporting
+   * @param handler the handler of {@code ()void} type
+   * @param period the period in milliseconds
+   * @param lateTicks receives the warnings about the ticks late for more than the period; may be
+   *     {@code null}
+   * @return the handler registration
+   * @throws IllegalArgumentException if the period is not positive
+   */
+  synchronized Registration schedule(
+      String name, MethodHandle handler, long period, Consumer<String> lateTicks) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("Non-positive period.");
+    }
+    Ticks t = ticks.get(period);
+    if (t == null) {
+      t = new Ticks(this, period);
+      t.nextTick = System.nanoTime() + t.periodNanos;
+      t.future = executor.scheduleWithFixedDelay(t, period, period, TimeUnit.MILLISECONDS);
+      ticks.put(period, t);
+    }
+    Registration r = new Registration(name, handler.asType(HANDLER_TYPE), t, lateTicks);
+    t.registrations.add(r);
+    return r;
+  }
+
+  /** @return the number of the distinct periods currently scheduled */
+  synchronized int getScheduledPeriods() {
+    return ticks.size();
+  }
+
+  private synchronized void remove(Registration r) {
+    Ticks t = r.ticks;
+    if (t.registrations.remove(r)) {
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "@OnTimer({}) {} cancelled; max tick lag {} us",
+            t.period,
+            r,
+            TimeUnit.NANOSECONDS.toMicros(r.maxLag));
+      }
+      if (t.registrations.isEmpty() && ticks.remove(t.period, t)) {
+        t.future.cancel(false);
+      }
+    }
+  }
+}
@@ -36,7 +36,12 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.IdentityHashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -49,19 +54,36 @@ final class XMLSerializer {
   private static final String ID = "id";
   private static final String IDREF = "idref";
   private static final String CLASS = "class";
+  private static final String TRUNCATED = "truncated";
   // do not create me!
   private XMLSerializer() {}
 
   /** Write an object as an XML document to the out. */
   public static void write(Object obj, Writer out) throws IOException {
+    write(obj, out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Write an object as an XML document to the out.
+   *
+   * <p>The object graph is traversed iteratively and the document is written out as it is being
+   * traversed. Objects deeper than {@code depthLimit} or over {@code nodeLimit} are written as
+   * empty elements with the {@code truncated="true"} attribute.
+   *
+   * @param obj the root object
+   * @param out the output
+   * @param depthLimit the maximum depth of serialized objects
+   * @param nodeLimit the maximum number of serialized objects
+   */
+  public static void write(Object obj, Writer out, int depthLimit, int nodeLimit)
+      throws IOException {
     if (obj == null || out == null) {
       throw new NullPointerException();
     }
-    Serializer s = new Serializer(out);
+    Serializer s = new Serializer(out, depthLimit, nodeLimit);
     s.write(obj);
     out.flush();
   }
-
   /** Return XML document string for the given object. */
   public static String toXML(Object obj) throws IOException {
     if (obj == null) {
@@ -87,36 +109,55 @@ final class XMLSerializer {
     // out on which we will write XML
     private final PrintWriter out;
     // map to maintain objects serialized already
-    private final Map<Object, String> objToId;
+    private final IdentityIntMap objToId;
+    // pending output; either a Child to serialize or a String to write as is
+    private final Deque<Object> work = new ArrayDeque<>();
+    // the parts of the currently expanded object
+    private final List<Object> parts = new ArrayList<>();
+    // cache of the accessible fields per class
+    private final Map<Class, Field[]> fieldCache = new HashMap<>();
+    private final int depthLimit;
+    private final int nodeLimit;
     // next object id (unique id for objects)
-    private long nextId;
+    private int nextId;
 
-    Serializer(Writer writer) {
+    Serializer(Writer writer, int depthLimit, int nodeLimit) {
       if (writer instanceof PrintWriter) {
         out = (PrintWriter) writer;
       } else {
         out = new PrintWriter(writer);
       }
-      objToId = new IdentityHashMap<>();
+      objToId = new IdentityIntMap(1024);
+      this.depthLimit = depthLimit;
+      this.nodeLimit = nodeLimit;
       writeln("<?xml version='1.0' encoding='ISO-8859-1'?>");
     }
 
-    private static Field[] getAllFields(Class clazz) {
-      return AccessController.doPrivileged(
-          (PrivilegedAction<Field[]>)
-              () -> {
-                try {
-                  Field[] fields = clazz.getDeclaredFields();
-                  for (Field f : fields) {
-                    f.setAccessible(true);
-                  }
-                  return fields;
-                } catch (RuntimeException re) {
-                  throw re;
-                } catch (Exception exp) {
-                  throw new RuntimeException(exp);
-                }
-              });
+    private Field[] getAllFields(Class clazz) {
+      Field[] cached = fieldCache.get(clazz);
+      if (cached != null) {
+        return cached;
+      }
+      Field[] fields =
+          AccessController.doPrivileged(
+              (PrivilegedAction<Field[]>)
+                  () -> {
+                    Field[] declared = clazz.getDeclaredFields();
+                    int accessible = 0;
+                    for (Field f : declared) {
+                      try {
+                        f.setAccessible(true);
+                        declared[accessible++] = f;
+                      } catch (RuntimeException ignored) {
+                        // not accessible (eg. not opened module); skip the field
+                      }
+                    }
+                    return accessible == declared.length
+                        ? declared
+                        : Arrays.copyOf(declared, accessible);
+                  });
+      fieldCache.put(clazz, fields);
+      return fields;
     }
 
     private static String encodeTagName(String str) {
@@ -192,15 +233,20 @@ final class XMLSerializer {
     }
 
     void write(Object obj) {
-      if (obj instanceof Class) {
-        write("class", obj);
-      } else {
-        write("object", obj);
+      work.push(new Child(obj instanceof Class ? "class" : "object", obj, 0));
+      Object task;
+      while ((task = work.poll()) != null) {
+        if (task instanceof Child) {
+          write((Child) task);
+        } else {
+          out.print((String) task);
+        }
       }
     }
 
-    void write(String name, Object obj) {
-      name = encodeTagName(name);
+    private void write(Child child) {
+      String name = encodeTagName(child.name);
+      Object obj = child.value;
       // check null
       if (obj == null) {
         out.print('<');
@@ -216,16 +262,26 @@ final class XMLSerializer {
         return;
       }
 
+      if (child.depth > depthLimit || nextId >= nodeLimit) {
+        out.print('<');
+        out.print(name);
+        out.print(' ');
+        writeAttribute(TRUNCATED, "true");
+        writeln("/>");
+        return;
+      }
+
       Class clazz = obj.getClass();
       if (clazz.isArray()) {
-        writeArray(name, obj);
+        writeArray(name, obj, child.depth + 1);
       } else {
-        writeObject(name, obj);
+        writeObject(name, obj, child.depth + 1);
       }
-    }
-
-    private String nextObjectId(Object obj) {
-      return Long.toString(nextId++);
+      // schedule the collected parts in order
+      for (int i = parts.size() - 1; i >= 0; i--) {
+        work.push(parts.get(i));
+      }
+      parts.clear();
     }
 
     private void writeln(String str) {
@@ -238,10 +294,6 @@ final class XMLSerializer {
       out.print("\r\n");
     }
 
-    private void writeln() {
-      out.print("\r\n");
-    }
-
     private void writeAttribute(String name, String value) {
       out.print(name);
       out.print("=\"");
@@ -250,18 +302,18 @@ final class XMLSerializer {
     }
 
     private void writeIdProperty(Object obj) {
-      String id = nextObjectId(obj);
-      writeAttribute(ID, id);
-      objToId.put(obj, id);
+      int id = nextId++;
+      writeAttribute(ID, Integer.toString(id));
+      objToId.putIfAbsent(obj, id);
     }
 
     private boolean hasSeenAlready(String name, Object obj) {
-      String id = objToId.get(obj);
-      if (id != null) {
+      int id = objToId.get(obj);
+      if (id != IdentityIntMap.NOT_FOUND) {
         out.print('<');
         out.print(name);
         out.print(' ');
-        writeAttribute(IDREF, id);
+        writeAttribute(IDREF, Integer.toString(id));
         writeln("/>");
         return true;
       } else {
@@ -269,129 +321,121 @@ final class XMLSerializer {
       }
     }
 
-    private void arrayStart(String name, Object obj) {
-      objectStart(name, obj);
-    }
-
-    private void arrayEnd(String name, Object obj) {
-      objectEnd(name, obj);
-    }
-
-    private void writeArray(String name, Object array) {
-      arrayStart(name, array);
+    private void writeArray(String name, Object array, int depth) {
+      objectStart(name, array, depth);
       int len = Array.getLength(array);
       if (len == 0) {
-        arrayEnd(name, array);
+        objectEnd(name);
         return;
       }
       Class clazz = array.getClass().getComponentType();
-      writeln("<elements>");
+      parts.add("<elements>\r\n");
       if (clazz.isPrimitive()) {
+        StringBuilder sb = new StringBuilder();
         if (clazz == Character.TYPE) {
-          out.print(encodeText((char[]) array));
+          sb.append(encodeText((char[]) array));
         } else {
           for (int index = 0; index < len; index++) {
-            out.print(Array.get(array, index));
+            sb.append(Array.get(array, index));
             if (index != len - 1) {
-              out.print(", ");
+              sb.append(", ");
             }
           }
         }
-        writeln();
+        sb.append("\r\n");
+        parts.add(sb.toString());
       } else {
         for (int index = 0; index < len; index++) {
-          write("li", Array.get(array, index));
+          parts.add(new Child("li", Array.get(array, index), depth));
         }
       }
-      writeln("</elements>");
-      arrayEnd(name, array);
+      parts.add("</elements>\r\n");
+      objectEnd(name);
     }
 
-    private void objectStart(String name, Object obj) {
+    private void objectStart(String name, Object obj, int depth) {
       out.print('<');
       out.print(name);
       out.print(' ');
       writeIdProperty(obj);
       writeln('>');
-      write(CLASS, obj.getClass());
+      parts.add(new Child(CLASS, obj.getClass(), depth));
     }
 
-    private void objectEnd(String name, Object obj) {
-      out.print("</");
-      out.print(name);
-      writeln('>');
+    private void objectEnd(String name) {
+      parts.add("</" + name + ">\r\n");
     }
 
-    private void writeObject(String name, Object obj) {
-      objectStart(name, obj);
+    private void writeObject(String name, Object obj, int depth) {
+      objectStart(name, obj, depth);
       if (obj instanceof Class) {
         Class clazz = (Class) obj;
-        writeStaticFields(clazz);
-        write("name", clazz.getName());
+        writeStaticFields(clazz, depth);
+        parts.add(new Child("name", clazz.getName(), depth));
         Object loader = clazz.getClassLoader();
         if (loader != null) {
-          write("loader", loader);
+          parts.add(new Child("loader", loader, depth));
         }
         Object protDomain = clazz.getProtectionDomain();
         if (protDomain != null) {
-          write("protectionDomain", protDomain);
+          parts.add(new Child("protectionDomain", protDomain, depth));
         }
         Object[] signers = clazz.getSigners();
         if (signers != null && signers.length > 0) {
-          write("signers", signers);
+          parts.add(new Child("signers", signers, depth));
         }
         Class sc = clazz.getSuperclass();
         if (sc != null) {
-          writeln("<extends>");
-          write("class", sc);
-          writeln("</extends>");
+          parts.add("<extends>\r\n");
+          parts.add(new Child("class", sc, depth));
+          parts.add("</extends>\r\n");
         }
         Class[] interfaces = clazz.getInterfaces();
         if (interfaces != null && interfaces.length > 0) {
-          writeln("<implements>");
+          parts.add("<implements>\r\n");
           for (Class cl : interfaces) {
-            write("class", cl);
+            parts.add(new Child("class", cl, depth));
           }
-          writeln("</implements>");
+          parts.add("</implements>\r\n");
         }
       } else {
         Class clazz = obj.getClass();
         while (clazz != null) {
-          writeFields(obj, clazz);
+          writeFields(obj, clazz, depth);
           clazz = clazz.getSuperclass();
         }
       }
-      objectEnd(name, obj);
+      objectEnd(name);
     }
 
-    private void writeStaticFields(Class clazz) {
+    private void writeStaticFields(Class clazz, int depth) {
       Field[] fields = getAllFields(clazz);
       if (fields.length == 0) {
         return;
       }
-      writeln("<fields>");
+      parts.add("<fields>\r\n");
       for (Field f : fields) {
         int modifiers = f.getModifiers();
         if (!Modifier.isStatic(modifiers)) {
           continue;
         }
-        writeField(f, null);
+        writeField(f, null, depth);
       }
-      writeln("</fields>");
+      parts.add("</fields>\r\n");
     }
 
-    private void writeFields(Object obj, Class clazz) {
+    private void writeFields(Object obj, Class clazz, int depth) {
       Field[] fields = getAllFields(clazz);
       for (Field f : fields) {
         int modifiers = f.getModifiers();
         if (Modifier.isStatic(modifiers)) {
           continue;
         }
-        writeField(f, obj);
+        writeField(f, obj, depth);
       }
     }
 
-    private void writeField(Field f, Object obj) {
+    private void writeField(Field f, Object obj, int depth) {
       Class type = f.getType();
       try {
         if (type.isPrimitive()) {
@@ -402,15 +446,9 @@ final class XMLSerializer {
           } else {
             value = f.get(obj).toString();
           }
-          out.print("<");
-          out.print(name);
-          out.print(">");
-          out.print(value);
-          out.print("</");
-          out.print(name);
-          writeln('>');
+          parts.add("<" + name + ">" + value + "</" + name + ">\r\n");
         } else {
-          write(f.getName(), f.get(obj));
+          parts.add(new Child(f.getName(), f.get(obj), depth));
         }
       } catch (RuntimeException re) {
         throw re;
@@ -419,4 +457,17 @@ final class XMLSerializer {
       }
     }
   }
+
+  // a pending object to serialize as the named element
+  private static final class Child {
+    final String name;
+    final Object value;
+    final int depth;
+
+    Child(String name, Object value, int depth) {
+      this.name = name;
+      this.value = value;
+      this.depth = depth;
+    }
+  }
 }
@@ -33,10 +33,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.AccessController;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import jdk.internal.perf.Perf;
 import jdk.internal.reflect.CallerSensitive;
 import jdk.internal.reflect.Reflection;
@@ -81,6 +80,12 @@ public final class BTraceRuntimeImpl_9 extends BTraceRuntimeImplBase {
   private static final int V_String = 5;
   private static final int PERF_STRING_LIMIT = 256;
 
+  private static final StackWalker CALLER_WALKER =
+      StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+  // the reflection frames are kept so the captured stack matches Thread.getStackTrace()
+  private static final StackWalker STACK_WALKER =
+      StackWalker.getInstance(StackWalker.Option.SHOW_REFLECT_FRAMES);
+
   private static Perf perf;
 
   private final Method findBootstrapOrNullMtd;
@@ -120,6 +125,20 @@ public final class BTraceRuntimeImpl_9 extends BTraceRuntimeImplBase {
           Collections.singletonMap("java.lang", myModules),
           Collections.emptySet(),
           Collections.emptyMap());
+      // the jvmstat based perf reader lives outside of the runtime module
+      ModuleLayer.boot()
+          .findModule("jdk.internal.jvmstat")
+          .ifPresent(
+              jvmstatMod ->
+                  instr.redefineModule(
+                      jvmstatMod,
+                      Collections.emptySet(),
+                      Map.of(
+                          "sun.jvmstat.monitor",
+                          Collections.singleton(getPerfReader().getClass().getModule())),
+                      Collections.emptyMap(),
+                      Collections.emptySet(),
+                      Collections.emptyMap()));
     }
     return instr;
   }
@@ -188,7 +207,7 @@ public final class BTraceRuntimeImpl_9 extends BTraceRuntimeImplBase {
           long initValue = (value != null) ? ((Number) value).longValue() : 0L;
           ByteBuffer b = perf.createLong(name, V_Variable, V_None, initValue);
           b.order(ByteOrder.nativeOrder());
-          counters.put(name, b);
+          counters.registerLong(name, b);
         }
         break;
 
@@ -205,7 +224,7 @@ public final class BTraceRuntimeImpl_9 extends BTraceRuntimeImplBase {
               buf[0] = '\0';
             }
             ByteBuffer b = perf.createByteArray(name, V_Variable, V_String, buf, buf.length);
-            counters.put(name, b);
+            counters.registerString(name, b);
           }
         }
         break;
@@ -214,30 +233,46 @@ public final class BTraceRuntimeImpl_9 extends BTraceRuntimeImplBase {
 
   @Override
   public ClassLoader getCallerClassLoader(int stackDec) {
-    AtomicInteger cont = new AtomicInteger(stackDec);
-    AtomicReference<ClassLoader> cl = new AtomicReference<>(null);
-    StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
-        .forEach(
-            f -> {
-              if (cont.getAndDecrement() == 0) {
-                cl.compareAndSet(null, f.getDeclaringClass().getClassLoader());
-              }
-            });
-    return cl.get();
+    Class<?> caller = getCallerClass(stackDec + 1);
+    return caller != null ? caller.getClassLoader() : null;
   }
 
   @Override
   public Class<?> getCallerClass(int stackDec) {
-    AtomicInteger cont = new AtomicInteger(stackDec);
-    AtomicReference<Class<?>> cl = new AtomicReference<>(null);
-    StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
-        .forEach(
-            f -> {
-              if (cont.getAndDecrement() == 0) {
-                cl.compareAndSet(null, f.getDeclaringClass());
-              }
-            });
-    return cl.get();
+    // stop walking as soon as the requested frame is found
+    return CALLER_WALKER
+        .walk(s -> s.skip(stackDec).findFirst())
+        .map(StackWalker.StackFrame::getDeclaringClass)
+        .orElse(null);
+  }
+
+  @Override
+  public int captureStack(int skip, int[] frames, int maxFrames) {
+    if (maxFrames <= 0) {
+      return 0;
+    }
+    // skip this method frame as well
+    return STACK_WALKER.walk(
+        s -> {
+          int cnt = 0;
+          Iterator<StackWalker.StackFrame> iter = s.skip(skip + 1L).limit(maxFrames).iterator();
+          while (iter.hasNext()) {
+            frames[cnt++] = intern(iter.next());
+          }
+          return cnt;
+        });
+  }
+
+  private static int intern(StackWalker.StackFrame f) {
+    // StackFrame.getDescriptor() is not available before Java 10 - the line number disambiguates
+    // the overloaded methods
+    return stackFrames.intern(
+        f,
+        f.getClassName(),
+        f.getMethodName(),
+        null,
+        f.getLineNumber(),
+        StackWalker.StackFrame::toStackTraceElement);
   }
 
   @Override
@@ -0,0 +1,170 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanInfo;
+import javax.management.openmbean.CompositeData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.Property;
+
+class BTraceMBeanTest {
+  @BTrace(name = "MBeanTestProbe")
+  static final class Probe {
+    @Property static int counter = 0;
+
+    @Property(name = "hits", description = "hit count")
+    static AtomicLong $hits = new AtomicLong();
+
+    @Property static Map<String, Integer> histogram = new ConcurrentHashMap<>();
+
+    static long notExported = 0;
+  }
+
+  private BTraceMBean bean;
+
+  @BeforeEach
+  void setup() {
+    Probe.counter = 0;
+    Probe.$hits.set(0);
+    Probe.histogram.clear();
+    bean = new BTraceMBean(Probe.class);
+  }
+
+  @Test
+  void isMBean() {
+    assertTrue(BTraceMBean.isMBean(Probe.class));
+    assertFalse(BTraceMBean.isMBean(BTraceMBeanTest.class));
+  }
+
+  @Test
+  void getAttribute() throws Exception {
+    Probe.counter = 5;
+    Probe.$hits.set(10);
+    assertEquals(5, bean.getAttribute("counter"));
+    assertEquals(10L, bean.getAttribute("hits"));
+
+    Probe.counter = 6;
+    assertEquals(6, bean.getAttribute("counter"));
+
+    assertThrows(AttributeNotFoundException.class, () -> bean.getAttribute("notExported"));
+  }
+
+  @Test
+  void getMapAttribute() throws Exception {
+    Probe.histogram.put("a", 1);
+    Probe.histogram.put("b", 2);
+    Map<Object, Object> expected = new HashMap<>();
+    expected.put("a", 1);
+    expected.put("b", 2);
+    assertEquals(expected, toMap(bean.getAttribute("histogram")));
+
+    // within the snapshot period the previous snapshot may be served; it is still a complete copy
+    Probe.histogram.put("c", 3);
+    Map<Object, Object> data = toMap(bean.getAttribute("histogram"));
+    data.remove("c");
+    assertEquals(expected, data);
+  }
+
+  @Test
+  void getAttributes() {
+    Probe.counter = 1;
+    AttributeList list = bean.getAttributes(new String[] {"counter", "hits", "unknown"});
+    assertEquals(2, list.size());
+    assertEquals(new Attribute("counter", 1), list.asList().get(0));
+    assertEquals(new Attribute("hits", 0L), list.asList().get(1));
+  }
+
+  @Test
+  void getMBeanInfo() {
+    MBeanInfo info = bean.getMBeanInfo();
+    assertEquals("MBeanTestProbe", info.getClassName());
+    assertEquals(3, info.getAttributes().length);
+    assertEquals("hit count", info.getAttributes()[2].getDescription());
+    assertEquals(info, bean.getMBeanInfo());
+  }
+
+  @Test
+  void getAttributesConcurrentPollers() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      Probe.histogram.put("key" + i, i);
+    }
+    String[] names = new String[] {"counter", "hits", "histogram"};
+    int pollers = 16;
+    int polls = 2000;
+
+    ExecutorService executor = Executors.newFixedThreadPool(pollers + 1);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      AtomicBoolean running = new AtomicBoolean(true);
+      // the probe keeps updating the exported values while being polled
+      Future<?> writer =
+          executor.submit(
+              () -> {
+                start.await();
+                while (running.get()) {
+                  Probe.counter++;
+                  Probe.$hits.incrementAndGet();
+                }
+                return null;
+              });
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < pollers; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  long lastHits = 0;
+                  for (int j = 0; j < polls; j++) {
+                    List<Attribute> list = bean.getAttributes(names).asList();
+                    assertEquals(names.length, list.size());
+                    for (int k = 0; k < names.length; k++) {
+                      assertEquals(names[k], list.get(k).getName());
+                    }
+                    long hits = (Long) list.get(1).getValue();
+                    assertTrue(hits >= lastHits, "hits must not go backwards");
+                    lastHits = hits;
+                    assertEquals(1000, ((CompositeData[]) list.get(2).getValue()).length);
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> f : results) {
+        f.get(60, TimeUnit.SECONDS);
+      }
+      running.set(false);
+      writer.get(60, TimeUnit.SECONDS);
+
+      // once the updates stop the attributes show the final values
+      assertEquals(Probe.counter, bean.getAttribute("counter"));
+      assertEquals(Probe.$hits.get(), bean.getAttribute("hits"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Map<Object, Object> toMap(Object attribute) {
+    Map<Object, Object> map = new HashMap<>();
+    for (CompositeData row : (CompositeData[]) attribute) {
+      map.put(row.get("key"), row.get("value"));
+    }
+    return map;
+  }
+}
@@ -0,0 +1,81 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DOTWriterTest {
+  private Path dotFile;
+
+  @BeforeEach
+  void setup() throws Exception {
+    dotFile = Files.createTempFile("btrace-dotwriter", ".dot");
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    Files.deleteIfExists(dotFile);
+  }
+
+  @Test
+  void writeGraph() throws Exception {
+    XMLSerializerTest.Item a = new XMLSerializerTest.Item(1);
+    a.next = new XMLSerializerTest.Item(2);
+    a.next.next = a;
+
+    DOTWriter writer = new DOTWriter(dotFile.toString());
+    writer.addNode(DOTWriter.STARTNODESTYLE, a);
+    writer.close();
+
+    List<String> lines = Files.readAllLines(dotFile, StandardCharsets.UTF_8);
+    assertEquals("digraph g {", lines.get(0));
+    assertEquals("}", lines.get(lines.size() - 1));
+    assertEquals(2, lines.stream().filter(l -> l.matches(" node\\d+ \\[.*")).count());
+    assertTrue(lines.stream().anyMatch(l -> l.startsWith(" node0 ") && l.contains("pink")));
+    assertTrue(lines.stream().anyMatch(l -> l.startsWith(" node0:f1 ->  node1:f")));
+    assertTrue(lines.stream().anyMatch(l -> l.startsWith(" node1:f1 ->  node0:f")));
+  }
+
+  @Test
+  void writeLimits() throws Exception {
+    DOTWriter writer = new DOTWriter(dotFile.toString());
+    writer.nodeLimit(5);
+    writer.addNode(null, XMLSerializerTest.chain(100));
+    writer.close();
+
+    List<String> lines = Files.readAllLines(dotFile, StandardCharsets.UTF_8);
+    assertEquals(5, lines.stream().filter(l -> l.matches(" node\\d+ \\[.*")).count());
+
+    writer = new DOTWriter(dotFile.toString());
+    writer.depthLimit(2);
+    writer.addNode(null, XMLSerializerTest.chain(100));
+    writer.close();
+
+    lines = Files.readAllLines(dotFile, StandardCharsets.UTF_8);
+    // the nodes at the depth limit are listed but not detailed
+    assertEquals(3, lines.stream().filter(l -> l.matches(" node\\d+ \\[.*")).count());
+  }
+
+  @Test
+  void writeDeepGraph() throws Throwable {
+    DOTWriter writer = new DOTWriter(dotFile.toString());
+    writer.objectLimit(Integer.MAX_VALUE);
+    // a recursive traversal would overflow the small stack
+    XMLSerializerTest.withSmallStack(
+        () -> {
+          writer.addNode(null, XMLSerializerTest.chain(XMLSerializerTest.DEEP_CHAIN));
+          writer.close();
+        });
+    assertEquals(
+        XMLSerializerTest.DEEP_CHAIN,
+        Files.readAllLines(dotFile, StandardCharsets.UTF_8).stream()
+            .filter(l -> l.matches(" node\\d+ \\[.*"))
+            .count());
+  }
+}
@@ -0,0 +1,46 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class FormattedMessageCommandTest {
+  @Test
+  void renderCapturedPrimitives() {
+    FormattedMessageCommand cmd =
+        new FormattedMessageCommand(0L, "%s %d %c %b %.1f %.2f", "LJCZFD");
+    cmd.arg("str").arg(-3L).arg((long) 'x').arg(0L).arg((double) 1.5f).arg(2.25d);
+    assertEquals("str -3 x false 1.5 2.25", cmd.getMessage());
+  }
+
+  @Test
+  void renderIntegralTypes() {
+    FormattedMessageCommand cmd = new FormattedMessageCommand(0L, "%d %d %d %x", "IJSB");
+    cmd.arg((long) Integer.MIN_VALUE).arg(Long.MAX_VALUE).arg((long) (short) -2).arg(-1L);
+    assertEquals(Integer.MIN_VALUE + " " + Long.MAX_VALUE + " -2 ff", cmd.getMessage());
+  }
+
+  @Test
+  void captureAtMostMaxArgs() {
+    FormattedMessageCommand cmd = new FormattedMessageCommand(0L, "%d%d%d%d%d%d", "JJJJJJ");
+    for (int i = 0; i < FormattedMessageCommand.MAX_ARGS; i++) {
+      cmd.arg((long) i);
+    }
+    assertThrows(IllegalStateException.class, () -> cmd.arg(6L));
+    assertEquals("012345", cmd.getMessage());
+  }
+
+  @Test
+  void renderArray() {
+    FormattedMessageCommand cmd =
+        new FormattedMessageCommand(0L, "%s=%d", new Object[] {"answer", 42});
+    assertEquals("answer=42", cmd.getMessage());
+  }
+
+  @Test
+  void invalidFormatKeepsArguments() {
+    FormattedMessageCommand cmd = new FormattedMessageCommand(0L, "%d", "L");
+    cmd.arg("str");
+    assertEquals("%d [str]", cmd.getMessage());
+  }
+}
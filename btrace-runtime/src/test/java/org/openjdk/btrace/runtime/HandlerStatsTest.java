@@ -0,0 +1,90 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class HandlerStatsTest {
+  @Test
+  void register() {
+    HandlerStats stats = new HandlerStats();
+    assertEquals(0, stats.register("onEntry"));
+    assertEquals(1, stats.register("onReturn"));
+    assertArrayEquals(new String[] {"onEntry", "onReturn"}, stats.getHandlerNames());
+    assertArrayEquals(new long[] {0, 0}, stats.getHits());
+  }
+
+  @Test
+  void record() {
+    HandlerStats stats = new HandlerStats();
+    int entry = stats.register("onEntry");
+    int ret = stats.register("onReturn");
+    stats.record(entry, 100);
+    stats.record(entry, 300);
+    stats.record(ret, 50);
+    stats.dropped(ret);
+
+    assertArrayEquals(new long[] {2, 1}, stats.getHits());
+    assertArrayEquals(new long[] {400, 50}, stats.getTotalNanos());
+    assertArrayEquals(new long[] {300, 50}, stats.getMaxNanos());
+    assertArrayEquals(new long[] {0, 1}, stats.getDroppedMessages());
+
+    List<Object[]> rows = stats.getRows();
+    assertEquals(2, rows.size());
+    assertArrayEquals(new Object[] {"onEntry", 2L, 400L, 300L, 0L}, rows.get(0));
+    assertArrayEquals(new Object[] {"onReturn", 1L, 50L, 50L, 1L}, rows.get(1));
+  }
+
+  @Test
+  void reset() {
+    HandlerStats stats = new HandlerStats();
+    int slot = stats.register("onEntry");
+    stats.record(slot, 100);
+    stats.dropped(slot);
+    stats.reset();
+    assertArrayEquals(new String[] {"onEntry"}, stats.getHandlerNames());
+    assertArrayEquals(new long[] {0}, stats.getHits());
+    assertArrayEquals(new long[] {0}, stats.getTotalNanos());
+    assertArrayEquals(new long[] {0}, stats.getMaxNanos());
+    assertArrayEquals(new long[] {0}, stats.getDroppedMessages());
+  }
+
+  @Test
+  void concurrentRecording() throws Exception {
+    int threads = 4;
+    int hits = 100_000;
+    HandlerStats stats = new HandlerStats();
+    int slot = stats.register("onEntry");
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      long nanos = i + 1;
+      Thread t =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+                for (int j = 0; j < hits; j++) {
+                  stats.record(slot, nanos);
+                }
+              });
+      t.start();
+      workers.add(t);
+    }
+    start.countDown();
+    for (Thread t : workers) {
+      t.join();
+    }
+    assertArrayEquals(new long[] {(long) threads * hits}, stats.getHits());
+    // 1 + 2 + ... + threads
+    assertArrayEquals(
+        new long[] {(long) hits * threads * (threads + 1) / 2}, stats.getTotalNanos());
+    assertArrayEquals(new long[] {threads}, stats.getMaxNanos());
+  }
+}
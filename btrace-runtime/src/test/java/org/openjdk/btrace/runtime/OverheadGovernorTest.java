@@ -0,0 +1,158 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class OverheadGovernorTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static final class TestControl implements OverheadGovernor.Control {
+    final int initialLevel;
+    int level;
+    final List<String> reports = new ArrayList<>();
+
+    TestControl(int level) {
+      this.initialLevel = level;
+      this.level = level;
+    }
+
+    @Override
+    public boolean lowerLevel() {
+      if (level <= 0) {
+        return false;
+      }
+      level--;
+      return true;
+    }
+
+    @Override
+    public boolean restoreLevel() {
+      if (level >= initialLevel) {
+        return false;
+      }
+      level++;
+      return true;
+    }
+
+    @Override
+    public int getLevel() {
+      return level;
+    }
+
+    @Override
+    public void report(String msg) {
+      reports.add(msg);
+    }
+  }
+
+  /** Simulates one check period with the handlers taking the given share of one CPU */
+  private static double period(OverheadGovernor governor, long[] now, double unthrottledShare) {
+    governor.record((long) (SECOND * unthrottledShare / governor.getMean()));
+    now[0] += SECOND;
+    return governor.check(now[0]);
+  }
+
+  private static int admitted(OverheadGovernor governor, int attempts) {
+    int admitted = 0;
+    for (int i = 0; i < attempts; i++) {
+      if (governor.admit()) {
+        admitted++;
+      }
+    }
+    return admitted;
+  }
+
+  @Test
+  void withinBudget() {
+    TestControl control = new TestControl(0);
+    OverheadGovernor governor = new OverheadGovernor(2, 1, control);
+    long[] now = {System.nanoTime()};
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0.015, period(governor, now, 0.015), 0.001);
+    }
+    assertEquals(1, governor.getMean());
+    assertEquals(1000, admitted(governor, 1000));
+    assertTrue(control.reports.isEmpty());
+  }
+
+  @Test
+  void throttleToBudget() {
+    TestControl control = new TestControl(0);
+    OverheadGovernor governor = new OverheadGovernor(2, 1, control);
+    long[] now = {System.nanoTime()};
+    // the handlers would take 50% of the CPU without throttling
+    assertEquals(0.5, period(governor, now, 0.5), 0.001);
+    assertEquals(25, governor.getMean());
+    assertEquals(1, control.reports.size());
+    assertTrue(control.reports.get(0).contains("sampling 1 in 25"), control.reports.get(0));
+    for (int i = 0; i < 10; i++) {
+      assertTrue(period(governor, now, 0.5) <= 0.02);
+    }
+    assertEquals(25, governor.getMean());
+    int admitted = admitted(governor, 100_000);
+    assertTrue(admitted > 3_000 && admitted < 5_000, "admitted: " + admitted);
+  }
+
+  @Test
+  void overheadSpreadOverCpus() {
+    TestControl control = new TestControl(0);
+    OverheadGovernor governor = new OverheadGovernor(2, 4, control);
+    long[] now = {System.nanoTime()};
+    // 6% of one CPU is 1.5% of four CPUs
+    assertEquals(0.015, period(governor, now, 0.06), 0.001);
+    assertEquals(1, governor.getMean());
+  }
+
+  @Test
+  void lowerLevelFirst() {
+    TestControl control = new TestControl(2);
+    OverheadGovernor governor = new OverheadGovernor(2, 1, control);
+    long[] now = {System.nanoTime()};
+    period(governor, now, 0.5);
+    period(governor, now, 0.5);
+    assertEquals(0, control.level);
+    assertEquals(1, governor.getMean());
+    period(governor, now, 0.5);
+    assertEquals(25, governor.getMean());
+    assertEquals(3, control.reports.size());
+    assertTrue(control.reports.get(0).contains("level to 1"), control.reports.get(0));
+  }
+
+  @Test
+  void relaxGradually() {
+    TestControl control = new TestControl(1);
+    OverheadGovernor governor = new OverheadGovernor(2, 1, control);
+    long[] now = {System.nanoTime()};
+    period(governor, now, 0.5);
+    period(governor, now, 0.5);
+    assertEquals(0, control.level);
+    assertEquals(25, governor.getMean());
+
+    // the load is gone; relax one step per RELAX_CHECKS quiet periods
+    for (int i = 1; i < OverheadGovernor.RELAX_CHECKS; i++) {
+      period(governor, now, 0);
+      assertEquals(25, governor.getMean());
+    }
+    period(governor, now, 0);
+    assertEquals(12, governor.getMean());
+    for (int i = 0; i < 3 * OverheadGovernor.RELAX_CHECKS; i++) {
+      period(governor, now, 0);
+    }
+    assertEquals(1, governor.getMean());
+    assertEquals(0, control.level);
+    for (int i = 0; i < OverheadGovernor.RELAX_CHECKS; i++) {
+      period(governor, now, 0);
+    }
+    assertEquals(1, control.level);
+  }
+
+  @Test
+  void invalidBudget() {
+    assertThrows(IllegalArgumentException.class, () -> new OverheadGovernor(0, 1, null));
+    assertThrows(IllegalArgumentException.class, () -> new OverheadGovernor(101, 1, null));
+  }
+}
@@ -0,0 +1,151 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.openjdk.btrace.core.comm.Command;
+import org.openjdk.btrace.core.comm.ExitCommand;
+import org.openjdk.btrace.core.comm.MessageCommand;
+
+class SpeculativeBuffersTest {
+  private final SpeculativeBuffers buffers = new SpeculativeBuffers();
+
+  private static final class RecordingQueue implements Consumer<Command> {
+    final List<Command> commands = new ArrayList<>();
+
+    @Override
+    public synchronized void accept(Command cmd) {
+      commands.add(cmd);
+    }
+  }
+
+  @Test
+  void commit() {
+    RecordingQueue queue = new RecordingQueue();
+    MessageCommand cmd = new MessageCommand("hello");
+    assertFalse(buffers.send(cmd));
+
+    int id = buffers.speculation();
+    buffers.speculate(id);
+    assertTrue(buffers.send(cmd));
+    assertFalse(buffers.send(new ExitCommand(0)));
+    assertTrue(queue.commands.isEmpty());
+
+    buffers.commit(id, queue);
+    assertEquals(1, queue.commands.size());
+    assertSame(cmd, queue.commands.get(0));
+    // the speculation has ended
+    assertFalse(buffers.send(cmd));
+    assertThrows(RuntimeException.class, () -> buffers.speculate(id));
+  }
+
+  @Test
+  void discard() {
+    RecordingQueue queue = new RecordingQueue();
+    int id = buffers.speculation();
+    buffers.speculate(id);
+    assertTrue(buffers.send(new MessageCommand("hello")));
+    buffers.discard(id);
+    assertFalse(buffers.send(new MessageCommand("world")));
+    assertThrows(RuntimeException.class, () -> buffers.commit(id, queue));
+    assertTrue(queue.commands.isEmpty());
+  }
+
+  @Test
+  void reuseSlots() {
+    Set<Integer> ids = new HashSet<>();
+    for (int i = 0; i < SpeculativeBuffers.MAX_SPECULATIVE_BUFFERS * 10; i++) {
+      int id = buffers.speculation();
+      assertTrue(id >= 0);
+      assertTrue(ids.add(id));
+      buffers.speculate(id);
+      buffers.send(new MessageCommand("msg"));
+      buffers.discard(id);
+    }
+  }
+
+  @Test
+  void exhaustSlots() {
+    int[] ids = new int[SpeculativeBuffers.MAX_SPECULATIVE_BUFFERS];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = buffers.speculation();
+      assertTrue(ids[i] >= 0);
+    }
+    assertEquals(-1, buffers.speculation());
+    buffers.discard(ids[5]);
+    int id = buffers.speculation();
+    assertTrue(id >= 0);
+    assertNotEquals(ids[5], id);
+  }
+
+  @Test
+  void overflow() {
+    RecordingQueue queue = new RecordingQueue();
+    int id = buffers.speculation();
+    buffers.speculate(id);
+    for (int i = 0; i < SpeculativeBuffers.MAX_SPECULATIVE_MSG_LIMIT + 1; i++) {
+      buffers.send(new MessageCommand("msg"));
+    }
+    buffers.commit(id, queue);
+    assertEquals(1, queue.commands.size());
+    assertEquals(
+        "speculative buffer overflow: " + id,
+        ((MessageCommand) queue.commands.get(0)).getMessage());
+  }
+
+  @Test
+  void clear() {
+    int id = buffers.speculation();
+    buffers.speculate(id);
+    buffers.clear();
+    assertFalse(buffers.send(new MessageCommand("msg")));
+    assertEquals(-1, buffers.speculation());
+  }
+
+  @Test
+  void concurrentSpeculations() throws Exception {
+    RecordingQueue queue = new RecordingQueue();
+    int threads = 8;
+    int requests = 20000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  int committed = 0;
+                  for (int i = 0; i < requests; i++) {
+                    int id = buffers.speculation();
+                    buffers.speculate(id);
+                    buffers.send(new MessageCommand("1"));
+                    buffers.send(new MessageCommand("2"));
+                    if (i % 100 == 0) {
+                      buffers.commit(id, queue);
+                      committed++;
+                    } else {
+                      buffers.discard(id);
+                    }
+                  }
+                  return committed;
+                }));
+      }
+      int committed = 0;
+      for (Future<Integer> f : results) {
+        committed += f.get(60, TimeUnit.SECONDS);
+      }
+      assertEquals(committed * 2, queue.commands.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
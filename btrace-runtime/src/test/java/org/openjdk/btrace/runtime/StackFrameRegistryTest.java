@@ -0,0 +1,144 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class StackFrameRegistryTest {
+  @Test
+  void internSameFrame() {
+    StackFrameRegistry registry = new StackFrameRegistry();
+    StackTraceElement e1 = new StackTraceElement("a.B", "m", "B.java", 10);
+    StackTraceElement e2 = new StackTraceElement("a.B", "m", "B.java", 10);
+    StackTraceElement e3 = new StackTraceElement("a.B", "m", "B.java", 11);
+
+    int id1 = registry.intern(e1);
+    assertEquals(id1, registry.intern(e2));
+    assertNotEquals(id1, registry.intern(e3));
+    assertSame(e1, registry.element(id1));
+    assertEquals(e3, registry.element(registry.intern(e3)));
+    assertEquals(2, registry.size());
+    assertNull(registry.element(2));
+  }
+
+  @Test
+  void resolveOnlyNewFrames() {
+    StackFrameRegistry registry = new StackFrameRegistry();
+    AtomicInteger resolved = new AtomicInteger();
+    StackFrameRegistry.Resolver<String> resolver =
+        f -> {
+          resolved.incrementAndGet();
+          return new StackTraceElement("a.B", f, null, -1);
+        };
+    int id1 = registry.intern("m", "a.B", "m", "()V", 1, resolver);
+    int id2 = registry.intern("m", "a.B", "m", "(I)V", 1, resolver);
+    assertNotEquals(id1, id2);
+    assertEquals(id1, registry.intern("m", "a.B", "m", "()V", 1, resolver));
+    assertEquals(2, resolved.get());
+  }
+
+  @Test
+  void internManyFrames() {
+    StackFrameRegistry registry = new StackFrameRegistry();
+    int cnt = 10000;
+    int[] ids = new int[cnt];
+    for (int i = 0; i < cnt; i++) {
+      ids[i] = registry.intern(new StackTraceElement("a.B" + (i % 7), "m" + i, null, i));
+    }
+    for (int i = 0; i < cnt; i++) {
+      StackTraceElement e = new StackTraceElement("a.B" + (i % 7), "m" + i, null, i);
+      assertEquals(ids[i], registry.intern(e));
+      assertEquals(e, registry.element(ids[i]));
+    }
+    assertEquals(cnt, registry.size());
+  }
+
+  @Test
+  void internConcurrently() throws Exception {
+    StackFrameRegistry registry = new StackFrameRegistry();
+    int threads = 8;
+    int cnt = 5000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<int[]>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  int[] ids = new int[cnt];
+                  for (int i = 0; i < cnt; i++) {
+                    ids[i] = registry.intern(new StackTraceElement("a.B", "m", null, i));
+                  }
+                  return ids;
+                }));
+      }
+      int[] expected = results.get(0).get(60, TimeUnit.SECONDS);
+      for (Future<int[]> f : results) {
+        assertArrayEquals(expected, f.get(60, TimeUnit.SECONDS));
+      }
+      Set<Integer> unique = new HashSet<>();
+      for (int id : expected) {
+        unique.add(id);
+      }
+      assertEquals(cnt, unique.size());
+      assertEquals(cnt, registry.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void render() {
+    StackFrameRegistry registry = new StackFrameRegistry();
+    StackTraceElement[] st = new Throwable().getStackTrace();
+    int[] frames = new int[3];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = registry.intern(st[i]);
+    }
+    String ls = System.lineSeparator();
+
+    String full = StackTraceCommand.render(registry, "\t", frames, 3, false);
+    assertEquals("\t" + st[0] + ls + "\t" + st[1] + ls + "\t" + st[2] + ls, full);
+
+    String limited = StackTraceCommand.render(registry, null, frames, 2, false);
+    assertEquals(st[0] + ls + st[1] + ls, limited);
+
+    String truncated = StackTraceCommand.render(registry, null, frames, 3, true);
+    assertEquals(st[0] + ls + st[1] + ls + st[2] + ls + "more frame(s) ..." + ls, truncated);
+
+    StackTraceCommand cmd = new StackTraceCommand(0L, registry, "\t", frames, false);
+    assertEquals(full, cmd.getMessage());
+  }
+
+  @Test
+  void boundedRegistry() {
+    StackFrameRegistry registry = new StackFrameRegistry(2);
+    StackTraceElement e1 = new StackTraceElement("a.B", "m", null, 1);
+    StackTraceElement e2 = new StackTraceElement("a.B", "m", null, 2);
+    StackTraceElement e3 = new StackTraceElement("a.B", "m", null, 3);
+
+    int id1 = registry.intern(e1);
+    int id2 = registry.intern(e2);
+    assertEquals(StackFrameRegistry.UNRECORDED, registry.intern(e3));
+    // the already registered frames are still resolved
+    assertEquals(id1, registry.intern(e1));
+    assertEquals(id2, registry.intern(e2));
+    assertEquals(2, registry.size());
+    assertNull(registry.element(StackFrameRegistry.UNRECORDED));
+
+    String ls = System.lineSeparator();
+    assertEquals(
+        e1 + ls + "<unrecorded frame>" + ls,
+        StackTraceCommand.render(
+            registry, null, new int[] {id1, StackFrameRegistry.UNRECORDED}, 2, false));
+  }
+}
@@ -0,0 +1,159 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimerSchedulerTest {
+  private static final AtomicInteger ticks = new AtomicInteger();
+  private static volatile CountDownLatch latch;
+
+  private final TimerScheduler scheduler = new TimerScheduler(1);
+
+  public static void onTimer() {
+    ticks.incrementAndGet();
+    CountDownLatch l = latch;
+    if (l != null) {
+      l.countDown();
+    }
+  }
+
+  public static void onTimerFail() {
+    throw new IllegalStateException("expected");
+  }
+
+  private static MethodHandle handler(String name) throws Exception {
+    return TimerScheduler.bind(TimerSchedulerTest.class.getMethod(name));
+  }
+
+  @AfterEach
+  void tearDown() {
+    latch = null;
+    ticks.set(0);
+  }
+
+  @Test
+  void coalesceSamePeriod() throws Exception {
+    latch = new CountDownLatch(6);
+    TimerScheduler.Registration r1 = scheduler.schedule("t1", handler("onTimer"), 10);
+    TimerScheduler.Registration r2 = scheduler.schedule("t2", handler("onTimer"), 10);
+    TimerScheduler.Registration r3 = scheduler.schedule("t3", handler("onTimer"), 20);
+    assertEquals(2, scheduler.getScheduledPeriods());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    r1.cancel();
+    assertEquals(2, scheduler.getScheduledPeriods());
+    r2.cancel();
+    assertEquals(1, scheduler.getScheduledPeriods());
+    r3.cancel();
+    // cancelling twice is a no-op
+    r3.cancel();
+    assertEquals(0, scheduler.getScheduledPeriods());
+  }
+
+  @Test
+  void cancelStopsTicks() throws Exception {
+    latch = new CountDownLatch(3);
+    TimerScheduler.Registration r = scheduler.schedule("t", handler("onTimer"), 5);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    r.cancel();
+    // let a tick which might have been in flight finish
+    Thread.sleep(50);
+    int cnt = ticks.get();
+    Thread.sleep(100);
+    assertEquals(cnt, ticks.get());
+  }
+
+  @Test
+  void failingHandler() throws Exception {
+    latch = new CountDownLatch(3);
+    TimerScheduler.Registration failing = scheduler.schedule("f", handler("onTimerFail"), 5);
+    TimerScheduler.Registration r = scheduler.schedule("t", handler("onTimer"), 5);
+    // the exception does not stop the shared tick
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    failing.cancel();
+    r.cancel();
+  }
+
+  @Test
+  void invalidPeriod() throws Exception {
+    MethodHandle h = handler("onTimer");
+    assertThrows(IllegalArgumentException.class, () -> scheduler.schedule("t", h, 0));
+    assertEquals(0, scheduler.getScheduledPeriods());
+  }
+
+  @Test
+  void adaptHandlerType() throws Exception {
+    MethodHandle h =
+        MethodHandles.lookup()
+            .findStatic(
+                Integer.class, "getInteger", MethodType.methodType(Integer.class, String.class))
+            .bindTo("btrace.test");
+    latch = new CountDownLatch(1);
+    TimerScheduler.Registration r = scheduler.schedule("typed", h, 5);
+    TimerScheduler.Registration r1 = scheduler.schedule("t", handler("onTimer"), 5);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    r.cancel();
+    r1.cancel();
+  }
+
+  /**
+   * Simulates 50 loaded probes, each with one 10ms and one 100ms timer, and checks the number of
+   * started timer threads and the observed tick lag.
+   */
+  @Test
+  void manyProbes() throws Exception {
+    int probes = 50;
+    TimerScheduler.Registration[] registrations = new TimerScheduler.Registration[probes * 2];
+    int threadsBefore = Thread.activeCount();
+    MethodHandle h = handler("onTimer");
+    for (int i = 0; i < probes; i++) {
+      registrations[2 * i] = scheduler.schedule("probe" + i + ".fast", h, 10);
+      registrations[2 * i + 1] = scheduler.schedule("probe" + i + ".slow", h, 100);
+    }
+    latch = new CountDownLatch(probes * 50);
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    int threadsAdded = Thread.activeCount() - threadsBefore;
+
+    long maxLag = 0;
+    for (TimerScheduler.Registration r : registrations) {
+      maxLag = Math.max(maxLag, r.getMaxLag());
+      r.cancel();
+    }
+    assertEquals(0, scheduler.getScheduledPeriods());
+    assertTrue(threadsAdded <= 1, "timer threads: " + threadsAdded);
+    // the trivial handlers of all the probes fit into one tick easily; allow for a loaded machine
+    assertTrue(maxLag < TimeUnit.SECONDS.toNanos(1), "max tick lag: " + maxLag + "ns");
+  }
+
+  public static void onTimerSlow() throws InterruptedException {
+    Thread.sleep(60);
+  }
+
+  @Test
+  void reportLateTicks() throws Exception {
+    BlockingQueue<String> warnings = new LinkedBlockingQueue<>();
+    // the slow handler holds the only scheduler thread, delaying the other period
+    TimerScheduler.Registration slow = scheduler.schedule("slow", handler("onTimerSlow"), 5);
+    TimerScheduler.Registration delayed =
+        scheduler.schedule("delayed", handler("onTimer"), 20, warnings::add);
+    String warning = warnings.poll(10, TimeUnit.SECONDS);
+    slow.cancel();
+    delayed.cancel();
+
+    assertNotNull(warning);
+    assertTrue(warning.startsWith("[BTRACE WARN] @OnTimer(20) delayed tick is late by "), warning);
+    assertTrue(delayed.getMaxLag() > TimeUnit.MILLISECONDS.toNanos(20));
+    // the repeated late ticks are not reported again within the report interval
+    assertTrue(warnings.isEmpty(), warnings.toString());
+  }
+}
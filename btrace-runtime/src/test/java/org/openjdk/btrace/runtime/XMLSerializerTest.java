@@ -0,0 +1,120 @@
+package org.openjdk.btrace.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class XMLSerializerTest {
+  static final int DEEP_CHAIN = 10_000;
+  private static final long SMALL_STACK = 256 * 1024;
+
+  static final class Item {
+    int value;
+    Item next;
+    Object payload;
+
+    Item(int value) {
+      this.value = value;
+    }
+  }
+
+  @Test
+  void writeObject() throws Exception {
+    Item a = new Item(1);
+    a.payload = new int[] {1, 2, 3};
+    String xml = XMLSerializer.toXML(a);
+    assertTrue(xml.startsWith("<?xml version='1.0' encoding='ISO-8859-1'?>"));
+    assertTrue(xml.contains("<value>1</value>"));
+    assertTrue(xml.contains("<next>null</next>"));
+    assertTrue(xml.contains("1, 2, 3"));
+    assertTrue(xml.trim().endsWith("</object>"));
+  }
+
+  @Test
+  void writeCycle() throws Exception {
+    Item a = new Item(1);
+    Item b = new Item(2);
+    a.next = b;
+    b.next = a;
+    String xml = XMLSerializer.toXML(a);
+    // 'a' is the first object written
+    assertTrue(xml.contains("<next idref=\"0\"/>"));
+  }
+
+  @Test
+  void writeLimits() throws Exception {
+    Item head = chain(10);
+    StringWriter sw = new StringWriter();
+    XMLSerializer.write(head, sw, 3, Integer.MAX_VALUE);
+    assertTrue(sw.toString().contains("<next truncated=\"true\"/>"));
+
+    sw = new StringWriter();
+    XMLSerializer.write(head, sw, Integer.MAX_VALUE, 1);
+    assertTrue(sw.toString().contains("truncated=\"true\""));
+    assertFalse(sw.toString().contains("id=\"1\""));
+  }
+
+  @Test
+  void writeDeepGraph() throws Throwable {
+    // a recursive traversal would overflow the small stack
+    CountingWriter w = new CountingWriter();
+    withSmallStack(() -> XMLSerializer.write(chain(DEEP_CHAIN), w));
+    assertTrue(w.count > DEEP_CHAIN);
+  }
+
+  /** Runs the task in a thread with a stack too small for a recursive traversal of a deep graph */
+  static void withSmallStack(Executable task) throws Throwable {
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread t =
+        new Thread(
+            null,
+            () -> {
+              try {
+                task.execute();
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            },
+            "small-stack",
+            SMALL_STACK);
+    t.start();
+    t.join();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  static Item chain(int length) {
+    Item head = new Item(0);
+    Item current = head;
+    for (int i = 1; i < length; i++) {
+      current.next = new Item(i);
+      current = current.next;
+    }
+    return head;
+  }
+
+  static final class CountingWriter extends Writer {
+    long count;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
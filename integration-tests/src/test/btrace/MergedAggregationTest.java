@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates
+ * this particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package btrace;
+
+import org.openjdk.btrace.core.aggregation.Aggregation;
+import org.openjdk.btrace.core.aggregation.AggregationFunction;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+import org.openjdk.btrace.core.annotations.OnTimer;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+/**
+ * Aggregates the calls to be merged across several JVMs by the client.
+ */
+@BTrace
+public class MergedAggregationTest {
+    private static Aggregation calls = newAggregation(AggregationFunction.COUNT);
+    private static Aggregation average = newAggregation(AggregationFunction.AVERAGE);
+
+    @OnMethod(clazz = "resources.Main", method = "callB")
+    public static void trace(int i) {
+        addToAggregation(calls, newAggregationKey("callB"), 1);
+        addToAggregation(average, newAggregationKey("i"), i);
+    }
+
+    @OnTimer(500)
+    public static void print() {
+        printAggregation("calls", calls);
+        printAggregation("average", average);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2019, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates
+ * this particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package btrace;
+
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnTimer;
+
+import java.util.Map;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+/**
+ * Emits numbered bursts of messages at the full output rate, followed by one record of each of the
+ * data types once all the messages have been sent. The test checks that no message is dropped; the
+ * client output throughput is measured by {@code CommandWriterBenchmark}.
+ */
+@BTrace(unsafe = true)
+public class OutputThroughputTest {
+    private static final int BURST = 1000;
+    private static final int TOTAL = 20000;
+    private static int sent;
+    private static boolean summarized;
+
+    @OnTimer(50)
+    public static void burst() {
+        for (int i = 0; i < BURST && sent < TOTAL; i++) {
+            println("message #" + sent++ + " \"quoted\"");
+        }
+        if (sent == TOTAL && !summarized) {
+            summarized = true;
+            Map<String, Integer> counts = newHashMap();
+            put(counts, "sent", sent);
+            Map<String, String> labels = newHashMap();
+            put(labels, "label", "\"quoted\"");
+            printNumber("sent", sent);
+            printNumberMap("counts", counts);
+            printStringMap("labels", labels);
+            printNumberMapSnapshot("snapshot", counts);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019, Jaroslav Bachorik <j.bachorik@btrace.io>.
+ * All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Copyright owner designates
+ * this particular file as subject to the "Classpath" exception as provided
+ * by the owner in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package btrace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.btrace.core.annotations.BTrace;
+import org.openjdk.btrace.core.annotations.OnMethod;
+import org.openjdk.btrace.core.annotations.OnTimer;
+
+import static org.openjdk.btrace.core.BTraceUtils.*;
+
+/**
+ * A deliberately expensive probe, burning 1ms of CPU per hit.
+ */
+@BTrace(unsafe = true)
+public class OverheadBudgetTest {
+    private static final AtomicInteger hits = newAtomicInteger(0);
+
+    @OnMethod(clazz = "resources.HotLoop", method = "work")
+    public static void burn() {
+        long end = System.nanoTime() + 1_000_000L;
+        while (System.nanoTime() < end) {
+            // spin
+        }
+        incrementAndGet(hits);
+    }
+
+    @OnTimer(1000)
+    public static void report() {
+        println("hits: " + getAndSet(hits, 0));
+    }
+}
@@ -0,0 +1,31 @@
+package resources;
+
+import java.util.concurrent.locks.LockSupport;
+
+/** Calls a traced method about a thousand times per second. */
+public class HotLoop extends TestApp {
+    private long counter;
+
+    public static void main(String[] args) throws Exception {
+        HotLoop i = new HotLoop();
+        i.start();
+    }
+
+    @Override
+    protected void startWork() {
+        while (!Thread.currentThread().isInterrupted()) {
+            work(counter++);
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+
+    private long work(long i) {
+        return i * 31;
+    }
+
+    @Override
+    public void print(String msg) {
+        System.out.println(msg);
+        System.out.flush();
+    }
+}
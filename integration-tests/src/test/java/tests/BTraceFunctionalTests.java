@@ -32,8 +32,16 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import jdk.jfr.EventType;
 import jdk.jfr.consumer.RecordedEvent;
 import jdk.jfr.consumer.RecordingFile;
@@ -54,6 +62,8 @@ import org.junit.jupiter.params.provider.ValueSource;
  * @author Jaroslav Bachorik
  */
 public class BTraceFunctionalTests extends RuntimeTest {
+  private static final Pattern MESSAGE_ID = Pattern.compile("message #(\\d+) ");
+
   @BeforeAll
   public static void setup() throws Exception {
     classSetup();
@@ -303,6 +313,148 @@ public class BTraceFunctionalTests extends RuntimeTest {
         });
   }
 
+  @Test
+  public void testJsonLinesOutput() throws Exception {
+    isUnsafe = true;
+    clientOptions.add("-format");
+    clientOptions.add("jsonl");
+    testDynamic(
+        "resources.Main",
+        "btrace/OutputThroughputTest.java",
+        20004,
+        new ResultValidator() {
+          @Override
+          public void validate(String stdout, String stderr, int retcode, String jfrFile) {
+            assertTrue(stderr.isEmpty(), "Non-empty stderr");
+            Set<String> types = new HashSet<>();
+            BitSet messages = new BitSet();
+            for (String line : stdout.split("\n")) {
+              if (line.isEmpty()) {
+                continue;
+              }
+              Object record = JsonParser.parse(line);
+              assertTrue(record instanceof Map, "Not a JSON object: " + line);
+              Object type = ((Map<?, ?>) record).get("type");
+              assertTrue(type instanceof String, "Missing record type: " + line);
+              types.add((String) type);
+              if (type.equals("message")) {
+                String text = (String) ((Map<?, ?>) record).get("text");
+                assertTrue(text.contains("\"quoted\""), "Unexpected message: " + line);
+                Matcher m = MESSAGE_ID.matcher(text);
+                assertTrue(m.find(), "Unexpected message: " + line);
+                int id = Integer.parseInt(m.group(1));
+                assertFalse(messages.get(id), "Duplicate message: " + line);
+                messages.set(id);
+              }
+            }
+            // no message may be dropped at the full output rate
+            assertEquals(20000, messages.cardinality(), "Received messages");
+            assertEquals(20000, messages.nextClearBit(0), "First missing message");
+            for (String type :
+                new String[] {"message", "number", "numberMap", "stringMap", "snapshot"}) {
+              assertTrue(types.contains(type), "No '" + type + "' record in: " + types);
+            }
+          }
+        });
+  }
+
+  @Test
+  public void testFanOut() throws Exception {
+    int targets = 3;
+    testDynamicFanOut(
+        "resources.Main",
+        "btrace/PerfCounterTest.java",
+        targets,
+        targets * 3,
+        new ResultValidator() {
+          @Override
+          public void validate(String stdout, String stderr, int retcode, String jfrFile) {
+            assertFalse(stdout.contains("FAILED"), "Script should not have failed");
+            assertFalse(stderr.contains("ERROR"), "Unexpected error");
+            Set<String> sources = new HashSet<>();
+            for (String line : stdout.split("\n")) {
+              if (line.endsWith("matching probe")) {
+                assertTrue(line.startsWith("["), "Untagged line: " + line);
+                sources.add(line.substring(1, line.indexOf(']')));
+              }
+            }
+            assertEquals(targets, sources.size(), "Output from all the targets expected");
+          }
+        });
+  }
+
+  @Test
+  public void testFanOutMergedAggregation() throws Exception {
+    int targets = 3;
+    clientOptions.add("-merge");
+    clientOptions.add("200");
+    testDynamicFanOut(
+        "resources.Main",
+        "btrace/MergedAggregationTest.java",
+        targets,
+        targets * 12,
+        new ResultValidator() {
+          @Override
+          public void validate(String stdout, String stderr, int retcode, String jfrFile) {
+            assertFalse(stderr.contains("ERROR"), "Unexpected error");
+            long merged = 0;
+            long perTarget = 0;
+            for (String line : stdout.split("\n")) {
+              String[] columns = line.trim().split("\\s+");
+              if (columns.length != 3) {
+                continue;
+              }
+              if (columns[1].equals("i")) {
+                // callB is always called with 1; merging must not skew the average
+                assertEquals("1", columns[2], line);
+              } else if (columns[1].equals("callB")) {
+                long count = Long.parseLong(columns[2]);
+                if (columns[0].equals("[*]")) {
+                  merged = Math.max(merged, count);
+                } else {
+                  perTarget = Math.max(perTarget, count);
+                }
+              }
+            }
+            assertTrue(perTarget > 0, "Missing per target aggregations");
+            assertTrue(merged > perTarget, "Merged count should exceed any single target count");
+          }
+        });
+  }
+
+  @Test
+  public void testOverheadBudget() throws Exception {
+    isUnsafe = true;
+    // 10% of one CPU; the probe would take about a half of one CPU when not throttled
+    int cpus = Runtime.getRuntime().availableProcessors();
+    double budget = 10.0 / cpus;
+    clientOptions.add("-overhead");
+    clientOptions.add(Double.toString(budget));
+    testDynamic(
+        "resources.HotLoop",
+        "btrace/OverheadBudgetTest.java",
+        16,
+        new ResultValidator() {
+          @Override
+          public void validate(String stdout, String stderr, int retcode, String jfrFile) {
+            assertFalse(stderr.contains("ERROR"), "Unexpected error");
+            assertTrue(stdout.contains("probe hits"), "The probe should have been throttled");
+            List<Integer> hits = new ArrayList<>();
+            for (String line : stdout.split("\n")) {
+              if (line.startsWith("hits: ")) {
+                hits.add(Integer.parseInt(line.substring(6).trim()));
+              }
+            }
+            // let the governor settle down first
+            assertTrue(hits.size() > 8, "Too few reports: " + hits);
+            List<Integer> settled = hits.subList(4, hits.size());
+            double avg = settled.stream().mapToInt(Integer::intValue).average().orElse(0);
+            // each hit burns 1ms of CPU; 10% of one CPU is 100 hits per second
+            assertTrue(avg <= 150, "Overhead over budget: " + avg + " hits/s in " + hits);
+          }
+        });
+  }
+
   @Test
   public void testPerfCounter() throws Exception {
     testDynamic(
@@ -0,0 +1,195 @@
+package tests;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal strict JSON parser used to validate the JSON Lines client output. Objects are parsed
+ * into {@linkplain Map}s, arrays into {@linkplain List}s, numbers into {@linkplain Double}s.
+ */
+final class JsonParser {
+  private final String text;
+  private int pos;
+
+  private JsonParser(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Parses a single JSON value spanning the whole text.
+   *
+   * @param text the JSON text
+   * @return the parsed value
+   * @throws IllegalArgumentException if the text is not a valid JSON value
+   */
+  static Object parse(String text) {
+    JsonParser p = new JsonParser(text);
+    Object value = p.value();
+    p.whitespace();
+    if (p.pos != text.length()) {
+      throw p.error("Trailing characters");
+    }
+    return value;
+  }
+
+  private Object value() {
+    whitespace();
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char c = text.charAt(pos);
+    switch (c) {
+      case '{':
+        return object();
+      case '[':
+        return array();
+      case '"':
+        return string();
+      case 't':
+        return literal("true", Boolean.TRUE);
+      case 'f':
+        return literal("false", Boolean.FALSE);
+      case 'n':
+        return literal("null", null);
+      default:
+        return number();
+    }
+  }
+
+  private Map<String, Object> object() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    pos++;
+    whitespace();
+    if (peek('}')) {
+      return map;
+    }
+    do {
+      whitespace();
+      if (pos >= text.length() || text.charAt(pos) != '"') {
+        throw error("Expected a key");
+      }
+      String key = string();
+      whitespace();
+      expect(':');
+      map.put(key, value());
+      whitespace();
+    } while (peek(','));
+    expect('}');
+    return map;
+  }
+
+  private List<Object> array() {
+    List<Object> list = new ArrayList<>();
+    pos++;
+    whitespace();
+    if (peek(']')) {
+      return list;
+    }
+    do {
+      list.add(value());
+      whitespace();
+    } while (peek(','));
+    expect(']');
+    return list;
+  }
+
+  private String string() {
+    StringBuilder sb = new StringBuilder();
+    pos++;
+    while (pos < text.length()) {
+      char c = text.charAt(pos++);
+      if (c == '"') {
+        return sb.toString();
+      }
+      if (c < 0x20) {
+        throw error("Unescaped control character");
+      }
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      if (pos >= text.length()) {
+        break;
+      }
+      char e = text.charAt(pos++);
+      switch (e) {
+        case '"':
+        case '\\':
+        case '/':
+          sb.append(e);
+          break;
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (pos + 4 > text.length()) {
+            throw error("Invalid unicode escape");
+          }
+          sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+          pos += 4;
+          break;
+        default:
+          throw error("Invalid escape");
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private Double number() {
+    int start = pos;
+    while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+      pos++;
+    }
+    String num = text.substring(start, pos);
+    if (!num.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) {
+      throw error("Invalid number '" + num + "'");
+    }
+    return Double.valueOf(num);
+  }
+
+  private Object literal(String literal, Object value) {
+    if (!text.startsWith(literal, pos)) {
+      throw error("Invalid literal");
+    }
+    pos += literal.length();
+    return value;
+  }
+
+  private boolean peek(char c) {
+    if (pos < text.length() && text.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (!peek(c)) {
+      throw error("Expected '" + c + "'");
+    }
+  }
+
+  private void whitespace() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private IllegalArgumentException error(String msg) {
+    return new IllegalArgumentException(msg + " at " + pos + ": " + text);
+  }
+}
@@ -69,6 +69,8 @@ public abstract class RuntimeTest {
   protected long timeout = 10000L;
   /** Track retransforming progress */
   protected boolean trackRetransforms = false;
+  /** Extra BTrace client options */
+  protected final List<String> clientOptions = new ArrayList<>();
   /** Provide extra JVM args */
   private static final List<String> extraJvmArgs = new ArrayList<>();
 
@@ -124,6 +126,7 @@ public abstract class RuntimeTest {
     debugBTrace = false;
     isUnsafe = false;
     timeout = 10000L;
+    clientOptions.clear();
   }
 
   public void testWithJfr(String testApp, String testScript, int checkLines, ResultValidator v)
@@ -293,6 +296,98 @@ public abstract class RuntimeTest {
     v.validate(stdout.toString(), stderr.toString(), ret.get(), jfrFile);
   }
 
+  /**
+   * Starts several instances of the test application and attaches one BTrace client to all of
+   * them at once.
+   */
+  public void testDynamicFanOut(
+      String testApp, String testScript, int targets, int checkLines, ResultValidator v)
+      throws Exception {
+    System.out.println("=== Dynamic attach to " + targets + " JVMs");
+    String testJavaHome = System.getenv("TEST_JAVA_HOME");
+    testJavaHome = testJavaHome != null ? testJavaHome : System.getenv("JAVA_HOME");
+    if (testJavaHome == null) {
+      throw new IllegalStateException("Missing TEST_JAVA_HOME or JAVA_HOME env variables");
+    }
+    List<Process> apps = new ArrayList<>();
+    List<String> pids = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch ready = new CountDownLatch(targets);
+    StringBuilder stdout = new StringBuilder();
+    StringBuilder stderr = new StringBuilder();
+    int ret = -1;
+    try {
+      for (int i = 0; i < targets; i++) {
+        List<String> args = new ArrayList<>(Arrays.asList(testJavaHome + "/bin/java", "-cp", cp));
+        args.add("-XX:+IgnoreUnrecognizedVMOptions");
+        args.add("-XX:+EnableDynamicAgentLoading");
+        args.addAll(extraJvmArgs);
+        args.add("-Dbtrace.test=test");
+        args.add(testApp);
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.environment().remove("JAVA_TOOL_OPTIONS");
+        pb.redirectErrorStream(true);
+        Process app = pb.start();
+        apps.add(app);
+        Thread t =
+            new Thread(
+                () -> {
+                  try (BufferedReader br =
+                      new BufferedReader(
+                          new InputStreamReader(app.getInputStream(), StandardCharsets.UTF_8))) {
+                    String l;
+                    while ((l = br.readLine()) != null) {
+                      if (l.startsWith("ready:")) {
+                        pids.add(l.split(":")[1]);
+                        ready.countDown();
+                      }
+                      if (debugTestApp) {
+                        System.out.println("[traced app] " + l);
+                      }
+                    }
+                  } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                  }
+                },
+                "STDOUT Reader #" + i);
+        t.setDaemon(true);
+        t.start();
+      }
+      if (!ready.await(timeout, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Test applications not ready");
+      }
+      String pidList = String.join(",", pids);
+      System.out.println("Target processes ready: " + pidList);
+
+      long start = System.nanoTime();
+      Process client = attach(pidList, testScript, null, checkLines, stdout, stderr);
+      System.out.println(
+          "Received "
+              + checkLines
+              + " lines from "
+              + targets
+              + " JVMs in "
+              + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+              + "ms");
+
+      client.destroy();
+      if (!client.waitFor(5, TimeUnit.SECONDS)) {
+        client.destroyForcibly();
+      } else {
+        ret = client.exitValue();
+      }
+    } finally {
+      for (Process app : apps) {
+        PrintWriter pw = new PrintWriter(app.getOutputStream());
+        pw.println("done");
+        pw.flush();
+        if (!app.waitFor(5, TimeUnit.SECONDS)) {
+          app.destroyForcibly();
+        }
+      }
+    }
+    v.validate(stdout.toString(), stderr.toString(), ret, null);
+  }
+
   public void testStartup(
       String testApp, String testScript, String[] cmdArgs, int checkLines, ResultValidator v)
       throws Exception {
@@ -845,6 +940,7 @@ public abstract class RuntimeTest {
                 Paths.get(System.getProperty("java.io.tmpdir"), "btrace-test").toString(),
                 "-pd",
                 traceFile.getParentFile().getAbsolutePath()));
+    argVals.addAll(clientOptions);
     if (debugBTrace) {
       argVals.add("-v");
     }